@@ -23,6 +23,7 @@ import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 
 import freemarker.template.TemplateException;
+import org.apache.commons.io.FileUtils;
 import org.craftercms.commons.config.ConfigurationResolver;
 import org.craftercms.commons.config.ConfigurationResolverImpl;
 import org.craftercms.commons.config.EncryptionAwareConfigurationReader;
@@ -35,14 +36,26 @@ import org.craftercms.deployer.api.TargetService;
 import org.craftercms.deployer.api.events.DeploymentEventsStore;
 import org.craftercms.deployer.impl.ProcessedCommitsStore;
 import org.craftercms.deployer.impl.ProcessedCommitsStoreImpl;
+import org.craftercms.deployer.impl.ReindexJobManager;
 import org.craftercms.deployer.impl.events.FileBasedDeploymentEventsStore;
+import org.craftercms.deployer.utils.aws.InvalidationCoalescer;
 import org.craftercms.deployer.utils.core.TargetAwarePublishingTargetResolver;
+import org.craftercms.deployer.utils.git.SharedGitObjectsStore;
 import org.craftercms.deployer.utils.handlebars.ListHelper;
 import org.craftercms.deployer.utils.handlebars.MissingValueHelper;
+import org.craftercms.deployer.utils.opensearch.BulkLimiterRegistry;
+import org.craftercms.deployer.utils.opensearch.IndexWriteLocks;
+import org.craftercms.deployer.utils.opensearch.ReplicaQueueRegistry;
+import org.craftercms.deployer.utils.opensearch.SharedClientCache;
+import org.craftercms.deployer.utils.opensearch.WriteGovernor;
+import org.craftercms.deployer.utils.tika.ExtractionCache;
+import org.opensearch.client.RestHighLevelClient;
+import org.opensearch.client.opensearch.OpenSearchClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ImportResource;
@@ -216,4 +229,65 @@ public class DeployerApplication implements WebMvcConfigurer  {
 		return new AuthConfiguratorFactory(sshConfig);
 	}
 
+	@Bean
+	public SharedGitObjectsStore sharedGitObjectsStore(
+			@Value("${deployer.main.deployments.sharedObjects.folderPath}") File storeFolder) {
+		return new SharedGitObjectsStore(storeFolder);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "deployer.main.deployments.extractionCache.enabled", havingValue = "true")
+	public ExtractionCache extractionCache(
+			@Value("${deployer.main.deployments.extractionCache.folderPath}") File cacheFolder,
+			@Value("${deployer.main.deployments.extractionCache.maxSize}") long maxSize) {
+		return new ExtractionCache(cacheFolder, maxSize * FileUtils.ONE_MB);
+	}
+
+	@Bean
+	public BulkLimiterRegistry bulkLimiterRegistry() {
+		return new BulkLimiterRegistry();
+	}
+
+	@Bean
+	public IndexWriteLocks indexWriteLocks() {
+		return new IndexWriteLocks();
+	}
+
+	@Bean(destroyMethod = "close")
+	public ReplicaQueueRegistry replicaQueueRegistry(
+			@Value("${deployer.main.deployments.replicaQueues.workerThreads}") int workerThreads) {
+		return new ReplicaQueueRegistry(workerThreads);
+	}
+
+	@Bean
+	public WriteGovernor writeGovernor(
+			@Value("${deployer.main.search.writeGovernor.slotsPerCluster}") int slotsPerCluster,
+			@Value("${deployer.main.search.writeGovernor.agingMillis}") long agingMillis) {
+		return new WriteGovernor(slotsPerCluster, agingMillis);
+	}
+
+	@Bean
+	public ReindexJobManager reindexJobManager(
+			@Value("${deployer.main.search.reindexJobs.maxConcurrent}") int maxConcurrentJobs,
+			@Value("${deployer.main.search.reindexJobs.maxFinished}") int maxFinishedJobs) {
+		return new ReindexJobManager(maxConcurrentJobs, maxFinishedJobs);
+	}
+
+	@Bean(destroyMethod = "close")
+	public InvalidationCoalescer invalidationCoalescer(
+			@Value("${deployer.main.cloudFront.mergedInvalidations.maxRetries}") int maxRetries,
+			@Value("${deployer.main.cloudFront.mergedInvalidations.retryDelay}") long retryDelay) {
+		return new InvalidationCoalescer(maxRetries, retryDelay);
+	}
+
+	@Bean(destroyMethod = "close")
+	public SharedClientCache<OpenSearchClient> openSearchClientCache() {
+		return new SharedClientCache<>("OpenSearch", client -> client._transport().close());
+	}
+
+	@Bean(destroyMethod = "close")
+	public SharedClientCache<RestHighLevelClient> legacyOpenSearchClientCache() {
+		return new SharedClientCache<>("legacy OpenSearch", RestHighLevelClient::close);
+	}
+
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.api;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+/**
+ * Represents a background job that recreates the search index of a target. Contains the status information that
+ * can be polled while the job is pending or running.
+ *
+ * @since 4.2.0
+ */
+@JsonPropertyOrder({ "id", "target_id", "alias", "slices", "status", "phase", "duration", "submitted", "start", "end",
+    "error" })
+public class ReindexJob {
+
+    protected final String id;
+    protected final String targetId;
+    protected final String alias;
+    protected final Integer slices;
+    protected final ZonedDateTime submitted;
+    protected volatile ZonedDateTime start;
+    protected volatile ZonedDateTime end;
+    protected volatile Status status;
+    protected volatile Phase phase;
+    protected volatile String error;
+    protected volatile boolean cancelRequested;
+    protected volatile Future<?> future;
+    protected final CountDownLatch done = new CountDownLatch(1);
+
+    public ReindexJob(String targetId, String alias, Integer slices) {
+        this.id = UUID.randomUUID().toString();
+        this.targetId = targetId;
+        this.alias = alias;
+        this.slices = slices;
+        this.submitted = ZonedDateTime.now();
+        this.status = Status.PENDING;
+    }
+
+    @JsonProperty("id")
+    public String getId() {
+        return id;
+    }
+
+    @JsonProperty("target_id")
+    public String getTargetId() {
+        return targetId;
+    }
+
+    @JsonProperty("alias")
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * Returns the number of slices used to parallelize the reindex, or null to use the target's configuration
+     */
+    @JsonProperty("slices")
+    public Integer getSlices() {
+        return slices;
+    }
+
+    @JsonProperty("submitted")
+    public ZonedDateTime getSubmitted() {
+        return submitted;
+    }
+
+    @JsonProperty("start")
+    public ZonedDateTime getStart() {
+        return start;
+    }
+
+    @JsonProperty("end")
+    public ZonedDateTime getEnd() {
+        return end;
+    }
+
+    @JsonProperty("duration")
+    public Long getDuration() {
+        if (start != null) {
+            return start.until(end != null ? end : ZonedDateTime.now(), ChronoUnit.MILLIS);
+        } else {
+            return null;
+        }
+    }
+
+    @JsonProperty("status")
+    public Status getStatus() {
+        return status;
+    }
+
+    @JsonProperty("phase")
+    public Phase getPhase() {
+        return phase;
+    }
+
+    @JsonProperty("error")
+    public String getError() {
+        return error;
+    }
+
+    @JsonIgnore
+    public boolean isDone() {
+        return status != Status.PENDING && status != Status.RUNNING;
+    }
+
+    @JsonIgnore
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    @JsonIgnore
+    public Future<?> getFuture() {
+        return future;
+    }
+
+    public void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    public void start() {
+        start = ZonedDateTime.now();
+        status = Status.RUNNING;
+    }
+
+    public void setPhase(Phase phase) {
+        this.phase = phase;
+    }
+
+    public void requestCancel() {
+        cancelRequested = true;
+    }
+
+    public synchronized void end(Status status, String error) {
+        if (isDone()) {
+            return;
+        }
+
+        this.end = ZonedDateTime.now();
+        this.status = status;
+        this.error = error;
+
+        done.countDown();
+    }
+
+    /**
+     * Waits until the job ends, whether it completed, failed or was cancelled
+     */
+    public void await() throws InterruptedException {
+        done.await();
+    }
+
+    public enum Status {
+        PENDING, RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    public enum Phase {
+        WAITING_FOR_CLUSTER, REINDEXING, DEPLOYING
+    }
+
+}
@@ -75,6 +75,12 @@ public interface Target {
     @JsonProperty("status")
     Status getStatus();
 
+    /**
+     * Returns the path of the local repository of the target.
+     */
+    @JsonIgnore
+    String getLocalRepoPath();
+
     /**
      * Returns the YAML configuration file of the target.
      */
@@ -130,7 +136,11 @@ public interface Target {
 
     /**
      * Performs a cleanup of the local repository.
+     *
+     * @deprecated the repositories are maintained by the scheduled maintenance of targets
+     * ({@code deployer.main.targets.maintenance}), this method forces a full maintenance of the local repository
      */
+    @Deprecated
     void cleanRepo();
 
     /**
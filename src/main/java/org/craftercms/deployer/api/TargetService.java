@@ -17,6 +17,7 @@ package org.craftercms.deployer.api;
 
 import org.craftercms.deployer.api.exceptions.TargetAlreadyExistsException;
 import org.craftercms.deployer.api.exceptions.TargetNotFoundException;
+import org.craftercms.deployer.api.exceptions.TargetNotReadyException;
 import org.craftercms.deployer.api.exceptions.TargetServiceException;
 
 import java.util.List;
@@ -103,13 +104,22 @@ public interface TargetService {
     Target getTarget(String env, String siteName) throws TargetNotFoundException, TargetServiceException;
 
     /**
-     * Recreates the underlying OpenSearch index for a given target
+     * Recreates the underlying OpenSearch index for a given target in a background job. If shadow reindexing is
+     * enabled for the target, the index is rebuilt in the background by a full search index deployment instead, and
+     * searches keep using the current index until the new one is ready
      * @param env       the target's environment (e.g. dev)
      * @param siteName  the target's site name (e.g. mysite)
+     * @param slices    the number of slices used to parallelize the reindex, or null to use the target's
+     *                  configuration
+     *
+     * @return the job that recreates the index (in shadow mode, the job that runs the search index deployment), or
+     *         null if background jobs are disabled
      *
      * @throws TargetNotFoundException if the target for the specified env and site name doesn't exist
+     * @throws TargetNotReadyException if the target is not ready yet to start the reindex deployment
      */
-    void recreateIndex(String env, String siteName) throws TargetNotFoundException;
+    ReindexJob recreateIndex(String env, String siteName, Integer slices)
+            throws TargetNotFoundException, TargetNotReadyException;
 
     /**
      * Duplicates a target.
@@ -24,9 +24,11 @@ import org.craftercms.commons.upgrade.UpgradePipelineFactory;
 import org.craftercms.commons.upgrade.VersionProvider;
 import org.craftercms.commons.upgrade.impl.configuration.YamlConfigurationProvider;
 import org.craftercms.deployer.api.Target;
+import org.craftercms.deployer.impl.ReindexJobManager;
 import org.craftercms.deployer.impl.upgrade.TargetVersionProvider;
 import org.craftercms.deployer.impl.upgrade.operations.*;
 import org.craftercms.deployer.impl.upgrade.pipeline.TargetUpgradePipelineFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
@@ -77,9 +79,11 @@ public class UpgradeManagerConfig {
     @Bean
     @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
     public UpgradeOperation<Target> elasticsearchIndexUpgrader(
-            @Value("${deployer.main.upgrade.operations.elasticsearchIndexUpgrade.enabled}") boolean enabled) {
+            @Value("${deployer.main.upgrade.operations.elasticsearchIndexUpgrade.enabled}") boolean enabled,
+            ObjectProvider<ReindexJobManager> reindexJobManager) {
         ElasticsearchIndexUpgradeOperation operation = new ElasticsearchIndexUpgradeOperation();
         operation.setEnabled(enabled);
+        operation.setReindexJobManager(reindexJobManager.getIfAvailable());
         return operation;
     }
 
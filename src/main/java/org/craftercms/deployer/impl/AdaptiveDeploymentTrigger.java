@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.impl;
+
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.TriggerContext;
+
+/**
+ * {@link Trigger} for scheduled target deployments that avoids all targets polling at the same time and polls less
+ * often the targets that haven't changed in a while:
+ *
+ * <ul>
+ *     <li>Executions are aligned to a grid of the current interval, shifted by a fixed fraction of the interval that
+ *     is derived from the target ID, so targets are spread deterministically across the interval. A small random
+ *     jitter is added on top of that.</li>
+ *     <li>When no changes have been deployed for longer than the idle time, the interval is multiplied after every
+ *     deployment without changes, up to the max interval.</li>
+ *     <li>As soon as a deployment with changes finishes, the interval goes back to the min interval.</li>
+ * </ul>
+ *
+ * @since 4.2.0
+ */
+public class AdaptiveDeploymentTrigger implements Trigger {
+
+    protected final Duration minInterval;
+    protected final Duration maxInterval;
+    protected final Duration idleTimeBeforeBackoff;
+    protected final double backoffMultiplier;
+    protected final Duration maxJitter;
+    protected final double offsetFraction;
+    protected final Clock clock;
+
+    protected volatile Duration currentInterval;
+    protected volatile Instant lastChangeTime;
+
+    public AdaptiveDeploymentTrigger(String targetId, Duration minInterval, Duration maxInterval,
+                                     Duration idleTimeBeforeBackoff, double backoffMultiplier, Duration maxJitter) {
+        this(targetId, minInterval, maxInterval, idleTimeBeforeBackoff, backoffMultiplier, maxJitter,
+             Clock.systemUTC());
+    }
+
+    public AdaptiveDeploymentTrigger(String targetId, Duration minInterval, Duration maxInterval,
+                                     Duration idleTimeBeforeBackoff, double backoffMultiplier, Duration maxJitter,
+                                     Clock clock) {
+        if (minInterval.isNegative() || minInterval.isZero()) {
+            throw new IllegalArgumentException("The min interval should be greater than zero");
+        }
+
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval.compareTo(minInterval) < 0 ? minInterval : maxInterval;
+        this.idleTimeBeforeBackoff = idleTimeBeforeBackoff;
+        this.backoffMultiplier = Math.max(backoffMultiplier, 1);
+        this.maxJitter = maxJitter;
+        this.offsetFraction = getOffsetFraction(targetId);
+        this.clock = clock;
+        this.currentInterval = minInterval;
+        this.lastChangeTime = clock.instant();
+    }
+
+    /**
+     * Returns the interval currently used between scheduled deployments.
+     */
+    public Duration getCurrentInterval() {
+        return currentInterval;
+    }
+
+    /**
+     * Returns the fixed offset of the target inside the specified interval.
+     */
+    public Duration getOffset(Duration interval) {
+        return Duration.ofMillis((long) (interval.toMillis() * offsetFraction));
+    }
+
+    @Override
+    public Instant nextExecution(TriggerContext triggerContext) {
+        return getNextExecution(clock.instant());
+    }
+
+    /**
+     * Returns the next slot of the target in the grid of the current interval after the specified time, plus a
+     * random jitter.
+     */
+    public Instant getNextExecution(Instant after) {
+        long interval = currentInterval.toMillis();
+        long offset = getOffset(currentInterval).toMillis();
+        long now = after.toEpochMilli();
+        long next = now - Math.floorMod(now - offset, interval) + interval;
+
+        if (!maxJitter.isZero() && !maxJitter.isNegative()) {
+            next += ThreadLocalRandom.current().nextLong(maxJitter.toMillis() + 1);
+        }
+
+        return Instant.ofEpochMilli(next);
+    }
+
+    /**
+     * Updates the interval after a deployment finishes.
+     *
+     * @param changesDeployed if the deployment found any changes
+     * @return true if the interval went back to the min interval because of the changes, which means the current
+     *         schedule should be replaced to poll sooner
+     */
+    public boolean onDeploymentFinished(boolean changesDeployed) {
+        Instant now = clock.instant();
+
+        synchronized (this) {
+            if (changesDeployed) {
+                boolean backedOff = currentInterval.compareTo(minInterval) > 0;
+
+                lastChangeTime = now;
+                currentInterval = minInterval;
+
+                return backedOff;
+            } else if (Duration.between(lastChangeTime, now).compareTo(idleTimeBeforeBackoff) >= 0) {
+                Duration nextInterval = Duration.ofMillis((long) (currentInterval.toMillis() * backoffMultiplier));
+
+                currentInterval = nextInterval.compareTo(maxInterval) > 0 ? maxInterval : nextInterval;
+            }
+
+            return false;
+        }
+    }
+
+    protected double getOffsetFraction(String targetId) {
+        long hash = ByteBuffer.wrap(DigestUtils.sha1(targetId)).getLong();
+
+        return (hash >>> 11) / (double) (1L << 53);
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveDeploymentTrigger{" +
+               "minInterval=" + minInterval +
+               ", maxInterval=" + maxInterval +
+               ", currentInterval=" + currentInterval +
+               ", offsetFraction=" + offsetFraction +
+               '}';
+    }
+
+}
@@ -31,8 +31,23 @@ public abstract class DeploymentConstants {
     public static final String TARGET_CONFIG_PATH_KEY = "target.configFile";
     public static final String TARGET_SCHEDULED_DEPLOYMENT_ENABLED_CONFIG_KEY = "target.deployment.scheduling.enabled";
     public static final String TARGET_SCHEDULED_DEPLOYMENT_CRON_CONFIG_KEY = "target.deployment.scheduling.cron";
+    public static final String TARGET_SCHEDULED_DEPLOYMENT_MODE_CONFIG_KEY = "target.deployment.scheduling.mode";
+    public static final String TARGET_SCHEDULED_DEPLOYMENT_MIN_INTERVAL_CONFIG_KEY =
+        "target.deployment.scheduling.adaptive.minInterval";
+    public static final String TARGET_SCHEDULED_DEPLOYMENT_MAX_INTERVAL_CONFIG_KEY =
+        "target.deployment.scheduling.adaptive.maxInterval";
+    public static final String TARGET_SCHEDULED_DEPLOYMENT_IDLE_TIME_CONFIG_KEY =
+        "target.deployment.scheduling.adaptive.idleTimeBeforeBackoff";
+    public static final String TARGET_SCHEDULED_DEPLOYMENT_BACKOFF_MULTIPLIER_CONFIG_KEY =
+        "target.deployment.scheduling.adaptive.backoffMultiplier";
+    public static final String TARGET_SCHEDULED_DEPLOYMENT_MAX_JITTER_CONFIG_KEY =
+        "target.deployment.scheduling.adaptive.maxJitter";
     public static final String TARGET_DEPLOYMENT_PIPELINE_CONFIG_KEY = "target.deployment.pipeline";
+    public static final String TARGET_CONCURRENT_SEARCH_INDEX_ENABLED_CONFIG_KEY =
+        "target.deployment.searchIndex.concurrent";
     public static final String TARGET_CRAFTER_SEARCH_CONFIG_KEY = "target.crafterSearchEnabled";
+    public static final String TARGET_SHADOW_REINDEX_ENABLED_CONFIG_KEY =
+        "target.search.openSearch.shadowReindex.enabled";
     public static final String CREATE_TARGET_LIFECYCLE_HOOKS_CONFIG_KEY = "target.lifecycleHooks.create";
     public static final String INIT_TARGET_LIFECYCLE_HOOKS_CONFIG_KEY = "target.lifecycleHooks.init";
     public static final String DELETE_TARGET_LIFECYCLE_HOOKS_CONFIG_KEY = "target.lifecycleHooks.delete";
@@ -56,6 +71,11 @@ public abstract class DeploymentConstants {
     public static final String LATEST_COMMIT_ID_PARAM_NAME = "latest_commit_id";
     public static final String DEPLOYMENT_MODE_PARAM_NAME = "deployment_mode";
     public static final String FROM_COMMIT_ID_PARAM_NAME = "from_commit_id";
+    public static final String SHADOW_INDEX_ID_PARAM_NAME = "shadow_index_id";
+    public static final String UPDATED_PATHS_PARAM_NAME = "updated_paths";
+    public static final String DELETED_PATHS_PARAM_NAME = "deleted_paths";
+    public static final String REINDEX_PATHS_PARAM_NAME = "reindex_paths";
+    public static final String SEARCH_INDEX_LANE_PARAM_NAME = "search_index_lane";
 
     // Logging MDC Keys
 
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.craftercms.deployer.api.Deployment;
+import org.craftercms.deployer.api.ReindexJob;
+import org.craftercms.deployer.api.Target;
+import org.craftercms.deployer.utils.opensearch.IndexPool;
+import org.craftercms.deployer.utils.opensearch.ReindexTaskCanceller;
+import org.craftercms.deployer.utils.opensearch.legacy.OpenSearchAdminServiceFactory;
+import org.craftercms.search.opensearch.OpenSearchAdminService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Runs the recreation of the search indexes of the targets as background jobs, so the caller (a REST request or a
+ * target upgrade) doesn't wait for it. At most one job per index runs at the same time, and the number of jobs that
+ * run concurrently across all targets is capped, so a mass upgrade doesn't overload the cluster. The status of each
+ * job can be polled by its ID, and pending or running jobs can be cancelled. Cancelling a running job also cancels
+ * the reindex task in the cluster, which would otherwise keep running after the job's thread is interrupted.
+ *
+ * <p>A job that requests a specific number of slices uses its own instance of the admin service, so the service
+ * shared by the target (and by other jobs) is never changed.</p>
+ *
+ * <p>When the target rebuilds its index through a shadow index, the job runs a full search index deployment
+ * instead, and completes or fails with it. Such a job can't be cancelled once the deployment has started.</p>
+ *
+ * @since 4.2.0
+ */
+public class ReindexJobManager implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReindexJobManager.class);
+
+    private static final long DEPLOYMENT_POLL_INTERVAL_MILLIS = 1000;
+
+    protected final ExecutorService executor;
+    protected final int maxFinishedJobs;
+    protected final Map<String, ReindexJob> jobs = new ConcurrentHashMap<>();
+    protected final Map<String, Target> jobTargets = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxConcurrentJobs the max number of jobs that run at the same time
+     * @param maxFinishedJobs   the max number of finished jobs whose status is kept
+     */
+    public ReindexJobManager(int maxConcurrentJobs, int maxFinishedJobs) {
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrentJobs));
+        this.maxFinishedJobs = maxFinishedJobs;
+    }
+
+    /**
+     * Submits a job that recreates the index behind the alias of the target. If there's already a pending or
+     * running job for the same index, that job is returned instead.
+     *
+     * @param target the target
+     * @param alias  the alias of the index
+     * @param slices the number of slices used to parallelize the reindex, or null to use the target's configuration
+     * @return the job
+     */
+    public synchronized ReindexJob submit(Target target, String alias, Integer slices) {
+        ReindexJob unfinishedJob = getUnfinishedJob(target, alias);
+        if (unfinishedJob != null) {
+            return unfinishedJob;
+        }
+
+        removeFinishedJobs();
+
+        ReindexJob job = new ReindexJob(target.getId(), alias, slices);
+        jobs.put(job.getId(), job);
+        jobTargets.put(job.getId(), target);
+        job.setFuture(executor.submit(() -> run(job, target)));
+
+        logger.info("Submitted job {} to recreate index {} of target '{}'", job.getId(), alias, target.getId());
+
+        return job;
+    }
+
+    /**
+     * Submits a job that rebuilds the index behind the alias of the target with a full search index deployment. If
+     * there's already a pending or running job for the same index, that job is returned instead.
+     *
+     * @param target the target
+     * @param alias  the alias of the index
+     * @param params the params of the deployment
+     * @return the job
+     */
+    public synchronized ReindexJob submitDeployment(Target target, String alias, Map<String, Object> params) {
+        ReindexJob unfinishedJob = getUnfinishedJob(target, alias);
+        if (unfinishedJob != null) {
+            return unfinishedJob;
+        }
+
+        removeFinishedJobs();
+
+        ReindexJob job = new ReindexJob(target.getId(), alias, null);
+        jobs.put(job.getId(), job);
+        jobTargets.put(job.getId(), target);
+        job.setFuture(executor.submit(() -> runDeployment(job, target, params)));
+
+        logger.info("Submitted job {} to rebuild index {} of target '{}' with a search index deployment", job.getId(),
+                    alias, target.getId());
+
+        return job;
+    }
+
+    /**
+     * Returns the job with the given ID, or null if there's none
+     */
+    public ReindexJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Returns all the jobs, the most recent first
+     */
+    public List<ReindexJob> getJobs() {
+        List<ReindexJob> list = new ArrayList<>(jobs.values());
+        list.sort(Comparator.comparing(ReindexJob::getSubmitted).reversed());
+
+        return list;
+    }
+
+    /**
+     * Cancels the job with the given ID. A pending job never starts, while a running job is interrupted and its
+     * reindex task in the cluster is cancelled.
+     *
+     * @return the job, or null if there's none with the ID
+     */
+    public synchronized ReindexJob cancel(String id) {
+        ReindexJob job = jobs.get(id);
+        if (job != null && !job.isDone()) {
+            logger.info("Cancelling job {} of target '{}'", id, job.getTargetId());
+
+            if (job.getPhase() == ReindexJob.Phase.DEPLOYING) {
+                logger.warn("Job {} of target '{}' is running a search index deployment, it can't be cancelled", id,
+                            job.getTargetId());
+                return job;
+            }
+
+            job.requestCancel();
+            if (job.getPhase() == ReindexJob.Phase.REINDEXING) {
+                cancelReindexTask(job);
+            }
+            if (job.getFuture().cancel(true) && job.getStatus() == ReindexJob.Status.PENDING) {
+                job.end(ReindexJob.Status.CANCELLED, null);
+            }
+        }
+
+        return job;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+
+        // Jobs that never started would otherwise never end
+        jobs.values().stream()
+            .filter(job -> job.getStatus() == ReindexJob.Status.PENDING)
+            .forEach(job -> job.end(ReindexJob.Status.CANCELLED, null));
+    }
+
+    protected void run(ReindexJob job, Target target) {
+        if (job.isCancelRequested()) {
+            return;
+        }
+
+        job.start();
+
+        IndexPool indexPool = target.getApplicationContext().getBeanProvider(IndexPool.class).getIfAvailable();
+        try {
+            if (indexPool != null && indexPool.isPooled(job.getAlias())) {
+                // Recreating the alias would recreate the whole pool
+                job.end(ReindexJob.Status.FAILED, "Index " + job.getAlias() + " is in the index pool, it can only " +
+                                                  "be rebuilt by a full search index deployment");
+                return;
+            }
+
+            OpenSearchAdminService adminService = getAdminService(job, target);
+
+            job.setPhase(ReindexJob.Phase.WAITING_FOR_CLUSTER);
+            adminService.waitUntilReady();
+
+            logger.info("Job {} started recreating index {} of target '{}'", job.getId(), job.getAlias(),
+                        target.getId());
+
+            if (job.isCancelRequested()) {
+                job.end(ReindexJob.Status.CANCELLED, null);
+                return;
+            }
+
+            job.setPhase(ReindexJob.Phase.REINDEXING);
+            adminService.recreateIndex(job.getAlias());
+
+            if (job.isCancelRequested()) {
+                // The reindex task was cancelled but the service didn't fail, so the new index can be incomplete
+                logger.error("Job {} was cancelled while reindexing, index {} of target '{}' might be incomplete",
+                             job.getId(), job.getAlias(), target.getId());
+
+                job.end(ReindexJob.Status.FAILED, "Job was cancelled while reindexing, index " + job.getAlias() +
+                                                  " might be incomplete and should be recreated again");
+                return;
+            }
+
+            logger.info("Job {} finished recreating index {} of target '{}'", job.getId(), job.getAlias(),
+                        target.getId());
+
+            job.end(ReindexJob.Status.COMPLETED, null);
+        } catch (Exception e) {
+            if (job.isCancelRequested() || Thread.currentThread().isInterrupted()) {
+                logger.info("Job {} of target '{}' was cancelled", job.getId(), target.getId());
+
+                job.end(ReindexJob.Status.CANCELLED, null);
+            } else {
+                logger.error("Job {} failed to recreate index {} of target '{}'", job.getId(), job.getAlias(),
+                             target.getId(), e);
+
+                job.end(ReindexJob.Status.FAILED, ExceptionUtils.getRootCauseMessage(e));
+            }
+        }
+    }
+
+    protected void runDeployment(ReindexJob job, Target target, Map<String, Object> params) {
+        if (job.isCancelRequested()) {
+            return;
+        }
+
+        job.start();
+        job.setPhase(ReindexJob.Phase.DEPLOYING);
+
+        try {
+            Deployment deployment = target.deploy(true, params);
+
+            // The deployment might have been picked up by another task of the target, so wait until it ends
+            while (deployment.getEnd() == null && target.getStatus() == Target.Status.INIT_COMPLETED) {
+                TimeUnit.MILLISECONDS.sleep(DEPLOYMENT_POLL_INTERVAL_MILLIS);
+            }
+
+            if (deployment.getStatus() == Deployment.Status.SUCCESS) {
+                logger.info("Job {} finished rebuilding index {} of target '{}'", job.getId(), job.getAlias(),
+                            target.getId());
+
+                job.end(ReindexJob.Status.COMPLETED, null);
+            } else {
+                logger.error("Job {} failed to rebuild index {} of target '{}', the deployment ended with status {}",
+                             job.getId(), job.getAlias(), target.getId(), deployment.getStatus());
+
+                job.end(ReindexJob.Status.FAILED, "Search index deployment ended with status " +
+                                                  deployment.getStatus());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            job.end(ReindexJob.Status.CANCELLED, null);
+        } catch (Exception e) {
+            logger.error("Job {} failed to rebuild index {} of target '{}'", job.getId(), job.getAlias(),
+                         target.getId(), e);
+
+            job.end(ReindexJob.Status.FAILED, ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    /**
+     * Returns the pending or running job for the index of the target, or null if there's none
+     */
+    protected ReindexJob getUnfinishedJob(Target target, String alias) {
+        for (ReindexJob job : jobs.values()) {
+            if (!job.isDone() && job.getTargetId().equals(target.getId()) && job.getAlias().equals(alias)) {
+                logger.info("Index {} of target '{}' is already being recreated by job {}", alias, target.getId(),
+                            job.getId());
+                return job;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the admin service used by the job: the target's own service, or a new one that shares its clients
+     * when the job requests a specific number of slices
+     */
+    protected OpenSearchAdminService getAdminService(ReindexJob job, Target target) throws Exception {
+        if (job.getSlices() != null) {
+            OpenSearchAdminServiceFactory factory = target.getApplicationContext()
+                                                          .getBeanProvider(OpenSearchAdminServiceFactory.class)
+                                                          .getIfAvailable();
+            if (factory != null) {
+                return factory.createReindexInstance(job.getSlices());
+            }
+
+            logger.warn("The number of reindex slices can't be changed for target '{}', using the configured one",
+                        target.getId());
+        }
+
+        return target.getApplicationContext().getBean(OpenSearchAdminService.class);
+    }
+
+    protected void cancelReindexTask(ReindexJob job) {
+        Target target = jobTargets.get(job.getId());
+        ReindexTaskCanceller canceller = target != null ?
+            target.getApplicationContext().getBeanProvider(ReindexTaskCanceller.class).getIfAvailable() : null;
+        if (canceller == null) {
+            logger.warn("The reindex task of job {} can't be cancelled in the cluster", job.getId());
+            return;
+        }
+
+        try {
+            int cancelled = canceller.cancel(job.getAlias());
+
+            logger.info("Cancelled {} reindex task(s) of job {}", cancelled, job.getId());
+        } catch (Exception e) {
+            logger.error("Error cancelling the reindex task of job {}", job.getId(), e);
+        }
+    }
+
+    protected void removeFinishedJobs() {
+        List<ReindexJob> finished = new ArrayList<>();
+        jobs.values().stream()
+            .filter(ReindexJob::isDone)
+            .sorted(Comparator.comparing(ReindexJob::getSubmitted).reversed())
+            .skip(Math.max(0, maxFinishedJobs - 1))
+            .forEach(finished::add);
+
+        finished.forEach(job -> {
+            jobs.remove(job.getId());
+            jobTargets.remove(job.getId());
+        });
+    }
+
+}
@@ -27,6 +27,9 @@ import org.craftercms.deployer.api.Target;
 import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.api.exceptions.TargetNotReadyException;
 import org.craftercms.deployer.api.lifecycle.TargetLifecycleHook;
+import org.craftercms.deployer.utils.git.GitRepoMaintainer;
+import org.craftercms.deployer.utils.opensearch.WriteGovernor;
+import org.eclipse.jgit.lib.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -37,13 +40,16 @@ import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.support.CronTrigger;
 
 import java.io.File;
+import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.craftercms.commons.config.ConfigUtils.getBooleanProperty;
+import static org.craftercms.commons.config.ConfigUtils.getIntegerProperty;
 import static org.craftercms.commons.config.ConfigUtils.getStringProperty;
 import static org.craftercms.deployer.impl.DeploymentConstants.*;
 
@@ -57,8 +63,10 @@ public class TargetImpl implements Target {
     private static final Logger logger = LoggerFactory.getLogger(TargetImpl.class);
 
     private static final ThreadLocal<Target> threadLocal = new InheritableThreadLocal<>();
+    private static final ThreadLocal<Deployment> deploymentThreadLocal = new InheritableThreadLocal<>();
 
     public static final String TARGET_ID_FORMAT = "%s-%s";
+    public static final String ADAPTIVE_SCHEDULING_MODE = "adaptive";
 
     protected final ZonedDateTime loadDate;
     protected final String env;
@@ -74,11 +82,24 @@ public class TargetImpl implements Target {
 
     protected volatile Status status;
     protected DeploymentPipeline deploymentPipeline;
+    protected ScheduledDeploymentTask scheduledDeploymentTask;
     protected ScheduledFuture<?> scheduledDeploymentFuture;
+    protected AdaptiveDeploymentTrigger adaptiveTrigger;
     protected final Queue<Deployment> pendingDeployments;
     protected volatile Deployment currentDeployment;
     protected final Lock deploymentLock;
 
+    // Search index lane (only used when search index deployments run concurrently with publishes)
+    protected boolean concurrentSearchIndexEnabled;
+    protected final Queue<Deployment> pendingSearchIndexDeployments;
+    protected volatile Deployment currentSearchIndexDeployment;
+    protected final Lock searchIndexDeploymentLock;
+    protected final AtomicLong completedPublishes;
+    protected volatile Object lastPublishedCommitId;
+
+    @Autowired(required = false)
+    protected WriteGovernor writeGovernor;
+
     public static void setCurrent(Target target) {
         threadLocal.set(target);
     }
@@ -87,8 +108,21 @@ public class TargetImpl implements Target {
         return threadLocal.get();
     }
 
+    /**
+     * Returns the deployment being executed by the current thread. Unlike {@link Target#getCurrentDeployment()},
+     * this also works when several deployments of the same target are running at the same time.
+     */
+    public static Deployment getCurrentThreadDeployment() {
+        return deploymentThreadLocal.get();
+    }
+
+    public static void setCurrentThreadDeployment(Deployment deployment) {
+        deploymentThreadLocal.set(deployment);
+    }
+
     public static void clear() {
         threadLocal.set(null);
+        deploymentThreadLocal.set(null);
     }
 
     public static String getId(String env, String siteName) {
@@ -120,6 +154,9 @@ public class TargetImpl implements Target {
         this.status = Status.CREATED;
         this.pendingDeployments = new ConcurrentLinkedQueue<>();
         this.deploymentLock = new ReentrantLock();
+        this.pendingSearchIndexDeployments = new ConcurrentLinkedQueue<>();
+        this.searchIndexDeploymentLock = new ReentrantLock();
+        this.completedPublishes = new AtomicLong();
     }
 
     @Override
@@ -132,6 +169,11 @@ public class TargetImpl implements Target {
         return siteName;
     }
 
+    @Override
+    public String getLocalRepoPath() {
+        return localRepoPath;
+    }
+
     @Override
     public String getId() {
         return getId(env, siteName);
@@ -176,6 +218,9 @@ public class TargetImpl implements Target {
 
             deploymentPipeline = deploymentPipelineFactory.getPipeline(configuration, applicationContext,
                                                                        TARGET_DEPLOYMENT_PIPELINE_CONFIG_KEY);
+            concurrentSearchIndexEnabled = getBooleanProperty(configuration,
+                                                              TARGET_CONCURRENT_SEARCH_INDEX_ENABLED_CONFIG_KEY,
+                                                              false);
 
             logger.info("Checking if deployments need to be scheduled for target '{}'", getId());
 
@@ -213,9 +258,20 @@ public class TargetImpl implements Target {
     public Deployment deploy(boolean waitTillDone, Map<String, Object> params) throws TargetNotReadyException {
         if (status == Status.INIT_COMPLETED) {
             Deployment deployment = new Deployment(this, params);
-            pendingDeployments.add(deployment);
+            Future<?> future;
+
+            if (concurrentSearchIndexEnabled && deployment.getMode() == Deployment.Mode.SEARCH_INDEX) {
+                deployment.addParam(SEARCH_INDEX_LANE_PARAM_NAME, true);
+                pendingSearchIndexDeployments.add(deployment);
+
+                future = executor.submit(new SearchIndexDeploymentTask());
+            } else {
+                deployment.removeParam(SEARCH_INDEX_LANE_PARAM_NAME);
+                pendingDeployments.add(deployment);
+
+                future = executor.submit(new DeploymentTask());
+            }
 
-            Future<?> future = executor.submit(new DeploymentTask());
             if (waitTillDone) {
                 logger.debug("Waiting for deployment completion...");
 
@@ -234,23 +290,35 @@ public class TargetImpl implements Target {
 
     @Override
     public Collection<Deployment> getPendingDeployments() {
-        return new ArrayList<>(pendingDeployments);
+        Collection<Deployment> deployments = new ArrayList<>(pendingDeployments);
+        deployments.addAll(pendingSearchIndexDeployments);
+
+        return deployments;
     }
 
+    /**
+     * Returns the deployment being executed, or the search index deployment running on its own lane if there's no
+     * other deployment being executed.
+     */
     @Override
     public Deployment getCurrentDeployment() {
-        return currentDeployment;
+        Deployment deployment = currentDeployment;
+        return deployment != null ? deployment : currentSearchIndexDeployment;
     }
 
     @Override
     public Collection<Deployment> getAllDeployments() {
         Collection<Deployment> deployments = new ArrayList<>();
-        Deployment currentDeployment = getCurrentDeployment();
+        Deployment currentDeployment = this.currentDeployment;
+        Deployment currentSearchIndexDeployment = this.currentSearchIndexDeployment;
         Collection<Deployment> pendingDeployments = getPendingDeployments();
 
         if (currentDeployment != null) {
             deployments.add(currentDeployment);
         }
+        if (currentSearchIndexDeployment != null) {
+            deployments.add(currentSearchIndexDeployment);
+        }
         if (CollectionUtils.isNotEmpty(pendingDeployments)) {
             deployments.addAll(pendingDeployments);
         }
@@ -262,14 +330,16 @@ public class TargetImpl implements Target {
      * {@inheritDoc}
      */
     @Override
+    @Deprecated
     public void cleanRepo() {
         MDC.put(TARGET_ID_MDC_KEY, getId());
 
         try {
             logger.info("Cleaning up repo for target {}", getId());
-            GitUtils.cleanup(localRepoPath);
+            // Thresholds of 0 force all the maintenance actions
+            new GitRepoMaintainer(0, 0, 0).maintain(new File(localRepoPath));
         } catch (Exception e) {
-            logger.warn("Error cleaning up repo for target {}", getId());
+            logger.warn("Error cleaning up repo for target {}", getId(), e);
         }
 
         MDC.remove(TARGET_ID_MDC_KEY);
@@ -287,9 +357,7 @@ public class TargetImpl implements Target {
 
             logger.info("Releasing resources for target '{}'", getId());
 
-            if (scheduledDeploymentFuture != null) {
-                scheduledDeploymentFuture.cancel(true);
-            }
+            cancelScheduledDeployments();
 
             if (deploymentPipeline != null) {
                 deploymentPipeline.destroy();
@@ -323,9 +391,7 @@ public class TargetImpl implements Target {
 
             logger.info("Releasing resources for target '{}'", getId());
 
-            if (scheduledDeploymentFuture != null) {
-                scheduledDeploymentFuture.cancel(true);
-            }
+            cancelScheduledDeployments();
 
             if (deploymentPipeline != null) {
                 deploymentPipeline.destroy();
@@ -380,20 +446,74 @@ public class TargetImpl implements Target {
 
     protected void scheduleDeployments() throws ConfigurationException {
         boolean enabled = getBooleanProperty(configuration, TARGET_SCHEDULED_DEPLOYMENT_ENABLED_CONFIG_KEY, true);
+        String mode = getStringProperty(configuration, TARGET_SCHEDULED_DEPLOYMENT_MODE_CONFIG_KEY);
         String cron = getStringProperty(configuration, TARGET_SCHEDULED_DEPLOYMENT_CRON_CONFIG_KEY);
 
-        if (enabled && StringUtils.isNotEmpty(cron)) {
+        if (enabled && ADAPTIVE_SCHEDULING_MODE.equalsIgnoreCase(mode)) {
+            adaptiveTrigger = new AdaptiveDeploymentTrigger(
+                getId(),
+                Duration.ofSeconds(getIntegerProperty(configuration,
+                                                      TARGET_SCHEDULED_DEPLOYMENT_MIN_INTERVAL_CONFIG_KEY, 60)),
+                Duration.ofSeconds(getIntegerProperty(configuration,
+                                                      TARGET_SCHEDULED_DEPLOYMENT_MAX_INTERVAL_CONFIG_KEY, 600)),
+                Duration.ofSeconds(getIntegerProperty(configuration,
+                                                      TARGET_SCHEDULED_DEPLOYMENT_IDLE_TIME_CONFIG_KEY, 1800)),
+                configuration.getDouble(TARGET_SCHEDULED_DEPLOYMENT_BACKOFF_MULTIPLIER_CONFIG_KEY, 2),
+                Duration.ofSeconds(getIntegerProperty(configuration,
+                                                      TARGET_SCHEDULED_DEPLOYMENT_MAX_JITTER_CONFIG_KEY, 5)));
+
+            logger.info("Deployments for target '{}' scheduled with {}", getId(), adaptiveTrigger);
+
+            scheduledDeploymentTask = new ScheduledDeploymentTask();
+            scheduledDeploymentFuture = scheduler.schedule(scheduledDeploymentTask, adaptiveTrigger);
+        } else if (enabled && StringUtils.isNotEmpty(cron)) {
             logger.info("Deployments for target '{}' scheduled with cron {}", getId(), cron);
 
             scheduledDeploymentFuture = scheduler.schedule(new ScheduledDeploymentTask(), new CronTrigger(cron));
         }
     }
 
+    /**
+     * Updates the adaptive schedule (if used) with the result of a deployment. If the deployment had changes and the
+     * target was being polled with a longer interval, the current schedule is replaced so the next deployment runs
+     * within the min interval.
+     */
+    protected synchronized void updateAdaptiveSchedule(Deployment deployment) {
+        if (adaptiveTrigger == null || deployment.getStatus() == Deployment.Status.FAILURE ||
+            deployment.getStatus() == Deployment.Status.INTERRUPTED) {
+            return;
+        }
+
+        if (adaptiveTrigger.onDeploymentFinished(!deployment.isChangeSetEmpty()) &&
+            status == Status.INIT_COMPLETED && scheduledDeploymentFuture != null) {
+            logger.debug("Changes detected, going back to interval of {} for target '{}'",
+                         adaptiveTrigger.getCurrentInterval(), getId());
+
+            scheduledDeploymentFuture.cancel(false);
+            scheduledDeploymentFuture = scheduler.schedule(scheduledDeploymentTask, adaptiveTrigger);
+        }
+    }
+
+    protected synchronized void cancelScheduledDeployments() {
+        if (scheduledDeploymentFuture != null) {
+            scheduledDeploymentFuture.cancel(true);
+            scheduledDeploymentFuture = null;
+        }
+    }
+
     protected void stopDeployments() {
         if (currentDeployment != null) {
             currentDeployment.end(Deployment.Status.INTERRUPTED);
         }
+        if (currentSearchIndexDeployment != null) {
+            currentSearchIndexDeployment.end(Deployment.Status.INTERRUPTED);
+        }
 
+        stopPendingDeployments(pendingDeployments);
+        stopPendingDeployments(pendingSearchIndexDeployments);
+    }
+
+    protected void stopPendingDeployments(Queue<Deployment> pendingDeployments) {
         if (CollectionUtils.isNotEmpty(pendingDeployments)) {
             Deployment deployment;
 
@@ -403,6 +523,66 @@ public class TargetImpl implements Target {
         }
     }
 
+    protected void executeDeployment(Deployment deployment) {
+        deploymentThreadLocal.set(deployment);
+
+        logger.info("============================================================");
+        logger.info("{} deployment for {} started", deployment.getMode(), getId());
+        logger.info("============================================================");
+
+        try {
+            deploymentPipeline.execute(deployment);
+        } finally {
+            double durationInSecs = deployment.getDuration() / 1000.0;
+            String durationStr = String.format("%.3f", durationInSecs);
+
+            logger.info("============================================================");
+            logger.info("{} deployment for {} finished in {} secs", deployment.getMode(), getId(), durationStr);
+            logger.info("============================================================");
+
+            if (writeGovernor != null) {
+                writeGovernor.releaseRun(deployment);
+            }
+
+            deploymentThreadLocal.set(null);
+        }
+    }
+
+    /**
+     * Keeps track of the last commit published, so search index deployments running at the same time know if they
+     * need to reindex the files that changed after the commit they were pinned to.
+     */
+    protected void recordPublish(Deployment deployment) {
+        if (deployment.getMode() == Deployment.Mode.PUBLISH && deployment.getStatus() == Deployment.Status.SUCCESS &&
+            !deployment.isChangeSetEmpty()) {
+            lastPublishedCommitId = deployment.getParam(LATEST_COMMIT_ID_PARAM_NAME);
+            completedPublishes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Creates the deployment that reindexes the changes published while the specified search index deployment was
+     * running (from the commit it was pinned to up to the latest one), or returns null if there were none.
+     */
+    protected Deployment createReplayDeployment(Deployment deployment, long publishesBefore) {
+        Object pinnedCommitId = deployment.getParam(LATEST_COMMIT_ID_PARAM_NAME);
+
+        if (deployment.getStatus() != Deployment.Status.SUCCESS || !(pinnedCommitId instanceof ObjectId) ||
+            completedPublishes.get() == publishesBefore || Objects.equals(pinnedCommitId, lastPublishedCommitId)) {
+            return null;
+        }
+
+        logger.info("Changes were published during search index deployment of {}, reindexing changes after commit {}",
+                    getId(), ((ObjectId) pinnedCommitId).name());
+
+        Map<String, Object> params = new HashMap<>();
+        params.put(DEPLOYMENT_MODE_PARAM_NAME, Deployment.Mode.SEARCH_INDEX.name());
+        params.put(FROM_COMMIT_ID_PARAM_NAME, ((ObjectId) pinnedCommitId).name());
+        params.put(SEARCH_INDEX_LANE_PARAM_NAME, true);
+
+        return new Deployment(this, params);
+    }
+
     protected class ScheduledDeploymentTask implements Runnable {
 
         protected volatile Future<?> future;
@@ -438,32 +618,73 @@ public class TargetImpl implements Target {
                     TargetImpl.setCurrent(currentDeployment.getTarget());
 
                     if (currentDeployment != null && currentDeployment.getEnd() == null) {
-                        logger.info("============================================================");
-                        logger.info("Deployment for {} started", getId());
-                        logger.info("============================================================");
+                        executeDeployment(currentDeployment);
+
+                        recordPublish(currentDeployment);
+                        updateAdaptiveSchedule(currentDeployment);
+                    }
+                }
+            } finally {
+                deploymentLock.unlock();
+
+                currentDeployment = null;
+
+                TargetImpl.clear();
 
+                MDC.remove(TARGET_ID_MDC_KEY);
+            }
+        }
+    }
+
+    /**
+     * Executes search index deployments in their own lane, so they don't block publishes. The deployment is pinned to
+     * the commit resolved when it starts, and when it finishes any changes published in the meantime are reindexed
+     * by a follow-up deployment, until there are no more.
+     *
+     * <p>The deployments of the lane are flagged with the {@code search_index_lane} param, so the indexing processors
+     * read the files from a snapshot of the pinned commit instead of the working tree that the publishes keep
+     * updating, and index them with their own threads.</p>
+     */
+    protected class SearchIndexDeploymentTask implements Runnable {
+
+        @Override
+        public void run() {
+            MDC.put(TARGET_ID_MDC_KEY, getId());
+
+            searchIndexDeploymentLock.lock();
+
+            try {
+                if (status == Status.INIT_COMPLETED) {
+                    Deployment deployment = pendingSearchIndexDeployments.poll();
+                    TargetImpl.setCurrent(TargetImpl.this);
+
+                    while (deployment != null && deployment.getEnd() == null && status == Status.INIT_COMPLETED) {
+                        long publishesBefore = completedPublishes.get();
+
+                        currentSearchIndexDeployment = deployment;
+
+                        executeDeployment(deployment);
+
+                        // Wait for a publish that is still running, so it's recorded before checking for a replay
+                        deploymentLock.lock();
                         try {
-                            deploymentPipeline.execute(currentDeployment);
+                            deployment = createReplayDeployment(deployment, publishesBefore);
                         } finally {
-                            double durationInSecs = currentDeployment.getDuration() / 1000.0;
-                            String durationStr = String.format("%.3f", durationInSecs);
-
-                            logger.info("============================================================");
-                            logger.info("Deployment for {} finished in {} secs", getId(), durationStr);
-                            logger.info("============================================================");
+                            deploymentLock.unlock();
                         }
                     }
                 }
             } finally {
-                deploymentLock.unlock();
+                searchIndexDeploymentLock.unlock();
 
-                currentDeployment = null;
+                currentSearchIndexDeployment = null;
 
                 TargetImpl.clear();
 
                 MDC.remove(TARGET_ID_MDC_KEY);
             }
         }
+
     }
 
     @Override
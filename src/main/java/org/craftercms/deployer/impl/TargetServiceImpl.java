@@ -33,11 +33,14 @@ import org.craftercms.commons.spring.ApacheCommonsConfiguration2PropertySource;
 import org.craftercms.commons.upgrade.UpgradeManager;
 import org.craftercms.commons.validation.ValidationException;
 import org.craftercms.commons.validation.ValidationResult;
+import org.craftercms.deployer.api.Deployment;
+import org.craftercms.deployer.api.ReindexJob;
 import org.craftercms.deployer.api.Target;
 import org.craftercms.deployer.api.TargetService;
 import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.api.exceptions.TargetAlreadyExistsException;
 import org.craftercms.deployer.api.exceptions.TargetNotFoundException;
+import org.craftercms.deployer.api.exceptions.TargetNotReadyException;
 import org.craftercms.deployer.api.exceptions.TargetServiceException;
 import org.craftercms.deployer.utils.handlebars.MissingValueHelper;
 import org.craftercms.search.opensearch.OpenSearchAdminService;
@@ -112,6 +115,9 @@ public class TargetServiceImpl implements TargetService, ApplicationListener<App
     protected final UpgradeManager<Target> upgradeManager;
     protected final Set<Target> currentTargets;
 
+    @Autowired(required = false)
+    protected ReindexJobManager reindexJobManager;
+
     public TargetServiceImpl(
             @Value("${deployer.main.targets.config.folderPath}") File targetConfigFolder,
             @Value("${deployer.main.targets.config.baseYaml.location}") Resource baseTargetYamlConfigResource,
@@ -278,11 +284,32 @@ public class TargetServiceImpl implements TargetService, ApplicationListener<App
     }
 
     @Override
-    public void recreateIndex(String env, String siteName) throws TargetNotFoundException {
+    public ReindexJob recreateIndex(String env, String siteName, Integer slices)
+            throws TargetNotFoundException, TargetNotReadyException {
         Target target = getTarget(env, siteName);
+        if (target.getConfiguration().getBoolean(TARGET_SHADOW_REINDEX_ENABLED_CONFIG_KEY, false)) {
+            logger.info("Starting full reindex of target '{}' using a shadow index", target.getId());
+
+            Map<String, Object> params = new HashMap<>();
+            params.put(DEPLOYMENT_MODE_PARAM_NAME, Deployment.Mode.SEARCH_INDEX.name());
+            params.put(REPROCESS_ALL_FILES_PARAM_NAME, true);
+
+            if (reindexJobManager != null) {
+                return reindexJobManager.submitDeployment(target, target.getId(), params);
+            }
+
+            target.deploy(false, params);
+            return null;
+        }
+
+        if (reindexJobManager != null) {
+            return reindexJobManager.submit(target, target.getId(), slices);
+        }
+
         ApplicationContext appContext = target.getApplicationContext();
         OpenSearchAdminService adminService = appContext.getBean(OpenSearchAdminService.class);
         adminService.recreateIndex(target.getId());
+        return null;
     }
 
     @Override
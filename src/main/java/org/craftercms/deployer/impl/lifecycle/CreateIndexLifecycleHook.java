@@ -18,26 +18,39 @@ package org.craftercms.deployer.impl.lifecycle;
 import org.craftercms.deployer.api.Target;
 import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.api.lifecycle.TargetLifecycleHook;
+import org.craftercms.deployer.utils.opensearch.IndexPool;
 import org.craftercms.search.commons.exception.SearchException;
 import org.craftercms.search.opensearch.OpenSearchAdminService;
 
 import java.beans.ConstructorProperties;
 
 /**
- * Implementation of {@link TargetLifecycleHook} that creates an OpenSearch index.
+ * Implementation of {@link TargetLifecycleHook} that creates an OpenSearch index. If the {@link IndexPool} is
+ * enabled the site is added to the pool instead.
  *
  * @author avasquez
  */
 public class CreateIndexLifecycleHook extends AbstractIndexAwareLifecycleHook {
 
+    protected IndexPool indexPool;
+
     @ConstructorProperties({"siteName", "indexIdFormat", "searchAdminService"})
     public CreateIndexLifecycleHook(String siteName, String indexIdFormat, OpenSearchAdminService searchAdminService) {
         super(siteName, indexIdFormat, searchAdminService);
     }
 
+    public void setIndexPool(IndexPool indexPool) {
+        this.indexPool = indexPool;
+    }
+
     @Override
     public void doExecute(Target target) throws DeployerException {
         try {
+            if (indexPool != null && indexPool.isEnabled()) {
+                indexPool.addSite(indexId, siteName);
+                return;
+            }
+
             logger.info("Creating OpenSearch index for target '{}'", target.getId());
 
             searchAdminService.createIndex(indexId);
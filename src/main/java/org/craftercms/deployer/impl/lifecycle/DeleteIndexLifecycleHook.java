@@ -18,26 +18,39 @@ package org.craftercms.deployer.impl.lifecycle;
 import org.craftercms.deployer.api.Target;
 import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.api.lifecycle.TargetLifecycleHook;
+import org.craftercms.deployer.utils.opensearch.IndexPool;
 import org.craftercms.search.commons.exception.SearchException;
 import org.craftercms.search.opensearch.OpenSearchAdminService;
 
 import java.beans.ConstructorProperties;
 
 /**
- * Implementation of {@link TargetLifecycleHook} that deletes an OpenSearch index.
+ * Implementation of {@link TargetLifecycleHook} that deletes an OpenSearch index. If the site is in the
+ * {@link IndexPool} only its documents and alias are deleted.
  *
  * @author avasquez
  */
 public class DeleteIndexLifecycleHook extends AbstractIndexAwareLifecycleHook {
 
+    protected IndexPool indexPool;
+
     @ConstructorProperties({"siteName", "indexIdFormat", "searchAdminService"})
     public DeleteIndexLifecycleHook(String siteName, String indexIdFormat, OpenSearchAdminService searchAdminService) {
         super(siteName, indexIdFormat, searchAdminService);
     }
 
+    public void setIndexPool(IndexPool indexPool) {
+        this.indexPool = indexPool;
+    }
+
     @Override
     public void doExecute(Target target) throws DeployerException {
         try {
+            if (indexPool != null && indexPool.isPooled(indexId)) {
+                indexPool.removeSite(indexId, siteName);
+                return;
+            }
+
             logger.info("Deleting OpenSearch index for target '{}'", target.getId());
 
             searchAdminService.deleteIndexes(indexId);
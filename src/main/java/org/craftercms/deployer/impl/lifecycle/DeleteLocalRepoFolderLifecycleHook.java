@@ -36,11 +36,19 @@ import java.nio.file.Paths;
 public class DeleteLocalRepoFolderLifecycleHook extends AbstractLifecycleHook {
 
     protected Path localRepoFolder;
+    protected Path snapshotFolder;
 
     public void setLocalRepoFolder(String localRepoFolder) {
         this.localRepoFolder = Paths.get(localRepoFolder);
     }
 
+    /**
+     * Sets the folder of the snapshot of the local repo used by concurrent search index deployments (optional).
+     */
+    public void setSnapshotFolder(String snapshotFolder) {
+        this.snapshotFolder = Paths.get(snapshotFolder);
+    }
+
     @Override
     protected void doInit(Configuration config) throws ConfigurationException, DeployerException {
         // Do nothing
@@ -57,6 +65,16 @@ public class DeleteLocalRepoFolderLifecycleHook extends AbstractLifecycleHook {
         } catch (IOException e) {
             throw new DeployerException("Unable to delete local repo folder " + localRepoFolder, e);
         }
+
+        try {
+            if (snapshotFolder != null && Files.exists(snapshotFolder)) {
+                FileUtils.forceDelete(snapshotFolder.toFile());
+
+                logger.info("Snapshot folder {} deleted", snapshotFolder);
+            }
+        } catch (IOException e) {
+            throw new DeployerException("Unable to delete snapshot folder " + snapshotFolder, e);
+        }
     }
 
 }
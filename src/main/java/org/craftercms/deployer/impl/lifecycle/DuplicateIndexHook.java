@@ -17,6 +17,9 @@ package org.craftercms.deployer.impl.lifecycle;
 
 import org.craftercms.deployer.api.Target;
 import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.craftercms.deployer.utils.opensearch.IndexDuplicator;
+import org.craftercms.deployer.utils.opensearch.IndexPool;
+import org.craftercms.search.commons.exception.SearchException;
 import org.craftercms.search.opensearch.OpenSearchAdminService;
 
 import java.beans.ConstructorProperties;
@@ -26,17 +29,38 @@ import static org.apache.commons.lang.StringUtils.isEmpty;
 
 /**
  * Implementation of {@link org.craftercms.deployer.api.lifecycle.TargetLifecycleHook} that duplicates an index from
- * a source site to a target site.
+ * a source site to a target site. If an {@link IndexDuplicator} is provided the index is copied with the clone or
+ * snapshot APIs, falling back to a reindex if the copy fails or if the mappings or analysis settings of the source
+ * are not the ones a new index would get (checked against a temporary index created by the admin service). If the
+ * {@link IndexPool} is enabled the new site is added to the pool with a copy of the documents of the source site.
  */
 public class DuplicateIndexHook extends AbstractIndexAwareLifecycleHook {
+    private static final String MAPPINGS_CHECK_PREFIX = "mappings-check-";
+
     private final String sourceSiteName;
 
+    protected IndexDuplicator indexDuplicator;
+    protected IndexDuplicator.Mode mode = IndexDuplicator.Mode.REINDEX;
+    protected IndexPool indexPool;
+
     @ConstructorProperties({"siteName", "indexIdFormat", "searchAdminService", "sourceSiteName"})
     public DuplicateIndexHook(String siteName, String indexIdFormat, OpenSearchAdminService searchAdminService, String sourceSiteName) {
         super(siteName, indexIdFormat, searchAdminService);
         this.sourceSiteName = sourceSiteName;
     }
 
+    public void setIndexDuplicator(IndexDuplicator indexDuplicator) {
+        this.indexDuplicator = indexDuplicator;
+    }
+
+    public void setMode(IndexDuplicator.Mode mode) {
+        this.mode = mode;
+    }
+
+    public void setIndexPool(IndexPool indexPool) {
+        this.indexPool = indexPool;
+    }
+
     @Override
     protected void doExecute(Target target) throws DeployerException {
         if (isEmpty(sourceSiteName)) {
@@ -45,7 +69,52 @@ public class DuplicateIndexHook extends AbstractIndexAwareLifecycleHook {
         String sourceIndexIdFormat = target.getConfiguration().getString("target.search.indexIdFormat");
         String sourceIndexId = format(sourceIndexIdFormat, sourceSiteName);
         logger.info("Starting index duplicate from '{}' for site '{}' to '{}' for site '{}'", sourceIndexId, sourceSiteName, indexId, siteName);
+        if (indexPool != null && indexPool.isEnabled()) {
+            indexPool.copySite(sourceIndexId, sourceSiteName, indexId, siteName);
+            logger.info("Completed index duplicate from '{}' for site '{}' to index pool for site '{}'",
+                        sourceIndexId, sourceSiteName, siteName);
+            return;
+        }
+        // A pooled index can't be copied as a whole, since it contains the documents of other sites
+        boolean sourcePooled = indexPool != null && indexPool.isPooled(sourceIndexId);
+        if (indexDuplicator != null && mode != IndexDuplicator.Mode.REINDEX && !sourcePooled) {
+            try {
+                if (!hasCurrentMappings(sourceIndexId)) {
+                    throw new DeployerException("Index '" + sourceIndexId + "' doesn't have the current mappings " +
+                                                "or analysis settings");
+                }
+                indexDuplicator.duplicate(sourceIndexId, indexId, mode);
+                logger.info("Completed index copy from '{}' for site '{}' to '{}' for site '{}'", sourceIndexId,
+                            sourceSiteName, indexId, siteName);
+                return;
+            } catch (DeployerException e) {
+                logger.warn("Unable to copy index '{}' using {}, falling back to reindex", sourceIndexId, mode, e);
+            }
+        }
         searchAdminService.duplicateIndex(sourceIndexId, indexId);
         logger.info("Completed index duplicate from '{}' for site '{}' to '{}' for site '{}'", sourceIndexId, sourceSiteName, indexId, siteName);
     }
+
+    /**
+     * Indicates if the source index has the mappings and analysis settings that the admin service would use for the
+     * new index, by comparing them with the ones of a temporary index
+     */
+    protected boolean hasCurrentMappings(String sourceIndexId) throws DeployerException {
+        // The prefix keeps the suffix of the name, used by the admin service to pick the mappings
+        String referenceIndexId = MAPPINGS_CHECK_PREFIX + indexId;
+        try {
+            if (searchAdminService.indexExists(referenceIndexId)) {
+                searchAdminService.deleteIndexes(referenceIndexId);
+            }
+            searchAdminService.createIndex(referenceIndexId);
+            try {
+                return indexDuplicator.mappingsMatch(sourceIndexId, referenceIndexId) &&
+                       indexDuplicator.analysisMatch(sourceIndexId, referenceIndexId);
+            } finally {
+                searchAdminService.deleteIndexes(referenceIndexId);
+            }
+        } catch (SearchException e) {
+            throw new DeployerException("Error creating index '" + referenceIndexId + "' to check the mappings", e);
+        }
+    }
 }
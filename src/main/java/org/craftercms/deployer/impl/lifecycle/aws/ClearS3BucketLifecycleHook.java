@@ -15,24 +15,30 @@
  */
 package org.craftercms.deployer.impl.lifecycle.aws;
 
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.collections4.ListUtils;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.io.FileUtils;
 import org.craftercms.commons.config.ConfigurationException;
 import org.craftercms.deployer.api.Target;
 import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.api.lifecycle.TargetLifecycleHook;
 import org.craftercms.deployer.impl.lifecycle.AbstractLifecycleHook;
 import org.craftercms.deployer.utils.aws.AwsClientBuilderConfigurer;
-import org.craftercms.deployer.utils.aws.AwsS3Utils;
+import org.craftercms.deployer.utils.aws.S3BatchDeleter;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3ClientBuilder;
 import software.amazon.awssdk.services.s3.model.*;
-import software.amazon.awssdk.services.s3.paginators.ListObjectVersionsIterable;
-import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Iterable;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static org.craftercms.commons.config.ConfigUtils.getRequiredStringProperty;
@@ -41,17 +47,59 @@ import static org.craftercms.commons.config.ConfigUtils.getRequiredStringPropert
  * {@link TargetLifecycleHook} that clears an S3 bucket. Mostly used in preparation for deleting a bucket
  * (most APIs don't allow deleting a non-empty bucket).
  *
+ * <p>The objects are deleted with an {@link S3BatchDeleter}, which sends several delete requests at the same time
+ * while the bucket is still being listed. If a checkpoint folder is configured, the position of the listing up to
+ * which everything has been deleted is stored there, so a clear that was interrupted resumes from that position
+ * instead of listing the bucket from the start. The checkpoint also has the bucket and the time the clear started, so
+ * it's ignored if it's for another bucket or older than the max checkpoint age. Since objects could have been
+ * written before the checkpoint position while the clear was interrupted, a resumed clear finishes with a new pass
+ * from the start of the listing.</p>
+ *
  * @author avasquez
  */
 public class ClearS3BucketLifecycleHook extends AbstractLifecycleHook {
 
     protected static final String CONFIG_KEY_BUCKET_NAME = "bucketName";
 
+    protected static final String CHECKPOINT_FILE_PREFIX = "clear-";
+    protected static final String CHECKPOINT_FILE_EXTENSION = ".json";
+
+    protected final ObjectMapper objectMapper = new ObjectMapper();
+
+    protected File checkpointFolder;
+    protected int maxConcurrentRequests = 8;
+    protected int maxRetries = 5;
+    protected long retryDelay = 1000;
+    protected long checkpointMaxAge = 86400;
+
     // Config properties (populated on init)
 
     protected AwsClientBuilderConfigurer builderConfigurer;
     protected String bucketName;
 
+    public void setCheckpointFolder(File checkpointFolder) {
+        this.checkpointFolder = checkpointFolder;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Sets the max age in seconds of a checkpoint, counted from the start of the clear it belongs to.
+     */
+    public void setCheckpointMaxAge(long checkpointMaxAge) {
+        this.checkpointMaxAge = checkpointMaxAge;
+    }
+
     @Override
     public void doInit(Configuration config) throws ConfigurationException {
         builderConfigurer = new AwsClientBuilderConfigurer(config);
@@ -60,29 +108,54 @@ public class ClearS3BucketLifecycleHook extends AbstractLifecycleHook {
 
     @Override
     public void doExecute(Target target) throws DeployerException {
-        try {
-            S3Client s3 = buildClient();
-
+        try (S3Client s3 = buildClient();
+             S3AsyncClient asyncS3 = buildAsyncClient()) {
             if (!bucketExist(s3, bucketName)) {
+                deleteCheckpoint();
                 return;
             }
 
             logger.info("Emptying bucket '{}'...", bucketName);
 
-            // Delete all objects from the bucket. This is sufficient
-            // for unversioned buckets. For versioned buckets, when you attempt to delete objects, Amazon S3 inserts
-            // delete markers for all objects, but doesn't delete the object versions.
-            // To delete objects from versioned buckets, delete all the object versions before deleting
-            // the bucket (see below for an example).
-            deleteAllObjects(s3);
+            S3BatchDeleter deleter = new S3BatchDeleter(asyncS3, bucketName, maxConcurrentRequests, maxRetries,
+                                                        retryDelay);
+            Checkpoint checkpoint = loadCheckpoint();
+            Boolean versioned = isVersioned(s3);
+
+            clearBucket(s3, deleter, versioned, checkpoint,
+                        checkpoint != null ? checkpoint.getStartTime() : System.currentTimeMillis());
+
+            if (checkpoint != null) {
+                logger.info("Clearing the objects of bucket '{}' listed before the checkpoint", bucketName);
+
+                clearBucket(s3, deleter, versioned, null, checkpoint.getStartTime());
+            }
 
-            // Delete all object versions and delete marker (required for versioned buckets).
-            deleteAllVersionsAndMarkers(s3);
+            deleteCheckpoint();
+        } catch (DeployerException e) {
+            throw e;
         } catch (Exception e) {
             throw new DeployerException("Error while trying to clear S3 bucket '" + bucketName + "'", e);
         }
     }
 
+    /**
+     * Deletes all the objects of the bucket, resuming from the checkpoint if not null.
+     */
+    protected void clearBucket(S3Client s3, S3BatchDeleter deleter, Boolean versioned, Checkpoint checkpoint,
+                               long startTime) throws DeployerException {
+        // For versioned buckets, deleting the objects only inserts delete markers, so all object versions and
+        // delete markers are deleted instead (which includes the current versions). For unversioned buckets
+        // deleting the objects is enough
+        if (!Boolean.TRUE.equals(versioned) &&
+            (checkpoint == null || checkpoint.getPhase() == Checkpoint.Phase.OBJECTS)) {
+            deleteAllObjects(s3, deleter, checkpoint, startTime);
+        }
+        if (!Boolean.FALSE.equals(versioned)) {
+            deleteAllVersionsAndMarkers(s3, deleter, checkpoint, startTime);
+        }
+    }
+
     protected S3Client buildClient() {
         S3ClientBuilder builder = S3Client.builder();
         builderConfigurer.configureClientBuilder(builder);
@@ -90,6 +163,13 @@ public class ClearS3BucketLifecycleHook extends AbstractLifecycleHook {
         return builder.build();
     }
 
+    protected S3AsyncClient buildAsyncClient() {
+        S3AsyncClientBuilder builder = S3AsyncClient.builder();
+        builderConfigurer.configureClientBuilder(builder);
+
+        return builder.build();
+    }
+
     /**
      * Check if a bucket exist
      * @param s3Client an instance of {@link S3Client}
@@ -109,74 +189,256 @@ public class ClearS3BucketLifecycleHook extends AbstractLifecycleHook {
         }
     }
 
+    /**
+     * Indicates if versioning has ever been enabled in the bucket
+     * @param s3 the s3 client
+     * @return true or false, or null if the versioning status couldn't be retrieved
+     */
+    private Boolean isVersioned(S3Client s3) {
+        try {
+            return s3.getBucketVersioning(r -> r.bucket(bucketName)).status() != null;
+        } catch (S3Exception e) {
+            logger.debug("Unable to get the versioning status of bucket '{}'", bucketName, e);
+            return null;
+        }
+    }
+
     /**
      * Delete all S3 objects
      * @param s3 the s3 client
+     * @param deleter the deleter
+     * @param checkpoint the checkpoint to resume from, or null to start from the beginning
+     * @param startTime the time the clear started
      */
-    private void deleteAllObjects(S3Client s3) {
-        ListObjectsV2Request request = ListObjectsV2Request.builder()
-                .bucket(bucketName)
-                .build();
-        ListObjectsV2Iterable listObjectsV2Responses = s3.listObjectsV2Paginator(request);
-        for (ListObjectsV2Response objectList: listObjectsV2Responses) {
-            List<ObjectIdentifier> objectsToDelete = objectList.contents().stream().map(s ->
-                    ObjectIdentifier.builder()
-                            .key(s.key())
-                            .build()
-            ).collect(Collectors.toList());
-
-            if (CollectionUtils.isNotEmpty(objectsToDelete)) {
-                logger.info("Deleting {} objects", objectsToDelete.size());
-                s3.deleteObjects(DeleteObjectsRequest.builder()
-                        .bucket(bucketName)
-                        .delete(Delete.builder()
-                                .objects(objectsToDelete)
-                                .build())
-                        .build());
-            } else {
-                logger.info("No objects to delete");
-            }
+    private void deleteAllObjects(S3Client s3, S3BatchDeleter deleter, Checkpoint checkpoint,
+                                  long startTime) throws DeployerException {
+        ListObjectsV2Request.Builder request = ListObjectsV2Request.builder().bucket(bucketName);
+        if (checkpoint != null && checkpoint.getPhase() == Checkpoint.Phase.OBJECTS) {
+            logger.info("Resuming the delete of objects after key '{}'", checkpoint.getKeyMarker());
+
+            request.startAfter(checkpoint.getKeyMarker());
         }
+
+        Iterable<S3BatchDeleter.Page<Checkpoint>> pages = () -> s3.listObjectsV2Paginator(request.build())
+            .stream()
+            .map(objectList -> {
+                List<ObjectIdentifier> objectsToDelete = objectList.contents().stream().map(s ->
+                        ObjectIdentifier.builder()
+                                .key(s.key())
+                                .build()
+                ).collect(Collectors.toList());
+
+                Checkpoint marker = null;
+                if (!objectsToDelete.isEmpty()) {
+                    marker = new Checkpoint(bucketName, startTime, Checkpoint.Phase.OBJECTS,
+                                            objectsToDelete.get(objectsToDelete.size() - 1).key(), null);
+                }
+
+                return new S3BatchDeleter.Page<>(objectsToDelete, marker);
+            })
+            .iterator();
+
+        S3BatchDeleter.Result result = deleter.delete(pages, getCheckpointListener());
+        logger.info("Deleted {} objects", result.getDeleted());
+
+        checkResult(result);
     }
 
     /**
      * Delete all versions and delete markers
      * @param s3 the s3 client
+     * @param deleter the deleter
+     * @param checkpoint the checkpoint to resume from, or null to start from the beginning
+     * @param startTime the time the clear started
+     */
+    private void deleteAllVersionsAndMarkers(S3Client s3, S3BatchDeleter deleter, Checkpoint checkpoint,
+                                             long startTime) throws DeployerException {
+        ListObjectVersionsRequest.Builder request = ListObjectVersionsRequest.builder().bucket(bucketName);
+        if (checkpoint != null && checkpoint.getPhase() == Checkpoint.Phase.VERSIONS) {
+            logger.info("Resuming the delete of object versions after key '{}' and version '{}'",
+                        checkpoint.getKeyMarker(), checkpoint.getVersionIdMarker());
+
+            request.keyMarker(checkpoint.getKeyMarker()).versionIdMarker(checkpoint.getVersionIdMarker());
+        }
+
+        Iterable<S3BatchDeleter.Page<Checkpoint>> pages = () -> s3.listObjectVersionsPaginator(request.build())
+            .stream()
+            .map(versionList -> {
+                List<ObjectIdentifier> versionsToDelete = new ArrayList<>();
+                versionList.versions().forEach(v -> versionsToDelete.add(
+                        ObjectIdentifier.builder()
+                                .key(v.key())
+                                .versionId(v.versionId())
+                                .build()
+                ));
+
+                versionList.deleteMarkers().forEach(m -> versionsToDelete.add(
+                        ObjectIdentifier.builder()
+                                .key(m.key())
+                                .versionId(m.versionId())
+                                .build()
+                ));
+
+                Checkpoint marker = null;
+                if (Boolean.TRUE.equals(versionList.isTruncated())) {
+                    marker = new Checkpoint(bucketName, startTime, Checkpoint.Phase.VERSIONS,
+                                            versionList.nextKeyMarker(), versionList.nextVersionIdMarker());
+                }
+
+                return new S3BatchDeleter.Page<>(versionsToDelete, marker);
+            })
+            .iterator();
+
+        S3BatchDeleter.Result result = deleter.delete(pages, getCheckpointListener());
+        logger.info("Deleted {} object versions and delete markers", result.getDeleted());
+
+        checkResult(result);
+    }
+
+    private void checkResult(S3BatchDeleter.Result result) throws DeployerException {
+        if (result.hasErrors()) {
+            String errors = result.getErrors().stream()
+                                  .map(e -> e.key() + " (" + e.code() + ": " + e.message() + ")")
+                                  .collect(Collectors.joining(", "));
+
+            throw new DeployerException("Unable to delete " + result.getFailed() + " objects from S3 bucket '" +
+                                        bucketName + "': " + errors);
+        }
+    }
+
+    protected File getCheckpointFile() {
+        if (checkpointFolder == null) {
+            return null;
+        }
+
+        return new File(checkpointFolder, CHECKPOINT_FILE_PREFIX + bucketName + CHECKPOINT_FILE_EXTENSION);
+    }
+
+    private Consumer<Checkpoint> getCheckpointListener() {
+        return checkpointFolder != null? this::saveCheckpoint : null;
+    }
+
+    /**
+     * Returns the checkpoint of a previous clear of the bucket, or null if there's none or it's not valid anymore
      */
-    private void deleteAllVersionsAndMarkers(S3Client s3) {
-        ListObjectVersionsRequest listObjectVersionsRequest = ListObjectVersionsRequest.builder()
-                .bucket(bucketName)
-                .build();
-        ListObjectVersionsIterable listObjectVersionsResponses = s3.listObjectVersionsPaginator(listObjectVersionsRequest);
-        for (ListObjectVersionsResponse versionList: listObjectVersionsResponses) {
-            List<ObjectIdentifier> versionsToDelete = new ArrayList<>();
-            versionList.versions().forEach(v -> versionsToDelete.add(
-                    ObjectIdentifier.builder()
-                            .key(v.key())
-                            .versionId(v.versionId())
-                            .build()
-            ));
-
-            versionList.deleteMarkers().forEach(m -> versionsToDelete.add(
-                    ObjectIdentifier.builder()
-                            .key(m.key())
-                            .versionId(m.versionId())
-                            .build()
-            ));
-
-            if (CollectionUtils.isNotEmpty(versionsToDelete)) {
-                logger.info("Deleting {} object versions and delete markers", versionsToDelete.size());
-                for (List<ObjectIdentifier> subList : ListUtils.partition(versionsToDelete, AwsS3Utils.MAX_DELETE_KEYS_PER_REQUEST)) {
-                    DeleteObjectsResponse result = s3.deleteObjects(DeleteObjectsRequest.builder()
-                            .bucket(bucketName)
-                            .delete(Delete.builder().objects(subList).build())
-                            .build());
-                    logger.debug("Deleted object versions and delete markers: {}", result.deleted());
+    protected Checkpoint loadCheckpoint() {
+        File file = getCheckpointFile();
+        if (file != null && file.exists()) {
+            try {
+                Checkpoint checkpoint = objectMapper.readValue(file, Checkpoint.class);
+                if (!bucketName.equals(checkpoint.getBucket()) || checkpoint.getPhase() == null) {
+                    logger.warn("Checkpoint file {} is not for bucket '{}', the bucket will be cleared from the " +
+                                "start", file, bucketName);
+                } else if (System.currentTimeMillis() - checkpoint.getStartTime() >
+                           TimeUnit.SECONDS.toMillis(checkpointMaxAge)) {
+                    logger.info("Checkpoint file {} is older than {} seconds, the bucket will be cleared from the " +
+                                "start", file, checkpointMaxAge);
+                } else {
+                    return checkpoint;
                 }
-            } else {
-                logger.info("No object versions to delete");
+            } catch (IOException e) {
+                logger.warn("Unable to read checkpoint file {}, the bucket will be cleared from the start", file, e);
             }
+
+            deleteCheckpoint();
         }
+
+        return null;
+    }
+
+    protected void saveCheckpoint(Checkpoint checkpoint) {
+        File file = getCheckpointFile();
+        File tmpFile = new File(checkpointFolder, CHECKPOINT_FILE_PREFIX + bucketName + ".tmp");
+
+        try {
+            FileUtils.forceMkdir(checkpointFolder);
+            objectMapper.writeValue(tmpFile, checkpoint);
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Unable to write checkpoint file {}", file, e);
+
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
+    protected void deleteCheckpoint() {
+        File file = getCheckpointFile();
+        if (file != null) {
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * The position of the bucket listing up to which all objects have been deleted
+     */
+    public static class Checkpoint {
+
+        public enum Phase {
+            OBJECTS,
+            VERSIONS
+        }
+
+        private String bucket;
+        private long startTime;
+        private Phase phase;
+        private String keyMarker;
+        private String versionIdMarker;
+
+        public Checkpoint() {
+        }
+
+        public Checkpoint(String bucket, long startTime, Phase phase, String keyMarker, String versionIdMarker) {
+            this.bucket = bucket;
+            this.startTime = startTime;
+            this.phase = phase;
+            this.keyMarker = keyMarker;
+            this.versionIdMarker = versionIdMarker;
+        }
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public void setBucket(String bucket) {
+            this.bucket = bucket;
+        }
+
+        /**
+         * Returns the time in milliseconds when the clear started
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public void setStartTime(long startTime) {
+            this.startTime = startTime;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public void setPhase(Phase phase) {
+            this.phase = phase;
+        }
+
+        public String getKeyMarker() {
+            return keyMarker;
+        }
+
+        public void setKeyMarker(String keyMarker) {
+            this.keyMarker = keyMarker;
+        }
+
+        public String getVersionIdMarker() {
+            return versionIdMarker;
+        }
+
+        public void setVersionIdMarker(String versionIdMarker) {
+            this.versionIdMarker = versionIdMarker;
+        }
+
     }
 
 }
@@ -16,6 +16,7 @@
 package org.craftercms.deployer.impl.lifecycle.aws;
 
 import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.io.FileUtils;
 import org.craftercms.commons.aws.AwsUtils;
 import org.craftercms.commons.config.ConfigurationException;
 import org.craftercms.commons.http.HttpUtils;
@@ -25,10 +26,12 @@ import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.impl.ProcessedCommitsStore;
 import org.craftercms.deployer.impl.lifecycle.AbstractLifecycleHook;
 import org.craftercms.deployer.utils.aws.AwsS3ClientBuilderConfigurer;
+import org.craftercms.deployer.utils.aws.S3DiffCopier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import software.amazon.awssdk.services.s3.*;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
 
 import java.beans.ConstructorProperties;
 import java.io.File;
@@ -36,21 +39,30 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.lang.String.format;
 import static org.apache.commons.lang3.StringUtils.appendIfMissing;
+import static org.apache.commons.lang3.StringUtils.stripStart;
 import static org.craftercms.commons.config.ConfigUtils.getBooleanProperty;
 import static org.craftercms.commons.config.ConfigUtils.getRequiredStringProperty;
 import static org.craftercms.deployer.utils.aws.AwsS3Utils.getBucket;
 import static org.craftercms.deployer.utils.aws.AwsS3Utils.getS3BaseKey;
 
 /**
- * Lifecycle hook that duplicates content from source to new target S3 bucket.
- * It will list all files in the source bucket (filtering out .blob files if ignoreBlobs is true) and copy
- * them to the target bucket.
+ * Lifecycle hook that duplicates content from source to new target S3 bucket. Supports two modes:
+ *
+ * <ul>
+ *     <li>{@link Mode#LOCAL_REPO}: lists all files in the source local repository (filtering out .blob files if
+ *     ignoreBlobs is true) and copies them to the target bucket</li>
+ *     <li>{@link Mode#BUCKET_DIFF}: lists the source bucket instead, and copies only the objects that are missing or
+ *     changed (by size and ETag) in the target bucket, with an {@link S3DiffCopier}. The local repository is not
+ *     needed, and if a checkpoint folder is configured, an interrupted duplication is resumed after the last
+ *     copied page of the listing</li>
+ * </ul>
  */
 public class DuplicateS3LifecycleHook extends AbstractLifecycleHook {
 
@@ -64,6 +76,8 @@ public class DuplicateS3LifecycleHook extends AbstractLifecycleHook {
     protected static final String CONFIG_KEY_LOCAL_REPO_URL = "localRepoPath";
     protected static final String CONFIG_KEY_URL = "url";
     protected static final String DELIMITER = "/";
+    protected static final String CHECKPOINT_FILE_PREFIX = "duplicate-";
+    protected static final String CHECKPOINT_FILE_EXTENSION = ".txt";
     private final String siteName;
     private final String sourceSiteName;
     private final ProcessedCommitsStore processedCommitsStore;
@@ -71,6 +85,10 @@ public class DuplicateS3LifecycleHook extends AbstractLifecycleHook {
     private final String blobExtension;
     private final ThreadPoolTaskExecutor threadPoolTaskExecutor;
 
+    private Mode mode = Mode.LOCAL_REPO;
+    private int maxConcurrentCopies = 16;
+    private File checkpointFolder;
+
     private boolean ignoreBlobs;
     private AwsS3ClientBuilderConfigurer builderConfigurer;
     private S3Uri s3Url;
@@ -89,6 +107,18 @@ public class DuplicateS3LifecycleHook extends AbstractLifecycleHook {
         this.threadPoolTaskExecutor = threadPoolTaskExecutor;
     }
 
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public void setMaxConcurrentCopies(int maxConcurrentCopies) {
+        this.maxConcurrentCopies = maxConcurrentCopies;
+    }
+
+    public void setCheckpointFolder(File checkpointFolder) {
+        this.checkpointFolder = checkpointFolder;
+    }
+
     @Override
     protected void doInit(Configuration config) throws ConfigurationException, DeployerException {
         builderConfigurer = new AwsS3ClientBuilderConfigurer(config);
@@ -100,7 +130,9 @@ public class DuplicateS3LifecycleHook extends AbstractLifecycleHook {
         Configuration srcTargetConfig = config.subset(CONFIG_KEY_SOURCE_CONFIG);
         String srcUri = HttpUtils.encodeUrlMacro(appendIfMissing(getRequiredStringProperty(srcTargetConfig, CONFIG_KEY_URL), DELIMITER));
         srcS3Url = s3Utilities.parseUri(URI.create(srcUri));
-        srcLocalRepoPath = getRequiredStringProperty(srcTargetConfig, CONFIG_KEY_LOCAL_REPO_URL);
+        if (mode == Mode.LOCAL_REPO) {
+            srcLocalRepoPath = getRequiredStringProperty(srcTargetConfig, CONFIG_KEY_LOCAL_REPO_URL);
+        }
     }
 
     protected S3AsyncClient buildClient(AwsS3ClientBuilderConfigurer builderConfigurer) {
@@ -109,6 +141,12 @@ public class DuplicateS3LifecycleHook extends AbstractLifecycleHook {
         return builder.build();
     }
 
+    protected S3Client buildSyncClient(AwsS3ClientBuilderConfigurer builderConfigurer) {
+        S3ClientBuilder builder = S3Client.builder();
+        builderConfigurer.configureClientBuilder(builder);
+        return builder.build();
+    }
+
     /**
      * Get the list of paths to copy between buckets.
      * This method will list all files in the source repository (filtering out .blob files if ignoreBlobs is true).
@@ -131,6 +169,11 @@ public class DuplicateS3LifecycleHook extends AbstractLifecycleHook {
 
     @Override
     protected void doExecute(Target target) throws DeployerException {
+        if (mode == Mode.BUCKET_DIFF) {
+            duplicateBucketDiff();
+            return;
+        }
+
         logger.info("Starting S3 content duplicate from '{}' for site '{}' to '{}' for site '{}'", srcS3Url, sourceSiteName, s3Url, siteName);
         Path repoPath = Path.of(this.srcLocalRepoPath);
         if (!repoPath.toFile().exists()) {
@@ -150,4 +193,98 @@ public class DuplicateS3LifecycleHook extends AbstractLifecycleHook {
         logger.info("Completed S3 content duplicate from '{}' for site '{}' to '{}' for site '{}'", srcS3Url, sourceSiteName, s3Url, siteName);
     }
 
+    /**
+     * Copies the objects of the source bucket that are missing or changed in the target bucket.
+     *
+     * @throws DeployerException if any object couldn't be copied
+     */
+    protected void duplicateBucketDiff() throws DeployerException {
+        String srcBucket = getBucket(srcS3Url, sourceSiteName);
+        String srcPrefix = getPrefix(getS3BaseKey(srcS3Url, sourceSiteName));
+        String bucket = getBucket(s3Url, siteName);
+        String prefix = getPrefix(getS3BaseKey(s3Url, siteName));
+
+        String startAfter = loadCheckpoint();
+        if (startAfter != null) {
+            logger.info("Resuming S3 content duplicate for site '{}' after '{}'", siteName, startAfter);
+        }
+
+        logger.info("Starting S3 content diff duplicate from '{}' for site '{}' to '{}' for site '{}'", srcS3Url,
+                    sourceSiteName, s3Url, siteName);
+
+        S3DiffCopier.Result result;
+        try (S3Client syncClient = buildSyncClient(builderConfigurer);
+             S3AsyncClient asyncClient = buildClient(builderConfigurer);
+             S3TransferManager transferManager = AwsUtils.buildTransferManager(asyncClient)) {
+            S3DiffCopier copier = new S3DiffCopier(syncClient, transferManager, maxConcurrentCopies);
+            result = copier.copy(srcBucket, srcPrefix, bucket, prefix,
+                                 key -> !ignoreBlobs || !key.endsWith(blobExtension), startAfter,
+                                 checkpointFolder != null ? this::saveCheckpoint : null);
+        }
+
+        if (result.hasErrors()) {
+            throw new DeployerException(format("Unable to copy %d objects during S3 content duplication from site " +
+                                               "'%s' to '%s': %s", result.getFailed(), sourceSiteName, siteName,
+                                               result.getErrors()));
+        }
+
+        deleteCheckpoint();
+
+        logger.info("Completed S3 content diff duplicate for site '{}': {} objects copied, {} already up to date",
+                    siteName, result.getCopied(), result.getSkipped());
+    }
+
+    /**
+     * Returns the key prefix for the base key, which ends with a delimiter unless it's empty
+     */
+    private String getPrefix(String baseKey) {
+        return stripStart(appendIfMissing(baseKey, DELIMITER), DELIMITER);
+    }
+
+    private File getCheckpointFile() {
+        return new File(checkpointFolder, CHECKPOINT_FILE_PREFIX + siteName + CHECKPOINT_FILE_EXTENSION);
+    }
+
+    private String loadCheckpoint() {
+        if (checkpointFolder == null || !getCheckpointFile().exists()) {
+            return null;
+        }
+
+        try {
+            return Files.readString(getCheckpointFile().toPath());
+        } catch (IOException e) {
+            logger.warn("Unable to read checkpoint file {}, the duplication will start from the beginning",
+                        getCheckpointFile(), e);
+            return null;
+        }
+    }
+
+    private void saveCheckpoint(String key) {
+        File tmpFile = new File(checkpointFolder, CHECKPOINT_FILE_PREFIX + siteName + ".tmp");
+        try {
+            FileUtils.forceMkdir(checkpointFolder);
+            Files.writeString(tmpFile.toPath(), key);
+            Files.move(tmpFile.toPath(), getCheckpointFile().toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Unable to write checkpoint file {}", getCheckpointFile(), e);
+
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
+    private void deleteCheckpoint() {
+        if (checkpointFolder != null) {
+            FileUtils.deleteQuietly(getCheckpointFile());
+        }
+    }
+
+    /**
+     * The source of the objects to duplicate
+     */
+    public enum Mode {
+        LOCAL_REPO,
+        BUCKET_DIFF
+    }
+
 }
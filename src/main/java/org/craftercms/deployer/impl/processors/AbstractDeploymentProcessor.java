@@ -223,11 +223,14 @@ public abstract class AbstractDeploymentProcessor implements DeploymentProcessor
      * @return the param value, or null if the param is not set or current deployment is null
      */
     protected Object getDeploymentParam(String param) {
-        Target target = TargetImpl.getCurrent();
-        if (target == null) {
-            return null;
+        Deployment currentDeployment = TargetImpl.getCurrentThreadDeployment();
+        if (currentDeployment == null) {
+            Target target = TargetImpl.getCurrent();
+            if (target == null) {
+                return null;
+            }
+            currentDeployment = target.getCurrentDeployment();
         }
-        Deployment currentDeployment = target.getCurrentDeployment();
         return currentDeployment == null ? null : currentDeployment.getParam(param);
     }
 
@@ -18,37 +18,61 @@ package org.craftercms.deployer.impl.processors;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.ListUtils;
 import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.craftercms.commons.config.ConfigurationException;
+import org.craftercms.core.service.CacheService;
 import org.craftercms.core.service.ContentStoreService;
 import org.craftercms.core.service.Context;
 import org.craftercms.core.util.cache.CacheTemplate;
 import org.craftercms.deployer.api.ChangeSet;
 import org.craftercms.deployer.api.Deployment;
 import org.craftercms.deployer.api.ProcessorExecution;
+import org.craftercms.deployer.api.Target;
 import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.craftercms.deployer.impl.TargetImpl;
 import org.craftercms.deployer.utils.BooleanUtils;
+import org.craftercms.deployer.utils.core.CacheKeyIndex;
+import org.craftercms.deployer.utils.core.DependencyGraph;
+import org.craftercms.deployer.utils.core.DependencyGraphManager;
+import org.craftercms.deployer.utils.git.WorkTreeSnapshot;
 import org.craftercms.search.batch.BatchIndexer;
 import org.craftercms.search.batch.UpdateSet;
 import org.craftercms.search.batch.UpdateStatus;
+import org.eclipse.jgit.lib.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 import java.util.regex.Pattern;
 
 import static org.apache.commons.collections4.ListUtils.emptyIfNull;
 import static org.craftercms.commons.config.ConfigUtils.getBooleanProperty;
+import static org.craftercms.commons.config.ConfigUtils.getIntegerProperty;
 import static org.craftercms.commons.config.ConfigUtils.getStringProperty;
+import static org.craftercms.deployer.impl.DeploymentConstants.LATEST_COMMIT_ID_PARAM_NAME;
 import static org.craftercms.deployer.impl.DeploymentConstants.REPROCESS_ALL_FILES_PARAM_NAME;
+import static org.craftercms.deployer.impl.DeploymentConstants.SEARCH_INDEX_LANE_PARAM_NAME;
 
 /**
- * Processor that indexes the files on the change set, using one or several {@link BatchIndexer}. After the files have
- * been indexed it submits a commit. A processor instance can be configured with the following YAML properties:
+ * Processor that indexes the files on the change set, using one or several {@link BatchIndexer}. After all the
+ * files have been indexed it submits a single commit. A processor instance can be configured with the following YAML
+ * properties:
  *
  * <ul>
  *     <li><strong>ignoreIndexId:</strong> If the index ID should be ignored, in other words, if the index ID should
@@ -57,6 +81,12 @@ import static org.craftercms.deployer.impl.DeploymentConstants.REPROCESS_ALL_FIL
  *     <li><strong>reindexItemsOnComponentUpdates:</strong> Flag that indicates that if a component is updated, all
  *     other pages and components that include it should be updated too. This needs to be done when flattening is
  *     enabled, since the component needs to be re-included in pages/components. By default is true.</li>
+ *     <li><strong>indexerThreads:</strong> The number of threads that index the files at the same time. The files
+ *     are split in as many batches as threads, and the indexers are executed one after the other for each batch, so
+ *     the writes of the same file are never reordered. By default is 1 (no concurrency).</li>
+ *     <li><strong>commitEnabled:</strong> If a commit (refresh) should be submitted after the files have been
+ *     indexed. Can be disabled when waiting for the periodic refresh of the index is acceptable. By default is
+ *     true.</li>
  * </ul>
  *
  * @author avasquez
@@ -69,12 +99,15 @@ public abstract class AbstractSearchIndexingProcessor extends AbstractMainDeploy
     protected static final String IGNORE_INDEX_ID_CONFIG_KEY = "ignoreIndexId";
     protected static final String REINDEX_ITEMS_ON_COMPONENT_UPDATES = "reindexItemsOnComponentUpdates";
     protected static final String CREATE_INDEX_IF_MISSING_CONFIG_KEY = "createIndexIfMissing";
+    protected static final String INDEXER_THREADS_CONFIG_KEY = "indexerThreads";
+    protected static final String COMMIT_ENABLED_CONFIG_KEY = "commitEnabled";
 
     protected static final Pattern DEFAULT_DESCRIPTOR_PATH_PATTERN = Pattern.compile("^/site/.+\\.xml$");
     protected static final Pattern DEFAULT_COMPONENT_PATH_PATTERN = Pattern.compile("^/site/components/.+$");
     protected static final int DEFAULT_ITEMS_THAT_INCLUDE_COMPONENT_QUERY_ROWS = 100;
 
     protected CacheTemplate cacheTemplate;
+    protected final CacheKeyIndex cacheKeyIndex = new CacheKeyIndex();
     protected ObjectFactory<Context> contextFactory;
     protected ContentStoreService contentStoreService;
     protected List<BatchIndexer> batchIndexers;
@@ -83,12 +116,20 @@ public abstract class AbstractSearchIndexingProcessor extends AbstractMainDeploy
     protected Pattern componentPathPattern;
     protected int itemsThatIncludeComponentQueryRows;
     protected String indexIdFormat;
+    protected DependencyGraphManager dependencyGraphManager;
+    protected WorkTreeSnapshot searchIndexSnapshot;
+    protected ObjectFactory<Context> searchIndexSnapshotContextFactory;
 
     // Config properties (populated on init)
 
     protected String indexId;
     protected boolean reindexItemsOnComponentUpdates;
     protected boolean createIndexIfMissing;
+    protected boolean commitEnabled;
+    protected int indexerThreads;
+
+    protected ExecutorService indexerExecutor;
+    protected ExecutorService searchIndexLaneExecutor;
 
     public AbstractSearchIndexingProcessor() {
         this.descriptorPathPattern = DEFAULT_DESCRIPTOR_PATH_PATTERN;
@@ -165,6 +206,29 @@ public abstract class AbstractSearchIndexingProcessor extends AbstractMainDeploy
         this.indexIdFormat = indexIdFormat;
     }
 
+    /**
+     * Sets the manager of the dependency graph used to find the items affected by the update of a descriptor. If not
+     * set, the affected items are found by querying the index.
+     */
+    public void setDependencyGraphManager(DependencyGraphManager dependencyGraphManager) {
+        this.dependencyGraphManager = dependencyGraphManager;
+    }
+
+    /**
+     * Sets the snapshot used by the deployments of the search index lane to read the files of the commit they are
+     * pinned to. If not set, the files are read from the working tree of the local repo.
+     */
+    public void setSearchIndexSnapshot(WorkTreeSnapshot searchIndexSnapshot) {
+        this.searchIndexSnapshot = searchIndexSnapshot;
+    }
+
+    /**
+     * Sets the factory for the {@link Context} of the search index snapshot.
+     */
+    public void setSearchIndexSnapshotContextFactory(ObjectFactory<Context> searchIndexSnapshotContextFactory) {
+        this.searchIndexSnapshotContextFactory = searchIndexSnapshotContextFactory;
+    }
+
     @Override
     protected void doInit(Configuration config) throws ConfigurationException {
         boolean ignoreIndexId = getBooleanProperty(config, IGNORE_INDEX_ID_CONFIG_KEY, false);
@@ -181,14 +245,30 @@ public abstract class AbstractSearchIndexingProcessor extends AbstractMainDeploy
 
         createIndexIfMissing = getBooleanProperty(config, CREATE_INDEX_IF_MISSING_CONFIG_KEY, true);
 
+        commitEnabled = getBooleanProperty(config, COMMIT_ENABLED_CONFIG_KEY, true);
+
         if (CollectionUtils.isEmpty(batchIndexers)) {
             throw new IllegalStateException("At least one batch indexer should be provided");
         }
+
+        indexerThreads = getIntegerProperty(config, INDEXER_THREADS_CONFIG_KEY, 1);
+        if (indexerThreads > 1) {
+            indexerExecutor = Executors.newFixedThreadPool(indexerThreads,
+                                                           new CustomizableThreadFactory(name + "-indexer-"));
+            // Threads are only started if the search index lane is used
+            searchIndexLaneExecutor = Executors.newFixedThreadPool(
+                indexerThreads, new CustomizableThreadFactory(name + "-search-index-lane-indexer-"));
+        }
     }
 
     @Override
     protected void doDestroy() throws DeployerException {
-        // Do nothing
+        if (indexerExecutor != null) {
+            indexerExecutor.shutdownNow();
+        }
+        if (searchIndexLaneExecutor != null) {
+            searchIndexLaneExecutor.shutdownNow();
+        }
     }
 
     @Override
@@ -213,44 +293,27 @@ public abstract class AbstractSearchIndexingProcessor extends AbstractMainDeploy
         boolean isReprocessAll = BooleanUtils.toBoolean(getDeploymentParam(REPROCESS_ALL_FILES_PARAM_NAME));
         changeSet = super.getFilteredChangeSet(changeSet);
         if (changeSet != null && !changeSet.isEmpty() && xmlFlatteningEnabled && !isReprocessAll) {
+            DependencyGraph dependencyGraph = getDependencyGraph();
+            BiFunction<String, String, List<String>> inheritingItemsResolver = dependencyGraph != null ?
+                (id, path) -> getDependents(dependencyGraph, path, false) :
+                this::getItemsThatInheritDescriptor;
+            BiFunction<String, String, List<String>> includingItemsResolver = dependencyGraph != null ?
+                (id, path) -> getDependents(dependencyGraph, path, true) :
+                this::getItemsThatIncludeComponent;
+
             List<String> createdFiles = changeSet.getCreatedFiles();
             List<String> updatedFiles = changeSet.getUpdatedFiles();
             List<String> deletedFiles = changeSet.getDeletedFiles();
             List<String> newUpdatedFiles = new ArrayList<>(updatedFiles);
+            Set<String> changedFiles = getChangedFiles(createdFiles, updatedFiles, deletedFiles);
 
-            if (CollectionUtils.isNotEmpty(createdFiles)) {
-                for (String path : createdFiles) {
-                    if (isDescriptor(path)) {
-                        addItemsThatInheritFromDescriptorToUpdatedFiles(path, createdFiles, newUpdatedFiles,
-                                                                        deletedFiles);
-                    }
-                    if (reindexItemsOnComponentUpdates && isComponent(path)) {
-                        addItemsThatIncludeComponentToUpdatedFiles(path, createdFiles, newUpdatedFiles, deletedFiles);
-                    }
-                }
-            }
-
-            if (CollectionUtils.isNotEmpty(updatedFiles)) {
-                for (String path : updatedFiles) {
-                    if (isDescriptor(path)) {
-                        addItemsThatInheritFromDescriptorToUpdatedFiles(path, createdFiles, newUpdatedFiles,
-                                                                        deletedFiles);
-                    }
-                    if (reindexItemsOnComponentUpdates && isComponent(path)) {
-                        addItemsThatIncludeComponentToUpdatedFiles(path, createdFiles, newUpdatedFiles, deletedFiles);
-                    }
-                }
-            }
-
-
-            if (CollectionUtils.isNotEmpty(deletedFiles)) {
-                for (String path : deletedFiles) {
+            for (List<String> files : Arrays.asList(createdFiles, updatedFiles, deletedFiles)) {
+                for (String path : emptyIfNull(files)) {
                     if (isDescriptor(path)) {
-                        addItemsThatInheritFromDescriptorToUpdatedFiles(path, createdFiles, newUpdatedFiles,
-                                                                        deletedFiles);
+                        addAffectedItemsToUpdatedFiles(path, changedFiles, newUpdatedFiles, inheritingItemsResolver);
                     }
                     if (reindexItemsOnComponentUpdates && isComponent(path)) {
-                        addItemsThatIncludeComponentToUpdatedFiles(path, createdFiles, newUpdatedFiles, deletedFiles);
+                        addAffectedItemsToUpdatedFiles(path, changedFiles, newUpdatedFiles, includingItemsResolver);
                     }
                 }
             }
@@ -275,36 +338,341 @@ public abstract class AbstractSearchIndexingProcessor extends AbstractMainDeploy
         UpdateSet updateSet = new UpdateSet(ListUtils.union(createdFiles, updatedFiles), deletedFiles);
         updateSet.setUpdateDetails(filteredChangeSet.getUpdateDetails());
         updateSet.setUpdateLog(filteredChangeSet.getUpdateLog());
-        UpdateStatus updateStatus = new UpdateStatus();
+        String indexId = resolveIndexId(deployment);
 
-        execution.setStatusDetails(updateStatus);
+        Context context = getContext(deployment);
 
-        Context context = contextFactory.getObject();
+        if (dependencyGraphManager != null) {
+            // Dependencies left by a previous deployment that failed
+            dependencyGraphManager.discardRecordedDependencies(context.getId());
+        }
 
-        logger.debug("Clearing cache for context {}", context);
-        cacheTemplate.getCacheService().clearScope(context);
+        Set<String> changedPaths = getChangedPaths(filteredChangeSet, originalChangeSet);
+        // Without flattening the items that depend on a changed descriptor are not resolved, so the whole cache
+        // needs to be cleared
+        if (BooleanUtils.toBoolean(deployment.getParam(REPROCESS_ALL_FILES_PARAM_NAME)) ||
+            (!xmlFlatteningEnabled && changedPaths.stream().anyMatch(this::isDescriptor))) {
+            logger.debug("Clearing cache for context {}", context);
+            clearCache(context);
+        } else {
+            invalidateCache(context, changedPaths);
+        }
 
-        boolean failed = false;
-        try {
-            for (BatchIndexer indexer : batchIndexers) {
-                indexer.updateIndex(indexId, siteName, contentStoreService, context, updateSet,
-                                    updateStatus);
+        UpdateStatus updateStatus;
+        if (indexerExecutor != null) {
+            updateStatus = new SynchronizedUpdateStatus();
+        } else {
+            updateStatus = new UpdateStatus();
+        }
 
-                if (updateStatus.getAttemptedUpdatesAndDeletes() > 0) {
-                    doCommit(indexId);
-                }
+        execution.setStatusDetails(updateStatus);
+
+        try {
+            updateIndex(deployment, indexId, context, filteredChangeSet, updateSet, updateStatus);
 
-                failed = failed || updateStatus.getFailedUpdatesAndDeletes() > 0;
+            // Commit only once, after all indexers are done
+            if (commitEnabled && updateStatus.getAttemptedUpdatesAndDeletes() > 0) {
+                doCommit(indexId);
             }
         } catch (Exception e) {
             throw new DeployerException("Error while performing search indexing", e);
         }
 
-        if (failed) {
+        if (updateStatus.getFailedUpdatesAndDeletes() > 0) {
             throw new DeployerException("Failed to update or delete some files, please check previous log messages " +
                     "for the causes of the failures");
         }
 
+        updateDependencyGraph(deployment, context, originalChangeSet != null ? originalChangeSet : filteredChangeSet);
+
+        String mirrorIndexId = resolveMirrorIndexId(deployment);
+        if (mirrorIndexId != null) {
+            logger.info("Indexing the same changes in index {}", mirrorIndexId);
+
+            try {
+                UpdateStatus mirrorStatus = indexerExecutor != null? new SynchronizedUpdateStatus() :
+                                                                    new UpdateStatus();
+                updateIndex(deployment, mirrorIndexId, context, filteredChangeSet, updateSet, mirrorStatus);
+            } catch (Exception e) {
+                logger.warn("Error indexing the changes in index {}", mirrorIndexId, e);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Sends the files of the change set to all the indexers, using the indexer threads if they're enabled.
+     */
+    protected void updateIndex(Deployment deployment, String indexId, Context context, ChangeSet changeSet,
+                               UpdateSet updateSet, UpdateStatus updateStatus) throws Exception {
+        if (indexerExecutor != null) {
+            updateIndexConcurrently(getIndexerExecutor(deployment), indexId, context, changeSet, updateStatus);
+        } else {
+            for (BatchIndexer indexer : batchIndexers) {
+                indexer.updateIndex(indexId, siteName, contentStoreService, context, updateSet, updateStatus);
+            }
+        }
+    }
+
+    /**
+     * Splits the files in as many batches as indexer threads and indexes the batches at the same time in the indexer
+     * pool. See {@link #updateIndexInBatches(ExecutorService, String, Context, ChangeSet, int, UpdateStatus)}.
+     */
+    protected void updateIndexConcurrently(ExecutorService executor, String indexId, Context context,
+                                           ChangeSet changeSet, UpdateStatus updateStatus) throws Exception {
+        int files = emptyIfNull(changeSet.getCreatedFiles()).size() + emptyIfNull(changeSet.getUpdatedFiles()).size() +
+                    emptyIfNull(changeSet.getDeletedFiles()).size();
+        int batchSize = Math.max(1, (files + indexerThreads - 1) / indexerThreads);
+
+        updateIndexInBatches(executor, indexId, context, changeSet, batchSize, updateStatus);
+    }
+
+    /**
+     * Splits the files in batches and indexes each batch in the executor. The batches are disjoint and all indexers
+     * are executed one after the other for the batch, in the configured order, so all the writes of the same file
+     * happen in a single thread and in the same order as when nothing is executed in parallel. All the threads
+     * update the same {@link UpdateStatus}, which needs to be thread safe (see {@link SynchronizedUpdateStatus}).
+     */
+    protected void updateIndexInBatches(ExecutorService executor, String indexId, Context context,
+                                        ChangeSet changeSet, int batchSize, UpdateStatus updateStatus)
+            throws Exception {
+        List<String> updatePaths = ListUtils.union(emptyIfNull(changeSet.getCreatedFiles()),
+                                                   emptyIfNull(changeSet.getUpdatedFiles()));
+        List<UpdateSet> batches = new ArrayList<>();
+        for (List<String> updates : ListUtils.partition(updatePaths, batchSize)) {
+            batches.add(createBatch(changeSet, updates, Collections.emptyList()));
+        }
+        for (List<String> deletes : ListUtils.partition(emptyIfNull(changeSet.getDeletedFiles()), batchSize)) {
+            batches.add(createBatch(changeSet, Collections.emptyList(), deletes));
+        }
+
+        logger.debug("Indexing {} batches of up to {} files", batches.size(), batchSize);
+
+        List<Callable<Void>> tasks = new ArrayList<>(batches.size());
+
+        for (UpdateSet batch : batches) {
+            tasks.add(() -> {
+                for (BatchIndexer indexer : batchIndexers) {
+                    indexer.updateIndex(indexId, siteName, contentStoreService, context, batch, updateStatus);
+                }
+                return null;
+            });
+        }
+
+        executeIndexingTasks(executor, tasks);
+    }
+
+    protected UpdateSet createBatch(ChangeSet changeSet, List<String> updates, List<String> deletes) {
+        UpdateSet batch = new UpdateSet(updates, deletes);
+        batch.setUpdateDetails(changeSet.getUpdateDetails());
+        batch.setUpdateLog(changeSet.getUpdateLog());
+
+        return batch;
+    }
+
+    /**
+     * Executes the indexing tasks in the specified executor, with the thread locals and MDC of the current thread,
+     * and waits for all of them to finish. If a task fails, the rest are cancelled.
+     */
+    protected void executeIndexingTasks(ExecutorService executor, List<Callable<Void>> tasks) throws Exception {
+        Target target = TargetImpl.getCurrent();
+        Deployment deployment = TargetImpl.getCurrentThreadDeployment();
+        Map<String, String> mdc = MDC.getCopyOfContextMap();
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+
+        for (Callable<Void> task : tasks) {
+            futures.add(executor.submit(() -> {
+                // Pool threads are reused by other deployments, so the thread locals of this one need to be set
+                TargetImpl.setCurrent(target);
+                TargetImpl.setCurrentThreadDeployment(deployment);
+                if (mdc != null) {
+                    MDC.setContextMap(mdc);
+                }
+
+                try {
+                    return task.call();
+                } finally {
+                    TargetImpl.clear();
+                    MDC.clear();
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Indicates if the deployment runs on the search index lane, concurrently with the publishes
+     */
+    protected boolean isSearchIndexLane(Deployment deployment) {
+        return BooleanUtils.toBoolean(deployment.getParam(SEARCH_INDEX_LANE_PARAM_NAME));
+    }
+
+    /**
+     * Returns the context used to read the files. Deployments of the search index lane read the files from the
+     * snapshot of the commit they are pinned to, which is updated first, so publishes running at the same time don't
+     * change the files while they are indexed.
+     */
+    protected Context getContext(Deployment deployment) throws DeployerException {
+        Object commitId = deployment.getParam(LATEST_COMMIT_ID_PARAM_NAME);
+        if (searchIndexSnapshot != null && isSearchIndexLane(deployment) && commitId instanceof ObjectId) {
+            searchIndexSnapshot.update((ObjectId) commitId);
+
+            return searchIndexSnapshotContextFactory.getObject();
+        }
+
+        return contextFactory.getObject();
+    }
+
+    /**
+     * Returns the executor used to index the batches of the deployment. Deployments of the search index lane have
+     * their own threads, so they don't delay the publishes.
+     */
+    protected ExecutorService getIndexerExecutor(Deployment deployment) {
+        return isSearchIndexLane(deployment) ? searchIndexLaneExecutor : indexerExecutor;
+    }
+
+    /**
+     * Returns the dependency graph, or null if there's no graph manager or the graph is still being loaded in the
+     * background (in which case the index is queried instead).
+     */
+    protected DependencyGraph getDependencyGraph() {
+        if (dependencyGraphManager != null) {
+            DependencyGraph graph = dependencyGraphManager.getGraphIfReady();
+            if (graph == null) {
+                logger.info("The dependency graph is not ready yet, the index will be queried instead");
+            }
+
+            return graph;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the items that depend on the path according to the graph, up to the max number of dependents of the
+     * graph manager.
+     */
+    protected List<String> getDependents(DependencyGraph dependencyGraph, String path, boolean followIncludes) {
+        int maxDependents = dependencyGraphManager.getMaxDependents();
+        List<String> dependents = new ArrayList<>(dependencyGraph.getDependents(path, followIncludes,
+                                                                                maxDependents));
+        if (dependents.size() >= maxDependents) {
+            logger.warn("{} has more than {} dependents, only the closest ones will be reindexed. Run a full " +
+                        "reindex to update the rest", path, maxDependents);
+        }
+
+        return dependents;
+    }
+
+    /**
+     * Updates the dependency graph with the descriptors of the change set, or rebuilds it in the background if all
+     * files are being reprocessed. Only called once the files have been indexed successfully.
+     */
+    protected void updateDependencyGraph(Deployment deployment, Context context, ChangeSet changeSet) {
+        if (dependencyGraphManager != null) {
+            try {
+                if (BooleanUtils.toBoolean(deployment.getParam(REPROCESS_ALL_FILES_PARAM_NAME))) {
+                    dependencyGraphManager.discardRecordedDependencies(context.getId());
+                    dependencyGraphManager.rebuildInBackground();
+                } else {
+                    dependencyGraphManager.update(context.getId(),
+                                                  ListUtils.union(emptyIfNull(changeSet.getCreatedFiles()),
+                                                                  emptyIfNull(changeSet.getUpdatedFiles())),
+                                                  emptyIfNull(changeSet.getDeletedFiles()));
+                }
+            } catch (DeployerException e) {
+                logger.warn("Unable to update the dependency graph", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the paths whose cached content might be stale after the deployment: all the changed files (including
+     * the ones that are indexed again because they depend on a changed file), plus all their parent folders, since
+     * the cached trees of a folder contain the items below it.
+     */
+    protected Set<String> getChangedPaths(ChangeSet filteredChangeSet, ChangeSet originalChangeSet) {
+        Set<String> paths = new HashSet<>();
+        for (ChangeSet changeSet : Arrays.asList(filteredChangeSet, originalChangeSet)) {
+            if (changeSet != null) {
+                for (String path : ListUtils.union(ListUtils.union(emptyIfNull(changeSet.getCreatedFiles()),
+                                                                   emptyIfNull(changeSet.getUpdatedFiles())),
+                                                   emptyIfNull(changeSet.getDeletedFiles()))) {
+                    for (path = CacheKeyIndex.normalizePath(path); StringUtils.isNotEmpty(path);
+                         path = FilenameUtils.getFullPathNoEndSeparator(path)) {
+                        // The parents of this path were already added
+                        if (!paths.add(path)) {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        paths.remove("/");
+
+        return paths;
+    }
+
+    /**
+     * Removes from the cache of the context only the entries for the specified paths, so the content that didn't
+     * change (like shared components, section defaults or level descriptors) doesn't need to be loaded and parsed
+     * again. The entries are found through the {@link CacheKeyIndex} of the processor, which only parses the keys
+     * added since the last deployment. If the entries can't be removed individually, the whole cache of the context
+     * is cleared.
+     */
+    protected void invalidateCache(Context context, Set<String> paths) {
+        if (paths.isEmpty() || !context.isCacheOn()) {
+            return;
+        }
+
+        CacheService cacheService = cacheTemplate.getCacheService();
+        try {
+            cacheKeyIndex.update(cacheService.getKeys(context));
+
+            Set<Object> keys = cacheKeyIndex.getKeys(paths);
+            for (Object key : keys) {
+                cacheService.remove(context, key);
+                cacheKeyIndex.remove(key);
+            }
+
+            logger.debug("Removed {} cache entries of context {} for {} changed paths", keys.size(), context,
+                         paths.size());
+        } catch (Exception e) {
+            logger.warn("Unable to invalidate the cache entries of the changed paths, clearing cache for context {}",
+                        context, e);
+            clearCache(context);
+        }
+    }
+
+    protected void clearCache(Context context) {
+        cacheTemplate.getCacheService().clearScope(context);
+        cacheKeyIndex.clear();
+    }
+
+    /**
+     * Returns the ID of the index where the files of the deployment should be indexed. By default it's always the
+     * configured index ID.
+     */
+    protected String resolveIndexId(Deployment deployment) {
+        return indexId;
+    }
+
+    /**
+     * Returns the ID of an index that should also receive the changes of the deployment (like an index that is being
+     * rebuilt at the same time), or null if there's none. By default there's none. Failures indexing in this index
+     * are only logged.
+     */
+    protected String resolveMirrorIndexId(Deployment deployment) {
         return null;
     }
 
@@ -323,6 +691,18 @@ public abstract class AbstractSearchIndexingProcessor extends AbstractMainDeploy
         return createdFiles.contains(path) || updatedFiles.contains(path) || deletedFiles.contains(path);
     }
 
+    /**
+     * Returns all the files of the change set in a set, so they can be looked up without scanning the lists
+     */
+    protected Set<String> getChangedFiles(List<String> createdFiles, List<String> updatedFiles,
+                                         List<String> deletedFiles) {
+        Set<String> changedFiles = new HashSet<>(emptyIfNull(createdFiles));
+        changedFiles.addAll(emptyIfNull(updatedFiles));
+        changedFiles.addAll(emptyIfNull(deletedFiles));
+
+        return changedFiles;
+    }
+
     protected abstract List<String> getItemsThatInheritDescriptor(String indexId, String descriptorPath);
 
     protected void addItemsThatInheritFromDescriptorToUpdatedFiles(String descriptorPath, List<String> createdFiles,
@@ -343,10 +723,24 @@ public abstract class AbstractSearchIndexingProcessor extends AbstractMainDeploy
     protected void addAffectedItemsToUpdatedFiles(String path, List<String> createdFiles, List<String> updatedFiles,
                                                   List<String> deletedFiles,
                                                   BiFunction<String, String, List<String>> function) {
+        addAffectedItemsToUpdatedFiles(path, getChangedFiles(createdFiles, updatedFiles, deletedFiles), updatedFiles,
+                                       function);
+    }
+
+    /**
+     * Adds the items affected by the change of the path to the updated files, unless they're already changed.
+     *
+     * @param path         the changed path
+     * @param changedFiles all the files of the change set, the added items are included too
+     * @param updatedFiles the updated files of the change set
+     * @param function     the function that returns the affected items
+     */
+    protected void addAffectedItemsToUpdatedFiles(String path, Set<String> changedFiles, List<String> updatedFiles,
+                                                  BiFunction<String, String, List<String>> function) {
         List<String> itemPaths = function.apply(indexId, path);
         if (CollectionUtils.isNotEmpty(itemPaths)) {
             for (String itemPath : itemPaths) {
-                if (!isBeingUpdatedOrDeleted(itemPath, createdFiles, updatedFiles, deletedFiles)) {
+                if (changedFiles.add(itemPath)) {
                     logger.debug("Item {} is affected by the update of {}. Adding it to list of updated files.",
                         itemPath, path);
 
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.impl.processors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.craftercms.search.batch.UpdateStatus;
+
+/**
+ * {@link UpdateStatus} that can be shared by all the threads that index the batches of a deployment, so the status
+ * details of the processor execution show the progress while the files are still being indexed. The lists returned
+ * are copies, so they can be serialized while the status is being updated.
+ *
+ * @since 4.2.0
+ */
+public class SynchronizedUpdateStatus extends UpdateStatus {
+
+    @Override
+    public synchronized int getAttemptedUpdatesAndDeletes() {
+        return super.getAttemptedUpdatesAndDeletes();
+    }
+
+    @Override
+    public synchronized void incrementAttemptedUpdatesAndDeletes() {
+        super.incrementAttemptedUpdatesAndDeletes();
+    }
+
+    @Override
+    public synchronized List<String> getSuccessfulUpdates() {
+        return new ArrayList<>(super.getSuccessfulUpdates());
+    }
+
+    @Override
+    public synchronized void addSuccessfulUpdate(String path) {
+        super.addSuccessfulUpdate(path);
+    }
+
+    @Override
+    public synchronized List<String> getSuccessfulDeletes() {
+        return new ArrayList<>(super.getSuccessfulDeletes());
+    }
+
+    @Override
+    public synchronized void addSuccessfulDelete(String path) {
+        super.addSuccessfulDelete(path);
+    }
+
+    @Override
+    public synchronized List<String> getFailedUpdates() {
+        return new ArrayList<>(super.getFailedUpdates());
+    }
+
+    @Override
+    public synchronized void addFailedUpdate(String path) {
+        super.addFailedUpdate(path);
+    }
+
+    @Override
+    public synchronized List<String> getFailedDeletes() {
+        return new ArrayList<>(super.getFailedDeletes());
+    }
+
+    @Override
+    public synchronized void addFailedDelete(String path) {
+        super.addFailedDelete(path);
+    }
+
+    @Override
+    public synchronized int getFailedUpdatesAndDeletes() {
+        return super.getFailedUpdatesAndDeletes();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return super.toString();
+    }
+
+}
@@ -17,8 +17,16 @@
 package org.craftercms.deployer.impl.processors.aws;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 import org.apache.commons.collections.CollectionUtils;
@@ -31,16 +39,18 @@ import org.craftercms.deployer.api.ProcessorExecution;
 import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.impl.processors.AbstractMainDeploymentProcessor;
 import org.craftercms.deployer.utils.aws.AwsClientBuilderConfigurer;
+import org.craftercms.deployer.utils.aws.InvalidationCoalescer;
+import org.craftercms.deployer.utils.aws.InvalidationPathCompactor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.util.UriUtils;
-import software.amazon.awssdk.services.cloudformation.CloudFormationClient;
+import software.amazon.awssdk.services.cloudfront.CloudFrontAsyncClient;
+import software.amazon.awssdk.services.cloudfront.CloudFrontAsyncClientBuilder;
 import software.amazon.awssdk.services.cloudfront.CloudFrontClient;
-import software.amazon.awssdk.services.cloudfront.CloudFrontClientBuilder;
 import software.amazon.awssdk.services.cloudfront.model.CreateInvalidationRequest;
-import software.amazon.awssdk.services.cloudfront.model.CreateInvalidationResponse;
 import software.amazon.awssdk.services.cloudfront.model.InvalidationBatch;
 import software.amazon.awssdk.services.cloudfront.model.Paths;
+import software.amazon.awssdk.services.cloudfront.waiters.CloudFrontAsyncWaiter;
 
 import static org.craftercms.commons.config.ConfigUtils.*;
 
@@ -51,8 +61,22 @@ import static org.craftercms.commons.config.ConfigUtils.*;
  *
  * <ul>
  *     <li><strong>distributions:</strong> List of distributions ids</li>
+ *     <li><strong>compaction.threshold:</strong> Number of changed files (or compacted subfolders) in a folder
+ *     from which they are invalidated with a single {@code /folder/*} path, 0 to disable it</li>
+ *     <li><strong>compaction.maxPaths:</strong> Max number of paths of an invalidation. If there are more, the
+ *     folders with the most paths are compacted</li>
+ *     <li><strong>compaction.maxWildcards:</strong> Max number of wildcard paths of an invalidation</li>
+ *     <li><strong>debounceWindow:</strong> Seconds during which the invalidations of a distribution from several
+ *     deployments are merged into one, 0 to send them right away. When enabled, the deployment doesn't wait for
+ *     the invalidation: failed invalidations are retried, and if they still fail their paths are added to the next
+ *     invalidation and the failure is reported in the status of the deployment that sends it</li>
+ *     <li><strong>waitForCompletion:</strong> If the processor should wait until the invalidations have
+ *     completed</li>
+ *     <li><strong>completionTimeout:</strong> Max seconds to wait for the invalidations to complete</li>
  * </ul>
  *
+ * The invalidations of all distributions are sent at the same time.
+ *
  * @author joseross
  */
 public class CloudFrontInvalidationProcessor extends AbstractMainDeploymentProcessor {
@@ -60,6 +84,23 @@ public class CloudFrontInvalidationProcessor extends AbstractMainDeploymentProce
     private static final Logger logger = LoggerFactory.getLogger(CloudFrontInvalidationProcessor.class);
 
     protected static final String CONFIG_KEY_DISTRIBUTIONS = "distributions";
+    protected static final String CONFIG_KEY_COMPACTION_THRESHOLD = "compaction.threshold";
+    protected static final String CONFIG_KEY_COMPACTION_MAX_PATHS = "compaction.maxPaths";
+    protected static final String CONFIG_KEY_COMPACTION_MAX_WILDCARDS = "compaction.maxWildcards";
+    protected static final String CONFIG_KEY_DEBOUNCE_WINDOW = "debounceWindow";
+    protected static final String CONFIG_KEY_WAIT_FOR_COMPLETION = "waitForCompletion";
+    protected static final String CONFIG_KEY_COMPLETION_TIMEOUT = "completionTimeout";
+
+    // CloudFront limits: 3000 paths per invalidation, 15 wildcard paths in progress
+    protected static final int DEFAULT_COMPACTION_THRESHOLD = 20;
+    protected static final int DEFAULT_COMPACTION_MAX_PATHS = 3000;
+    protected static final int DEFAULT_COMPACTION_MAX_WILDCARDS = 15;
+    protected static final int DEFAULT_COMPLETION_TIMEOUT = 900;
+
+    /**
+     * Merges the invalidations of several deployments (optional)
+     */
+    protected InvalidationCoalescer invalidationCoalescer;
 
     // Config properties (populated on init)
 
@@ -71,6 +112,26 @@ public class CloudFrontInvalidationProcessor extends AbstractMainDeploymentProce
      * List of distribution ids
      */
     protected String[] distributions;
+    /**
+     * Compacts the paths of the invalidations
+     */
+    protected InvalidationPathCompactor pathCompactor;
+    /**
+     * Seconds during which the invalidations of several deployments are merged
+     */
+    protected int debounceWindow;
+    /**
+     * Indicates if the processor should wait for the invalidations to complete
+     */
+    protected boolean waitForCompletion;
+    /**
+     * Max seconds to wait for the invalidations to complete
+     */
+    protected int completionTimeout;
+
+    public void setInvalidationCoalescer(InvalidationCoalescer invalidationCoalescer) {
+        this.invalidationCoalescer = invalidationCoalescer;
+    }
 
     /**
      * {@inheritDoc}
@@ -79,6 +140,13 @@ public class CloudFrontInvalidationProcessor extends AbstractMainDeploymentProce
     protected void doInit(final Configuration config) throws ConfigurationException {
         builderConfigurer = new AwsClientBuilderConfigurer(config);
         distributions = getRequiredStringArrayProperty(config, CONFIG_KEY_DISTRIBUTIONS);
+        pathCompactor = new InvalidationPathCompactor(
+            getIntegerProperty(config, CONFIG_KEY_COMPACTION_THRESHOLD, DEFAULT_COMPACTION_THRESHOLD),
+            getIntegerProperty(config, CONFIG_KEY_COMPACTION_MAX_PATHS, DEFAULT_COMPACTION_MAX_PATHS),
+            getIntegerProperty(config, CONFIG_KEY_COMPACTION_MAX_WILDCARDS, DEFAULT_COMPACTION_MAX_WILDCARDS));
+        debounceWindow = getIntegerProperty(config, CONFIG_KEY_DEBOUNCE_WINDOW, 0);
+        waitForCompletion = getBooleanProperty(config, CONFIG_KEY_WAIT_FOR_COMPLETION, false);
+        completionTimeout = getIntegerProperty(config, CONFIG_KEY_COMPLETION_TIMEOUT, DEFAULT_COMPLETION_TIMEOUT);
     }
 
     /**
@@ -91,8 +159,6 @@ public class CloudFrontInvalidationProcessor extends AbstractMainDeploymentProce
 
         logger.info("Performing Cloudfront invalidation...");
 
-        CloudFrontClient client = buildClient();
-
         List<String> changedFiles =
             ListUtils.union(filteredChangeSet.getUpdatedFiles(), filteredChangeSet.getDeletedFiles());
 
@@ -101,34 +167,30 @@ public class CloudFrontInvalidationProcessor extends AbstractMainDeploymentProce
                                        .map(f -> UriUtils.encodePath(f, StandardCharsets.UTF_8))
                                        .collect(Collectors.toList());
 
-            Paths paths = Paths.builder()
-                    .items(changedFiles)
-                    .quantity(changedFiles.size())
-                    .build();
+            if (invalidationCoalescer != null && debounceWindow > 0) {
+                logger.info("Queueing invalidation of {} files", changedFiles.size());
 
-            logger.info("Will invalidate {} files", changedFiles.size());
+                List<String> failures = new ArrayList<>();
+                for (String distribution : distributions) {
+                    InvalidationCoalescer.Failure failure =
+                        invalidationCoalescer.add(distribution, builderConfigurer, changedFiles,
+                                                  Duration.ofSeconds(debounceWindow),
+                                                  paths -> invalidate(List.of(distribution), paths));
+                    if (failure != null) {
+                        failures.add(String.format("%s (%d paths, %s at %s)", distribution,
+                                                   failure.getPaths().size(), failure.getError(),
+                                                   failure.getTime()));
+                    }
+                }
 
-            for (String distribution : distributions) {
-                try {
-                    String caller = UUID.randomUUID().toString();
-
-                    logger.info("Creating invalidation for distribution {} with reference {}", distribution, caller);
-
-                    InvalidationBatch batch = InvalidationBatch.builder()
-                            .paths(paths)
-                            .callerReference(caller)
-                            .build();
-                    CreateInvalidationRequest request = CreateInvalidationRequest.builder()
-                            .distributionId(distribution)
-                            .invalidationBatch(batch)
-                            .build();
-                    CreateInvalidationResponse result = client.createInvalidation(request);
-
-                    logger.info("Created invalidation {} for distribution {}", result.invalidation().id(),
-                                distribution);
-                } catch (Exception e) {
-                    throw new DeployerException("Error invalidating changed files for distribution " + distribution, e);
+                if (!failures.isEmpty()) {
+                    String details = "Previous merged invalidations failed, their paths were queued again: " +
+                                     String.join(", ", failures);
+                    logger.warn(details);
+                    execution.setStatusDetails(details);
                 }
+            } else {
+                invalidate(Arrays.asList(distributions), changedFiles);
             }
         } else {
             logger.info("No actual files that need to be invalidated");
@@ -138,10 +200,74 @@ public class CloudFrontInvalidationProcessor extends AbstractMainDeploymentProce
     }
 
     /**
-     * Builds the {@link CloudFrontClient} client.
+     * Creates an invalidation of the compacted paths in each distribution, all at the same time, and optionally
+     * waits for them to complete.
+     *
+     * @param distributions the distribution ids
+     * @param changedFiles  the encoded paths of the changed files
+     * @throws DeployerException if the invalidation of any distribution failed
+     */
+    protected void invalidate(Collection<String> distributions, Collection<String> changedFiles)
+            throws DeployerException {
+        List<String> compactedPaths = pathCompactor.compact(changedFiles);
+        Paths paths = Paths.builder()
+                .items(compactedPaths)
+                .quantity(compactedPaths.size())
+                .build();
+
+        logger.info("Will invalidate {} files with {} paths", changedFiles.size(), compactedPaths.size());
+
+        try (CloudFrontAsyncClient client = buildClient();
+             CloudFrontAsyncWaiter waiter = client.waiter()) {
+            Map<String, CompletableFuture<?>> futures = new LinkedHashMap<>();
+
+            for (String distribution : distributions) {
+                String caller = UUID.randomUUID().toString();
+
+                logger.info("Creating invalidation for distribution {} with reference {}", distribution, caller);
+
+                InvalidationBatch batch = InvalidationBatch.builder()
+                        .paths(paths)
+                        .callerReference(caller)
+                        .build();
+                CreateInvalidationRequest request = CreateInvalidationRequest.builder()
+                        .distributionId(distribution)
+                        .invalidationBatch(batch)
+                        .build();
+
+                futures.put(distribution, client.createInvalidation(request).thenCompose(result -> {
+                    String id = result.invalidation().id();
+
+                    logger.info("Created invalidation {} for distribution {}", id, distribution);
+
+                    if (!waitForCompletion) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+
+                    return waiter.waitUntilInvalidationCompleted(
+                            r -> r.distributionId(distribution).id(id),
+                            o -> o.waitTimeout(Duration.ofSeconds(completionTimeout)))
+                        .thenAccept(response -> logger.info("Invalidation {} for distribution {} completed",
+                                                            id, distribution));
+                }));
+            }
+
+            for (Map.Entry<String, CompletableFuture<?>> entry : futures.entrySet()) {
+                try {
+                    entry.getValue().join();
+                } catch (CompletionException e) {
+                    throw new DeployerException("Error invalidating changed files for distribution " +
+                                                entry.getKey(), e.getCause());
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the {@link CloudFrontAsyncClient} client.
      */
-    protected CloudFrontClient buildClient() {
-        CloudFrontClientBuilder builder = CloudFrontClient.builder();
+    protected CloudFrontAsyncClient buildClient() {
+        CloudFrontAsyncClientBuilder builder = CloudFrontAsyncClient.builder();
         builderConfigurer.configureClientBuilder(builder);
 
         return builder.build();
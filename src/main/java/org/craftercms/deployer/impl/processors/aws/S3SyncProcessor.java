@@ -24,11 +24,10 @@ import org.craftercms.deployer.api.ChangeSet;
 import org.craftercms.deployer.api.Deployment;
 import org.craftercms.deployer.api.ProcessorExecution;
 import org.craftercms.deployer.api.exceptions.DeployerException;
-import org.craftercms.deployer.utils.aws.AwsS3Utils;
+import org.craftercms.deployer.utils.aws.S3BatchDeleter;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
 import software.amazon.awssdk.transfer.s3.model.UploadFileRequest;
 
@@ -69,6 +68,26 @@ public class S3SyncProcessor extends AbstractS3Processor {
      */
     protected boolean ignoreBlobs;
 
+    /**
+     * The max number of delete requests sent at the same time
+     */
+    protected int maxConcurrentDeleteRequests = 8;
+
+    /**
+     * The max number of times the files that failed to be deleted with a transient error are retried
+     */
+    protected int maxDeleteRetries = 5;
+
+    /**
+     * The delay in milliseconds before the first delete retry, doubled on each attempt
+     */
+    protected long deleteRetryDelay = 1000;
+
+    /**
+     * Indicates if the deployment should fail when some files can't be deleted, otherwise they're only logged
+     */
+    protected boolean failOnDeleteErrors;
+
     @ConstructorProperties({"threadPoolTaskExecutor", "localRepoUrl", "blobExtension"})
     public S3SyncProcessor(ThreadPoolTaskExecutor threadPoolTaskExecutor, String localRepoUrl, String blobExtension) {
         super(threadPoolTaskExecutor);
@@ -76,6 +95,22 @@ public class S3SyncProcessor extends AbstractS3Processor {
         this.blobExtension = blobExtension;
     }
 
+    public void setMaxConcurrentDeleteRequests(int maxConcurrentDeleteRequests) {
+        this.maxConcurrentDeleteRequests = maxConcurrentDeleteRequests;
+    }
+
+    public void setMaxDeleteRetries(int maxDeleteRetries) {
+        this.maxDeleteRetries = maxDeleteRetries;
+    }
+
+    public void setDeleteRetryDelay(long deleteRetryDelay) {
+        this.deleteRetryDelay = deleteRetryDelay;
+    }
+
+    public void setFailOnDeleteErrors(boolean failOnDeleteErrors) {
+        this.failOnDeleteErrors = failOnDeleteErrors;
+    }
+
     @Override
     protected void doInit(Configuration config) throws ConfigurationException {
         super.doInit(config);
@@ -107,9 +142,8 @@ public class S3SyncProcessor extends AbstractS3Processor {
             }
 
 
-            S3Client client = buildClient();
             if (CollectionUtils.isNotEmpty(filteredChangeSet.getDeletedFiles())) {
-                deleteFiles(client, filteredChangeSet.getDeletedFiles());
+                deleteFiles(asyncClient, filteredChangeSet.getDeletedFiles());
             }
         } catch (S3Exception e) {
             throw new DeployerException("Error connecting to S3", e);
@@ -162,37 +196,41 @@ public class S3SyncProcessor extends AbstractS3Processor {
     }
 
     /**
-     * Performs the delete of the given files.
-     * @param client AWS S3 client
+     * Performs the delete of the given files. The files that can't be deleted (after retrying the transient errors)
+     * are logged, and only fail the deployment if {@link #failOnDeleteErrors} is enabled.
+     * @param client AWS S3 async client
      * @param files list of files to delete
-     * @throws DeployerException if there is any error deleting the files
+     * @throws DeployerException if the delete requests can't be sent, or some files can't be deleted and
+     *                           {@link #failOnDeleteErrors} is enabled
      */
-    protected void deleteFiles(S3Client client, List<String> files) throws DeployerException {
+    protected void deleteFiles(S3AsyncClient client, List<String> files) throws DeployerException {
         if(CollectionUtils.isNotEmpty(files)) {
             logger.info("Deleting {} files", files.size());
             logger.debug("Deleting files: {}", files);
             List<String> keys =
                 files.stream().map(this::getS3Key).collect(Collectors.toList());
 
+            S3BatchDeleter.Result result;
             try {
-                for (List<String> subList : ListUtils.partition(keys, AwsS3Utils.MAX_DELETE_KEYS_PER_REQUEST)) {
-                    List<ObjectIdentifier> identifiers = subList.stream().map(s ->
-                            ObjectIdentifier.builder()
-                                    .key(s)
-                                    .build())
-                            .collect(Collectors.toList());
-
-                    DeleteObjectsRequest request = DeleteObjectsRequest.builder()
-                            .bucket(getBucket())
-                            .delete(Delete.builder().objects(identifiers).build())
-                            .build();
-                    DeleteObjectsResponse result = client.deleteObjects(request);
-
-                    logger.debug("Deleted files: {}", result.deleted());
-                }
+                S3BatchDeleter deleter = new S3BatchDeleter(client, getBucket(), maxConcurrentDeleteRequests,
+                                                            maxDeleteRetries, deleteRetryDelay);
+                result = deleter.delete(keys);
             } catch (Exception e) {
                 throw new DeployerException("Error deleting files", e);
             }
+
+            if (result.hasErrors()) {
+                String message = format("Unable to delete %d files: %s", result.getFailed(),
+                                        result.getErrors().stream()
+                                              .map(e -> e.key() + " (" + e.code() + ")")
+                                              .collect(Collectors.joining(", ")));
+                if (failOnDeleteErrors) {
+                    throw new DeployerException(message);
+                }
+                logger.error(message);
+            }
+
+            logger.debug("Deleted {} files", result.getDeleted());
         }
     }
 
@@ -17,6 +17,7 @@ package org.craftercms.deployer.impl.processors.git;
 
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.lang3.BooleanUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.craftercms.commons.config.ConfigUtils;
 import org.craftercms.commons.config.ConfigurationException;
 import org.craftercms.commons.git.utils.GitUtils;
@@ -27,6 +28,7 @@ import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.impl.ProcessedCommitsStore;
 import org.craftercms.deployer.impl.processors.AbstractMainDeploymentProcessor;
 import org.craftercms.deployer.impl.processors.opensearch.OpenSearchIndexingProcessor;
+import org.craftercms.deployer.utils.core.PathSelector;
 import org.craftercms.search.batch.UpdateDetail;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.LogCommand;
@@ -44,6 +46,7 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
 
+import static java.util.stream.Collectors.toList;
 import static org.apache.commons.lang3.StringUtils.prependIfMissing;
 import static org.apache.commons.lang3.StringUtils.removeEnd;
 import static org.craftercms.deployer.impl.DeploymentConstants.*;
@@ -54,6 +57,16 @@ import static org.craftercms.deployer.impl.DeploymentConstants.*;
  * is used basically to create the change set and should be used before other processors that actually process the change set, like
  * {@link OpenSearchIndexingProcessor}.
  *
+ * <p>Search index deployments can also provide the change set explicitly, through the
+ * {@code updated_paths} and {@code deleted_paths} params (e.g. to fix the documents that are out of sync), in which
+ * case no diff is done.</p>
+ *
+ * <p>Search index deployments can be limited to some sections of the site through the {@code reindex_paths} param,
+ * with a list of path prefixes or globs. Without a {@code from_commit_id}, the change set has all the files of the
+ * working tree that match (only the matching subtrees are walked), otherwise it has the changes since that commit
+ * that match. The items outside those sections that depend on the changed files are still reindexed by the indexing
+ * processor, which also deletes the documents of the selected sections that don't have a file anymore.</p>
+ *
  * @author avasquez
  */
 public class GitDiffProcessor extends AbstractMainDeploymentProcessor {
@@ -122,8 +135,39 @@ public class GitDiffProcessor extends AbstractMainDeploymentProcessor {
     protected ChangeSet doMainProcess(Deployment deployment, ProcessorExecution execution,
                                       ChangeSet filteredChangeSet, ChangeSet originalChangeSet) throws DeployerException {
         boolean regularPublish = deployment.getMode() == Deployment.Mode.PUBLISH;
+        if (!regularPublish) {
+            ChangeSet changeSet = getChangeSetFromParams(deployment);
+            if (changeSet != null) {
+                logger.info("Using change set from deployment params: {} updated, {} deleted files",
+                            changeSet.getUpdatedFiles().size(), changeSet.getDeletedFiles().size());
+
+                try (Git git = openLocalRepository()) {
+                    deployment.addParam(LATEST_COMMIT_ID_PARAM_NAME, getLatestCommitId(git));
+                }
+                execution.setStatusDetails("Change set provided by the deployment");
+
+                return changeSet;
+            }
+        }
+
         ObjectId fromCommitId = getFromCommitIdParam(deployment);
         boolean reprocessAllFiles = getReprocessAllFilesParam(deployment);
+        PathSelector pathSelector = regularPublish ? null : getReindexPathsParam(deployment);
+
+        if (pathSelector != null && fromCommitId == null) {
+            logger.info("Files from local repo {} that match {} will be reprocessed", localRepoFolder,
+                        deployment.getParam(REINDEX_PATHS_PARAM_NAME));
+
+            ChangeSet changeSet = new ChangeSet(new ArrayList<>(pathSelector.select(localRepoFolder,
+                                                                                    blobFileExtension)),
+                                                new ArrayList<>(), new ArrayList<>());
+            try (Git git = openLocalRepository()) {
+                deployment.addParam(LATEST_COMMIT_ID_PARAM_NAME, getLatestCommitId(git));
+            }
+            execution.setStatusDetails("Files selected from the reindex paths");
+
+            return changeSet;
+        }
 
         if (fromCommitId == null && reprocessAllFiles) {
             if (regularPublish) {
@@ -145,6 +189,9 @@ public class GitDiffProcessor extends AbstractMainDeploymentProcessor {
             ObjectId latestCommitId = getLatestCommitId(git);
 
             ChangeSet changeSet = resolveChangeSetFromCommits(git, previousCommitId, latestCommitId);
+            if (changeSet != null && pathSelector != null) {
+                changeSet = filterChangeSet(changeSet, pathSelector);
+            }
 
             if (changeSet != null) {
                 if (includeGitLog) {
@@ -300,6 +347,45 @@ public class GitDiffProcessor extends AbstractMainDeploymentProcessor {
         return removeEnd(prependIfMissing(path, "/"), blobFileExtension);
     }
 
+    /**
+     * Returns the change set with the paths of the {@code updated_paths} and {@code deleted_paths} params, or null if
+     * none is provided
+     */
+    protected ChangeSet getChangeSetFromParams(Deployment deployment) {
+        List<String> updatedFiles = getPathsParam(deployment, UPDATED_PATHS_PARAM_NAME);
+        List<String> deletedFiles = getPathsParam(deployment, DELETED_PATHS_PARAM_NAME);
+        if (updatedFiles == null && deletedFiles == null) {
+            return null;
+        }
+
+        return new ChangeSet(new ArrayList<>(),
+                             updatedFiles != null ? updatedFiles : new ArrayList<>(),
+                             deletedFiles != null ? deletedFiles : new ArrayList<>());
+    }
+
+    protected List<String> getPathsParam(Deployment deployment, String name) {
+        Object value = deployment.getParam(name);
+        if (value instanceof Collection) {
+            List<String> paths = new ArrayList<>();
+            ((Collection<?>) value).forEach(path -> paths.add(path.toString()));
+            return paths;
+        } else if (value != null) {
+            return new ArrayList<>(Arrays.asList(StringUtils.split(value.toString(), ',')));
+        } else {
+            return null;
+        }
+    }
+
+    protected ChangeSet filterChangeSet(ChangeSet changeSet, PathSelector pathSelector) {
+        return new ChangeSet(changeSet.getCreatedFiles().stream().filter(pathSelector::matches).collect(toList()),
+                             changeSet.getUpdatedFiles().stream().filter(pathSelector::matches).collect(toList()),
+                             changeSet.getDeletedFiles().stream().filter(pathSelector::matches).collect(toList()));
+    }
+
+    protected PathSelector getReindexPathsParam(Deployment deployment) throws DeployerException {
+        return PathSelector.fromParam(deployment.getParam(REINDEX_PATHS_PARAM_NAME));
+    }
+
     protected boolean getReprocessAllFilesParam(Deployment deployment) {
         Object value = deployment.getParam(REPROCESS_ALL_FILES_PARAM_NAME);
         if (value != null) {
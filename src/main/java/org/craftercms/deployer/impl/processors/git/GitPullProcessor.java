@@ -22,6 +22,7 @@ import java.net.URISyntaxException;
 
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.craftercms.commons.config.ConfigurationException;
 import org.craftercms.commons.git.utils.AuthConfiguratorFactory;
 import org.craftercms.commons.git.utils.GitUtils;
@@ -29,6 +30,10 @@ import org.craftercms.deployer.api.ChangeSet;
 import org.craftercms.deployer.api.Deployment;
 import org.craftercms.deployer.api.ProcessorExecution;
 import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.craftercms.deployer.utils.git.ParallelCheckout;
+import org.craftercms.deployer.utils.git.SharedGitObjectsStore;
+import org.eclipse.jgit.api.CreateBranchCommand;
+import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.PullResult;
@@ -36,7 +41,9 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.JGitInternalException;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.merge.MergeStrategy;
+import org.eclipse.jgit.transport.URIish;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,28 +67,76 @@ import static org.craftercms.commons.config.ConfigUtils.getStringProperty;
  *     SSH withRSA key pair authentication.</li>
  * </ul>
  *
+ * <p>When a {@link SharedGitObjectsStore} is provided and shared objects are enabled, new clones fetch the remote
+ * objects into the shared store and attach to it through Git alternates, so targets that track the same remote
+ * repository don't download and store the same objects more than once, and pulls of attached repositories fetch
+ * into the store too. When parallel checkout is enabled, the working tree of new clones is written by several
+ * threads (see {@link ParallelCheckout}), and so is the working tree reset after the index had to be rebuilt.</p>
+ *
  * @author avasquez
  */
 public class GitPullProcessor extends AbstractRemoteGitRepoAwareProcessor {
 
     protected static final String REMOTE_REPO_NAME_CONFIG_KEY = "remoteRepo.name";
 
+    protected static final int PARALLEL_CHECKOUT_BATCH_SIZE = 500;
+
     private static final Logger logger = LoggerFactory.getLogger(GitPullProcessor.class);
 
     // Config properties (populated on init)
 
     protected String remoteRepoName;
 
+    protected SharedGitObjectsStore sharedObjectsStore;
+    protected boolean sharedObjectsEnabled;
+    protected boolean parallelCheckoutEnabled;
+    protected int parallelCheckoutThreads;
+
+    protected ParallelCheckout parallelCheckout;
+
     public GitPullProcessor(File localRepoFolder, AuthConfiguratorFactory authConfiguratorFactory) {
         super(localRepoFolder, authConfiguratorFactory);
     }
 
+    /**
+     * Sets the store of Git objects shared between targets that track the same remote repo.
+     */
+    public void setSharedObjectsStore(SharedGitObjectsStore sharedObjectsStore) {
+        this.sharedObjectsStore = sharedObjectsStore;
+    }
+
+    /**
+     * Sets whether new clones should use the shared objects store, and pulls of repos attached to it fetch into it.
+     */
+    public void setSharedObjectsEnabled(boolean sharedObjectsEnabled) {
+        this.sharedObjectsEnabled = sharedObjectsEnabled;
+    }
+
+    /**
+     * Sets whether the working tree of new clones (or after the index is rebuilt) should be written by several
+     * threads.
+     */
+    public void setParallelCheckoutEnabled(boolean parallelCheckoutEnabled) {
+        this.parallelCheckoutEnabled = parallelCheckoutEnabled;
+    }
+
+    /**
+     * Sets the number of threads used to write the working tree when parallel checkout is enabled.
+     */
+    public void setParallelCheckoutThreads(int parallelCheckoutThreads) {
+        this.parallelCheckoutThreads = parallelCheckoutThreads;
+    }
+
     @Override
     protected void doInit(Configuration config) throws ConfigurationException {
         super.doInit(config);
 
         remoteRepoName = getStringProperty(config, REMOTE_REPO_NAME_CONFIG_KEY, Constants.DEFAULT_REMOTE_NAME);
 
+        if (parallelCheckoutEnabled) {
+            parallelCheckout = new ParallelCheckout(parallelCheckoutThreads, PARALLEL_CHECKOUT_BATCH_SIZE);
+        }
+
         // use true as default for backward compatibility
         failDeploymentOnFailure = config.getBoolean(FAIL_DEPLOYMENT_CONFIG_KEY, true);
     }
@@ -106,6 +161,12 @@ public class GitPullProcessor extends AbstractRemoteGitRepoAwareProcessor {
     }
 
     protected void doPull(ProcessorExecution execution) throws DeployerException {
+        boolean resetWorkingTree = false;
+
+        if (useSharedObjects()) {
+            updateSharedObjects();
+        }
+
         try (Git git = openLocalRepository()) {
             logger.info("Executing git pull for repository {}...", localRepoFolder);
 
@@ -133,6 +194,8 @@ public class GitPullProcessor extends AbstractRemoteGitRepoAwareProcessor {
                 } catch (IOException ioe) {
                     throw new DeployerException("Error deleting index for local repo " + localRepoFolder, ioe);
                 }
+
+                resetWorkingTree = parallelCheckout != null;
             } else {
                 logger.error("Unknown internal git error in local repository {}", localRepoFolder, e);
                 throw e;
@@ -140,6 +203,10 @@ public class GitPullProcessor extends AbstractRemoteGitRepoAwareProcessor {
         } catch (GitAPIException | URISyntaxException e) {
             throw new DeployerException("Execution of git pull failed:", e);
         }
+
+        if (resetWorkingTree) {
+            resetWithParallelCheckout();
+        }
     }
 
     protected String checkMergeResult(MergeResult mergeResult) throws DeployerException {
@@ -184,12 +251,20 @@ public class GitPullProcessor extends AbstractRemoteGitRepoAwareProcessor {
                 FileUtils.forceMkdir(localRepoFolder);
             }
 
+            if (cloneInSteps()) {
+                return cloneRemoteRepositoryInSteps();
+            }
+
             logger.info("Cloning Git remote repository {} into {}", remoteRepoUrl, localRepoFolder);
 
             return GitUtils.cloneRemoteRepository(remoteRepoName, remoteRepoUrl, remoteRepoBranch,
                                                   authenticationConfigurator, localRepoFolder, null,
                                                   null, null);
-        } catch (IOException | GitAPIException | IllegalArgumentException e) {
+        } catch (DeployerException e) {
+            FileUtils.deleteQuietly(localRepoFolder);
+
+            throw e;
+        } catch (IOException | GitAPIException | URISyntaxException | IllegalArgumentException e) {
             // Force delete so there's no invalid remains
             FileUtils.deleteQuietly(localRepoFolder);
 
@@ -198,6 +273,118 @@ public class GitPullProcessor extends AbstractRemoteGitRepoAwareProcessor {
         }
     }
 
+    protected boolean useSharedObjects() {
+        return sharedObjectsEnabled && sharedObjectsStore != null;
+    }
+
+    /**
+     * If the local repo is attached to the shared objects store, fetches the new objects into the store first, so
+     * the pull only needs to transfer the refs, and makes sure the local repo is registered in the store so its
+     * objects are kept when the store is pruned. Repos that were cloned without the store are not attached, since
+     * all their objects are already local.
+     */
+    protected void updateSharedObjects() throws DeployerException {
+        File gitFolder = new File(localRepoFolder, GitUtils.GIT_FOLDER_NAME);
+        try {
+            if (sharedObjectsStore.isAttached(gitFolder, remoteRepoUrl)) {
+                sharedObjectsStore.fetch(remoteRepoUrl, authenticationConfigurator);
+                sharedObjectsStore.attach(gitFolder, remoteRepoUrl);
+            }
+        } catch (IOException e) {
+            throw new DeployerException("Error reading the alternates of local repo " + localRepoFolder, e);
+        }
+    }
+
+    protected boolean cloneInSteps() {
+        if (useSharedObjects() || parallelCheckout != null) {
+            if (StringUtils.isNotEmpty(remoteRepoBranch)) {
+                return true;
+            } else {
+                logger.warn("No remote repo branch specified for {}, a regular clone will be used", remoteRepoUrl);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Equivalent to a regular clone, but executed in steps: if shared objects are enabled the objects are fetched
+     * into the shared objects store, and the local repo is attached to it before fetching from the remote, so only
+     * the refs need to be transferred. If parallel checkout is enabled the working tree is written by several threads.
+     */
+    protected Git cloneRemoteRepositoryInSteps() throws IOException, GitAPIException, URISyntaxException,
+                                                        DeployerException {
+        logger.info("Cloning Git remote repository {} into {} (shared objects: {}, parallel checkout: {})",
+                    remoteRepoUrl, localRepoFolder, useSharedObjects(), parallelCheckout != null);
+
+        if (useSharedObjects()) {
+            sharedObjectsStore.fetch(remoteRepoUrl, authenticationConfigurator);
+        }
+
+        FileUtils.forceMkdir(localRepoFolder);
+
+        Git.init().setDirectory(localRepoFolder).setInitialBranch(remoteRepoBranch).call().close();
+
+        if (useSharedObjects()) {
+            sharedObjectsStore.attach(new File(localRepoFolder, GitUtils.GIT_FOLDER_NAME), remoteRepoUrl);
+        }
+
+        Git git = GitUtils.openRepository(localRepoFolder);
+        try {
+            git.remoteAdd().setName(remoteRepoName).setUri(new URIish(remoteRepoUrl)).call();
+
+            FetchCommand fetch = git.fetch().setRemote(remoteRepoName);
+            authenticationConfigurator.configureAuthentication(fetch);
+            fetch.call();
+
+            String startPoint = remoteRepoName + "/" + remoteRepoBranch;
+            ObjectId commitId = git.getRepository().resolve(startPoint);
+
+            if (parallelCheckout != null && commitId != null &&
+                parallelCheckout.isSupported(git.getRepository(), commitId)) {
+                // HEAD already points to the branch, so it only needs to be created
+                git.branchCreate()
+                   .setName(remoteRepoBranch)
+                   .setStartPoint(startPoint)
+                   .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
+                   .call();
+
+                int count = parallelCheckout.checkout(git.getRepository(), commitId);
+
+                logger.info("{} files written in {} using parallel checkout", count, localRepoFolder);
+            } else {
+                git.checkout()
+                   .setCreateBranch(true)
+                   .setName(remoteRepoBranch)
+                   .setStartPoint(startPoint)
+                   .setUpstreamMode(CreateBranchCommand.SetupUpstreamMode.TRACK)
+                   .call();
+            }
+
+            return git;
+        } catch (IOException | GitAPIException | URISyntaxException e) {
+            git.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Resets the working tree and the index to HEAD using the parallel checkout.
+     */
+    protected void resetWithParallelCheckout() throws DeployerException {
+        try (Git git = openLocalRepository()) {
+            ObjectId headId = git.getRepository().resolve(Constants.HEAD);
+            if (headId != null && parallelCheckout.isSupported(git.getRepository(), headId)) {
+                int count = parallelCheckout.checkout(git.getRepository(), headId);
+
+                logger.info("{} files and the index rewritten in {} using parallel checkout", count,
+                            localRepoFolder);
+            }
+        } catch (IOException e) {
+            throw new DeployerException("Error rewriting the working tree of local repo " + localRepoFolder, e);
+        }
+    }
+
     protected boolean isRepositoryCorrupted(Throwable ex) {
         Throwable cause = ex.getCause();
         return cause instanceof CorruptObjectException || cause instanceof EOFException;
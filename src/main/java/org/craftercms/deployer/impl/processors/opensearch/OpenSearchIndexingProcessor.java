@@ -16,26 +16,87 @@
 
 package org.craftercms.deployer.impl.processors.opensearch;
 
+import org.craftercms.deployer.api.ChangeSet;
+import org.craftercms.deployer.api.Deployment;
+import org.craftercms.deployer.api.ProcessorExecution;
+import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.impl.processors.AbstractSearchIndexingProcessor;
+import org.craftercms.deployer.utils.BooleanUtils;
+import org.craftercms.deployer.utils.core.PathSelector;
+import org.craftercms.deployer.utils.opensearch.IndexPool;
+import org.craftercms.deployer.utils.opensearch.IndexWriteLocks;
+import org.craftercms.deployer.utils.opensearch.ShadowIndexManager;
+import org.craftercms.deployer.utils.opensearch.ShadowIndexManager.ShadowIndex;
 import org.craftercms.search.commons.exception.SearchException;
 import org.craftercms.search.opensearch.OpenSearchAdminService;
 import org.craftercms.search.opensearch.OpenSearchService;
 import org.craftercms.search.opensearch.exception.OpenSearchException;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch._types.Time;
 import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.beans.ConstructorProperties;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import static org.apache.commons.collections4.ListUtils.emptyIfNull;
+import static org.craftercms.deployer.impl.DeploymentConstants.DELETED_PATHS_PARAM_NAME;
+import static org.craftercms.deployer.impl.DeploymentConstants.FROM_COMMIT_ID_PARAM_NAME;
+import static org.craftercms.deployer.impl.DeploymentConstants.REINDEX_PATHS_PARAM_NAME;
+import static org.craftercms.deployer.impl.DeploymentConstants.REPROCESS_ALL_FILES_PARAM_NAME;
+import static org.craftercms.deployer.impl.DeploymentConstants.SHADOW_INDEX_ID_PARAM_NAME;
+import static org.craftercms.deployer.impl.DeploymentConstants.UPDATED_PATHS_PARAM_NAME;
 
 /**
- * Implementation of {@link AbstractSearchIndexingProcessor} for OpenSearch
+ * Implementation of {@link AbstractSearchIndexingProcessor} for OpenSearch.
+ *
+ * <p>When shadow reindexing is enabled, full search index deployments are written to a new version of the index
+ * (see {@link ShadowIndexManager}) that replaces the current one only after all files have been indexed
+ * successfully, so searches are never executed against a partial index.</p>
+ *
+ * <p>When a search client is provided, the items affected by a changed component or descriptor are retrieved page by
+ * page from a point in time of the index (using {@code search_after} on {@code _shard_doc}), so all of them are found,
+ * no matter how many there are, without loading a single big response. The pages are only fetched as they're
+ * consumed, and no more than {@code maxAffectedItems} items are returned.</p>
+ *
+ * <p>When the site is in the {@link IndexPool}, shadow reindexing and points in time are not used (they would apply
+ * to the whole pool), and after each deployment the site is promoted in the background to a dedicated index if it
+ * has grown past the threshold of the pool.</p>
+ *
+ * <p>The writes of each deployment hold the lock of the index in the shared {@link IndexWriteLocks}, so they wait
+ * while the index is being promoted out of the pool or cloned.</p>
  *
  * @author joseross
  * @since 3.1.0
  */
 public class OpenSearchIndexingProcessor extends AbstractSearchIndexingProcessor {
 
+    private static final Logger logger = LoggerFactory.getLogger(OpenSearchIndexingProcessor.class);
+
+    private static final String DEFAULT_POINT_IN_TIME_KEEP_ALIVE = "1m";
+
     private static final String DEFAULT_LOCAL_ID_FIELD_NAME = "localId";
 
+    private static final String SHARD_DOC_FIELD_NAME = "_shard_doc";
+
+    private static final int DEFAULT_MAX_AFFECTED_ITEMS = 10000;
+
     private static final String DEFAULT_INHERITS_FROM_FIELD_NAME = "inheritsFrom_smv";
 
     private static final String DEFAULT_INCLUDED_DESCRIPTORS_FIELD_NAME = "includedDescriptors";
@@ -54,6 +115,24 @@ public class OpenSearchIndexingProcessor extends AbstractSearchIndexingProcessor
 
     protected OpenSearchAdminService searchAdminService;
 
+    protected ShadowIndexManager shadowIndexManager;
+
+    protected boolean shadowReindexEnabled;
+
+    protected volatile ShadowIndex activeShadowIndex;
+
+    protected OpenSearchClient searchClient;
+
+    protected String pointInTimeKeepAlive = DEFAULT_POINT_IN_TIME_KEEP_ALIVE;
+
+    protected int maxAffectedItems = DEFAULT_MAX_AFFECTED_ITEMS;
+
+    protected volatile boolean pointInTimeDisabledWarned;
+
+    protected IndexPool indexPool;
+
+    protected IndexWriteLocks writeLocks;
+
     @ConstructorProperties({"searchService", "searchAdminService"})
     public OpenSearchIndexingProcessor(OpenSearchService searchService,
                                        OpenSearchAdminService searchAdminService) {
@@ -61,10 +140,199 @@ public class OpenSearchIndexingProcessor extends AbstractSearchIndexingProcessor
         this.searchAdminService = searchAdminService;
     }
 
+    public void setShadowIndexManager(ShadowIndexManager shadowIndexManager) {
+        this.shadowIndexManager = shadowIndexManager;
+    }
+
+    public void setShadowReindexEnabled(boolean shadowReindexEnabled) {
+        this.shadowReindexEnabled = shadowReindexEnabled;
+    }
+
+    public void setSearchClient(OpenSearchClient searchClient) {
+        this.searchClient = searchClient;
+    }
+
+    public void setPointInTimeKeepAlive(String pointInTimeKeepAlive) {
+        this.pointInTimeKeepAlive = pointInTimeKeepAlive;
+    }
+
+    public void setMaxAffectedItems(int maxAffectedItems) {
+        this.maxAffectedItems = maxAffectedItems;
+    }
+
+    public void setIndexPool(IndexPool indexPool) {
+        this.indexPool = indexPool;
+    }
+
+    public void setWriteLocks(IndexWriteLocks writeLocks) {
+        this.writeLocks = writeLocks;
+    }
+
+    @Override
+    protected ChangeSet doMainProcess(Deployment deployment, ProcessorExecution execution,
+                                      ChangeSet filteredChangeSet, ChangeSet originalChangeSet)
+            throws DeployerException {
+        ShadowIndex shadowIndex = null;
+        if (isShadowReindex(deployment)) {
+            shadowIndex = shadowIndexManager.createShadowIndex(indexId);
+        }
+        if (shadowIndex == null) {
+            if (indexId == null) {
+                return super.doMainProcess(deployment, execution, filteredChangeSet, originalChangeSet);
+            }
+
+            filteredChangeSet = addDeletedSelectedFiles(deployment, filteredChangeSet, originalChangeSet);
+
+            ChangeSet changeSet;
+            Lock writeLock = writeLocks != null ? writeLocks.lockWrites(indexId) : null;
+            try {
+                changeSet = super.doMainProcess(deployment, execution, filteredChangeSet, originalChangeSet);
+            } finally {
+                if (writeLock != null) {
+                    writeLock.unlock();
+                }
+            }
+
+            if (indexPool != null && indexPool.isEnabled()) {
+                indexPool.promoteInBackground(indexId, siteName);
+            }
+
+            return changeSet;
+        }
+
+        deployment.addParam(SHADOW_INDEX_ID_PARAM_NAME, shadowIndex.getName());
+        activeShadowIndex = shadowIndex;
+        try {
+            ChangeSet changeSet = super.doMainProcess(deployment, execution, filteredChangeSet, originalChangeSet);
+
+            shadowIndexManager.swap(shadowIndex);
+
+            return changeSet;
+        } catch (DeployerException | RuntimeException e) {
+            shadowIndexManager.discard(shadowIndex);
+            throw e;
+        } finally {
+            activeShadowIndex = null;
+            deployment.removeParam(SHADOW_INDEX_ID_PARAM_NAME);
+        }
+    }
+
+    /**
+     * Adds to the change set the documents of the sections selected by the {@code reindex_paths} param that don't
+     * have a file anymore. Without a {@code from_commit_id}, the change set only has the files of the working tree
+     * that match, so the documents of the files deleted since they were indexed would be left in the index.
+     */
+    protected ChangeSet addDeletedSelectedFiles(Deployment deployment, ChangeSet filteredChangeSet,
+                                                ChangeSet originalChangeSet) throws DeployerException {
+        if (deployment.getMode() == Deployment.Mode.PUBLISH || filteredChangeSet == null ||
+            deployment.getParam(FROM_COMMIT_ID_PARAM_NAME) != null ||
+            deployment.getParam(UPDATED_PATHS_PARAM_NAME) != null ||
+            deployment.getParam(DELETED_PATHS_PARAM_NAME) != null) {
+            return filteredChangeSet;
+        }
+
+        PathSelector pathSelector = PathSelector.fromParam(deployment.getParam(REINDEX_PATHS_PARAM_NAME));
+        if (pathSelector == null) {
+            return filteredChangeSet;
+        }
+
+        // The original change set has every selected file, even the ones ignored by this processor
+        ChangeSet selectedFiles = originalChangeSet != null ? originalChangeSet : filteredChangeSet;
+        Set<String> existingFiles = new HashSet<>(emptyIfNull(selectedFiles.getCreatedFiles()));
+        existingFiles.addAll(emptyIfNull(selectedFiles.getUpdatedFiles()));
+
+        Set<String> deletedFiles = new LinkedHashSet<>(emptyIfNull(filteredChangeSet.getDeletedFiles()));
+        int previousSize = deletedFiles.size();
+        for (String localId : searchItemIds(indexId, getPathsQuery(pathSelector))) {
+            if (pathSelector.matches(localId) && !existingFiles.contains(localId)) {
+                deletedFiles.add(localId);
+            }
+        }
+
+        if (deletedFiles.size() == previousSize) {
+            return filteredChangeSet;
+        }
+
+        logger.info("{} documents of index {} under the reindex paths don't have a file anymore and will be deleted",
+                    deletedFiles.size() - previousSize, indexId);
+
+        return new ChangeSet(emptyIfNull(filteredChangeSet.getCreatedFiles()),
+                             emptyIfNull(filteredChangeSet.getUpdatedFiles()), new ArrayList<>(deletedFiles));
+    }
+
+    /**
+     * Builds the query for the documents under the roots of the selected paths. The globs are matched afterwards,
+     * since the query only filters by prefix.
+     */
+    protected Query getPathsQuery(PathSelector pathSelector) {
+        List<String> roots = pathSelector.getRoots();
+        if (roots.contains("/")) {
+            return Query.of(q -> q.exists(e -> e.field(localIdFieldName)));
+        }
+
+        return Query.of(q -> q
+                .bool(b -> {
+                    roots.forEach(root -> b.should(s -> s
+                            .prefix(p -> p
+                                    .field(localIdFieldName)
+                                    .value(root)
+                            )
+                    ));
+                    return b.minimumShouldMatch("1");
+                })
+        );
+    }
+
+    /**
+     * While a shadow index is being built, the changes of the other deployments (the publishes executed at the same
+     * time when the search index lane is enabled) are also written to it, so they're not missing once it goes live
+     */
+    @Override
+    protected String resolveMirrorIndexId(Deployment deployment) {
+        ShadowIndex shadowIndex = activeShadowIndex;
+        if (shadowIndex != null && deployment.getParam(SHADOW_INDEX_ID_PARAM_NAME) == null) {
+            return shadowIndex.getName();
+        }
+        return null;
+    }
+
+    /**
+     * Indicates if the index is an alias in the {@link IndexPool}
+     */
+    protected boolean isPooled(String indexId) {
+        return indexPool != null && indexPool.isPooled(indexId);
+    }
+
+    @Override
+    protected String resolveIndexId(Deployment deployment) {
+        Object shadowIndexId = deployment.getParam(SHADOW_INDEX_ID_PARAM_NAME);
+        return shadowIndexId != null ? shadowIndexId.toString() : indexId;
+    }
+
+    /**
+     * Indicates if the deployment should be indexed in a shadow index: only full reindexes (search index
+     * deployments that reprocess all files from the beginning of the history) qualify
+     */
+    protected boolean isShadowReindex(Deployment deployment) {
+        return shadowReindexEnabled && shadowIndexManager != null && indexId != null && !isPooled(indexId) &&
+               deployment.getMode() == Deployment.Mode.SEARCH_INDEX &&
+               BooleanUtils.toBoolean(deployment.getParam(REPROCESS_ALL_FILES_PARAM_NAME)) &&
+               deployment.getParam(FROM_COMMIT_ID_PARAM_NAME) == null &&
+               deployment.getParam(REINDEX_PATHS_PARAM_NAME) == null;
+    }
+
     @Override
     protected void doCreateIndexIfMissing() {
         if (!searchAdminService.indexExists(indexId)) {
-            searchAdminService.createIndex(indexId);
+            if (indexPool != null && indexPool.isEnabled()) {
+                try {
+                    indexPool.addSite(indexId, siteName);
+                } catch (DeployerException e) {
+                    throw new SearchException(indexId, "Error adding site to index pool", e);
+                }
+            } else {
+                searchAdminService.createIndex(indexId);
+            }
         }
     }
 
@@ -97,7 +365,7 @@ public class OpenSearchIndexingProcessor extends AbstractSearchIndexingProcessor
                             )
                     )
             );
-            return searchService.searchField(indexId, localIdFieldName, query);
+            return searchItemIds(indexId, query);
         } catch (OpenSearchException e) {
             throw new SearchException(indexId,
                     "Error executing search of descriptors inheriting from " + descriptorPath, e);
@@ -124,11 +392,172 @@ public class OpenSearchIndexingProcessor extends AbstractSearchIndexingProcessor
                             )
                     )
             );
-            return searchService.searchField(indexId, localIdFieldName, query);
+            return searchItemIds(indexId, query);
         } catch (OpenSearchException e) {
             throw new SearchException(indexId,
                     "Error executing search of descriptors that include component " + componentPath, e);
         }
     }
 
+    /**
+     * Returns the local IDs of all the items that match the query (up to {@code maxAffectedItems}). If there's a
+     * search client, the results are streamed from a point in time, otherwise a single search is executed (limited
+     * by the default size of the search service).
+     */
+    protected List<String> searchItemIds(String indexId, Query query) {
+        if (searchClient == null) {
+            if (!pointInTimeDisabledWarned) {
+                pointInTimeDisabledWarned = true;
+                logger.warn("Point in time searches are disabled for index {}, the items affected by a changed " +
+                            "component or descriptor are limited to a single page of results", indexId);
+            }
+        } else if (isPooled(indexId)) {
+            // Sites in the pool are below its promotion threshold, so a single page is usually enough
+            logger.debug("Index {} is in the index pool, using a single search", indexId);
+        } else {
+            try (ItemIdIterator iterator = streamItemIds(indexId, query)) {
+                Set<String> ids = new LinkedHashSet<>();
+                while (iterator.hasNext() && ids.size() < maxAffectedItems) {
+                    ids.add(iterator.next());
+                }
+                if (iterator.hasNext()) {
+                    logger.warn("More than {} items in index {} are affected, only the first ones will be " +
+                                "reindexed. Run a full reindex to update the rest", maxAffectedItems, indexId);
+                }
+
+                return new ArrayList<>(ids);
+            } catch (IOException | UncheckedIOException |
+                     org.opensearch.client.opensearch._types.OpenSearchException e) {
+                logger.warn("Unable to stream search results from a point in time of index {}, falling back to a " +
+                            "single search, the affected items might be incomplete", indexId, e);
+            }
+        }
+
+        return searchService.searchField(indexId, localIdFieldName, query);
+    }
+
+    /**
+     * Returns an iterator of the local IDs of the documents that match the query, that fetches the pages from a
+     * point in time as they're needed. The point in time is deleted when the iterator is closed.
+     */
+    protected ItemIdIterator streamItemIds(String indexId, Query query) throws IOException {
+        return new ItemIdIterator(indexId, query, Math.max(1, itemsThatIncludeComponentQueryRows),
+                                  createPit(indexId));
+    }
+
+    /**
+     * Builds the search for a page of local IDs. The pages are sorted by {@code _shard_doc}, the cheapest sort that
+     * gives every document of the point in time a unique value for {@code search_after}.
+     */
+    protected SearchRequest buildPageRequest(String pitId, Query query, int pageSize, List<String> searchAfter) {
+        return SearchRequest.of(s -> {
+            s.pit(p -> p
+                            .id(pitId)
+                            .keepAlive(pointInTimeKeepAlive)
+                    )
+                    .query(query)
+                    .size(pageSize)
+                    .source(c -> c
+                            .filter(f -> f
+                                    .includes(localIdFieldName)
+                            )
+                    )
+                    .sort(o -> o
+                            .field(f -> f
+                                    .field(SHARD_DOC_FIELD_NAME)
+                                    .order(SortOrder.Asc)
+                            )
+                    );
+            if (searchAfter != null) {
+                s.searchAfter(searchAfter);
+            }
+            return s;
+        });
+    }
+
+    protected String createPit(String indexId) throws IOException {
+        return searchClient.createPit(p -> p
+                .targetIndexes(indexId)
+                .keepAlive(Time.of(t -> t.time(pointInTimeKeepAlive)))
+        ).pitId();
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected List<Hit<Map>> searchPage(SearchRequest request) throws IOException {
+        return searchClient.search(request, Map.class).hits().hits();
+    }
+
+    protected void deletePit(String pitId) throws IOException {
+        searchClient.deletePit(d -> d.pitId(pitId));
+    }
+
+    /**
+     * Iterator of the local IDs that match a query, read page by page from a point in time
+     */
+    protected class ItemIdIterator implements Iterator<String>, Closeable {
+
+        protected final String indexId;
+        protected final Query query;
+        protected final int pageSize;
+        protected final String pitId;
+
+        protected Iterator<String> page = Collections.emptyIterator();
+        protected List<String> searchAfter;
+        protected boolean lastPage;
+        protected int count;
+
+        public ItemIdIterator(String indexId, Query query, int pageSize, String pitId) {
+            this.indexId = indexId;
+            this.query = query;
+            this.pageSize = pageSize;
+            this.pitId = pitId;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public boolean hasNext() {
+            while (!page.hasNext() && !lastPage) {
+                List<Hit<Map>> hits;
+                try {
+                    hits = searchPage(buildPageRequest(pitId, query, pageSize, searchAfter));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                List<String> ids = new ArrayList<>(hits.size());
+                for (Hit<Map> hit : hits) {
+                    if (hit.source() != null && hit.source().get(localIdFieldName) != null) {
+                        ids.add(hit.source().get(localIdFieldName).toString());
+                    }
+                }
+
+                page = ids.iterator();
+                count += ids.size();
+                lastPage = hits.size() < pageSize;
+                searchAfter = lastPage ? null : hits.get(hits.size() - 1).sort();
+            }
+
+            return page.hasNext();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        @Override
+        public void close() {
+            logger.debug("Read {} documents from index {} using pages of {}", count, indexId, pageSize);
+            try {
+                deletePit(pitId);
+            } catch (Exception e) {
+                logger.debug("Unable to delete point in time of index {}", indexId, e);
+            }
+        }
+
+    }
+
 }
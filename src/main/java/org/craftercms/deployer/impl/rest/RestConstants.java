@@ -34,6 +34,10 @@ public class RestConstants {
      * Request param that indicates if request shouldn't finish until the deployment is done.
      */
     public static final String WAIT_TILL_DONE_PARAM_NAME = "wait_till_done";
+    /**
+     * Reindex job ID path variable name.
+     */
+    public static final String JOB_ID_PATH_VAR_NAME = "job_id";
 
     private RestConstants() {
     }
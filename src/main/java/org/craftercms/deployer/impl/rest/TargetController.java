@@ -22,15 +22,25 @@ import org.craftercms.commons.rest.Result;
 import org.craftercms.commons.validation.annotations.param.*;
 import org.craftercms.deployer.api.Deployment;
 import org.craftercms.deployer.api.DeploymentService;
+import org.craftercms.deployer.api.ReindexJob;
 import org.craftercms.deployer.api.Target;
 import org.craftercms.deployer.api.TargetService;
 import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.api.exceptions.TargetAlreadyExistsException;
 import org.craftercms.deployer.api.exceptions.TargetNotFoundException;
 import org.craftercms.deployer.api.exceptions.TargetServiceException;
+import org.craftercms.deployer.impl.ReindexJobManager;
 import org.craftercms.deployer.impl.rest.model.CreateTargetRequest;
 import org.craftercms.deployer.impl.rest.model.DuplicateTargetRequest;
 import org.craftercms.deployer.impl.rest.model.TargetTemplateParams;
+import org.craftercms.deployer.impl.tasks.SearchIndexVerificationTask;
+import org.craftercms.deployer.impl.tasks.TargetMaintenanceTask;
+import org.craftercms.deployer.utils.git.GitMaintenanceStats;
+import org.craftercms.deployer.utils.opensearch.BulkLimiterRegistry;
+import org.craftercms.deployer.utils.opensearch.IndexDriftDetector.DriftReport;
+import org.craftercms.deployer.utils.opensearch.ReplicaQueueRegistry;
+import org.craftercms.deployer.utils.opensearch.ReplicaTransport;
+import org.craftercms.deployer.utils.opensearch.WriteGovernor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
@@ -43,6 +53,7 @@ import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotEmpty;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -86,6 +97,15 @@ public class TargetController {
             "{" + SITE_NAME_PATH_VAR_NAME + "}";
     public static final String RECREATE_INDEX_URL = "/recreate/{" + ENV_PATH_VAR_NAME + "}/" +
             "{" + SITE_NAME_PATH_VAR_NAME + "}";
+    public static final String GET_MAINTENANCE_STATS_URL = "/maintenance/get-stats";
+    public static final String GET_BULK_STATS_URL = "/search/get-bulk-stats";
+    public static final String GET_REPLICA_LAG_URL = "/search/get-replica-lag";
+    public static final String GET_DRIFT_REPORTS_URL = "/search/get-drift-reports";
+    public static final String SUBMIT_REINDEX_JOB_URL = "/reindex-jobs/submit/{" + ENV_PATH_VAR_NAME + "}/" +
+            "{" + SITE_NAME_PATH_VAR_NAME + "}";
+    public static final String GET_REINDEX_JOB_URL = "/reindex-jobs/get/{" + JOB_ID_PATH_VAR_NAME + "}";
+    public static final String GET_ALL_REINDEX_JOBS_URL = "/reindex-jobs/get-all";
+    public static final String CANCEL_REINDEX_JOB_URL = "/reindex-jobs/cancel/{" + JOB_ID_PATH_VAR_NAME + "}";
 
     public static final String REPO_URL_PARAM_NAME = "repo_url";
     public static final String REPO_BRANCH_PARAM_NAME = "repo_branch";
@@ -95,7 +115,8 @@ public class TargetController {
     public static final String NOTIFICATION_ADDRESSESS_PARAM_NAME = "notification_addresses";
 
 
-    private static final String DEPLOY_TARGET_VALID_PARAMS = "reprocess_all_files|from_commit_id|deployment_mode|wait_till_done";
+    private static final String DEPLOY_TARGET_VALID_PARAMS =
+            "reprocess_all_files|from_commit_id|reindex_paths|deployment_mode|wait_till_done";
 
     private static final String DEPLOY_ALL_TARGETS_VALID_PARAMS = "reprocess_all_files|deployment_mode|wait_till_done";
 
@@ -105,6 +126,24 @@ public class TargetController {
     @Value("${deployer.main.management.authorizationToken}")
     protected String managementToken;
 
+    @Autowired(required = false)
+    protected TargetMaintenanceTask maintenanceTask;
+
+    @Autowired(required = false)
+    protected BulkLimiterRegistry bulkLimiterRegistry;
+
+    @Autowired(required = false)
+    protected WriteGovernor writeGovernor;
+
+    @Autowired(required = false)
+    protected ReplicaQueueRegistry replicaQueueRegistry;
+
+    @Autowired(required = false)
+    protected ReindexJobManager reindexJobManager;
+
+    @Autowired(required = false)
+    protected SearchIndexVerificationTask verificationTask;
+
     @Autowired
     public TargetController(TargetService targetService, DeploymentService deploymentService) {
         this.targetService = targetService;
@@ -322,10 +361,12 @@ public class TargetController {
 
     /**
      * Recreates the underlying OpenSearch index for the {@link Target} with the specified environment and site name.
+     * When reindex jobs are enabled the index is recreated in the background, use
+     * {@link #submitReindexJob(String, String, Integer, String)} to get the job and poll its progress.
      *
      * @param env      the target's environment
      * @param siteName the target's site name
-     * @return the response entity with a 200 OK status
+     * @return the response entity with a 202 ACCEPTED status
      * @throws DeployerException if an error occurred
      */
     @RequestMapping(value = RECREATE_INDEX_URL, method = RequestMethod.POST)
@@ -335,11 +376,140 @@ public class TargetController {
                                                 @RequestParam String token)
             throws DeployerException, InvalidManagementTokenException {
         validateToken(token);
-        targetService.recreateIndex(env, siteName);
+        targetService.recreateIndex(env, siteName, null);
 
         return ResponseEntity.status(HttpStatus.ACCEPTED).body(Result.OK);
     }
 
+    /**
+     * Submits a job that recreates the underlying OpenSearch index for the {@link Target} with the specified
+     * environment and site name. The progress of the job can be polled through {@link #getReindexJob(String)}.
+     *
+     * @param env      the target's environment
+     * @param siteName the target's site name
+     * @param slices   the number of slices of the reindex (optional, the target config is used if not specified)
+     * @return the response entity with the job and a 202 ACCEPTED status, or an empty body if the index is not
+     *         recreated by a job
+     * @throws DeployerException if an error occurred
+     */
+    @RequestMapping(value = SUBMIT_REINDEX_JOB_URL, method = RequestMethod.POST)
+    public ResponseEntity<ReindexJob> submitReindexJob(@NotBlank @ValidateNoTagsParam @ValidateSecurePathParam
+                                                       @PathVariable(ENV_PATH_VAR_NAME) String env,
+                                                       @NotBlank @EsapiValidatedParam(type = SITE_ID)
+                                                       @PathVariable(SITE_NAME_PATH_VAR_NAME) String siteName,
+                                                       @RequestParam(required = false) Integer slices,
+                                                       @RequestParam String token)
+            throws DeployerException, InvalidManagementTokenException {
+        validateToken(token);
+        ReindexJob job = targetService.recreateIndex(env, siteName, slices);
+
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+    }
+
+    /**
+     * Returns the index recreation job with the specified ID.
+     *
+     * @param id the job ID
+     * @return the response entity with the job and 200 OK status, or 404 NOT FOUND if there's no such job
+     */
+    @RequestMapping(value = GET_REINDEX_JOB_URL, method = RequestMethod.GET)
+    public ResponseEntity<ReindexJob> getReindexJob(@NotBlank @ValidateSecurePathParam
+                                                    @PathVariable(JOB_ID_PATH_VAR_NAME) String id) {
+        ReindexJob job = reindexJobManager != null ? reindexJobManager.getJob(id) : null;
+
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Returns the active and most recently finished index recreation jobs.
+     *
+     * @return the response entity with the jobs, the most recent first, and 200 OK status
+     */
+    @RequestMapping(value = GET_ALL_REINDEX_JOBS_URL, method = RequestMethod.GET)
+    public ResponseEntity<List<ReindexJob>> getAllReindexJobs() {
+        List<ReindexJob> jobs = reindexJobManager != null ? reindexJobManager.getJobs() : Collections.emptyList();
+
+        return ResponseEntity.ok(jobs);
+    }
+
+    /**
+     * Cancels the index recreation job with the specified ID. The current index of the target is left as is.
+     *
+     * @param id the job ID
+     * @return the response entity with the job and 200 OK status, or 404 NOT FOUND if there's no such job
+     */
+    @RequestMapping(value = CANCEL_REINDEX_JOB_URL, method = RequestMethod.POST)
+    public ResponseEntity<ReindexJob> cancelReindexJob(@NotBlank @ValidateSecurePathParam
+                                                       @PathVariable(JOB_ID_PATH_VAR_NAME) String id,
+                                                       @RequestParam String token)
+            throws InvalidManagementTokenException {
+        validateToken(token);
+        ReindexJob job = reindexJobManager != null ? reindexJobManager.cancel(id) : null;
+
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Returns the stats of the last repository maintenance of each target.
+     *
+     * @return the response entity with the stats by target ID and 200 OK status
+     */
+    @RequestMapping(value = GET_MAINTENANCE_STATS_URL, method = RequestMethod.GET)
+    public ResponseEntity<Map<String, GitMaintenanceStats>> getMaintenanceStats() {
+        Map<String, GitMaintenanceStats> stats = maintenanceTask != null ? maintenanceTask.getStats() :
+                                                 Collections.emptyMap();
+
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * Returns the metrics of the adaptive bulk limiters (the write requests in flight for all targets, and the
+     * current limits and counters of each target) and the write slots leased by the governor of each cluster.
+     *
+     * @return the response entity with the metrics and 200 OK status
+     */
+    @RequestMapping(value = GET_BULK_STATS_URL, method = RequestMethod.GET)
+    public ResponseEntity<Map<String, Object>> getBulkStats() {
+        Map<String, Object> stats = new HashMap<>();
+        if (bulkLimiterRegistry != null) {
+            stats.put("inFlight", bulkLimiterRegistry.getInFlight());
+            stats.put("targets", bulkLimiterRegistry.getLimiters());
+        }
+        if (writeGovernor != null) {
+            stats.put("clusters", writeGovernor.getClusters());
+        }
+
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * Returns the lag of the replica write clusters of all targets: the number of queued writes, the age of the
+     * oldest one in milliseconds and the last error.
+     *
+     * @return the response entity with the lag of each replica and 200 OK status
+     */
+    @RequestMapping(value = GET_REPLICA_LAG_URL, method = RequestMethod.GET)
+    public ResponseEntity<Collection<ReplicaTransport>> getReplicaLag() {
+        Collection<ReplicaTransport> replicas = replicaQueueRegistry != null ? replicaQueueRegistry.getReplicas() :
+                                                Collections.emptyList();
+
+        return ResponseEntity.ok(replicas);
+    }
+
+    /**
+     * Returns the report of the last verification of the search index of each target: the paths of the missing,
+     * stale and orphan documents.
+     *
+     * @return the response entity with the reports by target ID and 200 OK status
+     */
+    @RequestMapping(value = GET_DRIFT_REPORTS_URL, method = RequestMethod.GET)
+    public ResponseEntity<Map<String, DriftReport>> getDriftReports() {
+        Map<String, DriftReport> reports = verificationTask != null ? verificationTask.getReports() :
+                                           Collections.emptyMap();
+
+        return ResponseEntity.ok(reports);
+    }
+
     /**
      * Creates a parameters map from a {@link CreateTargetRequest} object
      *
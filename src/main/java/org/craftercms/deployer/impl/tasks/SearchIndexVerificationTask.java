@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.impl.tasks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.craftercms.deployer.api.Deployment;
+import org.craftercms.deployer.api.Target;
+import org.craftercms.deployer.api.TargetService;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.craftercms.deployer.api.exceptions.TargetServiceException;
+import org.craftercms.deployer.utils.opensearch.IndexDriftDetector;
+import org.craftercms.deployer.utils.opensearch.IndexDriftDetector.DriftReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import static org.craftercms.deployer.impl.DeploymentConstants.DELETED_PATHS_PARAM_NAME;
+import static org.craftercms.deployer.impl.DeploymentConstants.DEPLOYMENT_MODE_PARAM_NAME;
+import static org.craftercms.deployer.impl.DeploymentConstants.TARGET_ID_MDC_KEY;
+import static org.craftercms.deployer.impl.DeploymentConstants.UPDATED_PATHS_PARAM_NAME;
+
+/**
+ * Periodically compares the search index of the targets with their local repository (see
+ * {@link IndexDriftDetector}) and, if they are out of sync, starts a search index deployment of only the missing,
+ * stale and orphan paths. Like {@link TargetMaintenanceTask}, every execution only visits a limited number of targets,
+ * continuing where the previous execution stopped. Targets are verified one at a time in a low priority thread, with
+ * the reads limited by {@code target.search.openSearch.verification.maxReadsPerSecond}, and targets with a deployment
+ * in progress are skipped until the next round.
+ *
+ * @since 4.2.0
+ */
+@Component
+@ConditionalOnProperty("deployer.main.targets.searchVerification.enabled")
+public class SearchIndexVerificationTask {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndexVerificationTask.class);
+
+    protected final TargetService targetService;
+    protected final int maxTargetsPerRun;
+    protected final boolean repair;
+    protected final int maxRepairPaths;
+
+    protected final AtomicInteger nextTargetIndex;
+    protected final AtomicBoolean running;
+    protected final Map<String, DriftReport> reports;
+
+    @Autowired
+    public SearchIndexVerificationTask(
+            TargetService targetService,
+            @Value("${deployer.main.targets.searchVerification.maxTargetsPerRun}") int maxTargetsPerRun,
+            @Value("${deployer.main.targets.searchVerification.repair}") boolean repair,
+            @Value("${deployer.main.targets.searchVerification.maxRepairPaths}") int maxRepairPaths) {
+        this.targetService = targetService;
+        this.maxTargetsPerRun = maxTargetsPerRun;
+        this.repair = repair;
+        this.maxRepairPaths = maxRepairPaths;
+        this.nextTargetIndex = new AtomicInteger();
+        this.running = new AtomicBoolean();
+        this.reports = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the report of the last verification of each target, by target ID.
+     */
+    public Map<String, DriftReport> getReports() {
+        return Collections.unmodifiableMap(reports);
+    }
+
+    /**
+     * Verifies the search index of the next batch of targets.
+     */
+    @Scheduled(cron = "${deployer.main.targets.searchVerification.cron}")
+    public void verifyTargets() {
+        if (!running.compareAndSet(false, true)) {
+            logger.info("Previous verification of search indexes is still running, skipping");
+            return;
+        }
+
+        int priority = Thread.currentThread().getPriority();
+        Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+        try {
+            List<Target> targets = new ArrayList<>(targetService.getAllTargets());
+            if (targets.isEmpty()) {
+                return;
+            }
+
+            targets.sort(Comparator.comparing(Target::getId));
+            reports.keySet().retainAll(targets.stream().map(Target::getId).toList());
+
+            int count = Math.min(maxTargetsPerRun, targets.size());
+            int start = Math.floorMod(nextTargetIndex.getAndAdd(count), targets.size());
+
+            logger.info("Starting verification of the search index of {} out of {} targets", count, targets.size());
+
+            for (int i = 0; i < count; i++) {
+                verifyTarget(targets.get((start + i) % targets.size()));
+            }
+        } catch (TargetServiceException e) {
+            logger.error("Error getting loaded targets", e);
+        } finally {
+            Thread.currentThread().setPriority(priority);
+            running.set(false);
+        }
+    }
+
+    protected void verifyTarget(Target target) {
+        MDC.put(TARGET_ID_MDC_KEY, target.getId());
+        try {
+            IndexDriftDetector detector = target.getStatus() == Target.Status.INIT_COMPLETED ?
+                    target.getApplicationContext().getBeanProvider(IndexDriftDetector.class).getIfAvailable() : null;
+            if (detector == null) {
+                logger.debug("Target {} doesn't have a search index to verify", target.getId());
+            } else if (target.getCurrentDeployment() != null) {
+                logger.info("Deployment in progress, skipping verification of target {}", target.getId());
+            } else {
+                DriftReport report = detector.detect();
+                reports.put(target.getId(), report);
+
+                if (!report.isInSync() && repair) {
+                    repair(target, report);
+                }
+            }
+        } catch (DeployerException e) {
+            logger.warn("Error verifying the search index of target {}", target.getId(), e);
+        } finally {
+            MDC.remove(TARGET_ID_MDC_KEY);
+        }
+    }
+
+    protected void repair(Target target, DriftReport report) throws DeployerException {
+        List<String> updatedPaths = new ArrayList<>(report.getMissing());
+        updatedPaths.addAll(report.getStale());
+        List<String> deletedPaths = report.getOrphan();
+
+        if (updatedPaths.size() + deletedPaths.size() > maxRepairPaths) {
+            logger.warn("The search index of target {} has {} paths out of sync (max {}), a full reindex is " +
+                        "recommended", target.getId(), updatedPaths.size() + deletedPaths.size(), maxRepairPaths);
+            return;
+        }
+
+        logger.info("Starting search index deployment of target {} to fix {} updated and {} deleted paths",
+                    target.getId(), updatedPaths.size(), deletedPaths.size());
+
+        Map<String, Object> params = new HashMap<>();
+        params.put(DEPLOYMENT_MODE_PARAM_NAME, Deployment.Mode.SEARCH_INDEX.name());
+        params.put(UPDATED_PATHS_PARAM_NAME, updatedPaths);
+        params.put(DELETED_PATHS_PARAM_NAME, deletedPaths);
+
+        target.deploy(false, params);
+    }
+
+}
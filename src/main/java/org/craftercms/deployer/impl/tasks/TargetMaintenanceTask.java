@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.impl.tasks;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.craftercms.commons.git.utils.GitUtils;
+import org.craftercms.deployer.api.Target;
+import org.craftercms.deployer.api.TargetService;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.craftercms.deployer.api.exceptions.TargetServiceException;
+import org.craftercms.deployer.utils.git.GitMaintenanceStats;
+import org.craftercms.deployer.utils.git.GitRepoMaintainer;
+import org.craftercms.deployer.utils.git.SharedGitObjectsStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import static org.craftercms.deployer.impl.DeploymentConstants.TARGET_ID_MDC_KEY;
+
+/**
+ * Triggers the maintenance of the target repositories. Instead of cleaning up all targets at once, every execution
+ * only visits a limited number of targets (continuing where the previous execution stopped), with a limited
+ * concurrency and time budget, and each repository only gets the maintenance it needs based on its statistics
+ * (see {@link GitRepoMaintainer}). Targets with a deployment in progress or a locked repository are skipped until the
+ * next round. Targets not started before the time budget is exceeded are left for the next round, and a repack still
+ * running at that point is cancelled. The shared objects store is pruned on its own schedule.
+ *
+ * @since 4.2.0
+ */
+@Component
+@ConditionalOnProperty("deployer.main.targets.maintenance.enabled")
+public class TargetMaintenanceTask implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(TargetMaintenanceTask.class);
+
+    protected final TargetService targetService;
+    protected final GitRepoMaintainer repoMaintainer;
+    protected final SharedGitObjectsStore sharedObjectsStore;
+    protected final int maxTargetsPerRun;
+    protected final long maxDurationSeconds;
+    protected final ExecutorService executor;
+
+    protected final AtomicInteger nextTargetIndex;
+    protected final AtomicBoolean running;
+    protected final Map<String, GitMaintenanceStats> stats;
+
+    @Autowired
+    public TargetMaintenanceTask(
+            TargetService targetService,
+            SharedGitObjectsStore sharedObjectsStore,
+            @Value("${deployer.main.targets.maintenance.concurrency}") int concurrency,
+            @Value("${deployer.main.targets.maintenance.maxTargetsPerRun}") int maxTargetsPerRun,
+            @Value("${deployer.main.targets.maintenance.maxDurationSeconds}") long maxDurationSeconds,
+            @Value("${deployer.main.targets.maintenance.thresholds.looseObjects}") long looseObjectsThreshold,
+            @Value("${deployer.main.targets.maintenance.thresholds.packFiles}") long packFilesThreshold,
+            @Value("${deployer.main.targets.maintenance.thresholds.looseRefs}") long looseRefsThreshold) {
+        this.targetService = targetService;
+        this.repoMaintainer = new GitRepoMaintainer(looseObjectsThreshold, packFilesThreshold, looseRefsThreshold);
+        this.sharedObjectsStore = sharedObjectsStore;
+        this.maxTargetsPerRun = maxTargetsPerRun;
+        this.maxDurationSeconds = maxDurationSeconds;
+        this.executor = Executors.newFixedThreadPool(concurrency, new CustomizableThreadFactory("maintenance-"));
+        this.nextTargetIndex = new AtomicInteger();
+        this.running = new AtomicBoolean();
+        this.stats = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the stats of the last maintenance of each target, by target ID.
+     */
+    public Map<String, GitMaintenanceStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * Performs the maintenance of the next batch of targets.
+     */
+    @Scheduled(cron = "${deployer.main.targets.maintenance.cron}")
+    public void maintainTargets() {
+        if (!running.compareAndSet(false, true)) {
+            logger.info("Previous maintenance of targets is still running, skipping");
+            return;
+        }
+
+        try {
+            List<Target> targets = new ArrayList<>(targetService.getAllTargets());
+            if (targets.isEmpty()) {
+                return;
+            }
+
+            targets.sort(Comparator.comparing(Target::getId));
+            stats.keySet().retainAll(targets.stream().map(Target::getId).toList());
+
+            int count = Math.min(maxTargetsPerRun, targets.size());
+            int start = Math.floorMod(nextTargetIndex.getAndAdd(count), targets.size());
+            Instant deadline = Instant.now().plusSeconds(maxDurationSeconds);
+            List<Future<?>> futures = new ArrayList<>(count);
+
+            logger.info("Starting maintenance of {} out of {} targets", count, targets.size());
+
+            for (int i = 0; i < count; i++) {
+                Target target = targets.get((start + i) % targets.size());
+                futures.add(executor.submit(() -> maintainTarget(target, deadline)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (TargetServiceException e) {
+            logger.error("Error getting loaded targets", e);
+        } catch (ExecutionException e) {
+            logger.error("Error during maintenance of targets", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Prunes the repositories of the shared objects store.
+     */
+    @Scheduled(cron = "${deployer.main.targets.maintenance.sharedObjects.cron}")
+    public void pruneSharedObjects() {
+        logger.info("Starting pruning of shared objects store");
+
+        sharedObjectsStore.prune();
+
+        logger.info("Pruning of shared objects store finished");
+    }
+
+    protected void maintainTarget(Target target, Instant deadline) {
+        MDC.put(TARGET_ID_MDC_KEY, target.getId());
+        try {
+            if (Instant.now().isAfter(deadline)) {
+                logger.info("Maintenance time budget exceeded, skipping target {} until next round", target.getId());
+            } else if (target.getCurrentDeployment() != null) {
+                logger.info("Deployment in progress, skipping maintenance of target {}", target.getId());
+            } else if (!new File(target.getLocalRepoPath(), GitUtils.GIT_FOLDER_NAME).exists()) {
+                logger.debug("Repo of target {} doesn't exist yet, skipping maintenance", target.getId());
+            } else if (GitUtils.isRepositoryLocked(target.getLocalRepoPath())) {
+                logger.info("Repo of target {} is locked, skipping maintenance", target.getId());
+            } else {
+                GitMaintenanceStats targetStats;
+                try {
+                    targetStats = repoMaintainer.maintain(new File(target.getLocalRepoPath()), deadline);
+
+                    logger.info("Maintenance of target {} finished: {}", target.getId(), targetStats);
+                } catch (DeployerException e) {
+                    logger.warn("Error during maintenance of target {}", target.getId(), e);
+
+                    targetStats = new GitMaintenanceStats();
+                    targetStats.setError(e.getMessage());
+                    targetStats.end();
+                }
+
+                stats.put(target.getId(), targetStats);
+            }
+        } finally {
+            MDC.remove(TARGET_ID_MDC_KEY);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+}
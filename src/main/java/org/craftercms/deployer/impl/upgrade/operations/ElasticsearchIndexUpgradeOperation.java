@@ -19,8 +19,12 @@ package org.craftercms.deployer.impl.upgrade.operations;
 import org.apache.commons.configuration2.HierarchicalConfiguration;
 import org.craftercms.commons.upgrade.impl.UpgradeContext;
 import org.craftercms.commons.upgrade.impl.operations.AbstractUpgradeOperation;
+import org.craftercms.deployer.api.ReindexJob;
 import org.craftercms.deployer.api.Target;
+import org.craftercms.deployer.impl.ReindexJobManager;
 import org.craftercms.search.opensearch.OpenSearchAdminService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import static org.craftercms.commons.config.ConfigUtils.getRequiredStringProperty;
 import static org.craftercms.deployer.impl.DeploymentConstants.PROCESSOR_NAME_CONFIG_KEY;
@@ -34,9 +38,23 @@ import static org.craftercms.deployer.impl.DeploymentConstants.TARGET_DEPLOYMENT
  */
 public class ElasticsearchIndexUpgradeOperation extends AbstractUpgradeOperation<Target> {
 
+    private static final Logger logger = LoggerFactory.getLogger(ElasticsearchIndexUpgradeOperation.class);
+
     protected static final String INDEX_ID_FORMAT_CONFIG_KEY = "target.search.indexIdFormat";
     protected static final String PROCESSOR_NAME_PATTERN = "(authoringE|e)lasticsearchIndexingProcessor";
 
+    protected ReindexJobManager reindexJobManager;
+
+    /**
+     * Sets the manager used to recreate the index. The upgrade only submits the job and doesn't wait for it to end,
+     * so upgrading many targets doesn't block their startup, and the job counts towards the manager's limit of
+     * concurrent jobs. Its status can be checked through the reindex jobs API. If not set, the index is recreated
+     * directly by the upgrade.
+     */
+    public void setReindexJobManager(ReindexJobManager reindexJobManager) {
+        this.reindexJobManager = reindexJobManager;
+    }
+
     protected boolean containsProcessor(HierarchicalConfiguration<?> config) {
         return config.configurationsAt(TARGET_DEPLOYMENT_PIPELINE_CONFIG_KEY).stream()
                 .anyMatch(processor -> processor.getString(PROCESSOR_NAME_CONFIG_KEY).matches(PROCESSOR_NAME_PATTERN));
@@ -53,6 +71,14 @@ public class ElasticsearchIndexUpgradeOperation extends AbstractUpgradeOperation
         String indexIdFormat = getRequiredStringProperty(config, INDEX_ID_FORMAT_CONFIG_KEY);
         String aliasName = String.format(indexIdFormat, siteName);
 
+        if (reindexJobManager != null) {
+            ReindexJob job = reindexJobManager.submit(target, aliasName, null);
+
+            logger.info("Index {} of target '{}' will be recreated by job {}, the upgrade is complete once the job " +
+                        "ends with status {}", aliasName, target.getId(), job.getId(), ReindexJob.Status.COMPLETED);
+            return;
+        }
+
         adminService.waitUntilReady();
         adminService.recreateIndex(aliasName);
     }
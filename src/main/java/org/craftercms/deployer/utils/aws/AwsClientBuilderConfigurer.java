@@ -24,6 +24,7 @@ import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
 import software.amazon.awssdk.regions.Region;
 
 import java.net.URI;
+import java.util.Objects;
 
 import static org.craftercms.commons.config.ConfigUtils.getStringProperty;
 
@@ -89,4 +90,23 @@ public class AwsClientBuilderConfigurer<ClientBuilderSubclass extends AwsClientB
         }
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        AwsClientBuilderConfigurer<?> that = (AwsClientBuilderConfigurer<?>) o;
+        return Objects.equals(region, that.region) && Objects.equals(endpoint, that.endpoint) &&
+               Objects.equals(accessKey, that.accessKey) && Objects.equals(secretKey, that.secretKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(region, endpoint, accessKey, secretKey);
+    }
+
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.aws;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Merges the invalidations of a CloudFront distribution that are requested within a time window, so frequent
+ * deployments result in a single invalidation per window instead of one per deployment. The window starts with the
+ * first request for the distribution, so a steady stream of deployments doesn't delay the invalidation indefinitely.
+ * Since several targets can use the same distribution, a single instance is shared by all targets. Invalidations are
+ * merged only when they're for the same distribution and account (the same credentials, region and endpoint), and
+ * they're sent by dedicated threads, since waiting for them to complete can take several minutes.
+ *
+ * <p>An invalidation that fails is retried with an exponential backoff (merged with the paths requested meanwhile).
+ * If it still fails after the last retry, its paths are kept and added to the next invalidation of the distribution,
+ * and the failure is returned to the deployment that requests it, so it can be reported in its status.</p>
+ *
+ * @since 4.2.0
+ */
+public class InvalidationCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(InvalidationCoalescer.class);
+
+    protected final ScheduledExecutorService scheduler;
+    protected final ExecutorService executor;
+    protected final Map<Key, Pending> pending = new HashMap<>();
+    protected final Map<Key, Failure> failures = new HashMap<>();
+
+    /**
+     * The max number of times a failed invalidation is retried
+     */
+    protected final int maxRetries;
+
+    /**
+     * The delay in milliseconds before the first retry, doubled on each attempt
+     */
+    protected final long retryDelay;
+
+    protected volatile boolean closed;
+
+    public InvalidationCoalescer(int maxRetries, long retryDelay) {
+        this.maxRetries = maxRetries;
+        this.retryDelay = retryDelay;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+            new CustomizableThreadFactory("invalidation-scheduler-"));
+        this.executor = Executors.newCachedThreadPool(new CustomizableThreadFactory("invalidation-"));
+    }
+
+    /**
+     * Adds the paths to the pending invalidation of the distribution.
+     *
+     * @param distribution the distribution ID
+     * @param account      identifies the account used to access the distribution (it should implement
+     *                     {@code equals} and {@code hashCode}), since the same distribution ID could be accessed
+     *                     with different credentials
+     * @param paths        the paths to invalidate
+     * @param window       the time to wait for more paths, if there's no pending invalidation yet
+     * @param invalidator  performs the invalidation of the merged paths. Since the invalidation of all the merged
+     *                     paths is done by the last invalidator added, it should only depend on the distribution and
+     *                     the account
+     * @return the last failure of the merged invalidations of the distribution since the previous call, or null if
+     * there's none. Its paths are added to the pending invalidation
+     */
+    public synchronized Failure add(String distribution, Object account, Collection<String> paths, Duration window,
+                                    Invalidator invalidator) {
+        Key key = new Key(distribution, account);
+        Pending invalidation = pending.get(key);
+        if (invalidation == null) {
+            invalidation = new Pending();
+            pending.put(key, invalidation);
+
+            schedule(key, window.toMillis());
+
+            logger.debug("Invalidation of distribution {} will be sent in {}", distribution, window);
+        }
+
+        Failure failure = failures.remove(key);
+        if (failure != null) {
+            invalidation.paths.addAll(failure.paths);
+        }
+
+        invalidation.paths.addAll(paths);
+        invalidation.invalidator = invalidator;
+
+        return failure;
+    }
+
+    protected void schedule(Key key, long delay) {
+        try {
+            scheduler.schedule(() -> executor.execute(() -> flush(key)), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed, the pending invalidations are sent by close()
+            logger.debug("Unable to schedule invalidation of distribution {}", key.distribution, e);
+        }
+    }
+
+    /**
+     * Sends the pending invalidation for the key, if any.
+     */
+    protected void flush(Key key) {
+        Pending invalidation;
+        synchronized (this) {
+            invalidation = pending.remove(key);
+        }
+
+        if (invalidation != null) {
+            logger.info("Sending merged invalidation of {} paths for distribution {}", invalidation.paths.size(),
+                        key.distribution);
+            try {
+                invalidation.invalidator.invalidate(invalidation.paths);
+            } catch (Exception e) {
+                retryOrFail(key, invalidation, e);
+            }
+        }
+    }
+
+    /**
+     * Schedules a new attempt of the failed invalidation, merged with any invalidation requested meanwhile, or keeps
+     * its paths as a failure if there are no retries left.
+     */
+    protected synchronized void retryOrFail(Key key, Pending invalidation, Exception error) {
+        int attempt = invalidation.attempt + 1;
+        if (attempt > maxRetries || closed) {
+            logger.error("Error sending merged invalidation of {} paths for distribution {}, the paths will be " +
+                         "added to its next invalidation", invalidation.paths.size(), key.distribution, error);
+
+            Failure failure = failures.computeIfAbsent(key, k -> new Failure());
+            failure.paths.addAll(invalidation.paths);
+            failure.error = error;
+            failure.time = Instant.now();
+            return;
+        }
+
+        long delay = retryDelay << Math.min(attempt - 1, 20);
+        logger.warn("Error sending merged invalidation for distribution {}, it will be retried in {} ms " +
+                    "(attempt {} of {})", key.distribution, delay, attempt, maxRetries, error);
+
+        Pending current = pending.get(key);
+        if (current == null) {
+            invalidation.attempt = attempt;
+            pending.put(key, invalidation);
+            schedule(key, delay);
+        } else {
+            // Already scheduled by a new request, keep the newest invalidator
+            current.paths.addAll(invalidation.paths);
+            current.attempt = Math.max(current.attempt, attempt);
+        }
+    }
+
+    /**
+     * Sends all pending invalidations and stops the threads. Called on shutdown, so no invalidation is lost.
+     */
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+
+        List<Key> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(pending.keySet());
+        }
+
+        keys.forEach(this::flush);
+
+        executor.shutdown();
+    }
+
+    /**
+     * Performs the invalidation of the merged paths
+     */
+    @FunctionalInterface
+    public interface Invalidator {
+
+        void invalidate(Set<String> paths) throws Exception;
+
+    }
+
+    /**
+     * An invalidation that failed after all the retries
+     */
+    public static class Failure {
+
+        protected final Set<String> paths = new TreeSet<>();
+        protected Exception error;
+        protected Instant time;
+
+        public Set<String> getPaths() {
+            return paths;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        public Instant getTime() {
+            return time;
+        }
+
+    }
+
+    protected static class Key {
+
+        protected final String distribution;
+        protected final Object account;
+
+        protected Key(String distribution, Object account) {
+            this.distribution = distribution;
+            this.account = account;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return distribution.equals(key.distribution) && Objects.equals(account, key.account);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(distribution, account);
+        }
+
+    }
+
+    protected static class Pending {
+
+        protected final Set<String> paths = new TreeSet<>();
+        protected Invalidator invalidator;
+        protected int attempt;
+
+    }
+
+}
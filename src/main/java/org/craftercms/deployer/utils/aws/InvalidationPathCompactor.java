@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.aws;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Reduces the number of paths of a CloudFront invalidation by replacing the paths under a folder with a wildcard
+ * path ({@code /folder/*}), which CloudFront charges and limits as a single path:
+ *
+ * <ul>
+ *     <li>Folders with at least {@code threshold} entries (files or already compacted subfolders) are compacted,
+ *     starting from the deepest ones</li>
+ *     <li>If there are still more than {@code maxPaths} paths, or more than {@code maxWildcards} wildcard paths,
+ *     the folder with the most entries is compacted until the limits are met (in the worst case the result is
+ *     {@code /*})</li>
+ * </ul>
+ *
+ * Paths covered by a wildcard path are always removed.
+ *
+ * @since 4.2.0
+ */
+public class InvalidationPathCompactor {
+
+    public static final String SEPARATOR = "/";
+    public static final String WILDCARD = "*";
+    public static final String ROOT_WILDCARD = SEPARATOR + WILDCARD;
+
+    protected final int threshold;
+    protected final int maxPaths;
+    protected final int maxWildcards;
+
+    /**
+     * @param threshold    the number of entries from which a folder is compacted, 0 or less to disable it
+     * @param maxPaths     the max number of paths of the result, 0 or less for no limit
+     * @param maxWildcards the max number of wildcard paths of the result, 0 or less for no limit
+     */
+    public InvalidationPathCompactor(int threshold, int maxPaths, int maxWildcards) {
+        this.threshold = threshold;
+        this.maxPaths = maxPaths;
+        this.maxWildcards = maxWildcards;
+    }
+
+    /**
+     * Returns the compacted paths, sorted.
+     */
+    public List<String> compact(Collection<String> paths) {
+        Set<String> result = new TreeSet<>(paths);
+        removeCovered(result);
+
+        if (threshold > 0) {
+            boolean compacted;
+            do {
+                compacted = false;
+                for (Map.Entry<String, List<String>> entry : groupByFolder(result, false).entrySet()) {
+                    if (entry.getValue().size() >= threshold) {
+                        compactFolder(result, entry.getKey(), entry.getValue());
+                        compacted = true;
+                    }
+                }
+                removeCovered(result);
+            } while (compacted);
+        }
+
+        while (exceedsMaxPaths(result) || exceedsMaxWildcards(result)) {
+            Map<String, List<String>> folders = groupByFolder(result, !exceedsMaxPaths(result));
+            if (folders.isEmpty()) {
+                break;
+            }
+
+            Map.Entry<String, List<String>> largest = null;
+            for (Map.Entry<String, List<String>> entry : folders.entrySet()) {
+                if (largest == null || entry.getValue().size() > largest.getValue().size() ||
+                    (entry.getValue().size() == largest.getValue().size() &&
+                     entry.getKey().length() > largest.getKey().length())) {
+                    largest = entry;
+                }
+            }
+
+            compactFolder(result, largest.getKey(), largest.getValue());
+            removeCovered(result);
+        }
+
+        return new ArrayList<>(result);
+    }
+
+    protected boolean exceedsMaxPaths(Set<String> paths) {
+        return maxPaths > 0 && paths.size() > maxPaths;
+    }
+
+    protected boolean exceedsMaxWildcards(Set<String> paths) {
+        return maxWildcards > 0 && paths.stream().filter(this::isWildcard).count() > maxWildcards;
+    }
+
+    protected Map<String, List<String>> groupByFolder(Set<String> paths, boolean onlyWildcards) {
+        Map<String, List<String>> folders = new HashMap<>();
+        for (String path : paths) {
+            if (!path.equals(ROOT_WILDCARD) && (!onlyWildcards || isWildcard(path))) {
+                folders.computeIfAbsent(getFolder(path), folder -> new ArrayList<>()).add(path);
+            }
+        }
+
+        return folders;
+    }
+
+    protected void compactFolder(Set<String> paths, String folder, List<String> entries) {
+        entries.forEach(paths::remove);
+        paths.add(folder + ROOT_WILDCARD);
+    }
+
+    /**
+     * Removes the paths that are under a wildcard path.
+     */
+    protected void removeCovered(Set<String> paths) {
+        if (paths.contains(ROOT_WILDCARD)) {
+            paths.retainAll(Set.of(ROOT_WILDCARD));
+            return;
+        }
+
+        paths.removeIf(path -> {
+            String folder = getFolder(path);
+            while (StringUtils.isNotEmpty(folder)) {
+                if (paths.contains(folder + ROOT_WILDCARD)) {
+                    return true;
+                }
+                folder = getFolder(folder);
+            }
+
+            return false;
+        });
+    }
+
+    protected boolean isWildcard(String path) {
+        return path.endsWith(WILDCARD);
+    }
+
+    /**
+     * Returns the folder of the path (for a wildcard path, the folder of the folder it covers), or an empty string
+     * for the root.
+     */
+    protected String getFolder(String path) {
+        if (isWildcard(path)) {
+            path = StringUtils.removeEnd(path, ROOT_WILDCARD);
+        }
+
+        int index = path.lastIndexOf(SEPARATOR);
+
+        return index > 0 ? path.substring(0, index) : StringUtils.EMPTY;
+    }
+
+}
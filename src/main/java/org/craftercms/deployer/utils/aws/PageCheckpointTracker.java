@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.aws;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of the pages of a listing that have been completely processed, which can complete out of order, and
+ * notifies the listener of the marker of the last page of the contiguous completed sequence, so the processing can be
+ * resumed from there. Stops advancing after a page with errors, so the objects that failed are listed again on
+ * resume.
+ *
+ * @since 4.2.0
+ */
+public class PageCheckpointTracker<M> {
+
+    private final Consumer<M> listener;
+    private final Map<Long, Boolean> completed = new HashMap<>();
+    private final Map<Long, M> markers = new HashMap<>();
+    private long nextSeq;
+    private boolean blocked;
+
+    /**
+     * @param listener the listener of the checkpoints (can be null)
+     */
+    public PageCheckpointTracker(Consumer<M> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Marks a page as completed.
+     *
+     * @param seq    the sequence number of the page in the listing, starting at 0
+     * @param marker the position to resume from after the page (can be null)
+     * @param failed if any object of the page couldn't be processed
+     */
+    public synchronized void pageDone(long seq, M marker, boolean failed) {
+        if (listener == null || blocked) {
+            return;
+        }
+
+        completed.put(seq, failed);
+        markers.put(seq, marker);
+
+        M lastMarker = null;
+
+        while (completed.containsKey(nextSeq)) {
+            boolean pageFailed = completed.remove(nextSeq);
+            M pageMarker = markers.remove(nextSeq);
+
+            if (pageFailed) {
+                blocked = true;
+                completed.clear();
+                markers.clear();
+                break;
+            }
+
+            if (pageMarker != null) {
+                lastMarker = pageMarker;
+            }
+            nextSeq++;
+        }
+
+        if (lastMarker != null) {
+            listener.accept(lastMarker);
+        }
+    }
+
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.aws;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.collections4.ListUtils;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+/**
+ * Deletes S3 objects with concurrent {@code DeleteObjects} requests of up to
+ * {@link AwsS3Utils#MAX_DELETE_KEYS_PER_REQUEST} keys, sent through an {@link S3AsyncClient}.
+ *
+ * <p>The objects are provided as pages (usually the pages of an object listing) that are consumed lazily: a new
+ * request is sent as soon as there's a free slot, so the listing of the next page overlaps with the deletes of the
+ * previous ones. The keys returned in {@link software.amazon.awssdk.services.s3.model.DeleteObjectsResponse#errors()}
+ * with a transient error code (like {@code SlowDown}) are retried with an exponential backoff.</p>
+ *
+ * <p>Each page can have a marker (e.g. the last key listed). When a page and all the pages before it have been
+ * completely deleted, the marker is given to a checkpoint listener, so an interrupted delete can be resumed from
+ * there.</p>
+ *
+ * @since 4.2.0
+ */
+public class S3BatchDeleter {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3BatchDeleter.class);
+
+    protected static final Set<String> RETRYABLE_ERROR_CODES =
+        Set.of("InternalError", "ServiceUnavailable", "SlowDown", "RequestTimeout", "OperationAborted");
+
+    protected static final String REQUEST_FAILED_ERROR_CODE = "RequestFailed";
+
+    protected static final int MAX_REPORTED_ERRORS = 100;
+
+    protected final S3AsyncClient client;
+    protected final String bucket;
+    protected final int maxConcurrentRequests;
+    protected final int maxRetries;
+    protected final long retryDelay;
+
+    /**
+     * @param client                the async client used to send the requests
+     * @param bucket                the bucket of the objects
+     * @param maxConcurrentRequests the max number of requests sent at the same time
+     * @param maxRetries            the max number of times a key with a transient error is retried
+     * @param retryDelay            the delay in milliseconds before the first retry, doubled on each attempt
+     */
+    public S3BatchDeleter(S3AsyncClient client, String bucket, int maxConcurrentRequests, int maxRetries,
+                          long retryDelay) {
+        this.client = client;
+        this.bucket = bucket;
+        this.maxConcurrentRequests = Math.max(maxConcurrentRequests, 1);
+        this.maxRetries = Math.max(maxRetries, 0);
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Deletes the specified keys.
+     */
+    public Result delete(Collection<String> keys) throws DeployerException {
+        List<ObjectIdentifier> identifiers = keys.stream()
+                                                 .map(key -> ObjectIdentifier.builder().key(key).build())
+                                                 .toList();
+
+        return delete(List.of(new Page<>(identifiers, null)), null);
+    }
+
+    /**
+     * Deletes the objects of all the pages, waiting until all the requests have completed.
+     *
+     * @param pages              the pages of objects to delete, consumed as the requests are sent
+     * @param checkpointListener listener called with the marker of the last page that has been completely deleted,
+     *                           together with all the pages before it (can be null)
+     * @return the result of the delete
+     * @throws DeployerException if interrupted while waiting for the requests
+     */
+    public <M> Result delete(Iterable<Page<M>> pages, Consumer<M> checkpointListener) throws DeployerException {
+        Semaphore permits = new Semaphore(maxConcurrentRequests);
+        Result result = new Result();
+        PageCheckpointTracker<M> tracker = new PageCheckpointTracker<>(checkpointListener);
+
+        try {
+            long seq = 0;
+            for (Page<M> page : pages) {
+                long pageSeq = seq++;
+                List<List<ObjectIdentifier>> batches =
+                    ListUtils.partition(page.getObjects(), AwsS3Utils.MAX_DELETE_KEYS_PER_REQUEST);
+
+                if (batches.isEmpty()) {
+                    tracker.pageDone(pageSeq, page.getMarker(), false);
+                    continue;
+                }
+
+                AtomicInteger pendingBatches = new AtomicInteger(batches.size());
+                AtomicInteger failedBatches = new AtomicInteger();
+
+                for (List<ObjectIdentifier> batch : batches) {
+                    permits.acquire();
+
+                    deleteBatch(batch, 0, result).whenComplete((failed, e) -> {
+                        try {
+                            if (e != null || failed) {
+                                failedBatches.incrementAndGet();
+                            }
+                            if (pendingBatches.decrementAndGet() == 0) {
+                                tracker.pageDone(pageSeq, page.getMarker(), failedBatches.get() > 0);
+                            }
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                }
+            }
+
+            // Wait for all the requests in flight
+            permits.acquire(maxConcurrentRequests);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new DeployerException("Interrupted while deleting objects from bucket '" + bucket + "'", e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Sends a delete request for the batch, retrying the keys that failed with a transient error. The returned
+     * future completes with true if any key couldn't be deleted.
+     */
+    protected CompletableFuture<Boolean> deleteBatch(List<ObjectIdentifier> batch, int attempt, Result result) {
+        DeleteObjectsRequest request = DeleteObjectsRequest.builder()
+                                                           .bucket(bucket)
+                                                           .delete(d -> d.objects(batch).quiet(true))
+                                                           .build();
+
+        CompletableFuture<DeleteObjectsResponse> future;
+        try {
+            future = client.deleteObjects(request);
+        } catch (Exception e) {
+            // Handled like a failed request, so the batch is retried or reported
+            future = CompletableFuture.failedFuture(e);
+        }
+
+        return future.handle((response, e) -> {
+            List<ObjectIdentifier> retry = new ArrayList<>();
+            boolean failed = false;
+
+            if (e != null) {
+                if (attempt < maxRetries) {
+                    logger.debug("Delete request of {} objects in bucket '{}' failed, it will be retried",
+                                 batch.size(), bucket, e);
+
+                    retry.addAll(batch);
+                } else {
+                    batch.forEach(object -> result.addError(S3Error.builder()
+                                                                   .key(object.key())
+                                                                   .versionId(object.versionId())
+                                                                   .code(REQUEST_FAILED_ERROR_CODE)
+                                                                   .message(e.getMessage())
+                                                                   .build()));
+                    failed = true;
+                }
+            } else {
+                // In quiet mode the response only includes the errors
+                result.addDeleted(batch.size() - response.errors().size());
+
+                for (S3Error error : response.errors()) {
+                    if (attempt < maxRetries && RETRYABLE_ERROR_CODES.contains(error.code())) {
+                        retry.add(ObjectIdentifier.builder().key(error.key()).versionId(error.versionId()).build());
+                    } else {
+                        result.addError(error);
+                        failed = true;
+                    }
+                }
+            }
+
+            if (retry.isEmpty()) {
+                return CompletableFuture.completedFuture(failed);
+            }
+
+            boolean batchFailed = failed;
+            Executor delayedExecutor =
+                CompletableFuture.delayedExecutor(retryDelay << attempt, TimeUnit.MILLISECONDS);
+
+            return CompletableFuture.runAsync(() -> {}, delayedExecutor)
+                                    .thenCompose(v -> deleteBatch(retry, attempt + 1, result))
+                                    .thenApply(retryFailed -> batchFailed || retryFailed);
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * A page of objects to delete
+     */
+    public static class Page<M> {
+
+        private final List<ObjectIdentifier> objects;
+        private final M marker;
+
+        /**
+         * @param objects the objects of the page
+         * @param marker  the position to resume from once the page has been deleted (can be null)
+         */
+        public Page(List<ObjectIdentifier> objects, M marker) {
+            this.objects = objects;
+            this.marker = marker;
+        }
+
+        public List<ObjectIdentifier> getObjects() {
+            return objects;
+        }
+
+        public M getMarker() {
+            return marker;
+        }
+
+    }
+
+    /**
+     * The result of a delete: the number of deleted objects and the errors of the objects that couldn't be deleted.
+     * Only the first {@link #MAX_REPORTED_ERRORS} errors are kept.
+     */
+    public static class Result {
+
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final List<S3Error> errors = Collections.synchronizedList(new ArrayList<>());
+
+        protected void addDeleted(long count) {
+            deleted.addAndGet(count);
+        }
+
+        protected void addError(S3Error error) {
+            if (failed.incrementAndGet() <= MAX_REPORTED_ERRORS) {
+                errors.add(error);
+            }
+        }
+
+        public long getDeleted() {
+            return deleted.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public List<S3Error> getErrors() {
+            return errors;
+        }
+
+        public boolean hasErrors() {
+            return failed.get() > 0;
+        }
+
+    }
+
+}
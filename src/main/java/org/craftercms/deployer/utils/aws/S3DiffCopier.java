@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.aws;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ChecksumMode;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Iterable;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.CompletedCopy;
+import software.amazon.awssdk.transfer.s3.model.CopyRequest;
+
+import static org.craftercms.deployer.utils.core.StringComparators.CODE_POINT_ORDER;
+
+/**
+ * Copies the objects under a prefix of a bucket to a prefix of another (or the same) bucket, server-side, skipping
+ * the objects that already exist in the destination with the same size and ETag.
+ *
+ * <p>Both prefixes are listed at the same time and merged by key (S3 lists keys in UTF-8 binary order), so only a
+ * page of each listing is kept in memory. The copies are sent with bounded concurrency while the listing
+ * continues. When all the copies of a source page, and of all the pages before it, are done, the last key of the
+ * page is given to a checkpoint listener, so an interrupted copy can be resumed after it.</p>
+ *
+ * <p>Objects copied in multiple parts get a different ETag than the source, so a destination object with a multipart
+ * ETag and the same size is only considered up to date if both objects have the same checksum (which requires a
+ * {@code HEAD} of each one). If there's no checksum to compare, the object is copied again.</p>
+ *
+ * @since 4.2.0
+ */
+public class S3DiffCopier {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3DiffCopier.class);
+
+    protected static final String MULTIPART_ETAG_SEPARATOR = "-";
+
+    protected static final int MAX_REPORTED_ERRORS = 100;
+
+    protected final S3Client client;
+    protected final S3TransferManager transferManager;
+    protected final int maxConcurrentCopies;
+
+    /**
+     * @param client              the client used to list the objects
+     * @param transferManager     the transfer manager used to copy the objects
+     * @param maxConcurrentCopies the max number of copies done at the same time
+     */
+    public S3DiffCopier(S3Client client, S3TransferManager transferManager, int maxConcurrentCopies) {
+        this.client = client;
+        this.transferManager = transferManager;
+        this.maxConcurrentCopies = Math.max(maxConcurrentCopies, 1);
+    }
+
+    /**
+     * Copies the objects that are missing or changed in the destination, waiting until all copies have completed.
+     *
+     * @param srcBucket          the source bucket
+     * @param srcPrefix          the source prefix
+     * @param dstBucket          the destination bucket
+     * @param dstPrefix          the destination prefix
+     * @param filter             filter of the keys (relative to the prefix) to copy (can be null)
+     * @param startAfter         the relative key to resume after (can be null)
+     * @param checkpointListener listener of the relative key after which the copy can be resumed (can be null)
+     * @return the result of the copy
+     * @throws DeployerException if interrupted while waiting for the copies
+     */
+    public Result copy(String srcBucket, String srcPrefix, String dstBucket, String dstPrefix,
+                       Predicate<String> filter, String startAfter,
+                       Consumer<String> checkpointListener) throws DeployerException {
+        Semaphore permits = new Semaphore(maxConcurrentCopies);
+        Result result = new Result();
+        PageCheckpointTracker<String> tracker = new PageCheckpointTracker<>(checkpointListener);
+
+        Iterator<S3Object> dstObjects = list(dstBucket, dstPrefix, startAfter).contents().iterator();
+        S3Object dstObject = dstObjects.hasNext() ? dstObjects.next() : null;
+
+        try {
+            long seq = 0;
+            for (ListObjectsV2Response page : list(srcBucket, srcPrefix, startAfter)) {
+                long pageSeq = seq++;
+                List<String> keysToCopy = new ArrayList<>();
+                String lastKey = null;
+
+                for (S3Object srcObject : page.contents()) {
+                    String key = StringUtils.removeStart(srcObject.key(), srcPrefix);
+                    lastKey = key;
+
+                    // Advance the destination listing up to the source key
+                    while (dstObject != null &&
+                           CODE_POINT_ORDER.compare(StringUtils.removeStart(dstObject.key(), dstPrefix), key) < 0) {
+                        dstObject = dstObjects.hasNext() ? dstObjects.next() : null;
+                    }
+
+                    if (filter != null && !filter.test(key)) {
+                        continue;
+                    }
+
+                    if (dstObject != null && StringUtils.removeStart(dstObject.key(), dstPrefix).equals(key) &&
+                        isUpToDate(srcBucket, srcObject, dstBucket, dstObject)) {
+                        result.addSkipped();
+                    } else {
+                        keysToCopy.add(key);
+                    }
+                }
+
+                if (keysToCopy.isEmpty()) {
+                    tracker.pageDone(pageSeq, lastKey, false);
+                    continue;
+                }
+
+                String pageMarker = lastKey;
+                AtomicInteger pendingCopies = new AtomicInteger(keysToCopy.size());
+                AtomicInteger failedCopies = new AtomicInteger();
+
+                for (String key : keysToCopy) {
+                    permits.acquire();
+
+                    CopyRequest request = CopyRequest.builder()
+                                                     .copyObjectRequest(r -> r.sourceBucket(srcBucket)
+                                                                              .sourceKey(srcPrefix + key)
+                                                                              .destinationBucket(dstBucket)
+                                                                              .destinationKey(dstPrefix + key))
+                                                     .build();
+
+                    CompletableFuture<CompletedCopy> future;
+                    try {
+                        future = transferManager.copy(request).completionFuture();
+                    } catch (Exception e) {
+                        // Handled like a failed copy, so the permit is released
+                        future = CompletableFuture.failedFuture(e);
+                    }
+
+                    future.whenComplete((completed, e) -> {
+                        try {
+                            if (e != null) {
+                                logger.debug("Error copying '{}' from bucket '{}' to bucket '{}'", key, srcBucket,
+                                             dstBucket, e);
+
+                                result.addError(key + " (" + e.getMessage() + ")");
+                                failedCopies.incrementAndGet();
+                            } else {
+                                result.addCopied();
+                            }
+                            if (pendingCopies.decrementAndGet() == 0) {
+                                tracker.pageDone(pageSeq, pageMarker, failedCopies.get() > 0);
+                            }
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                }
+            }
+
+            // Wait for all the copies in progress
+            permits.acquire(maxConcurrentCopies);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new DeployerException("Interrupted while copying objects from bucket '" + srcBucket + "'", e);
+        }
+
+        return result;
+    }
+
+    protected ListObjectsV2Iterable list(String bucket, String prefix, String startAfter) {
+        ListObjectsV2Request.Builder request = ListObjectsV2Request.builder().bucket(bucket).prefix(prefix);
+        if (StringUtils.isNotEmpty(startAfter)) {
+            request.startAfter(prefix + startAfter);
+        }
+
+        return client.listObjectsV2Paginator(request.build());
+    }
+
+    /**
+     * Indicates if the destination object has the same content as the source: the same size and either the same
+     * ETag or, if the destination was copied in multiple parts, the same checksum. When in doubt the object is
+     * considered changed, since copying it again is always safe.
+     */
+    protected boolean isUpToDate(String srcBucket, S3Object srcObject, String dstBucket, S3Object dstObject) {
+        if (!srcObject.size().equals(dstObject.size())) {
+            return false;
+        }
+        if (StringUtils.equals(srcObject.eTag(), dstObject.eTag())) {
+            return true;
+        }
+        if (!StringUtils.contains(dstObject.eTag(), MULTIPART_ETAG_SEPARATOR)) {
+            return false;
+        }
+
+        try {
+            return hasSameChecksum(head(srcBucket, srcObject.key()), head(dstBucket, dstObject.key()));
+        } catch (SdkException e) {
+            logger.debug("Unable to compare the checksums of '{}' in bucket '{}' and '{}' in bucket '{}'",
+                         srcObject.key(), srcBucket, dstObject.key(), dstBucket, e);
+            return false;
+        }
+    }
+
+    protected HeadObjectResponse head(String bucket, String key) {
+        return client.headObject(HeadObjectRequest.builder()
+                                                  .bucket(bucket)
+                                                  .key(key)
+                                                  .checksumMode(ChecksumMode.ENABLED)
+                                                  .build());
+    }
+
+    /**
+     * Indicates if both objects have a checksum of the same algorithm with the same value. Checksums of objects
+     * uploaded in multiple parts are checksums of the parts, so they only match objects with the same parts.
+     */
+    protected boolean hasSameChecksum(HeadObjectResponse src, HeadObjectResponse dst) {
+        return sameChecksum(src.checksumSHA256(), dst.checksumSHA256()) ||
+               sameChecksum(src.checksumSHA1(), dst.checksumSHA1()) ||
+               sameChecksum(src.checksumCRC32C(), dst.checksumCRC32C()) ||
+               sameChecksum(src.checksumCRC32(), dst.checksumCRC32());
+    }
+
+    private static boolean sameChecksum(String srcChecksum, String dstChecksum) {
+        return srcChecksum != null && srcChecksum.equals(dstChecksum);
+    }
+
+    /**
+     * The result of a copy: the number of copied and skipped objects, and the errors of the objects that couldn't be
+     * copied. Only the first {@link #MAX_REPORTED_ERRORS} errors are kept.
+     */
+    public static class Result {
+
+        private final AtomicLong copied = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+        protected void addCopied() {
+            copied.incrementAndGet();
+        }
+
+        protected void addSkipped() {
+            skipped.incrementAndGet();
+        }
+
+        protected void addError(String error) {
+            if (failed.incrementAndGet() <= MAX_REPORTED_ERRORS) {
+                errors.add(error);
+            }
+        }
+
+        public long getCopied() {
+            return copied.get();
+        }
+
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public boolean hasErrors() {
+            return failed.get() > 0;
+        }
+
+    }
+
+}
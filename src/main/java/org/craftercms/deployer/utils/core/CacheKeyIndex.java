@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Index of the keys of a cache by the paths they belong to, so the entries of a set of paths can be found without
+ * parsing every key of the cache each time. Each key is parsed only once, when it's first seen, and the index is kept
+ * in sync with the cache by calling {@link #update(Collection)} with the current keys.
+ *
+ * <p>Keys that are collections or arrays are walked element by element, only string elements are split by the
+ * separators used by Crafter Core to join the elements of a key. An element is considered a path if it starts with a
+ * slash.</p>
+ *
+ * @since 4.2.0
+ */
+public class CacheKeyIndex {
+
+    public static final String KEY_SEPARATOR_CHARS = ":,[]";
+
+    protected final Map<Object, List<String>> keyPaths = new HashMap<>();
+    protected final Map<String, Set<Object>> pathKeys = new HashMap<>();
+
+    /**
+     * Updates the index with the current keys of the cache: new keys are parsed and added, and the keys that are no
+     * longer in the cache are removed.
+     *
+     * @param keys the current keys of the cache
+     */
+    public synchronized void update(Collection<?> keys) {
+        Set<?> currentKeys = keys instanceof Set? (Set<?>) keys : new HashSet<>(keys);
+
+        for (Iterator<Map.Entry<Object, List<String>>> iter = keyPaths.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<Object, List<String>> entry = iter.next();
+            if (!currentKeys.contains(entry.getKey())) {
+                iter.remove();
+                removeFromPaths(entry.getKey(), entry.getValue());
+            }
+        }
+
+        for (Object key : currentKeys) {
+            if (!keyPaths.containsKey(key)) {
+                List<String> paths = getKeyPaths(key);
+                keyPaths.put(key, paths);
+
+                for (String path : paths) {
+                    pathKeys.computeIfAbsent(path, p -> new HashSet<>()).add(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the keys that belong to any of the specified paths.
+     *
+     * @param paths the normalized paths (see {@link #normalizePath(String)})
+     * @return the keys of the paths
+     */
+    public synchronized Set<Object> getKeys(Collection<String> paths) {
+        Set<Object> keys = new HashSet<>();
+        for (String path : paths) {
+            keys.addAll(pathKeys.getOrDefault(path, Collections.emptySet()));
+        }
+
+        return keys;
+    }
+
+    /**
+     * Removes a key from the index, after its entry was removed from the cache.
+     */
+    public synchronized void remove(Object key) {
+        List<String> paths = keyPaths.remove(key);
+        if (paths != null) {
+            removeFromPaths(key, paths);
+        }
+    }
+
+    /**
+     * Removes all the keys from the index, after the cache was cleared.
+     */
+    public synchronized void clear() {
+        keyPaths.clear();
+        pathKeys.clear();
+    }
+
+    public synchronized int size() {
+        return keyPaths.size();
+    }
+
+    /**
+     * Returns the normalized paths included in the elements of a cache key.
+     */
+    public static List<String> getKeyPaths(Object key) {
+        List<String> paths = new ArrayList<>();
+        addKeyPaths(key, paths);
+
+        return paths;
+    }
+
+    /**
+     * Normalizes a path so the paths of the change set and the ones of the cache keys can be compared: it always
+     * starts with a slash and never ends with one (except for the root).
+     */
+    public static String normalizePath(String path) {
+        String normalized = FilenameUtils.normalizeNoEndSeparator(StringUtils.prependIfMissing(path, "/"), true);
+        if (normalized == null) {
+            return path;
+        }
+
+        return StringUtils.defaultIfEmpty(normalized, "/");
+    }
+
+    protected static void addKeyPaths(Object element, List<String> paths) {
+        if (element instanceof Collection) {
+            for (Object child : (Collection<?>) element) {
+                addKeyPaths(child, paths);
+            }
+        } else if (element instanceof Object[]) {
+            for (Object child : (Object[]) element) {
+                addKeyPaths(child, paths);
+            }
+        } else if (element != null) {
+            for (String part : StringUtils.split(element.toString(), KEY_SEPARATOR_CHARS)) {
+                part = part.trim();
+                if (part.startsWith("/")) {
+                    paths.add(normalizePath(part));
+                }
+            }
+        }
+    }
+
+    protected void removeFromPaths(Object key, List<String> paths) {
+        for (String path : paths) {
+            Set<Object> keys = pathKeys.get(path);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    pathKeys.remove(path);
+                }
+            }
+        }
+    }
+
+}
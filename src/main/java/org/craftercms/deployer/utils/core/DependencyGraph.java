@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Dependencies between the descriptors of a site: the components each item includes and the descriptors each item
+ * inherits from (level descriptors or explicit parents). Both relationships are indexed in reverse too, so the items
+ * affected by the change of a descriptor can be resolved without any limit, including items that depend on it
+ * indirectly (e.g. a page that includes a component that includes the changed component).
+ *
+ * <p>Dependencies to paths that don't exist yet are kept, so the dependents of a descriptor can also be resolved
+ * when the descriptor is created.</p>
+ *
+ * @since 4.2.0
+ */
+public class DependencyGraph {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final String INCLUDES_KEY = "includes";
+    private static final String INHERITS_KEY = "inherits";
+
+    protected final Map<String, Set<String>> includes = new HashMap<>();
+    protected final Map<String, Set<String>> inherits = new HashMap<>();
+    protected final Map<String, Set<String>> includedBy = new HashMap<>();
+    protected final Map<String, Set<String>> inheritedBy = new HashMap<>();
+
+    /**
+     * Reads a graph previously written with {@link #write(File)}.
+     */
+    public static DependencyGraph read(File file) throws IOException {
+        Map<String, Map<String, Set<String>>> data = objectMapper.readValue(file, new TypeReference<>() {});
+        DependencyGraph graph = new DependencyGraph();
+
+        Map<String, Set<String>> includes = data.getOrDefault(INCLUDES_KEY, Collections.emptyMap());
+        Map<String, Set<String>> inherits = data.getOrDefault(INHERITS_KEY, Collections.emptyMap());
+        Set<String> items = new HashSet<>(includes.keySet());
+        items.addAll(inherits.keySet());
+
+        for (String item : items) {
+            graph.setDependencies(item, includes.get(item), inherits.get(item));
+        }
+
+        return graph;
+    }
+
+    /**
+     * Replaces the dependencies of an item.
+     *
+     * @param item           the path of the item
+     * @param includedPaths  the paths of the components included by the item
+     * @param inheritedPaths the paths of the descriptors the item inherits from
+     */
+    public synchronized void setDependencies(String item, Set<String> includedPaths, Set<String> inheritedPaths) {
+        remove(item);
+        addEdges(item, includedPaths, includes, includedBy);
+        addEdges(item, inheritedPaths, inherits, inheritedBy);
+    }
+
+    /**
+     * Removes all the dependencies of an item. Dependencies of other items to the item are kept.
+     */
+    public synchronized void remove(String item) {
+        removeEdges(item, includes, includedBy);
+        removeEdges(item, inherits, inheritedBy);
+    }
+
+    /**
+     * Returns all the items that directly or indirectly depend on the specified path.
+     *
+     * @param path           the path of the descriptor
+     * @param followIncludes if items that include the path should be returned, or only items that inherit from it
+     * @return the paths of the dependent items
+     */
+    public Set<String> getDependents(String path, boolean followIncludes) {
+        return getDependents(path, followIncludes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the items that directly or indirectly depend on the specified path, up to the specified number. The
+     * closest dependents are returned first.
+     *
+     * @param path           the path of the descriptor
+     * @param followIncludes if items that include the path should be returned, or only items that inherit from it
+     * @param maxDependents  the max number of dependents to return
+     * @return the paths of the dependent items
+     */
+    public synchronized Set<String> getDependents(String path, boolean followIncludes, int maxDependents) {
+        Set<String> dependents = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(path);
+
+        while (!pending.isEmpty() && dependents.size() < maxDependents) {
+            String current = pending.poll();
+            addDependents(current, inheritedBy, path, dependents, pending, maxDependents);
+            if (followIncludes) {
+                addDependents(current, includedBy, path, dependents, pending, maxDependents);
+            }
+        }
+
+        return dependents;
+    }
+
+    /**
+     * Returns the number of items with dependencies.
+     */
+    public synchronized int size() {
+        Set<String> items = new HashSet<>(includes.keySet());
+        items.addAll(inherits.keySet());
+
+        return items.size();
+    }
+
+    public synchronized void clear() {
+        includes.clear();
+        inherits.clear();
+        includedBy.clear();
+        inheritedBy.clear();
+    }
+
+    /**
+     * Writes the graph to the specified file. The file is replaced only after the graph has been completely written.
+     */
+    public synchronized void write(File file) throws IOException {
+        Map<String, Map<String, Set<String>>> data = new HashMap<>();
+        data.put(INCLUDES_KEY, includes);
+        data.put(INHERITS_KEY, inherits);
+
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.createDirectories(file.getParentFile().toPath());
+
+        objectMapper.writeValue(tmpFile, data);
+
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    protected void addEdges(String item, Set<String> paths, Map<String, Set<String>> edges,
+                            Map<String, Set<String>> reverseEdges) {
+        if (paths != null && !paths.isEmpty()) {
+            edges.put(item, new HashSet<>(paths));
+            for (String path : paths) {
+                reverseEdges.computeIfAbsent(path, k -> new HashSet<>()).add(item);
+            }
+        }
+    }
+
+    protected void removeEdges(String item, Map<String, Set<String>> edges, Map<String, Set<String>> reverseEdges) {
+        Set<String> paths = edges.remove(item);
+        if (paths != null) {
+            for (String path : paths) {
+                Set<String> items = reverseEdges.get(path);
+                if (items != null) {
+                    items.remove(item);
+                    if (items.isEmpty()) {
+                        reverseEdges.remove(path);
+                    }
+                }
+            }
+        }
+    }
+
+    protected void addDependents(String path, Map<String, Set<String>> reverseEdges, String origin,
+                                 Set<String> dependents, Deque<String> pending, int maxDependents) {
+        for (String dependent : reverseEdges.getOrDefault(path, Collections.emptySet())) {
+            if (dependents.size() >= maxDependents) {
+                return;
+            }
+            if (!dependent.equals(origin) && dependents.add(dependent)) {
+                pending.add(dependent);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.core;
+
+import java.beans.ConstructorProperties;
+
+import org.craftercms.core.processors.ItemProcessor;
+import org.craftercms.core.service.CachingOptions;
+import org.craftercms.core.service.Context;
+import org.craftercms.core.service.Item;
+
+/**
+ * {@link ItemProcessor} that records the dependencies of the descriptors processed by the XML indexer in the
+ * {@link DependencyGraphManager}, so they don't need to be parsed again to update the graph. It doesn't change the
+ * item, and it should be the first processor, so it sees the descriptor before the includes are flattened.
+ *
+ * @since 4.2.0
+ */
+public class DependencyGraphItemProcessor implements ItemProcessor {
+
+    protected final DependencyGraphManager dependencyGraphManager;
+
+    @ConstructorProperties({"dependencyGraphManager"})
+    public DependencyGraphItemProcessor(DependencyGraphManager dependencyGraphManager) {
+        this.dependencyGraphManager = dependencyGraphManager;
+    }
+
+    @Override
+    public Item process(Context context, CachingOptions cachingOptions, Item item) {
+        if (dependencyGraphManager != null && item.getDescriptorDom() != null) {
+            dependencyGraphManager.recordDependencies(context.getId(), item.getUrl(), item.getDescriptorDom());
+        }
+
+        return item;
+    }
+
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.core;
+
+import java.beans.ConstructorProperties;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.eclipse.jgit.lib.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Maintains the {@link DependencyGraph} of a target. The graph is stored in a file, so it survives restarts, and is
+ * updated incrementally with the descriptors changed by each deployment. If the file doesn't exist (or can't be read)
+ * the graph is rebuilt from all the descriptors in the local repository. Loading or rebuilding the graph happens in
+ * the background, starting when the target is loaded, so deployments never wait for it: until the graph is ready
+ * {@link #getGraphIfReady()} returns null and the index is queried instead.
+ *
+ * <p>The dependencies of the descriptors that were indexed are taken from the XML already parsed by the indexer
+ * (see {@link DependencyGraphItemProcessor}), so only the descriptors that weren't indexed are parsed again.</p>
+ *
+ * <p>The dependencies of a descriptor are extracted from:</p>
+ * <ul>
+ *     <li>{@code include} elements: the components included by the item</li>
+ *     <li>{@code parent-descriptor} element: the explicit parent the item inherits from</li>
+ *     <li>{@code merge-strategy} element: if it's {@code inherit-levels}, the item inherits from the level
+ *     descriptors of its folder and all its ancestor folders</li>
+ * </ul>
+ *
+ * @since 4.2.0
+ */
+public class DependencyGraphManager implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(DependencyGraphManager.class);
+
+    public static final String DEFAULT_LEVEL_DESCRIPTOR_NAME = "crafter-level-descriptor.level.xml";
+    public static final String DEFAULT_DESCRIPTOR_PATH_REGEX = "^/site/.+\\.xml$";
+    public static final int DEFAULT_MAX_DEPENDENTS = 10000;
+
+    protected static final String INCLUDE_ELEMENT_NAME = "include";
+    protected static final String PARENT_DESCRIPTOR_ELEMENT_NAME = "parent-descriptor";
+    protected static final String MERGE_STRATEGY_ELEMENT_NAME = "merge-strategy";
+    protected static final String INHERIT_LEVELS_MERGE_STRATEGY = "inherit-levels";
+
+    protected final File localRepoFolder;
+    protected final File storeFile;
+    protected final XMLInputFactory xmlInputFactory;
+    protected final ExecutorService executor;
+
+    protected Pattern descriptorPathPattern = Pattern.compile(DEFAULT_DESCRIPTOR_PATH_REGEX);
+    protected String levelDescriptorName = DEFAULT_LEVEL_DESCRIPTOR_NAME;
+    protected int maxDependents = DEFAULT_MAX_DEPENDENTS;
+
+    protected DependencyGraph graph;
+    protected Future<?> buildFuture;
+    protected boolean rebuilding;
+    protected boolean rebuildRequested;
+    /**
+     * Descriptors changed while the graph is being built, which need to be parsed again once it's done
+     */
+    protected final Set<String> pathsChangedWhileBuilding = new HashSet<>();
+    /**
+     * Dependencies taken from the XML parsed by the indexer, by context ID and path, until the graph is updated
+     */
+    protected final Map<String, Map<String, Dependencies>> indexedDependencies = new ConcurrentHashMap<>();
+
+    @ConstructorProperties({"localRepoFolder", "storeFile"})
+    public DependencyGraphManager(File localRepoFolder, File storeFile) {
+        this.localRepoFolder = localRepoFolder;
+        this.storeFile = storeFile;
+        this.executor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("dependency-graph-"));
+
+        xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    public void setDescriptorPathRegex(String descriptorPathRegex) {
+        descriptorPathPattern = Pattern.compile(descriptorPathRegex);
+    }
+
+    public void setLevelDescriptorName(String levelDescriptorName) {
+        this.levelDescriptorName = levelDescriptorName;
+    }
+
+    public int getMaxDependents() {
+        return maxDependents;
+    }
+
+    /**
+     * Sets the max number of dependents of a single descriptor that are resolved from the graph.
+     */
+    public void setMaxDependents(int maxDependents) {
+        this.maxDependents = maxDependents;
+    }
+
+    /**
+     * Starts loading the graph in the background.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        startBuild(false);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the graph, loading it from the store file or rebuilding it from the local repository if it hasn't been
+     * loaded yet. Waits for the graph if it's being loaded in the background.
+     */
+    public DependencyGraph getGraph() throws DeployerException {
+        startBuild(false);
+        awaitBuild();
+
+        synchronized (this) {
+            if (graph == null) {
+                throw new DeployerException("The dependency graph of " + localRepoFolder + " couldn't be built");
+            }
+
+            return graph;
+        }
+    }
+
+    /**
+     * Returns the graph if it has already been loaded, otherwise starts loading it in the background (if it's not
+     * being loaded already) and returns null.
+     */
+    public synchronized DependencyGraph getGraphIfReady() {
+        if (graph == null) {
+            startBuild(false);
+        }
+
+        return graph;
+    }
+
+    /**
+     * Records the dependencies of a descriptor from its XML, already parsed by the indexer. They're applied to the
+     * graph by the next call to {@link #update(String, Collection, Collection)} with the same context ID.
+     *
+     * @param contextId the ID of the Core context used to load the descriptor
+     * @param path      the path of the descriptor
+     * @param document  the XML of the descriptor
+     */
+    public void recordDependencies(String contextId, String path, Document document) {
+        if (!isDescriptor(path)) {
+            return;
+        }
+
+        Dependencies dependencies = new Dependencies();
+        collectDependencies(path, document.getRootElement(), dependencies);
+
+        indexedDependencies.computeIfAbsent(contextId, id -> new ConcurrentHashMap<>()).put(path, dependencies);
+    }
+
+    /**
+     * Discards the dependencies recorded for the context that haven't been applied to the graph, like the ones of a
+     * deployment that failed.
+     *
+     * @param contextId the ID of the Core context
+     */
+    public void discardRecordedDependencies(String contextId) {
+        indexedDependencies.remove(contextId);
+    }
+
+    /**
+     * Updates the dependencies of the specified descriptors and saves the graph. The files are parsed again.
+     *
+     * @param updatedPaths the paths of the created or updated files
+     * @param deletedPaths the paths of the deleted files
+     */
+    public void update(Collection<String> updatedPaths, Collection<String> deletedPaths) throws DeployerException {
+        update(null, updatedPaths, deletedPaths);
+    }
+
+    /**
+     * Updates the dependencies of the specified descriptors and saves the graph. The dependencies recorded for the
+     * context by {@link #recordDependencies(String, String, Document)} are used, only the descriptors without them
+     * are parsed again. If the graph isn't ready yet, the descriptors are parsed once it's been built.
+     *
+     * @param contextId    the ID of the Core context used to index the files, or null if there's none
+     * @param updatedPaths the paths of the created or updated files
+     * @param deletedPaths the paths of the deleted files
+     */
+    public synchronized void update(String contextId, Collection<String> updatedPaths,
+                                    Collection<String> deletedPaths) throws DeployerException {
+        Map<String, Dependencies> recorded = contextId != null ? indexedDependencies.remove(contextId) : null;
+        if (recorded == null) {
+            recorded = Collections.emptyMap();
+        }
+
+        if (buildFuture != null) {
+            // The build might not see these changes, so parse them again when it's done
+            updatedPaths.stream().filter(this::isDescriptor).forEach(pathsChangedWhileBuilding::add);
+            deletedPaths.stream().filter(this::isDescriptor).forEach(pathsChangedWhileBuilding::add);
+        }
+        if (graph == null) {
+            return;
+        }
+
+        deletedPaths.stream().filter(this::isDescriptor).forEach(graph::remove);
+        for (String path : updatedPaths) {
+            if (isDescriptor(path)) {
+                Dependencies dependencies = recorded.get(path);
+                if (dependencies != null) {
+                    setDependencies(graph, path, dependencies);
+                } else {
+                    addDescriptor(graph, path);
+                }
+            }
+        }
+
+        save();
+    }
+
+    /**
+     * Rebuilds the graph from all the descriptors in the local repository and saves it, waiting until it's done.
+     */
+    public void rebuild() throws DeployerException {
+        startBuild(true);
+        awaitBuild();
+    }
+
+    /**
+     * Starts rebuilding the graph in the background from all the descriptors in the local repository. The current
+     * graph is used until the new one is ready.
+     */
+    public void rebuildInBackground() {
+        startBuild(true);
+    }
+
+    /**
+     * Starts building the graph in the background, if it's not being built already.
+     *
+     * @param rebuild if the graph should be rebuilt from the repository even if it has been loaded or can be read
+     *                from the store file
+     * @return the future of the build, or null if the graph is loaded and doesn't need to be rebuilt
+     */
+    protected synchronized Future<?> startBuild(boolean rebuild) {
+        if (buildFuture != null) {
+            // The graph is only being loaded from the store file, so it needs to be rebuilt afterwards
+            rebuildRequested |= rebuild && !rebuilding;
+        } else if (rebuild || graph == null) {
+            pathsChangedWhileBuilding.clear();
+            rebuilding = rebuild;
+            buildFuture = executor.submit(() -> build(rebuild));
+        }
+
+        return buildFuture;
+    }
+
+    /**
+     * Waits until the graph is not being built anymore, including any rebuild requested while it was loaded
+     */
+    protected void awaitBuild() throws DeployerException {
+        Future<?> future;
+        while ((future = getBuildFuture()) != null) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DeployerException("Interrupted while waiting for the dependency graph", e);
+            } catch (ExecutionException e) {
+                throw new DeployerException("Error building the dependency graph", e.getCause());
+            }
+        }
+    }
+
+    protected synchronized Future<?> getBuildFuture() {
+        return buildFuture;
+    }
+
+    protected void build(boolean rebuild) {
+        try {
+            DependencyGraph newGraph = null;
+            if (!rebuild && storeFile.exists()) {
+                try {
+                    newGraph = DependencyGraph.read(storeFile);
+
+                    logger.debug("Dependency graph loaded from {} ({} items)", storeFile, newGraph.size());
+                } catch (IOException e) {
+                    logger.warn("Unable to read dependency graph from {}, it will be rebuilt", storeFile, e);
+                }
+            }
+
+            boolean built = newGraph == null;
+            if (built) {
+                newGraph = buildFromRepo();
+            }
+
+            synchronized (this) {
+                pathsChangedWhileBuilding.forEach(newGraph::remove);
+                for (String path : pathsChangedWhileBuilding) {
+                    addDescriptor(newGraph, path);
+                }
+
+                graph = newGraph;
+
+                if (built || !pathsChangedWhileBuilding.isEmpty()) {
+                    save();
+                }
+            }
+        } catch (DeployerException e) {
+            logger.error("Unable to build the dependency graph of {}", localRepoFolder, e);
+        } finally {
+            synchronized (this) {
+                pathsChangedWhileBuilding.clear();
+                buildFuture = null;
+
+                if (rebuildRequested) {
+                    rebuildRequested = false;
+                    startBuild(true);
+                }
+            }
+        }
+    }
+
+    protected DependencyGraph buildFromRepo() throws DeployerException {
+        logger.info("Building dependency graph from the descriptors in {}", localRepoFolder);
+
+        DependencyGraph newGraph = new DependencyGraph();
+        Path repoPath = localRepoFolder.toPath();
+
+        if (Files.exists(repoPath)) {
+            List<String> paths;
+            try (Stream<Path> files = Files.walk(repoPath)) {
+                paths = files.filter(Files::isRegularFile)
+                             .map(file -> "/" + FilenameUtils.separatorsToUnix(repoPath.relativize(file).toString()))
+                             .filter(path -> !path.startsWith("/" + Constants.DOT_GIT + "/"))
+                             .filter(this::isDescriptor)
+                             .collect(Collectors.toList());
+            } catch (IOException e) {
+                throw new DeployerException("Error listing the descriptors in " + localRepoFolder, e);
+            }
+
+            paths.forEach(path -> addDescriptor(newGraph, path));
+        }
+
+        logger.info("Dependency graph built with {} items", newGraph.size());
+
+        return newGraph;
+    }
+
+    protected void save() throws DeployerException {
+        try {
+            graph.write(storeFile);
+        } catch (IOException e) {
+            throw new DeployerException("Error saving dependency graph to " + storeFile, e);
+        }
+    }
+
+    protected boolean isDescriptor(String path) {
+        return descriptorPathPattern.matcher(path).matches();
+    }
+
+    protected void addDescriptor(DependencyGraph graph, String path) {
+        Dependencies dependencies = new Dependencies();
+        File file = new File(localRepoFolder, path);
+
+        if (file.exists()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                parseDependencies(path, in, dependencies);
+            } catch (IOException | XMLStreamException e) {
+                logger.warn("Unable to parse dependencies of {}", path, e);
+            }
+        }
+
+        setDependencies(graph, path, dependencies);
+    }
+
+    protected void setDependencies(DependencyGraph graph, String path, Dependencies dependencies) {
+        Set<String> inheritedPaths = new HashSet<>(dependencies.inheritedPaths);
+        inheritedPaths.remove(path);
+
+        graph.setDependencies(path, dependencies.includedPaths, inheritedPaths);
+    }
+
+    protected void parseDependencies(String path, InputStream in, Dependencies dependencies)
+            throws XMLStreamException {
+        XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+        try {
+            String element = null;
+            StringBuilder text = new StringBuilder();
+
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        element = reader.getLocalName();
+                        text.setLength(0);
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        if (element != null) {
+                            text.append(reader.getText());
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (element != null) {
+                            addDependency(path, element, text.toString().trim(), dependencies);
+                        }
+                        element = null;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Collects the dependencies from the leaf elements of an already parsed XML, like {@link #parseDependencies}
+     */
+    protected void collectDependencies(String path, Element element, Dependencies dependencies) {
+        List<Element> children = element.elements();
+        if (children.isEmpty()) {
+            addDependency(path, element.getName(), element.getTextTrim(), dependencies);
+        } else {
+            for (Element child : children) {
+                collectDependencies(path, child, dependencies);
+            }
+        }
+    }
+
+    protected void addDependency(String path, String element, String value, Dependencies dependencies) {
+        if (StringUtils.isEmpty(value)) {
+            return;
+        }
+
+        String folder = FilenameUtils.getFullPathNoEndSeparator(path);
+
+        switch (element) {
+            case INCLUDE_ELEMENT_NAME:
+                if (value.startsWith("/")) {
+                    dependencies.includedPaths.add(value);
+                }
+                break;
+            case PARENT_DESCRIPTOR_ELEMENT_NAME:
+                dependencies.inheritedPaths.add(value.startsWith("/") ? value : folder + "/" + value);
+                break;
+            case MERGE_STRATEGY_ELEMENT_NAME:
+                if (INHERIT_LEVELS_MERGE_STRATEGY.equals(value)) {
+                    while (StringUtils.isNotEmpty(folder) && !folder.equals("/")) {
+                        dependencies.inheritedPaths.add(folder + "/" + levelDescriptorName);
+                        folder = FilenameUtils.getFullPathNoEndSeparator(folder);
+                    }
+                    dependencies.inheritedPaths.add("/" + levelDescriptorName);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * The paths a descriptor depends on
+     */
+    protected static class Dependencies {
+
+        protected final Set<String> includedPaths = new HashSet<>();
+        protected final Set<String> inheritedPaths = new HashSet<>();
+
+    }
+
+}
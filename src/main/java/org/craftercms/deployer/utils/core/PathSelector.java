@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * Selects the files of a local repository that match a list of path prefixes (e.g. {@code /site/website/blog}) or
+ * globs (e.g. {@code /site/website/blog/**}{@code /index.xml}). Only the subtrees that can contain matching files are
+ * walked, each one in parallel, so a small section of a big site is selected without visiting the rest of the
+ * repository.
+ *
+ * @since 4.2.0
+ */
+public class PathSelector {
+
+    protected static final String GLOB_CHARS = "*?[{";
+
+    protected final List<Selector> selectors;
+
+    /**
+     * Creates the selector.
+     *
+     * @param paths the path prefixes or globs, relative to the root of the repository
+     * @throws DeployerException if a path points outside the repository
+     */
+    public PathSelector(Collection<String> paths) throws DeployerException {
+        this.selectors = new ArrayList<>();
+        for (String path : paths) {
+            String normalized = StringUtils.prependIfMissing(path.trim(), "/");
+            if (List.of(normalized.split("/")).contains("..")) {
+                throw new DeployerException("Invalid path '" + path + "', it's outside the repository");
+            }
+            if (StringUtils.isNotEmpty(normalized) && !normalized.equals("/")) {
+                selectors.add(new Selector(StringUtils.removeEnd(normalized, "/")));
+            } else {
+                selectors.add(new Selector("/"));
+            }
+        }
+    }
+
+    /**
+     * Creates a selector from the value of a deployment param, either a collection of paths or a comma separated
+     * list.
+     *
+     * @param value the value of the param
+     * @return the selector, or null if the param doesn't have any path
+     * @throws DeployerException if a path points outside the repository
+     */
+    public static PathSelector fromParam(Object value) throws DeployerException {
+        List<String> paths = new ArrayList<>();
+        if (value instanceof Collection) {
+            ((Collection<?>) value).forEach(path -> paths.add(path.toString()));
+        } else if (value != null) {
+            paths.addAll(List.of(StringUtils.split(value.toString(), ',')));
+        }
+
+        return !paths.isEmpty() ? new PathSelector(paths) : null;
+    }
+
+    /**
+     * Returns the folders (or files) under which all the selected paths are, without duplicates
+     */
+    public List<String> getRoots() {
+        return selectors.stream().map(selector -> selector.root).distinct().toList();
+    }
+
+    /**
+     * Indicates if the path (relative to the root of the repository, starting with {@code /}) is selected
+     */
+    public boolean matches(String path) {
+        return selectors.stream().anyMatch(selector -> selector.matches(path));
+    }
+
+    /**
+     * Returns the paths of the files in the repository that are selected, sorted.
+     *
+     * @param repoFolder    the folder of the repository
+     * @param blobExtension the extension of the files that point to blobs, removed from the returned paths
+     * @throws DeployerException if the repository can't be read
+     */
+    public SortedSet<String> select(File repoFolder, String blobExtension) throws DeployerException {
+        Path root = repoFolder.toPath();
+        SortedSet<String> paths = new TreeSet<>();
+        try {
+            selectors.parallelStream()
+                .map(selector -> walk(root, selector, blobExtension))
+                .forEach(selected -> {
+                    synchronized (paths) {
+                        paths.addAll(selected);
+                    }
+                });
+        } catch (UncheckedIOException e) {
+            throw new DeployerException("Error selecting files of repository " + repoFolder, e.getCause());
+        }
+
+        return paths;
+    }
+
+    protected List<String> walk(Path root, Selector selector, String blobExtension) {
+        Path start = root.resolve(StringUtils.removeStart(selector.root, "/"));
+        if (!Files.exists(start)) {
+            return List.of();
+        }
+
+        try (Stream<Path> files = Files.walk(start)) {
+            return files
+                .filter(Files::isRegularFile)
+                .map(file -> "/" + root.relativize(file).toString().replace(File.separatorChar, '/'))
+                .filter(path -> !path.startsWith("/" + Constants.DOT_GIT + "/"))
+                .map(path -> StringUtils.removeEnd(path, blobExtension))
+                .filter(selector::matches)
+                .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A single prefix or glob, with the folder where the walk for it starts
+     */
+    protected static class Selector {
+
+        protected final String pattern;
+        protected final String root;
+        protected final PathMatcher matcher;
+
+        public Selector(String pattern) {
+            this.pattern = pattern;
+
+            int globStart = StringUtils.indexOfAny(pattern, GLOB_CHARS);
+            if (globStart >= 0) {
+                root = StringUtils.defaultIfEmpty(pattern.substring(0, pattern.lastIndexOf('/', globStart)), "/");
+                matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            } else {
+                root = pattern;
+                matcher = null;
+            }
+        }
+
+        public boolean matches(String path) {
+            if (matcher != null) {
+                return matcher.matches(Paths.get(path));
+            } else {
+                return root.equals("/") || path.equals(root) || path.startsWith(root + "/");
+            }
+        }
+
+    }
+
+}
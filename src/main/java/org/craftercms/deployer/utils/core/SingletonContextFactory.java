@@ -83,7 +83,7 @@ public class SingletonContextFactory implements ObjectFactory<Context>, Disposab
     }
 
     @Override
-    public Context getObject() throws BeansException {
+    public synchronized Context getObject() throws BeansException {
         if (context == null) {
             try {
                 Map<String, String> configVariables =
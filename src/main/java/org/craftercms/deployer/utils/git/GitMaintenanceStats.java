@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.git;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Metrics of the last maintenance executed on a local Git repository.
+ *
+ * @since 4.2.0
+ */
+public class GitMaintenanceStats {
+
+    public enum Action {
+        PACK_REFS,
+        REPACK
+    }
+
+    protected ZonedDateTime start;
+    protected ZonedDateTime end;
+    protected List<Action> actions;
+    protected long looseObjectsBefore;
+    protected long looseObjectsAfter;
+    protected long packFilesBefore;
+    protected long packFilesAfter;
+    protected long looseRefsBefore;
+    protected long looseRefsAfter;
+    protected String error;
+
+    public GitMaintenanceStats() {
+        this.start = ZonedDateTime.now();
+        this.actions = new ArrayList<>();
+    }
+
+    @JsonProperty("start")
+    public ZonedDateTime getStart() {
+        return start;
+    }
+
+    @JsonProperty("end")
+    public ZonedDateTime getEnd() {
+        return end;
+    }
+
+    public void end() {
+        this.end = ZonedDateTime.now();
+    }
+
+    @JsonProperty("duration")
+    public Long getDuration() {
+        return end != null ? end.toInstant().toEpochMilli() - start.toInstant().toEpochMilli() : null;
+    }
+
+    @JsonProperty("actions")
+    public List<Action> getActions() {
+        return actions;
+    }
+
+    public void addAction(Action action) {
+        actions.add(action);
+    }
+
+    @JsonProperty("loose_objects_before")
+    public long getLooseObjectsBefore() {
+        return looseObjectsBefore;
+    }
+
+    public void setLooseObjectsBefore(long looseObjectsBefore) {
+        this.looseObjectsBefore = looseObjectsBefore;
+    }
+
+    @JsonProperty("loose_objects_after")
+    public long getLooseObjectsAfter() {
+        return looseObjectsAfter;
+    }
+
+    public void setLooseObjectsAfter(long looseObjectsAfter) {
+        this.looseObjectsAfter = looseObjectsAfter;
+    }
+
+    @JsonProperty("pack_files_before")
+    public long getPackFilesBefore() {
+        return packFilesBefore;
+    }
+
+    public void setPackFilesBefore(long packFilesBefore) {
+        this.packFilesBefore = packFilesBefore;
+    }
+
+    @JsonProperty("pack_files_after")
+    public long getPackFilesAfter() {
+        return packFilesAfter;
+    }
+
+    public void setPackFilesAfter(long packFilesAfter) {
+        this.packFilesAfter = packFilesAfter;
+    }
+
+    @JsonProperty("loose_refs_before")
+    public long getLooseRefsBefore() {
+        return looseRefsBefore;
+    }
+
+    public void setLooseRefsBefore(long looseRefsBefore) {
+        this.looseRefsBefore = looseRefsBefore;
+    }
+
+    @JsonProperty("loose_refs_after")
+    public long getLooseRefsAfter() {
+        return looseRefsAfter;
+    }
+
+    public void setLooseRefsAfter(long looseRefsAfter) {
+        this.looseRefsAfter = looseRefsAfter;
+    }
+
+    @JsonProperty("error")
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "GitMaintenanceStats{" +
+               "start=" + start +
+               ", end=" + end +
+               ", actions=" + actions +
+               ", looseObjectsBefore=" + looseObjectsBefore +
+               ", looseObjectsAfter=" + looseObjectsAfter +
+               ", packFilesBefore=" + packFilesBefore +
+               ", packFilesAfter=" + packFilesAfter +
+               ", looseRefsBefore=" + looseRefsBefore +
+               ", looseRefsAfter=" + looseRefsAfter +
+               ", error='" + error + '\'' +
+               '}';
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.commons.git.utils.GitUtils;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.EmptyProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes only the maintenance that a local Git repository actually needs, based on its statistics:
+ *
+ * <ul>
+ *     <li>If the number of loose refs is over the threshold, the refs are packed.</li>
+ *     <li>If the number of loose objects or pack files is over the threshold, the objects are repacked into a single
+ *     pack with its bitmap index, and the commit-graph is written.</li>
+ * </ul>
+ *
+ * <p>The objects of repositories attached to a {@link SharedGitObjectsStore} are not repacked, since a GC would
+ * copy all the shared objects back into the local repository. Their objects are fetched into the shared repository,
+ * which is maintained by the store (see {@link SharedGitObjectsStore#prune()}).</p>
+ *
+ * <p>A deployment could start while a repository is being repacked, so the replaced packs are not deleted right away:
+ * they're kept until they expire ({@code gc.prunePackExpire}, one hour by default) and then moved to the
+ * {@code objects/pack/preserved} folder, where readers that still need them can find them, and they're only deleted
+ * by the next repack.</p>
+ *
+ * <p>If a deadline is specified, a repack that is still running when it's reached is cancelled, leaving the
+ * repository as it was.</p>
+ *
+ * @since 4.2.0
+ */
+public class GitRepoMaintainer {
+
+    private static final Logger logger = LoggerFactory.getLogger(GitRepoMaintainer.class);
+
+    protected static final String CONFIG_KEY_WRITE_COMMIT_GRAPH = "writeCommitGraph";
+    protected static final String CONFIG_KEY_COMMIT_GRAPH = "commitGraph";
+
+    protected static final String STAT_LOOSE_OBJECTS = "numberOfLooseObjects";
+    protected static final String STAT_PACK_FILES = "numberOfPackFiles";
+    protected static final String STAT_LOOSE_REFS = "numberOfLooseRefs";
+
+    protected final long looseObjectsThreshold;
+    protected final long packFilesThreshold;
+    protected final long looseRefsThreshold;
+
+    public GitRepoMaintainer(long looseObjectsThreshold, long packFilesThreshold, long looseRefsThreshold) {
+        this.looseObjectsThreshold = looseObjectsThreshold;
+        this.packFilesThreshold = packFilesThreshold;
+        this.looseRefsThreshold = looseRefsThreshold;
+    }
+
+    /**
+     * Checks the statistics of the repository and executes the maintenance actions required, without a deadline.
+     *
+     * @param repoFolder the folder of the local repository
+     * @return the stats of the maintenance
+     * @throws DeployerException if the repository can't be opened or the maintenance fails
+     */
+    public GitMaintenanceStats maintain(File repoFolder) throws DeployerException {
+        return maintain(repoFolder, null);
+    }
+
+    /**
+     * Checks the statistics of the repository and executes the maintenance actions required.
+     *
+     * @param repoFolder the folder of the local repository
+     * @param deadline   the time after which a running repack is cancelled (can be null)
+     * @return the stats of the maintenance
+     * @throws DeployerException if the repository can't be opened, the maintenance fails or the deadline is reached
+     */
+    public GitMaintenanceStats maintain(File repoFolder, Instant deadline) throws DeployerException {
+        GitMaintenanceStats stats = new GitMaintenanceStats();
+
+        try (Git git = GitUtils.openRepository(repoFolder)) {
+            Properties before = git.gc().getStatistics();
+            long looseObjects = getStatistic(before, STAT_LOOSE_OBJECTS);
+            long packFiles = getStatistic(before, STAT_PACK_FILES);
+            long looseRefs = getStatistic(before, STAT_LOOSE_REFS);
+
+            stats.setLooseObjectsBefore(looseObjects);
+            stats.setPackFilesBefore(packFiles);
+            stats.setLooseRefsBefore(looseRefs);
+
+            logger.debug("Statistics of repository {} before maintenance: {}", repoFolder, before);
+
+            if (looseRefs > looseRefsThreshold) {
+                logger.info("Packing {} loose refs of repository {}", looseRefs, repoFolder);
+
+                git.packRefs().setAll(true).call();
+                stats.addAction(GitMaintenanceStats.Action.PACK_REFS);
+            }
+            if (looseObjects > looseObjectsThreshold || packFiles > packFilesThreshold) {
+                if (isAttachedToSharedObjects(git.getRepository())) {
+                    logger.info("Objects of repository {} are in a shared objects repository, skipping repack",
+                                repoFolder);
+                } else {
+                    logger.info("Repacking {} loose objects and {} pack files of repository {}", looseObjects,
+                                packFiles, repoFolder);
+
+                    enableCommitGraph(git.getRepository());
+
+                    git.gc()
+                       .setPreserveOldPacks(true)
+                       .setPrunePreserved(true)
+                       .setProgressMonitor(new DeadlineProgressMonitor(deadline))
+                       .call();
+
+                    stats.addAction(GitMaintenanceStats.Action.REPACK);
+                }
+            }
+
+            Properties after = git.gc().getStatistics();
+            stats.setLooseObjectsAfter(getStatistic(after, STAT_LOOSE_OBJECTS));
+            stats.setPackFilesAfter(getStatistic(after, STAT_PACK_FILES));
+            stats.setLooseRefsAfter(getStatistic(after, STAT_LOOSE_REFS));
+        } catch (Exception e) {
+            if (deadline != null && Instant.now().isAfter(deadline)) {
+                throw new DeployerException("Maintenance of repository " + repoFolder +
+                                            " was cancelled because the deadline was reached", e);
+            }
+            throw new DeployerException("Maintenance of repository " + repoFolder + " failed", e);
+        } finally {
+            stats.end();
+        }
+
+        return stats;
+    }
+
+    protected long getStatistic(Properties statistics, String name) {
+        Object value = statistics.get(name);
+        return value != null ? Long.parseLong(value.toString()) : 0;
+    }
+
+    protected boolean isAttachedToSharedObjects(Repository repo) throws IOException {
+        File alternatesFile = new File(repo.getDirectory(), SharedGitObjectsStore.ALTERNATES_FILE_PATH);
+        return alternatesFile.exists() &&
+               StringUtils.isNotBlank(FileUtils.readFileToString(alternatesFile, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Enables the commit-graph only in memory, so the GC writes it without modifying the repository config file.
+     */
+    protected void enableCommitGraph(Repository repo) {
+        StoredConfig config = repo.getConfig();
+        config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, CONFIG_KEY_COMMIT_GRAPH, true);
+        config.setBoolean(ConfigConstants.CONFIG_GC_SECTION, null, CONFIG_KEY_WRITE_COMMIT_GRAPH, true);
+    }
+
+    /**
+     * Cancels the GC once the deadline is reached
+     */
+    protected static class DeadlineProgressMonitor extends EmptyProgressMonitor {
+
+        protected final Instant deadline;
+
+        public DeadlineProgressMonitor(Instant deadline) {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return deadline != null && Instant.now().isAfter(deadline);
+        }
+
+    }
+
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.collections4.ListUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Materializes the tree of a commit in the working tree of a repository using several threads, and then writes the
+ * index with the stats of the files written, so the next status/diff doesn't need to hash them again. Directories are
+ * created first, in order, by a single thread, and then the files are written in batches by a pool of workers, each
+ * one with its own {@link ObjectReader}.
+ *
+ * <p>Each file is written to a temporary file next to it and then atomically moved into place, so concurrent readers
+ * never see a missing or partially written file. Files of the current index that are not part of the tree are
+ * deleted, and paths that changed between file and folder are replaced. It's meant to be used on an empty working
+ * tree (like a new clone) or to reset an existing one. No checkout filters are applied, so
+ * {@link #isSupported(Repository, ObjectId)} should be checked first.</p>
+ *
+ * @since 4.2.0
+ */
+public class ParallelCheckout {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelCheckout.class);
+
+    protected static final String TEMP_FILE_SUFFIX = ".checkout-tmp";
+
+    protected final int threadCount;
+    protected final int batchSize;
+
+    public ParallelCheckout(int threadCount, int batchSize) {
+        this.threadCount = threadCount;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Indicates if the tree of the commit can be checked out without applying any filter: there's no
+     * {@code .gitattributes} file at any level of the tree, no {@code info/attributes} file in the Git folder or
+     * global attributes file configured ({@code core.attributesFile}), and {@code core.autocrlf} is not enabled.
+     *
+     * @param repo     the repository
+     * @param commitId the ID of the commit
+     * @return true if the parallel checkout can be used
+     * @throws IOException if the commit can't be read
+     */
+    public boolean isSupported(Repository repo, ObjectId commitId) throws IOException {
+        StoredConfig config = repo.getConfig();
+        String autoCrlf = config.getString(ConfigConstants.CONFIG_CORE_SECTION, null,
+                                           ConfigConstants.CONFIG_KEY_AUTOCRLF);
+        if (autoCrlf != null && !"false".equalsIgnoreCase(autoCrlf)) {
+            return false;
+        }
+        if (StringUtils.isNotEmpty(config.getString(ConfigConstants.CONFIG_CORE_SECTION, null,
+                                                    ConfigConstants.CONFIG_KEY_ATTRIBUTESFILE))) {
+            return false;
+        }
+        if (new File(repo.getDirectory(), Constants.INFO_ATTRIBUTES).exists()) {
+            return false;
+        }
+
+        try (RevWalk revWalk = new RevWalk(repo);
+             TreeWalk treeWalk = new TreeWalk(repo)) {
+            treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathSuffixFilter.create(Constants.DOT_GIT_ATTRIBUTES));
+
+            while (treeWalk.next()) {
+                // The suffix filter also matches names like foo.gitattributes
+                if (Constants.DOT_GIT_ATTRIBUTES.equals(treeWalk.getNameString())) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Writes all the files of the commit in the working tree of the repository, deletes the files of the current
+     * index that are not in the commit, and replaces the index.
+     *
+     * @param repo     the repository
+     * @param commitId the ID of the commit to checkout
+     * @return the number of files written
+     * @throws IOException if an error occurs while writing a file or the index
+     */
+    public int checkout(Repository repo, ObjectId commitId) throws IOException {
+        File workTree = repo.getWorkTree();
+        List<DirCacheEntry> entries = new ArrayList<>();
+        SortedSet<String> folders = new TreeSet<>();
+
+        try (RevWalk revWalk = new RevWalk(repo);
+             TreeWalk treeWalk = new TreeWalk(repo)) {
+            RevCommit commit = revWalk.parseCommit(commitId);
+
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(true);
+
+            while (treeWalk.next()) {
+                FileMode mode = treeWalk.getFileMode(0);
+                if (mode == FileMode.GITLINK) {
+                    continue;
+                }
+
+                String path = treeWalk.getPathString();
+                int lastSlash = path.lastIndexOf('/');
+                if (lastSlash > 0) {
+                    folders.add(path.substring(0, lastSlash));
+                }
+
+                DirCacheEntry entry = new DirCacheEntry(path);
+                entry.setFileMode(mode);
+                entry.setObjectId(treeWalk.getObjectId(0));
+
+                entries.add(entry);
+            }
+        }
+
+        deleteStalePaths(repo, workTree, entries);
+
+        logger.debug("Creating {} folders in {}", folders.size(), workTree);
+
+        // Parents are always sorted before their children
+        for (String folder : folders) {
+            Path folderPath = new File(workTree, folder).toPath();
+            if (Files.exists(folderPath, LinkOption.NOFOLLOW_LINKS) && !Files.isDirectory(folderPath,
+                                                                                       LinkOption.NOFOLLOW_LINKS)) {
+                // Was a file in the previous tree
+                Files.delete(folderPath);
+            }
+
+            Files.createDirectories(folderPath);
+        }
+
+        logger.debug("Writing {} files in {} using {} threads", entries.size(), workTree, threadCount);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount,
+                                                                new CustomizableThreadFactory("checkout-"));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<DirCacheEntry> batch : ListUtils.partition(entries, batchSize)) {
+                futures.add(executor.submit(() -> {
+                    writeFiles(repo, workTree, batch);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to write files in " + workTree, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing files in " + workTree, e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        DirCache index = repo.lockDirCache();
+        try {
+            DirCacheBuilder builder = index.builder();
+            entries.forEach(builder::add);
+            builder.commit();
+        } finally {
+            index.unlock();
+        }
+
+        return entries.size();
+    }
+
+    /**
+     * Deletes the files of the current index that are not part of the new tree, and the folders left empty
+     */
+    protected void deleteStalePaths(Repository repo, File workTree, List<DirCacheEntry> entries) throws IOException {
+        Set<String> paths = new HashSet<>(entries.size());
+        entries.forEach(entry -> paths.add(entry.getPathString()));
+
+        DirCache currentIndex = repo.readDirCache();
+        int count = 0;
+
+        for (int i = 0; i < currentIndex.getEntryCount(); i++) {
+            String path = currentIndex.getEntry(i).getPathString();
+            if (!paths.contains(path)) {
+                File file = new File(workTree, path);
+                if (Files.deleteIfExists(file.toPath())) {
+                    count++;
+                }
+
+                File folder = file.getParentFile();
+                while (!folder.equals(workTree) && isEmptyFolder(folder)) {
+                    Files.delete(folder.toPath());
+                    folder = folder.getParentFile();
+                }
+            }
+        }
+
+        logger.debug("Deleted {} stale files in {}", count, workTree);
+    }
+
+    protected void writeFiles(Repository repo, File workTree, List<DirCacheEntry> entries) throws IOException {
+        FS fs = repo.getFS();
+
+        try (ObjectReader reader = repo.newObjectReader()) {
+            for (DirCacheEntry entry : entries) {
+                File file = new File(workTree, entry.getPathString());
+                File tempFile = new File(file.getParentFile(), "." + file.getName() + TEMP_FILE_SUFFIX);
+                ObjectLoader loader = reader.open(entry.getObjectId(), Constants.OBJ_BLOB);
+
+                // Leftover of an interrupted checkout
+                Files.deleteIfExists(tempFile.toPath());
+
+                if (entry.getFileMode() == FileMode.SYMLINK) {
+                    fs.createSymLink(tempFile, RawParseUtils.decode(loader.getCachedBytes()));
+                } else {
+                    try (OutputStream out = Files.newOutputStream(tempFile.toPath())) {
+                        loader.copyTo(out);
+                    }
+                    if (entry.getFileMode() == FileMode.EXECUTABLE_FILE && fs.supportsExecute()) {
+                        fs.setExecute(tempFile, true);
+                    }
+                }
+
+                if (Files.isDirectory(file.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                    // Was a folder in the previous tree, and still has files not tracked by the index
+                    FileUtils.deleteDirectory(file);
+                }
+
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+
+                entry.setLength(fs.length(file));
+                entry.setLastModified(fs.lastModifiedInstant(file));
+            }
+        }
+    }
+
+    protected boolean isEmptyFolder(File folder) {
+        String[] children = folder.list();
+        return children != null && children.length == 0;
+    }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.craftercms.commons.git.auth.GitAuthenticationConfigurator;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.ReflogEntry;
+import org.eclipse.jgit.lib.ReflogReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.RefSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store of Git objects shared between all the targets that track the same remote repository. For every remote URL
+ * a bare repository is kept in the store folder, and local repositories are attached to it through the
+ * {@code objects/info/alternates} file, so objects that have already been fetched once are not fetched or stored
+ * again by every target.
+ *
+ * <p>Every attached repository is registered in the shared repository, so {@link #prune()} can remove the objects
+ * that are no longer referenced by the remote repository or by any of the attached repositories, and delete the
+ * shared repositories that have no attached repositories left.</p>
+ *
+ * @since 4.2.0
+ */
+public class SharedGitObjectsStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedGitObjectsStore.class);
+
+    public static final String ALTERNATES_FILE_PATH = "objects/info/alternates";
+
+    protected static final String STORE_REPO_SUFFIX = ".git";
+    protected static final String STORE_HEADS_REFSPEC = "+refs/heads/*:refs/heads/*";
+    protected static final String STORE_TAGS_REFSPEC = "+refs/tags/*:refs/tags/*";
+    protected static final String ATTACHED_REPOS_FILE_NAME = "attached-repos";
+    protected static final String KEEP_REFS_PREFIX = "refs/attached/";
+
+    /**
+     * Time during which a shared repository with no attached repositories is not deleted, so the clones that just
+     * fetched into it have time to attach
+     */
+    protected static final Duration UNATTACHED_REPO_GRACE_PERIOD = Duration.ofHours(1);
+
+    protected File storeFolder;
+    protected Map<String, Lock> repoLocks;
+
+    public SharedGitObjectsStore(File storeFolder) {
+        this.storeFolder = storeFolder;
+        this.repoLocks = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the folder of the bare repository that holds the shared objects of the specified remote repository
+     *
+     * @param remoteRepoUrl the URL of the remote repository
+     * @return the folder of the shared bare repository
+     */
+    public File getRepoFolder(String remoteRepoUrl) {
+        return new File(storeFolder, DigestUtils.sha1Hex(remoteRepoUrl) + STORE_REPO_SUFFIX);
+    }
+
+    /**
+     * Fetches all the branches and tags of the specified remote repository into its shared bare repository, creating
+     * it if it doesn't exist yet. Only objects not already in the store are transferred.
+     *
+     * @param remoteRepoUrl      the URL of the remote repository
+     * @param authConfigurator   the configurator used to authenticate against the remote repository (can be null)
+     * @throws DeployerException if the fetch fails
+     */
+    public void fetch(String remoteRepoUrl, GitAuthenticationConfigurator authConfigurator) throws DeployerException {
+        File repoFolder = getRepoFolder(remoteRepoUrl);
+        Lock lock = getLock(repoFolder);
+
+        lock.lock();
+        try {
+            if (!new File(repoFolder, Constants.HEAD).exists()) {
+                logger.info("Creating shared objects repository {} for remote repo {}", repoFolder, remoteRepoUrl);
+
+                FileUtils.forceMkdir(repoFolder);
+
+                Git.init().setBare(true).setDirectory(repoFolder).call().close();
+            }
+
+            // Restart the grace period of repos with nothing attached yet
+            FileUtils.touch(new File(repoFolder, ATTACHED_REPOS_FILE_NAME));
+
+            try (Git git = Git.open(repoFolder)) {
+                logger.info("Fetching remote repo {} into shared objects repository {}", remoteRepoUrl, repoFolder);
+
+                FetchCommand fetch = git.fetch()
+                                        .setRemote(remoteRepoUrl)
+                                        .setRefSpecs(new RefSpec(STORE_HEADS_REFSPEC),
+                                                     new RefSpec(STORE_TAGS_REFSPEC))
+                                        .setRemoveDeletedRefs(true);
+                if (authConfigurator != null) {
+                    authConfigurator.configureAuthentication(fetch);
+                }
+
+                fetch.call();
+            }
+        } catch (IOException | GitAPIException e) {
+            throw new DeployerException("Failed to fetch remote repo " + remoteRepoUrl +
+                                        " into shared objects repository " + repoFolder, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Attaches the specified local repository to the shared objects of the remote repository, by adding the objects
+     * folder of the shared repository to the alternates of the local repository, and registers it so its objects are
+     * kept when the shared repository is pruned. Should be called before the local repository is opened, and can be
+     * called again on repositories that are already attached.
+     *
+     * @param gitFolder     the {@code .git} folder of the local repository
+     * @param remoteRepoUrl the URL of the remote repository
+     * @throws DeployerException if the alternates file or the attached repos file can't be written
+     */
+    public void attach(File gitFolder, String remoteRepoUrl) throws DeployerException {
+        File repoFolder = getRepoFolder(remoteRepoUrl);
+        File objectsFolder = new File(repoFolder, Constants.OBJECTS).getAbsoluteFile();
+        File alternatesFile = new File(gitFolder, ALTERNATES_FILE_PATH);
+        Lock lock = getLock(repoFolder);
+
+        lock.lock();
+        try {
+            if (!isAttached(gitFolder, remoteRepoUrl)) {
+                logger.debug("Adding shared objects folder {} to alternates of {}", objectsFolder, gitFolder);
+
+                FileUtils.writeStringToFile(alternatesFile, objectsFolder.getPath() + "\n", StandardCharsets.UTF_8);
+            }
+
+            Set<File> attachedRepos = readAttachedRepos(repoFolder);
+            if (attachedRepos.add(gitFolder.getAbsoluteFile())) {
+                writeAttachedRepos(repoFolder, attachedRepos);
+            }
+        } catch (IOException e) {
+            throw new DeployerException("Failed to attach " + gitFolder + " to shared objects repository " +
+                                        repoFolder, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Indicates if the specified local repository is attached to the shared objects of the remote repository.
+     *
+     * @param gitFolder     the {@code .git} folder of the local repository
+     * @param remoteRepoUrl the URL of the remote repository
+     * @return true if the alternates of the local repository point to the shared objects
+     * @throws IOException if the alternates file can't be read
+     */
+    public boolean isAttached(File gitFolder, String remoteRepoUrl) throws IOException {
+        File objectsFolder = new File(getRepoFolder(remoteRepoUrl), Constants.OBJECTS).getAbsoluteFile();
+
+        return isAttached(gitFolder, objectsFolder);
+    }
+
+    /**
+     * Prunes all the shared repositories of the store. Repositories that were deleted or detached are unregistered,
+     * shared repositories with no attached repositories left are deleted, and from the rest the objects that are not
+     * referenced by the remote branches and tags, or by the refs, HEAD and reflogs of the attached repositories, are
+     * removed.
+     */
+    public void prune() {
+        File[] repoFolders = storeFolder.listFiles(file -> file.isDirectory() &&
+                                                           file.getName().endsWith(STORE_REPO_SUFFIX));
+        if (repoFolders == null) {
+            return;
+        }
+
+        for (File repoFolder : repoFolders) {
+            try {
+                prune(repoFolder);
+            } catch (DeployerException e) {
+                logger.warn("Error pruning shared objects repository {}", repoFolder, e);
+            }
+        }
+    }
+
+    protected void prune(File repoFolder) throws DeployerException {
+        File objectsFolder = new File(repoFolder, Constants.OBJECTS).getAbsoluteFile();
+        File attachedReposFile = new File(repoFolder, ATTACHED_REPOS_FILE_NAME);
+        Lock lock = getLock(repoFolder);
+
+        lock.lock();
+        try {
+            Set<File> attachedRepos = readAttachedRepos(repoFolder);
+            Set<File> currentRepos = new LinkedHashSet<>();
+
+            for (File gitFolder : attachedRepos) {
+                if (isAttached(gitFolder, objectsFolder)) {
+                    currentRepos.add(gitFolder);
+                } else {
+                    logger.info("Repository {} is no longer attached to shared objects repository {}", gitFolder,
+                                repoFolder);
+                }
+            }
+
+            if (currentRepos.isEmpty()) {
+                Instant lastUse = Instant.ofEpochMilli(attachedReposFile.lastModified());
+                if (lastUse.plus(UNATTACHED_REPO_GRACE_PERIOD).isBefore(Instant.now())) {
+                    logger.info("No repositories attached to shared objects repository {}, deleting it", repoFolder);
+
+                    FileUtils.deleteDirectory(repoFolder);
+                    repoLocks.remove(repoFolder.getName());
+                }
+
+                return;
+            }
+            if (currentRepos.size() < attachedRepos.size()) {
+                writeAttachedRepos(repoFolder, currentRepos);
+            }
+
+            try (Git git = Git.open(repoFolder)) {
+                List<String> keepRefs = createKeepRefs(git.getRepository(), currentRepos);
+                try {
+                    logger.info("Pruning shared objects repository {} ({} attached repositories)", repoFolder,
+                                currentRepos.size());
+
+                    git.gc().setPreserveOldPacks(true).setPrunePreserved(true).call();
+                } finally {
+                    deleteRefs(git.getRepository(), keepRefs);
+                }
+            }
+        } catch (IOException | GitAPIException e) {
+            throw new DeployerException("Failed to prune shared objects repository " + repoFolder, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Creates a temporary ref in the shared repository for every object it holds that is referenced by the refs, HEAD
+     * or reflogs of the attached repositories, so the objects are kept by the garbage collection
+     */
+    protected List<String> createKeepRefs(Repository storeRepo, Set<File> attachedRepos) throws IOException {
+        Set<ObjectId> objectIds = new HashSet<>();
+        for (File gitFolder : attachedRepos) {
+            try (Repository repo = new FileRepositoryBuilder().setGitDir(gitFolder).setMustExist(true).build()) {
+                for (Ref ref : repo.getRefDatabase().getRefs()) {
+                    addObjectId(objectIds, ref.getObjectId());
+
+                    ReflogReader reflog = repo.getRefDatabase().getReflogReader(ref);
+                    if (reflog != null) {
+                        for (ReflogEntry entry : reflog.getReverseEntries()) {
+                            addObjectId(objectIds, entry.getOldId());
+                            addObjectId(objectIds, entry.getNewId());
+                        }
+                    }
+                }
+            }
+        }
+
+        List<String> keepRefs = new ArrayList<>();
+        for (ObjectId objectId : objectIds) {
+            if (storeRepo.getObjectDatabase().has(objectId)) {
+                String refName = KEEP_REFS_PREFIX + objectId.name();
+                RefUpdate update = storeRepo.updateRef(refName);
+                update.setNewObjectId(objectId);
+                update.setForceUpdate(true);
+                update.update();
+
+                keepRefs.add(refName);
+            }
+        }
+
+        return keepRefs;
+    }
+
+    protected void deleteRefs(Repository storeRepo, List<String> refNames) throws IOException {
+        for (String refName : refNames) {
+            RefUpdate update = storeRepo.updateRef(refName);
+            update.setForceUpdate(true);
+            update.delete();
+        }
+    }
+
+    protected void addObjectId(Set<ObjectId> objectIds, ObjectId objectId) {
+        if (objectId != null && !ObjectId.zeroId().equals(objectId)) {
+            objectIds.add(objectId.copy());
+        }
+    }
+
+    protected boolean isAttached(File gitFolder, File objectsFolder) throws IOException {
+        File alternatesFile = new File(gitFolder, ALTERNATES_FILE_PATH);
+        if (!alternatesFile.exists()) {
+            return false;
+        }
+
+        return FileUtils.readLines(alternatesFile, StandardCharsets.UTF_8).stream()
+                        .anyMatch(line -> new File(line.trim()).getAbsoluteFile().equals(objectsFolder));
+    }
+
+    protected Set<File> readAttachedRepos(File repoFolder) throws IOException {
+        File attachedReposFile = new File(repoFolder, ATTACHED_REPOS_FILE_NAME);
+        Set<File> attachedRepos = new LinkedHashSet<>();
+
+        if (attachedReposFile.exists()) {
+            for (String line : FileUtils.readLines(attachedReposFile, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    attachedRepos.add(new File(line.trim()));
+                }
+            }
+        }
+
+        return attachedRepos;
+    }
+
+    protected void writeAttachedRepos(File repoFolder, Set<File> attachedRepos) throws IOException {
+        List<String> lines = attachedRepos.stream().map(File::getPath).toList();
+
+        FileUtils.writeLines(new File(repoFolder, ATTACHED_REPOS_FILE_NAME), StandardCharsets.UTF_8.name(), lines);
+    }
+
+    protected Lock getLock(File repoFolder) {
+        return repoLocks.computeIfAbsent(repoFolder.getName(), name -> new ReentrantLock());
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.craftercms.commons.git.utils.GitUtils;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checkout of a specific commit of a local repository in a separate folder, which reads the objects of the local
+ * repository through Git alternates. Allows reading the files of a commit while the working tree of the local
+ * repository keeps being updated by other deployments.
+ *
+ * @since 4.2.0
+ */
+public class WorkTreeSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkTreeSnapshot.class);
+
+    protected final File localRepoFolder;
+    protected final File snapshotFolder;
+
+    public WorkTreeSnapshot(File localRepoFolder, File snapshotFolder) {
+        this.localRepoFolder = localRepoFolder;
+        this.snapshotFolder = snapshotFolder;
+    }
+
+    /**
+     * Returns the folder where the files of the commit are checked out
+     */
+    public File getSnapshotFolder() {
+        return snapshotFolder;
+    }
+
+    /**
+     * Checks out the specified commit in the snapshot folder, creating it if it doesn't exist. Only the files that
+     * changed since the previous commit are written. If the snapshot can't be updated (for example because the
+     * previous commit is no longer in the local repository), it's created again from scratch.
+     *
+     * @param commitId the ID of the commit
+     * @throws DeployerException if the commit can't be checked out
+     */
+    public synchronized void update(ObjectId commitId) throws DeployerException {
+        try {
+            checkout(commitId);
+        } catch (IOException | GitAPIException e) {
+            logger.warn("Unable to update snapshot {} to commit {}, creating it again", snapshotFolder,
+                        commitId.name(), e);
+            try {
+                FileUtils.deleteDirectory(snapshotFolder);
+
+                checkout(commitId);
+            } catch (IOException | GitAPIException ex) {
+                throw new DeployerException("Failed to checkout commit " + commitId.name() + " of local repo " +
+                                            localRepoFolder + " into " + snapshotFolder, ex);
+            }
+        }
+    }
+
+    protected void checkout(ObjectId commitId) throws IOException, GitAPIException {
+        File gitFolder = new File(snapshotFolder, GitUtils.GIT_FOLDER_NAME);
+        if (!gitFolder.exists()) {
+            logger.info("Creating snapshot {} of local repo {}", snapshotFolder, localRepoFolder);
+
+            FileUtils.forceMkdir(snapshotFolder);
+
+            Git.init().setDirectory(snapshotFolder).call().close();
+
+            File objectsFolder = new File(new File(localRepoFolder, GitUtils.GIT_FOLDER_NAME), Constants.OBJECTS);
+            FileUtils.writeStringToFile(new File(gitFolder, SharedGitObjectsStore.ALTERNATES_FILE_PATH),
+                                        objectsFolder.getAbsolutePath() + "\n", StandardCharsets.UTF_8);
+        }
+
+        try (Git git = Git.open(snapshotFolder)) {
+            if (!commitId.equals(git.getRepository().resolve(Constants.HEAD))) {
+                logger.info("Updating snapshot {} to commit {}", snapshotFolder, commitId.name());
+
+                git.checkout().setName(commitId.name()).setForced(true).call();
+            }
+        }
+    }
+
+}
@@ -23,6 +23,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.config.AbstractFactoryBean;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Base implementation for factories capable of build single or multi-cluster OpenSearch services
  *
@@ -44,6 +47,16 @@ public abstract class AbstractOpenSearchFactory<T> extends AbstractFactoryBean<T
      */
     protected OpenSearchConfig config;
 
+    /**
+     * The deployer-wide cache of clients shared between targets, if any
+     */
+    protected SharedClientCache<OpenSearchClient> clientCache;
+
+    /**
+     * The clients acquired from the cache, released when the instance is destroyed
+     */
+    protected final List<OpenSearchClient> sharedClients = new ArrayList<>();
+
     public AbstractOpenSearchFactory(final OpenSearchConfig config) {
         this.config = config;
     }
@@ -53,18 +66,22 @@ public abstract class AbstractOpenSearchFactory<T> extends AbstractFactoryBean<T
         this.name = name;
     }
 
+    public void setClientCache(final SharedClientCache<OpenSearchClient> clientCache) {
+        this.clientCache = clientCache;
+    }
+
     @Override
     protected T createInstance() {
         logger.debug("Creating instance for '{}'", name);
         if (config.useSingleCluster()) {
             logger.debug("Using a single cluster configuration for '{}'", name);
-            return doCreateSingleInstance(config.globalCluster.buildClient());
+            return doCreateSingleInstance(getClient(config.globalCluster));
         }
 
         logger.debug("Using a multi-cluster configuration for '{}'", name);
-        OpenSearchClient readClient = config.readCluster.buildClient();
+        OpenSearchClient readClient = getClient(config.readCluster);
         OpenSearchClient[] writeClients = config.writeClusters.stream()
-                .map(OpenSearchClusterConfig::buildClient)
+                .map(this::getClient)
                 .toArray(OpenSearchClient[]::new);
         return doCreateMultiInstance(readClient, writeClients);
     }
@@ -86,4 +103,26 @@ public abstract class AbstractOpenSearchFactory<T> extends AbstractFactoryBean<T
      */
     protected abstract T doCreateMultiInstance(OpenSearchClient readClient, OpenSearchClient[] writeClients);
 
+    /**
+     * Returns the client for the given cluster, shared with other targets if there's a client cache
+     */
+    protected OpenSearchClient getClient(final OpenSearchClusterConfig clusterConfig) {
+        if (clientCache == null) {
+            return clusterConfig.buildClient();
+        }
+        OpenSearchClient client = clientCache.acquire(clusterConfig.getKey(), clusterConfig.getUrls(),
+                                                      clusterConfig::buildClient);
+        sharedClients.add(client);
+        return client;
+    }
+
+    @Override
+    protected void destroyInstance(final T instance) throws Exception {
+        if (clientCache != null) {
+            logger.debug("Releasing all shared clients for '{}'", name);
+            sharedClients.forEach(clientCache::release);
+            sharedClients.clear();
+        }
+    }
+
 }
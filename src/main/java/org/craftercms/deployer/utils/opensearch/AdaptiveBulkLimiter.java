@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the write requests sent to OpenSearch by a target using AIMD (additive increase, multiplicative decrease):
+ * the number of concurrent requests and the max size of each bulk request grow slowly while OpenSearch responds in
+ * time, and are halved as soon as a request is rejected (429) or takes longer than the latency threshold.
+ *
+ * @since 4.2.0
+ */
+public class AdaptiveBulkLimiter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBulkLimiter.class);
+
+    /**
+     * The min bulk size is this fraction of the max bulk size, and it's also the amount the size grows on success
+     */
+    protected static final int MIN_BULK_SIZE_DIVISOR = 16;
+
+    /**
+     * Max exponent used to calculate the backoff
+     */
+    protected static final int MAX_BACKOFF_EXPONENT = 10;
+
+    protected final String name;
+    protected final int maxConcurrency;
+    protected final long maxBulkSize;
+    protected final long minBulkSize;
+    protected final long latencyThresholdMillis;
+    protected final int maxRetries;
+    protected final long backoffMillis;
+    protected final BulkLimiterRegistry registry;
+
+    protected final AtomicLong requests = new AtomicLong();
+    protected final AtomicLong rejections = new AtomicLong();
+    protected final AtomicLong retries = new AtomicLong();
+
+    protected double limit;
+    protected long bulkSize;
+    protected int inFlight;
+
+    /**
+     * @param name                   the name of the limiter (the target ID)
+     * @param maxConcurrency         the max number of concurrent write requests
+     * @param maxBulkSize            the max size in bytes of a bulk request
+     * @param latencyThresholdMillis the latency after which a request is considered a sign of overload
+     * @param maxRetries             the max number of retries of a rejected request
+     * @param backoffMillis          the base time to wait before retrying a rejected request
+     * @param registry               the registry where the limiter's metrics are exposed, can be null
+     */
+    @ConstructorProperties({"name", "maxConcurrency", "maxBulkSize", "latencyThresholdMillis", "maxRetries",
+                            "backoffMillis", "registry"})
+    public AdaptiveBulkLimiter(String name, int maxConcurrency, long maxBulkSize, long latencyThresholdMillis,
+                               int maxRetries, long backoffMillis, BulkLimiterRegistry registry) {
+        this.name = name;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.maxBulkSize = Math.max(1, maxBulkSize);
+        this.minBulkSize = Math.max(1, this.maxBulkSize / MIN_BULK_SIZE_DIVISOR);
+        this.latencyThresholdMillis = latencyThresholdMillis;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = Math.max(1, backoffMillis);
+        this.registry = registry;
+        this.limit = this.maxConcurrency;
+        this.bulkSize = this.maxBulkSize;
+
+        if (registry != null) {
+            registry.register(this);
+        }
+    }
+
+    /**
+     * Waits until a new request can be sent
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Indicates that a request acquired with {@link #acquire()} has finished
+     */
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Records a successful request, increasing the limits if it was fast enough or decreasing them if it wasn't
+     */
+    public synchronized void onSuccess(long latencyMillis) {
+        requests.incrementAndGet();
+
+        if (latencyMillis > latencyThresholdMillis) {
+            logger.debug("Write request for '{}' took {}ms, decreasing limits", name, latencyMillis);
+
+            decrease();
+        } else {
+            limit = Math.min(maxConcurrency, limit + 1 / limit);
+            bulkSize = Math.min(maxBulkSize, bulkSize + minBulkSize);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Records a request (or some of the operations of a bulk request) rejected by OpenSearch
+     */
+    public synchronized void onRejected() {
+        rejections.incrementAndGet();
+
+        logger.debug("Write request for '{}' rejected, decreasing limits", name);
+
+        decrease();
+    }
+
+    /**
+     * Records the retry of the given number of requests or bulk operations
+     */
+    public void onRetry(int count) {
+        retries.addAndGet(count);
+    }
+
+    /**
+     * Returns the time to wait before the given retry, exponential with jitter
+     */
+    public long getBackoffMillis(int attempt) {
+        long max = backoffMillis << Math.min(attempt, MAX_BACKOFF_EXPONENT);
+        return max / 2 + ThreadLocalRandom.current().nextLong(max / 2 + 1);
+    }
+
+    protected void decrease() {
+        limit = Math.max(1, limit / 2);
+        bulkSize = Math.max(minBulkSize, bulkSize / 2);
+    }
+
+    @Override
+    public void close() {
+        if (registry != null) {
+            registry.unregister(this);
+        }
+    }
+
+    @JsonProperty("name")
+    public String getName() {
+        return name;
+    }
+
+    @JsonProperty("maxRetries")
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    @JsonProperty("limit")
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    @JsonProperty("bulkSize")
+    public synchronized long getBulkSize() {
+        return bulkSize;
+    }
+
+    @JsonProperty("inFlight")
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    @JsonProperty("requests")
+    public long getRequests() {
+        return requests.get();
+    }
+
+    @JsonProperty("rejections")
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    @JsonProperty("retries")
+    public long getRetries() {
+        return retries.get();
+    }
+
+}
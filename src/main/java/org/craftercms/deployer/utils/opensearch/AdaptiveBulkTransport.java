@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import jakarta.json.stream.JsonGenerator;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.opensearch.client.json.JsonpMapper;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.DeleteByQueryRequest;
+import org.opensearch.client.opensearch.core.DeleteRequest;
+import org.opensearch.client.opensearch.core.IndexRequest;
+import org.opensearch.client.opensearch.core.UpdateRequest;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.OperationType;
+import org.opensearch.client.transport.Endpoint;
+import org.opensearch.client.transport.OpenSearchTransport;
+import org.opensearch.client.transport.TransportOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link OpenSearchTransport} that applies backpressure to the write requests of a target using an
+ * {@link AdaptiveBulkLimiter}:
+ * <ul>
+ *     <li>Write requests wait until the limiter allows them, and are retried with jittered backoff when OpenSearch
+ *     rejects them with a 429</li>
+ *     <li>Bulk requests are split in chunks of the size currently allowed by the limiter, and only the operations
+ *     rejected with a 429 are retried</li>
+ * </ul>
+ * Read requests are sent as is.
+ *
+ * @since 4.2.0
+ */
+public class AdaptiveBulkTransport implements OpenSearchTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBulkTransport.class);
+
+    protected static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Estimated size in bytes of the action line of each bulk operation
+     */
+    protected static final long OPERATION_OVERHEAD = 128;
+
+    /**
+     * Max number of documents serialized to estimate the size of the documents of a bulk
+     */
+    protected static final int SIZE_SAMPLE_SIZE = 16;
+
+    protected final OpenSearchTransport delegate;
+    protected final AdaptiveBulkLimiter limiter;
+
+    public AdaptiveBulkTransport(OpenSearchTransport delegate, AdaptiveBulkLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+                                                                  Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                  TransportOptions options) throws IOException {
+        if (request instanceof BulkRequest) {
+            return (ResponseT) bulk((BulkRequest) request, options);
+        }
+        if (isWrite(request)) {
+            return executeWithRetries(() -> delegate.performRequest(request, endpoint, options));
+        }
+
+        return delegate.performRequest(request, endpoint, options);
+    }
+
+    @Override
+    public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(
+            RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+        return delegate.performRequestAsync(request, endpoint, options);
+    }
+
+    @Override
+    public JsonpMapper jsonpMapper() {
+        return delegate.jsonpMapper();
+    }
+
+    @Override
+    public TransportOptions options() {
+        return delegate.options();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    protected boolean isWrite(Object request) {
+        return request instanceof IndexRequest || request instanceof DeleteRequest ||
+               request instanceof UpdateRequest || request instanceof DeleteByQueryRequest;
+    }
+
+    protected BulkResponse bulk(BulkRequest request, TransportOptions options) throws IOException {
+        List<BulkOperation> operations = request.operations();
+        BulkResponseItem[] items = new BulkResponseItem[operations.size()];
+        List<Integer> pending = IntStream.range(0, operations.size()).boxed().collect(Collectors.toList());
+        long documentSize = estimateDocumentSize(operations);
+        long took = 0;
+
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            List<Integer> rejected = new ArrayList<>();
+
+            for (List<Integer> chunk : partition(operations, pending, documentSize)) {
+                BulkRequest chunkRequest = copy(request, chunk.stream()
+                                                              .map(operations::get)
+                                                              .collect(Collectors.toList()));
+                BulkResponse response = executeWithRetries(
+                        () -> delegate.performRequest(chunkRequest, BulkRequest._ENDPOINT, options));
+
+                took += response.took();
+                if (response.items().size() != chunk.size()) {
+                    logger.error("Bulk response for '{}' has {} items but {} operations were sent, the operations " +
+                                 "without a matching item will be reported as failed", limiter.getName(),
+                                 response.items().size(), chunk.size());
+                }
+
+                for (int i = 0; i < chunk.size(); i++) {
+                    BulkResponseItem item = i < response.items().size() ?
+                                            response.items().get(i) :
+                                            getMissingItem(request, operations.get(chunk.get(i)));
+                    items[chunk.get(i)] = item;
+                    if (item.status() == TOO_MANY_REQUESTS) {
+                        rejected.add(chunk.get(i));
+                    }
+                }
+            }
+
+            if (!rejected.isEmpty()) {
+                limiter.onRejected();
+                if (attempt >= limiter.getMaxRetries()) {
+                    logger.warn("{} bulk operations for '{}' were still rejected after {} retries", rejected.size(),
+                                limiter.getName(), attempt);
+                    break;
+                }
+
+                limiter.onRetry(rejected.size());
+                backoff(attempt);
+            }
+
+            pending = rejected;
+        }
+
+        boolean errors = Arrays.stream(items).anyMatch(item -> item != null && item.error() != null);
+        long totalTook = took;
+
+        return BulkResponse.of(r -> r
+            .items(Arrays.asList(items))
+            .errors(errors)
+            .took(totalTook)
+        );
+    }
+
+    /**
+     * Splits the pending operations in chunks that don't exceed the bulk size currently allowed by the limiter
+     */
+    protected List<List<Integer>> partition(List<BulkOperation> operations, List<Integer> pending,
+                                            long documentSize) {
+        long maxSize = limiter.getBulkSize();
+        List<List<Integer>> chunks = new ArrayList<>();
+        List<Integer> chunk = new ArrayList<>();
+        long chunkSize = 0;
+
+        for (Integer index : pending) {
+            long size = getDocument(operations.get(index)) != null ? documentSize + OPERATION_OVERHEAD :
+                                                                     OPERATION_OVERHEAD;
+            if (!chunk.isEmpty() && chunkSize + size > maxSize) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                chunkSize = 0;
+            }
+            chunk.add(index);
+            chunkSize += size;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Returns the average size in bytes of the documents of the bulk, estimated by serializing only a sample of
+     * them (spread across the whole bulk), so the documents are not serialized twice.
+     */
+    protected long estimateDocumentSize(List<BulkOperation> operations) {
+        List<Object> documents = operations.stream()
+                                           .map(this::getDocument)
+                                           .filter(Objects::nonNull)
+                                           .collect(Collectors.toList());
+        if (documents.isEmpty()) {
+            return 0;
+        }
+
+        int sampleSize = Math.min(SIZE_SAMPLE_SIZE, documents.size());
+        long total = 0;
+        for (int i = 0; i < sampleSize; i++) {
+            total += getSerializedSize(documents.get(i * documents.size() / sampleSize));
+        }
+
+        return total / sampleSize;
+    }
+
+    protected Object getDocument(BulkOperation operation) {
+        if (operation.isIndex()) {
+            return operation.index().document();
+        } else if (operation.isCreate()) {
+            return operation.create().document();
+        } else {
+            return null;
+        }
+    }
+
+    protected long getSerializedSize(Object document) {
+        CountingOutputStream out = new CountingOutputStream(OutputStream.nullOutputStream());
+        JsonpMapper mapper = jsonpMapper();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(out)) {
+            mapper.serialize(document, generator);
+        }
+
+        return out.getByteCount();
+    }
+
+    /**
+     * Returns a failed item for an operation that OpenSearch didn't return in the bulk response
+     */
+    protected BulkResponseItem getMissingItem(BulkRequest request, BulkOperation operation) {
+        String index;
+        String id;
+        if (operation.isIndex()) {
+            index = operation.index().index();
+            id = operation.index().id();
+        } else if (operation.isCreate()) {
+            index = operation.create().index();
+            id = operation.create().id();
+        } else if (operation.isUpdate()) {
+            index = operation.update().index();
+            id = operation.update().id();
+        } else {
+            index = operation.delete().index();
+            id = operation.delete().id();
+        }
+
+        String itemIndex = index != null ? index : request.index();
+        return BulkResponseItem.of(i -> i
+            .operationType(OperationType.valueOf(operation._kind().name()))
+            .index(itemIndex != null ? itemIndex : "")
+            .id(id)
+            .status(500)
+            .error(e -> e
+                .type("missing_bulk_item")
+                .reason("No item was returned for the operation in the bulk response")
+            )
+        );
+    }
+
+    protected BulkRequest copy(BulkRequest request, List<BulkOperation> operations) {
+        return BulkRequest.of(r -> r
+            .index(request.index())
+            .operations(operations)
+            .pipeline(request.pipeline())
+            .refresh(request.refresh())
+            .requireAlias(request.requireAlias())
+            .routing(request.routing())
+            .timeout(request.timeout())
+            .waitForActiveShards(request.waitForActiveShards())
+        );
+    }
+
+    protected <T> T executeWithRetries(WriteCall<T> call) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send write request");
+            }
+
+            long start = System.nanoTime();
+            try {
+                T response = call.execute();
+                limiter.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+                return response;
+            } catch (OpenSearchException e) {
+                if (e.status() != TOO_MANY_REQUESTS || attempt >= limiter.getMaxRetries()) {
+                    throw e;
+                }
+                limiter.onRejected();
+                limiter.onRetry(1);
+            } finally {
+                limiter.release();
+            }
+
+            backoff(attempt);
+        }
+    }
+
+    protected void backoff(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(limiter.getBackoffMillis(attempt));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry write request");
+        }
+    }
+
+    @FunctionalInterface
+    protected interface WriteCall<T> {
+
+        T execute() throws IOException;
+
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the {@link AdaptiveBulkLimiter}s of all targets, used to expose the global and per-target bulk
+ * metrics.
+ *
+ * @since 4.2.0
+ */
+public class BulkLimiterRegistry {
+
+    protected final Map<String, AdaptiveBulkLimiter> limiters = new ConcurrentHashMap<>();
+
+    public void register(AdaptiveBulkLimiter limiter) {
+        limiters.put(limiter.getName(), limiter);
+    }
+
+    public void unregister(AdaptiveBulkLimiter limiter) {
+        limiters.remove(limiter.getName(), limiter);
+    }
+
+    /**
+     * Returns the limiters by name
+     */
+    public Map<String, AdaptiveBulkLimiter> getLimiters() {
+        return limiters;
+    }
+
+    /**
+     * Returns the number of write requests currently in flight for all targets
+     */
+    public int getInFlight() {
+        return limiters.values().stream().mapToInt(AdaptiveBulkLimiter::getInFlight).sum();
+    }
+
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import jakarta.json.stream.JsonGenerator;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.opensearch.client.json.JsonpMapper;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.Result;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.GetResponse;
+import org.opensearch.client.opensearch.core.IndexRequest;
+import org.opensearch.client.opensearch.core.IndexResponse;
+import org.opensearch.client.opensearch.core.MgetResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.IndexOperation;
+import org.opensearch.client.opensearch.core.bulk.OperationType;
+import org.opensearch.client.opensearch.core.mget.MultiGetOperation;
+import org.opensearch.client.opensearch.core.mget.MultiGetResponseItem;
+import org.opensearch.client.transport.Endpoint;
+import org.opensearch.client.transport.OpenSearchTransport;
+import org.opensearch.client.transport.TransportOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link OpenSearchTransport} that skips writes of documents that haven't changed. Every document sent through an
+ * index request gets a field with the fingerprint (SHA-1) of its content. Before a document is written, the
+ * fingerprint stored in the index for the same ID is retrieved, and if it's the same the write is skipped and a
+ * {@link Result#NoOp} response is returned, avoiding the bulk write, the segment churn and the refresh.
+ *
+ * <p>For bulk requests, the fingerprints of all the index operations are retrieved with a single multi get, the
+ * operations of unchanged documents are removed from the bulk and {@link Result#NoOp} items are returned for them.
+ * If no operation is left, the bulk is not sent at all.</p>
+ *
+ * <p>The fingerprint is kept in the document itself, so it's always consistent with the index (e.g. it disappears
+ * when the document is deleted by query). All other requests are sent as is.</p>
+ *
+ * <p>Every write costs an extra read: a get for single index requests and a multi get (of only the fingerprint
+ * field) for bulks. That's cheaper than the write when most documents are unchanged (e.g. full reindexes), but
+ * when most of them did change it only adds a round trip, so it should only be enabled for the former.</p>
+ *
+ * @since 4.2.0
+ */
+public class FingerprintingTransport implements OpenSearchTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(FingerprintingTransport.class);
+
+    protected final OpenSearchTransport delegate;
+    protected final OpenSearchClient delegateClient;
+    protected final String fingerprintFieldName;
+
+    public FingerprintingTransport(OpenSearchTransport delegate, String fingerprintFieldName) {
+        this.delegate = delegate;
+        this.delegateClient = new OpenSearchClient(delegate);
+        this.fingerprintFieldName = fingerprintFieldName;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+                                                                  Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                  TransportOptions options) throws IOException {
+        if (request instanceof BulkRequest) {
+            return (ResponseT) bulk((BulkRequest) request, options);
+        }
+        if (request instanceof IndexRequest && ((IndexRequest<?>) request).id() != null &&
+            ((IndexRequest<?>) request).document() instanceof Map) {
+            IndexRequest<Map<String, Object>> indexRequest = (IndexRequest<Map<String, Object>>) request;
+            String fingerprint = getFingerprint(indexRequest.document());
+
+            IndexResponse noOpResponse = getNoOpResponse(indexRequest, fingerprint);
+            if (noOpResponse != null) {
+                logger.debug("Document '{}' in index '{}' hasn't changed, skipping write", indexRequest.id(),
+                             indexRequest.index());
+
+                return (ResponseT) noOpResponse;
+            }
+
+            request = (RequestT) addFingerprint(indexRequest, fingerprint);
+        }
+
+        return delegate.performRequest(request, endpoint, options);
+    }
+
+    @Override
+    public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(
+            RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+        return delegate.performRequestAsync(request, endpoint, options);
+    }
+
+    @Override
+    public JsonpMapper jsonpMapper() {
+        return delegate.jsonpMapper();
+    }
+
+    @Override
+    public TransportOptions options() {
+        return delegate.options();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    protected BulkResponse bulk(BulkRequest request, TransportOptions options) throws IOException {
+        List<BulkOperation> operations = request.operations();
+        BulkResponseItem[] items = new BulkResponseItem[operations.size()];
+        String[] fingerprints = new String[operations.size()];
+        List<Integer> candidates = new ArrayList<>();
+
+        for (int i = 0; i < operations.size(); i++) {
+            BulkOperation operation = operations.get(i);
+            if (operation.isIndex() && operation.index().id() != null &&
+                operation.index().document() instanceof Map) {
+                fingerprints[i] = getFingerprint(getDocument(operation.index()));
+                candidates.add(i);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return delegate.performRequest(request, BulkRequest._ENDPOINT, options);
+        }
+
+        List<String> currentFingerprints = getCurrentFingerprints(request, candidates);
+        String[] storedFingerprints = new String[operations.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            storedFingerprints[candidates.get(i)] = currentFingerprints.get(i);
+        }
+
+        List<BulkOperation> operationsToSend = new ArrayList<>();
+        List<Integer> sentIndexes = new ArrayList<>();
+
+        for (int i = 0; i < operations.size(); i++) {
+            BulkOperation operation = operations.get(i);
+            if (fingerprints[i] == null) {
+                operationsToSend.add(operation);
+                sentIndexes.add(i);
+            } else if (fingerprints[i].equals(storedFingerprints[i])) {
+                items[i] = getNoOpItem(request, operation.index());
+            } else {
+                operationsToSend.add(addFingerprint(operation.index(), fingerprints[i]));
+                sentIndexes.add(i);
+            }
+        }
+
+        logger.debug("{} of {} documents in bulk haven't changed, skipping their writes",
+                     operations.size() - operationsToSend.size(), operations.size());
+
+        long took = 0;
+        boolean errors = false;
+
+        if (!operationsToSend.isEmpty()) {
+            BulkResponse response = delegate.performRequest(copy(request, operationsToSend), BulkRequest._ENDPOINT,
+                                                            options);
+            took = response.took();
+            errors = response.errors();
+
+            for (int i = 0; i < sentIndexes.size() && i < response.items().size(); i++) {
+                items[sentIndexes.get(i)] = response.items().get(i);
+            }
+        }
+
+        long totalTook = took;
+        boolean totalErrors = errors;
+
+        return BulkResponse.of(r -> r
+            .items(Arrays.asList(items))
+            .errors(totalErrors)
+            .took(totalTook)
+        );
+    }
+
+    /**
+     * Returns the fingerprints stored in the index for the candidate operations of the bulk (null for the
+     * documents that don't exist or couldn't be retrieved), using a single multi get.
+     */
+    @SuppressWarnings("rawtypes")
+    protected List<String> getCurrentFingerprints(BulkRequest request, List<Integer> candidates) {
+        List<String> fingerprints = new ArrayList<>(Collections.nCopies(candidates.size(), null));
+        try {
+            List<MultiGetOperation> docs = candidates.stream()
+                .map(i -> request.operations().get(i).index())
+                .map(operation -> MultiGetOperation.of(d -> d
+                    .index(getIndex(request, operation))
+                    .id(operation.id())
+                    .routing(operation.routing() != null ? operation.routing() : request.routing())))
+                .collect(Collectors.toList());
+
+            MgetResponse<Map> response = delegateClient.mget(m -> m
+                .docs(docs)
+                .sourceIncludes(fingerprintFieldName), Map.class);
+
+            for (int i = 0; i < response.docs().size() && i < fingerprints.size(); i++) {
+                MultiGetResponseItem<Map> item = response.docs().get(i);
+                if (item.isResult() && item.result().found() && item.result().source() != null) {
+                    Object fingerprint = item.result().source().get(fingerprintFieldName);
+                    fingerprints.set(i, fingerprint != null ? fingerprint.toString() : null);
+                }
+            }
+        } catch (IOException | OpenSearchException e) {
+            logger.debug("Unable to get the fingerprints of {} documents in bulk", candidates.size(), e);
+        }
+
+        return fingerprints;
+    }
+
+    protected String getIndex(BulkRequest request, IndexOperation<?> operation) {
+        return operation.index() != null ? operation.index() : request.index();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String, Object> getDocument(IndexOperation<?> operation) {
+        return (Map<String, Object>) operation.document();
+    }
+
+    protected BulkResponseItem getNoOpItem(BulkRequest request, IndexOperation<?> operation) {
+        return BulkResponseItem.of(i -> i
+            .operationType(OperationType.Index)
+            .index(getIndex(request, operation))
+            .id(operation.id())
+            .status(200)
+            .result(Result.NoOp.jsonValue())
+        );
+    }
+
+    protected BulkOperation addFingerprint(IndexOperation<?> operation, String fingerprint) {
+        Map<String, Object> document = new LinkedHashMap<>(getDocument(operation));
+        document.put(fingerprintFieldName, fingerprint);
+
+        return BulkOperation.of(b -> b.index(i -> i
+            .index(operation.index())
+            .id(operation.id())
+            .document(document)
+            .pipeline(operation.pipeline())
+            .routing(operation.routing())
+            .version(operation.version())
+            .versionType(operation.versionType())
+            .ifSeqNo(operation.ifSeqNo())
+            .ifPrimaryTerm(operation.ifPrimaryTerm())
+            .requireAlias(operation.requireAlias())
+        ));
+    }
+
+    protected BulkRequest copy(BulkRequest request, List<BulkOperation> operations) {
+        return BulkRequest.of(r -> r
+            .index(request.index())
+            .operations(operations)
+            .pipeline(request.pipeline())
+            .refresh(request.refresh())
+            .requireAlias(request.requireAlias())
+            .routing(request.routing())
+            .timeout(request.timeout())
+            .waitForActiveShards(request.waitForActiveShards())
+        );
+    }
+
+    /**
+     * Returns the SHA-1 of the canonical JSON of the document (without the fingerprint field), where the keys of all
+     * the objects are sorted, so the same content always gets the same fingerprint regardless of the order in which
+     * the fields were added.
+     */
+    protected String getFingerprint(Map<String, Object> document) {
+        Map<String, Object> content = new TreeMap<>(document);
+        content.remove(fingerprintFieldName);
+
+        StringWriter writer = new StringWriter();
+        JsonpMapper mapper = jsonpMapper();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(writer)) {
+            mapper.serialize(canonicalize(content), generator);
+        }
+
+        return DigestUtils.sha1Hex(writer.toString());
+    }
+
+    /**
+     * Returns a copy of the value where all the maps, including nested ones, are sorted by key.
+     */
+    protected Object canonicalize(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> sorted = new TreeMap<>();
+            ((Map<?, ?>) value).forEach((key, nestedValue) -> sorted.put(String.valueOf(key),
+                                                                         canonicalize(nestedValue)));
+            return sorted;
+        } else if (value instanceof Collection) {
+            List<Object> list = new ArrayList<>(((Collection<?>) value).size());
+            ((Collection<?>) value).forEach(item -> list.add(canonicalize(item)));
+            return list;
+        } else {
+            return value;
+        }
+    }
+
+    /**
+     * Returns a no-op response if the document in the index has the same fingerprint, or null if it should be
+     * written.
+     */
+    @SuppressWarnings("rawtypes")
+    protected IndexResponse getNoOpResponse(IndexRequest<?> request, String fingerprint) {
+        try {
+            GetResponse<Map> current = delegateClient.get(g -> g
+                .index(request.index())
+                .id(request.id())
+                .routing(request.routing())
+                .sourceIncludes(fingerprintFieldName), Map.class);
+
+            if (!current.found() || current.source() == null ||
+                !Objects.equals(fingerprint, current.source().get(fingerprintFieldName))) {
+                return null;
+            }
+
+            return IndexResponse.of(r -> r
+                .index(current.index())
+                .id(current.id())
+                .result(Result.NoOp)
+                .version(Objects.requireNonNullElse(current.version(), 0L))
+                .seqNo(Objects.requireNonNullElse(current.seqNo(), 0L))
+                .primaryTerm(Objects.requireNonNullElse(current.primaryTerm(), 0L))
+                .shards(s -> s.total(0).successful(0).failed(0))
+            );
+        } catch (IOException | OpenSearchException e) {
+            logger.debug("Unable to get the fingerprint of document '{}' in index '{}'", request.id(),
+                         request.index(), e);
+
+            return null;
+        }
+    }
+
+    protected IndexRequest<Map<String, Object>> addFingerprint(IndexRequest<Map<String, Object>> request,
+                                                               String fingerprint) {
+        Map<String, Object> document = new LinkedHashMap<>(request.document());
+        document.put(fingerprintFieldName, fingerprint);
+
+        return IndexRequest.of(r -> r
+            .index(request.index())
+            .id(request.id())
+            .document(document)
+            .opType(request.opType())
+            .pipeline(request.pipeline())
+            .refresh(request.refresh())
+            .routing(request.routing())
+            .timeout(request.timeout())
+            .version(request.version())
+            .versionType(request.versionType())
+            .ifSeqNo(request.ifSeqNo())
+            .ifPrimaryTerm(request.ifPrimaryTerm())
+            .waitForActiveShards(request.waitForActiveShards())
+            .requireAlias(request.requireAlias())
+        );
+    }
+
+}
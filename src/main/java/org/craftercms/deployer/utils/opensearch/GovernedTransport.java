@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.craftercms.deployer.api.Deployment;
+import org.craftercms.deployer.impl.TargetImpl;
+import org.opensearch.client.json.JsonpMapper;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.DeleteByQueryRequest;
+import org.opensearch.client.opensearch.core.DeleteRequest;
+import org.opensearch.client.opensearch.core.IndexRequest;
+import org.opensearch.client.opensearch.core.UpdateRequest;
+import org.opensearch.client.transport.Endpoint;
+import org.opensearch.client.transport.OpenSearchTransport;
+import org.opensearch.client.transport.TransportOptions;
+
+/**
+ * {@link OpenSearchTransport} that leases a slot from the {@link WriteGovernor} for the write requests of a target.
+ * Writes of the deployment executed by the current thread share a slot that is kept until the deployment finishes,
+ * other writes lease a slot per request. Read requests are sent as is.
+ *
+ * @since 4.2.0
+ */
+public class GovernedTransport implements OpenSearchTransport {
+
+    protected final OpenSearchTransport delegate;
+    protected final WriteGovernor governor;
+    protected final String clusterKey;
+    protected final String targetId;
+
+    public GovernedTransport(OpenSearchTransport delegate, WriteGovernor governor, String clusterKey,
+                             String targetId) {
+        this.delegate = delegate;
+        this.governor = governor;
+        this.clusterKey = clusterKey;
+        this.targetId = targetId;
+    }
+
+    @Override
+    public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+                                                                  Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                  TransportOptions options) throws IOException {
+        if (!isWrite(request)) {
+            return delegate.performRequest(request, endpoint, options);
+        }
+
+        Deployment deployment = TargetImpl.getCurrentThreadDeployment();
+        WriteGovernor.Lease lease;
+        try {
+            if (deployment != null) {
+                governor.acquireForRun(clusterKey, targetId, deployment);
+                return delegate.performRequest(request, endpoint, options);
+            }
+
+            lease = governor.acquire(clusterKey, targetId, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a write slot of " + clusterKey);
+        }
+
+        try (lease) {
+            return delegate.performRequest(request, endpoint, options);
+        }
+    }
+
+    @Override
+    public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(
+            RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+        return delegate.performRequestAsync(request, endpoint, options);
+    }
+
+    @Override
+    public JsonpMapper jsonpMapper() {
+        return delegate.jsonpMapper();
+    }
+
+    @Override
+    public TransportOptions options() {
+        return delegate.options();
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    protected boolean isWrite(Object request) {
+        return request instanceof BulkRequest || request instanceof IndexRequest ||
+               request instanceof DeleteRequest || request instanceof UpdateRequest ||
+               request instanceof DeleteByQueryRequest;
+    }
+
+}
@@ -0,0 +1,627 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.commons.git.utils.GitUtils;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.SortOrder;
+import org.opensearch.client.opensearch._types.Time;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.search.Hit;
+import org.opensearch.client.opensearch.indices.get_alias.IndexAliases;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.craftercms.deployer.utils.core.StringComparators.CODE_POINT_ORDER;
+
+/**
+ * Finds the differences between the search index of a target and its local repository, without reprocessing any
+ * file. The paths of the repository that should be indexed and the IDs of the indexed documents are both read in
+ * the same order (the repository is walked one folder at a time, and the index is read page by page from a point in
+ * time with {@code search_after}) and then merge-joined, which results in:
+ * <ul>
+ *     <li><strong>missing</strong> paths, files in the repository without a document</li>
+ *     <li><strong>stale</strong> paths, files whose timestamp (e.g. {@code lastModifiedDate_dt}) is different from
+ *     the one in their document</li>
+ *     <li><strong>orphan</strong> paths, documents without a file in the repository</li>
+ * </ul>
+ * The reads from the repository and the index can be limited to a max rate, so that the comparison doesn't compete
+ * for I/O with the deployments.
+ *
+ * @since 4.2.0
+ */
+@SuppressWarnings("rawtypes")
+public class IndexDriftDetector {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexDriftDetector.class);
+
+    /**
+     * Sort field with a unique value for every document of a point in time, used to break ties between documents of
+     * the same file
+     */
+    protected static final String SHARD_DOC_FIELD_NAME = "_shard_doc";
+
+    protected final OpenSearchClient client;
+    protected final String indexId;
+    protected final File repoFolder;
+
+    /**
+     * The patterns of the paths that should have a document in the index
+     */
+    protected List<Pattern> includePatterns;
+
+    /**
+     * The extension of the files that point to blobs, removed from the paths
+     */
+    protected String blobFileExtension;
+
+    /**
+     * The name of the field with the path of the file of each document
+     */
+    protected String localIdFieldName;
+
+    /**
+     * The name of the XML element (and document field) compared to find stale documents, none if empty
+     */
+    protected String timestampFieldName;
+
+    /**
+     * The pattern that extracts the value of the timestamp element from a file, null if there's no timestamp field
+     */
+    protected Pattern timestampPattern;
+
+    /**
+     * The number of documents read from the index on each page
+     */
+    protected int pageSize;
+
+    /**
+     * How long the point in time is kept alive between pages
+     */
+    protected String pointInTimeKeepAlive;
+
+    /**
+     * The max number of files and documents read per second, 0 for no limit
+     */
+    protected int maxReadsPerSecond;
+
+    /**
+     * The time (from {@link System#nanoTime()}) at which the next read is allowed
+     */
+    protected long nextReadTime;
+
+    public IndexDriftDetector(OpenSearchClient client, String indexId, File repoFolder) {
+        this.client = client;
+        this.indexId = indexId;
+        this.repoFolder = repoFolder;
+    }
+
+    public void setIncludePatterns(List<String> includePatterns) {
+        this.includePatterns = includePatterns.stream().map(Pattern::compile).toList();
+    }
+
+    public void setBlobFileExtension(String blobFileExtension) {
+        this.blobFileExtension = blobFileExtension;
+    }
+
+    public void setLocalIdFieldName(String localIdFieldName) {
+        this.localIdFieldName = localIdFieldName;
+    }
+
+    public void setTimestampFieldName(String timestampFieldName) {
+        this.timestampFieldName = timestampFieldName;
+        this.timestampPattern = StringUtils.isNotEmpty(timestampFieldName) ?
+                Pattern.compile("<" + Pattern.quote(timestampFieldName) + ">([^<]*)</") : null;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void setPointInTimeKeepAlive(String pointInTimeKeepAlive) {
+        this.pointInTimeKeepAlive = pointInTimeKeepAlive;
+    }
+
+    public void setMaxReadsPerSecond(int maxReadsPerSecond) {
+        this.maxReadsPerSecond = maxReadsPerSecond;
+    }
+
+    /**
+     * Compares the index with the current working tree of the repository.
+     *
+     * @return the report with the missing, stale and orphan paths
+     * @throws DeployerException if the repository or the index can't be read
+     */
+    public synchronized DriftReport detect() throws DeployerException {
+        DriftReport report = new DriftReport();
+        Iterator<Hit<Map>> indexIterator = null;
+
+        try {
+            RepoIterator repoIterator = new RepoIterator();
+            indexIterator = getIndexHits();
+            nextReadTime = System.nanoTime();
+            String path = next(repoIterator);
+            Hit<Map> hit = next(indexIterator);
+
+            while (path != null || hit != null) {
+                String localId = hit != null ? getLocalId(hit) : null;
+                int comparison = path == null ? 1 : localId == null ? -1 : CODE_POINT_ORDER.compare(path, localId);
+
+                if (comparison < 0) {
+                    report.missing.add(path);
+                    path = next(repoIterator);
+                } else if (comparison > 0) {
+                    report.orphan.add(localId);
+                    hit = skipDuplicates(indexIterator, localId);
+                } else {
+                    if (isStale(path, hit)) {
+                        report.stale.add(path);
+                    }
+                    path = next(repoIterator);
+                    hit = skipDuplicates(indexIterator, localId);
+                }
+            }
+
+            report.end(repoIterator.count);
+        } catch (IOException | UncheckedIOException | OpenSearchException | UncheckedSearchException e) {
+            throw new DeployerException("Error comparing index " + indexId + " with repository " + repoFolder, e);
+        } catch (UncheckedInterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeployerException("Comparison of index " + indexId + " with repository " + repoFolder +
+                                        " was interrupted", e.getCause());
+        } finally {
+            if (indexIterator instanceof IndexIterator) {
+                ((IndexIterator) indexIterator).close();
+            }
+        }
+
+        logger.info("Drift of index {} against {}: {}", indexId, repoFolder, report);
+
+        return report;
+    }
+
+    /**
+     * Returns the documents of the index that match the include patterns, sorted by local ID
+     */
+    protected Iterator<Hit<Map>> getIndexHits() {
+        return new IndexIterator();
+    }
+
+    protected boolean isIncluded(String path) {
+        return includePatterns.stream().anyMatch(pattern -> pattern.matcher(path).matches());
+    }
+
+    /**
+     * Indicates if the timestamp in the file is different from the one in the document. Only the files that contain
+     * the timestamp are compared.
+     */
+    protected boolean isStale(String path, Hit<Map> hit) throws IOException {
+        if (timestampPattern == null || hit.source() == null) {
+            return false;
+        }
+
+        File file = new File(repoFolder, path);
+        if (!file.exists()) {
+            // Probably a blob
+            return false;
+        }
+
+        Matcher matcher = timestampPattern.matcher(Files.readString(file.toPath(), StandardCharsets.UTF_8));
+        if (!matcher.find()) {
+            return false;
+        }
+
+        Object indexed = hit.source().get(timestampFieldName);
+        if (indexed instanceof List && !((List<?>) indexed).isEmpty()) {
+            indexed = ((List<?>) indexed).get(0);
+        }
+
+        return !sameTimestamp(matcher.group(1).trim(), indexed != null ? indexed.toString() : null);
+    }
+
+    protected boolean sameTimestamp(String repoValue, String indexValue) {
+        if (Objects.equals(repoValue, indexValue)) {
+            return true;
+        }
+        if (indexValue == null) {
+            return false;
+        }
+        try {
+            return Instant.parse(repoValue).equals(Instant.parse(indexValue));
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    protected String getLocalId(Hit<Map> hit) {
+        Object localId = hit.source() != null ? hit.source().get(localIdFieldName) : null;
+        return localId != null ? localId.toString() : null;
+    }
+
+    /**
+     * Returns the first hit with a different local ID (a file can have several documents, e.g. one per locale)
+     */
+    protected Hit<Map> skipDuplicates(Iterator<Hit<Map>> iterator, String localId) {
+        Hit<Map> hit = next(iterator);
+        while (hit != null && Objects.equals(localId, getLocalId(hit))) {
+            hit = next(iterator);
+        }
+        return hit;
+    }
+
+    protected <T> T next(Iterator<T> iterator) {
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        throttle();
+        return iterator.next();
+    }
+
+    /**
+     * Waits until the next read is allowed by {@link #maxReadsPerSecond}. The reads are spaced evenly, so a burst
+     * of files that are already cached doesn't turn into a burst of reads of the index (or the other way around)
+     */
+    protected void throttle() {
+        if (maxReadsPerSecond <= 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long wait = nextReadTime - now;
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                throw new UncheckedInterruptedException(e);
+            }
+        }
+        nextReadTime = Math.max(nextReadTime, now) + TimeUnit.SECONDS.toNanos(1) / maxReadsPerSecond;
+    }
+
+    /**
+     * Returns the filter of the alias of the index, if it's a filtered alias (e.g. a site in the index pool). A point
+     * in time is created from the indexes behind the alias, so the filter needs to be added to the query.
+     */
+    protected Query getAliasFilter() throws IOException {
+        if (!client.indices().existsAlias(e -> e.name(indexId)).value()) {
+            return null;
+        }
+
+        List<Query> filters = new ArrayList<>();
+        for (IndexAliases indexAliases : client.indices().getAlias(g -> g.name(indexId)).result().values()) {
+            Query filter = indexAliases.aliases().get(indexId) != null ?
+                    indexAliases.aliases().get(indexId).filter() : null;
+            if (filter == null) {
+                // Every document of at least one of the indexes is included
+                return null;
+            }
+            filters.add(filter);
+        }
+
+        if (filters.size() == 1) {
+            return filters.get(0);
+        }
+        return filters.isEmpty() ? null : Query.of(q -> q.bool(b -> b.should(filters).minimumShouldMatch("1")));
+    }
+
+    /**
+     * Builds the search for a page of documents sorted by local ID. Documents of the same file are sorted by
+     * {@code _shard_doc}, which gives every document of the point in time a unique value for {@code search_after}.
+     */
+    protected SearchRequest buildPageRequest(String pitId, Query aliasFilter, List<String> searchAfter) {
+        return SearchRequest.of(s -> {
+            s.pit(p -> p.id(pitId).keepAlive(pointInTimeKeepAlive))
+             .size(pageSize)
+             .query(q -> q.bool(b -> {
+                 b.filter(f -> f.exists(e -> e.field(localIdFieldName)));
+                 if (aliasFilter != null) {
+                     b.filter(aliasFilter);
+                 }
+                 return b;
+             }))
+             .source(src -> src.filter(f -> StringUtils.isEmpty(timestampFieldName) ?
+                                            f.includes(localIdFieldName) :
+                                            f.includes(localIdFieldName, timestampFieldName)))
+             .sort(o -> o.field(f -> f.field(localIdFieldName).order(SortOrder.Asc)))
+             .sort(o -> o.field(f -> f.field(SHARD_DOC_FIELD_NAME).order(SortOrder.Asc)));
+            if (searchAfter != null) {
+                s.searchAfter(searchAfter);
+            }
+            return s;
+        });
+    }
+
+    /**
+     * Iterates the paths of the repository that match the include patterns, in the same order as the local IDs of
+     * the index. Only the entries of the folders being visited are kept in memory: the entries of each folder are
+     * sorted by their path, adding a trailing slash to the subfolders so that their files are placed where a full
+     * sort of the paths would place them (e.g. {@code /a-b} goes before {@code /a/b}).
+     */
+    protected class RepoIterator implements Iterator<String> {
+
+        protected final Deque<Iterator<RepoEntry>> folders = new ArrayDeque<>();
+        protected String nextPath;
+        protected int count;
+
+        public RepoIterator() {
+            folders.push(list(repoFolder.toPath(), ""));
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextPath == null && !folders.isEmpty()) {
+                Iterator<RepoEntry> entries = folders.peek();
+                if (!entries.hasNext()) {
+                    folders.pop();
+                } else {
+                    RepoEntry entry = entries.next();
+                    if (entry.folder) {
+                        folders.push(list(entry.file, entry.path));
+                    } else if (isIncluded(entry.path)) {
+                        nextPath = entry.path;
+                    }
+                }
+            }
+            return nextPath != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String path = nextPath;
+            nextPath = null;
+            count++;
+            return path;
+        }
+
+        protected Iterator<RepoEntry> list(Path folder, String folderPath) {
+            try (Stream<Path> files = Files.list(folder)) {
+                return files
+                    .map(file -> toEntry(file, folderPath))
+                    .filter(Objects::nonNull)
+                    .sorted(Comparator.comparing(RepoEntry::getSortKey, CODE_POINT_ORDER))
+                    .toList()
+                    .iterator();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error listing folder " + folder, e);
+            }
+        }
+
+        protected RepoEntry toEntry(Path file, String folderPath) {
+            String name = file.getFileName().toString();
+            if (folderPath.isEmpty() && name.equals(GitUtils.GIT_FOLDER_NAME)) {
+                return null;
+            }
+            if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                return new RepoEntry(file, folderPath + "/" + name, true);
+            }
+            if (Files.isRegularFile(file)) {
+                return new RepoEntry(file, StringUtils.removeEnd(folderPath + "/" + name, blobFileExtension), false);
+            }
+            return null;
+        }
+
+    }
+
+    /**
+     * A file or folder of the repository, with its path relative to the root (without the blob extension)
+     */
+    protected static class RepoEntry {
+
+        protected final Path file;
+        protected final String path;
+        protected final boolean folder;
+
+        public RepoEntry(Path file, String path, boolean folder) {
+            this.file = file;
+            this.path = path;
+            this.folder = folder;
+        }
+
+        public String getSortKey() {
+            return folder ? path + "/" : path;
+        }
+
+    }
+
+    /**
+     * Iterates the documents of the index that match the include patterns, sorted by local ID. The point in time is
+     * created when the first page is read, and deleted when the iterator is closed.
+     */
+    protected class IndexIterator implements Iterator<Hit<Map>>, Closeable {
+
+        protected List<Hit<Map>> page = new ArrayList<>();
+        protected int position;
+        protected List<String> searchAfter;
+        protected boolean lastPage;
+        protected String pitId;
+        protected Query aliasFilter;
+
+        @Override
+        public boolean hasNext() {
+            while (position >= page.size() && !lastPage) {
+                fetchPage();
+            }
+            return position < page.size();
+        }
+
+        @Override
+        public Hit<Map> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.get(position++);
+        }
+
+        protected void fetchPage() {
+            try {
+                if (pitId == null) {
+                    aliasFilter = getAliasFilter();
+                    pitId = client.createPit(p -> p
+                            .targetIndexes(indexId)
+                            .keepAlive(Time.of(t -> t.time(pointInTimeKeepAlive)))
+                    ).pitId();
+                }
+
+                List<Hit<Map>> hits = client.search(buildPageRequest(pitId, aliasFilter, searchAfter), Map.class)
+                                            .hits().hits();
+                page = new ArrayList<>();
+                for (Hit<Map> hit : hits) {
+                    String localId = getLocalId(hit);
+                    if (localId != null && isIncluded(localId)) {
+                        page.add(hit);
+                    }
+                }
+                position = 0;
+                lastPage = hits.size() < pageSize;
+                if (!hits.isEmpty()) {
+                    searchAfter = hits.get(hits.size() - 1).sort();
+                }
+            } catch (IOException e) {
+                throw new UncheckedSearchException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (pitId != null) {
+                try {
+                    client.deletePit(d -> d.pitId(pitId));
+                } catch (Exception e) {
+                    logger.debug("Unable to delete point in time of index {}", indexId, e);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Wraps the errors thrown while iterating the index
+     */
+    protected static class UncheckedSearchException extends RuntimeException {
+
+        public UncheckedSearchException(Throwable cause) {
+            super(cause);
+        }
+
+    }
+
+    /**
+     * Wraps the interruption of the thread while waiting for the next read
+     */
+    protected static class UncheckedInterruptedException extends RuntimeException {
+
+        public UncheckedInterruptedException(InterruptedException cause) {
+            super(cause);
+        }
+
+    }
+
+    /**
+     * The differences found between the index and the repository
+     */
+    public static class DriftReport {
+
+        protected final Instant start = Instant.now();
+        protected final List<String> missing = new ArrayList<>();
+        protected final List<String> stale = new ArrayList<>();
+        protected final List<String> orphan = new ArrayList<>();
+        protected Instant end;
+        protected int files;
+
+        protected void end(int files) {
+            this.files = files;
+            this.end = Instant.now();
+        }
+
+        @JsonProperty("start")
+        public Instant getStart() {
+            return start;
+        }
+
+        @JsonProperty("end")
+        public Instant getEnd() {
+            return end;
+        }
+
+        @JsonProperty("files")
+        public int getFiles() {
+            return files;
+        }
+
+        @JsonProperty("missing")
+        public List<String> getMissing() {
+            return missing;
+        }
+
+        @JsonProperty("stale")
+        public List<String> getStale() {
+            return stale;
+        }
+
+        @JsonProperty("orphan")
+        public List<String> getOrphan() {
+            return orphan;
+        }
+
+        /**
+         * Indicates if the index is in sync with the repository
+         */
+        @JsonProperty("in_sync")
+        public boolean isInSync() {
+            return missing.isEmpty() && stale.isEmpty() && orphan.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "files=" + files + ", missing=" + missing.size() + ", stale=" + stale.size() + ", orphan=" +
+                   orphan.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.beans.ConstructorProperties;
+import java.io.File;
+import java.util.List;
+
+import org.opensearch.client.opensearch.OpenSearchClient;
+
+/**
+ * Implementation of {@link AbstractOpenSearchFactory} for {@link IndexDriftDetector}. The index is read from the
+ * global cluster, or from the read cluster in a multi-cluster configuration
+ *
+ * @since 4.2.0
+ */
+public class IndexDriftDetectorFactory extends AbstractOpenSearchFactory<IndexDriftDetector> {
+
+    protected String indexId;
+    protected File repoFolder;
+    protected List<String> includePatterns;
+    protected String blobFileExtension;
+    protected String localIdFieldName;
+    protected String timestampFieldName;
+    protected int pageSize;
+    protected String pointInTimeKeepAlive;
+    protected int maxReadsPerSecond;
+
+    @ConstructorProperties({"config", "indexIdFormat", "siteName", "repoFolder"})
+    public IndexDriftDetectorFactory(final OpenSearchConfig config, final String indexIdFormat, final String siteName,
+                                     final File repoFolder) {
+        super(config);
+        this.indexId = String.format(indexIdFormat, siteName);
+        this.repoFolder = repoFolder;
+    }
+
+    public void setIncludePatterns(final List<String> includePatterns) {
+        this.includePatterns = includePatterns;
+    }
+
+    public void setBlobFileExtension(final String blobFileExtension) {
+        this.blobFileExtension = blobFileExtension;
+    }
+
+    public void setLocalIdFieldName(final String localIdFieldName) {
+        this.localIdFieldName = localIdFieldName;
+    }
+
+    public void setTimestampFieldName(final String timestampFieldName) {
+        this.timestampFieldName = timestampFieldName;
+    }
+
+    public void setPageSize(final int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void setPointInTimeKeepAlive(final String pointInTimeKeepAlive) {
+        this.pointInTimeKeepAlive = pointInTimeKeepAlive;
+    }
+
+    public void setMaxReadsPerSecond(final int maxReadsPerSecond) {
+        this.maxReadsPerSecond = maxReadsPerSecond;
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return IndexDriftDetector.class;
+    }
+
+    @Override
+    protected IndexDriftDetector doCreateSingleInstance(final OpenSearchClient client) {
+        return createDetector(client);
+    }
+
+    @Override
+    protected IndexDriftDetector doCreateMultiInstance(final OpenSearchClient readClient,
+                                                       final OpenSearchClient[] writeClients) {
+        return createDetector(readClient);
+    }
+
+    protected IndexDriftDetector createDetector(final OpenSearchClient client) {
+        IndexDriftDetector detector = new IndexDriftDetector(client, indexId, repoFolder);
+        detector.setIncludePatterns(includePatterns);
+        detector.setBlobFileExtension(blobFileExtension);
+        detector.setLocalIdFieldName(localIdFieldName);
+        detector.setTimestampFieldName(timestampFieldName);
+        detector.setPageSize(pageSize);
+        detector.setPointInTimeKeepAlive(pointInTimeKeepAlive);
+        detector.setMaxReadsPerSecond(maxReadsPerSecond);
+        return detector;
+    }
+
+}
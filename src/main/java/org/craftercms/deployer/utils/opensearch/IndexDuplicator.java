@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.json.stream.JsonGenerator;
+import org.apache.commons.lang3.StringUtils;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.opensearch.client.json.JsonData;
+import org.opensearch.client.json.JsonpMapper;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.HealthStatus;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.Time;
+import org.opensearch.client.opensearch._types.mapping.TypeMapping;
+import org.opensearch.client.opensearch.cluster.HealthResponse;
+import org.opensearch.client.opensearch.indices.IndexSettings;
+import org.opensearch.client.opensearch.indices.IndexSettingsAnalysis;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Duplicates an index without reindexing its documents. The index behind the source alias is copied at the segment
+ * level, either with the clone API (the source is made read-only for the few seconds the clone takes) or with a
+ * snapshot of the source restored under the new name, and then the alias of the new index is added. Since the
+ * segments are copied as is, the new index has exactly the same mappings and settings as the source, so the caller
+ * should check with {@link #mappingsMatch(String, String)} and {@link #analysisMatch(String, String)} that they're
+ * still the current ones.
+ *
+ * <p>Before the source is made read-only, its lock in the shared {@link IndexWriteLocks} is taken, so the
+ * deployments of the source wait for the clone instead of failing because of the write block.</p>
+ *
+ * <p>All operations are applied to every write cluster. If the copy fails in any of them, the indexes already
+ * created are deleted so the caller can fall back to a regular reindex.</p>
+ *
+ * @since 4.2.0
+ */
+public class IndexDuplicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexDuplicator.class);
+
+    protected static final String FIRST_VERSION_SUFFIX = "_v1";
+    protected static final String WRITE_BLOCK_SETTING = "index.blocks.write";
+    protected static final String SNAPSHOT_NAME_FORMAT = "duplicate-%s-%d";
+    protected static final int UNBLOCK_MAX_ATTEMPTS = 5;
+    protected static final long UNBLOCK_RETRY_DELAY_MILLIS = 1000;
+
+    /**
+     * The strategy used to copy the index
+     */
+    public enum Mode {
+        /**
+         * Documents are reindexed by the search admin service (the default)
+         */
+        REINDEX,
+        /**
+         * The index is copied with the clone API
+         */
+        CLONE,
+        /**
+         * The index is copied through a snapshot in a repository registered in the cluster
+         */
+        SNAPSHOT
+    }
+
+    protected final List<OpenSearchClient> clients;
+    protected final long healthTimeoutSeconds;
+    protected final IndexWriteLocks writeLocks;
+
+    /**
+     * The name of the snapshot repository, required for the {@link Mode#SNAPSHOT} mode
+     */
+    protected String snapshotRepository;
+
+    /**
+     * The delay before the first retry to remove the write block of the source, multiplied by the attempt number
+     */
+    protected long unblockRetryDelayMillis = UNBLOCK_RETRY_DELAY_MILLIS;
+
+    public IndexDuplicator(List<OpenSearchClient> clients, long healthTimeoutSeconds, IndexWriteLocks writeLocks) {
+        this.clients = clients;
+        this.healthTimeoutSeconds = healthTimeoutSeconds;
+        this.writeLocks = writeLocks;
+    }
+
+    public void setSnapshotRepository(String snapshotRepository) {
+        this.snapshotRepository = snapshotRepository;
+    }
+
+    /**
+     * Copies the index behind the source alias to a new index behind the target alias.
+     *
+     * @param sourceAlias the alias (or name) of the source index
+     * @param targetAlias the alias of the new index
+     * @param mode        the copy strategy, either {@link Mode#CLONE} or {@link Mode#SNAPSHOT}
+     * @throws DeployerException if the index can't be copied, in which case nothing is left behind in the clusters
+     */
+    public void duplicate(String sourceAlias, String targetAlias, Mode mode) throws DeployerException {
+        if (mode == Mode.SNAPSHOT && StringUtils.isEmpty(snapshotRepository)) {
+            throw new DeployerException("A snapshot repository is required to duplicate indexes through snapshots");
+        }
+
+        String targetIndex = targetAlias + FIRST_VERSION_SUFFIX;
+        Lock sourceLock = null;
+        if (mode == Mode.CLONE) {
+            sourceLock = lockSource(sourceAlias);
+        }
+
+        List<OpenSearchClient> created = new ArrayList<>();
+        try {
+            for (OpenSearchClient client : clients) {
+                if (client.indices().exists(e -> e.index(targetAlias)).value() ||
+                    client.indices().exists(e -> e.index(targetIndex)).value()) {
+                    throw new DeployerException("Index " + targetIndex + " or alias " + targetAlias +
+                                                " already exists");
+                }
+
+                String sourceIndex = getSourceIndex(client, sourceAlias);
+
+                logger.info("Copying index {} to {} using {}", sourceIndex, targetIndex, mode);
+
+                created.add(client);
+                if (mode == Mode.SNAPSHOT) {
+                    restoreFromSnapshot(client, sourceIndex, targetIndex);
+                } else {
+                    clone(client, sourceIndex, targetIndex);
+                }
+
+                waitUntilReady(client, targetIndex);
+
+                client.indices().updateAliases(u -> u.actions(a -> a.add(ad -> ad.index(targetIndex)
+                                                                                 .alias(targetAlias))));
+            }
+        } catch (IOException | OpenSearchException | DeployerException e) {
+            for (OpenSearchClient client : created) {
+                try {
+                    client.indices().delete(d -> d.index(targetIndex).ignoreUnavailable(true));
+                } catch (IOException | OpenSearchException de) {
+                    logger.warn("Unable to delete partial copy {}", targetIndex, de);
+                }
+            }
+
+            throw new DeployerException("Error copying index " + sourceAlias + " to " + targetAlias, e);
+        } finally {
+            if (sourceLock != null) {
+                sourceLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Indicates if the indexes behind both aliases have the same mappings in every write cluster. Used to check
+     * that the source has the mappings that a new index would get (the reference), otherwise it should be copied
+     * with a reindex.
+     *
+     * @param sourceAlias    the alias (or name) of the source index
+     * @param referenceAlias the alias (or name) of the index with the expected mappings
+     * @return true if the mappings are the same
+     * @throws DeployerException if the mappings can't be retrieved
+     */
+    public boolean mappingsMatch(String sourceAlias, String referenceAlias) throws DeployerException {
+        try {
+            for (OpenSearchClient client : clients) {
+                String sourceIndex = getSourceIndex(client, sourceAlias);
+                String referenceIndex = getSourceIndex(client, referenceAlias);
+                String sourceMappings = getMappings(client, sourceIndex);
+                String referenceMappings = getMappings(client, referenceIndex);
+
+                if (!sameMappings(sourceMappings, referenceMappings)) {
+                    logger.info("Mappings of index {} are different from the ones of index {}", sourceIndex,
+                                referenceIndex);
+                    return false;
+                }
+            }
+
+            return true;
+        } catch (IOException | OpenSearchException | IllegalStateException e) {
+            throw new DeployerException("Error comparing the mappings of indexes " + sourceAlias + " and " +
+                                        referenceAlias, e);
+        }
+    }
+
+    /**
+     * Indicates if the indexes behind both aliases have the same analysis settings (analyzers, tokenizers and
+     * filters) in every write cluster. Like the mappings, they're copied as is with the segments, so the source should
+     * be copied with a reindex if they're not the ones a new index would get.
+     *
+     * @param sourceAlias    the alias (or name) of the source index
+     * @param referenceAlias the alias (or name) of the index with the expected analysis settings
+     * @return true if the analysis settings are the same
+     * @throws DeployerException if the settings can't be retrieved
+     */
+    public boolean analysisMatch(String sourceAlias, String referenceAlias) throws DeployerException {
+        try {
+            for (OpenSearchClient client : clients) {
+                String sourceIndex = getSourceIndex(client, sourceAlias);
+                String referenceIndex = getSourceIndex(client, referenceAlias);
+                String sourceAnalysis = getAnalysis(client, sourceIndex);
+                String referenceAnalysis = getAnalysis(client, referenceIndex);
+
+                if (!sameMappings(sourceAnalysis, referenceAnalysis)) {
+                    logger.info("Analysis settings of index {} are different from the ones of index {}",
+                                sourceIndex, referenceIndex);
+                    return false;
+                }
+            }
+
+            return true;
+        } catch (IOException | OpenSearchException | IllegalStateException e) {
+            throw new DeployerException("Error comparing the analysis settings of indexes " + sourceAlias + " and " +
+                                        referenceAlias, e);
+        }
+    }
+
+    /**
+     * Waits for the deployments writing to the source to finish and keeps them waiting until the clone is done
+     */
+    protected Lock lockSource(String sourceAlias) throws DeployerException {
+        try {
+            Lock lock = writeLocks.tryLockExclusive(sourceAlias, healthTimeoutSeconds, TimeUnit.SECONDS);
+            if (lock == null) {
+                throw new DeployerException("Timeout while waiting for the writes to index " + sourceAlias +
+                                            " to finish");
+            }
+
+            return lock;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new DeployerException("Interrupted while waiting for the writes to index " + sourceAlias +
+                                        " to finish", e);
+        }
+    }
+
+    protected String getMappings(OpenSearchClient client, String index) throws IOException {
+        TypeMapping mappings = client.indices().getMapping(g -> g.index(index)).result().get(index).mappings();
+
+        StringWriter writer = new StringWriter();
+        JsonpMapper mapper = client._transport().jsonpMapper();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(writer)) {
+            mappings.serialize(generator, mapper);
+        }
+
+        return writer.toString();
+    }
+
+    protected String getAnalysis(OpenSearchClient client, String index) throws IOException {
+        IndexSettings settings = client.indices().getSettings(g -> g.index(index)).result().get(index).settings();
+        // Settings returned by the API are usually nested under 'index'
+        IndexSettingsAnalysis analysis = settings.index() != null ? settings.index().analysis() : settings.analysis();
+        if (analysis == null) {
+            return "{}";
+        }
+
+        StringWriter writer = new StringWriter();
+        JsonpMapper mapper = client._transport().jsonpMapper();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(writer)) {
+            analysis.serialize(generator, mapper);
+        }
+
+        return writer.toString();
+    }
+
+    /**
+     * Compares two mappings (or analysis settings) as JSON trees, so the order of the fields doesn't matter
+     */
+    protected boolean sameMappings(String mappings1, String mappings2) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        return objectMapper.readTree(mappings1).equals(objectMapper.readTree(mappings2));
+    }
+
+    protected String getSourceIndex(OpenSearchClient client, String sourceAlias) throws IOException {
+        if (client.indices().existsAlias(e -> e.name(sourceAlias)).value()) {
+            List<String> indexes = new ArrayList<>(client.indices()
+                                                         .getAlias(g -> g.name(sourceAlias))
+                                                         .result()
+                                                         .keySet());
+            if (indexes.size() != 1) {
+                throw new IllegalStateException("Alias " + sourceAlias + " points to " + indexes.size() +
+                                                " indexes");
+            }
+
+            return indexes.get(0);
+        } else {
+            return sourceAlias;
+        }
+    }
+
+    protected void clone(OpenSearchClient client, String sourceIndex, String targetIndex) throws IOException {
+        // The source needs to be read-only while the clone is created, only for the time it takes to link the
+        // segment files
+        setWriteBlock(client, sourceIndex, true);
+        try {
+            client.indices().clone(c -> c
+                .index(sourceIndex)
+                .target(targetIndex)
+                .settings(WRITE_BLOCK_SETTING, JsonData.of(false))
+            );
+        } finally {
+            removeWriteBlock(client, sourceIndex);
+        }
+    }
+
+    /**
+     * Removes the write block of the source, retrying a few times since the source would otherwise be left
+     * read-only. If it still fails the error is thrown as an unchecked exception, so the caller doesn't treat it as a
+     * failed copy that can be retried with a reindex.
+     */
+    protected void removeWriteBlock(OpenSearchClient client, String index) throws InterruptedIOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                setWriteBlock(client, index, false);
+                return;
+            } catch (IOException | OpenSearchException e) {
+                if (attempt >= UNBLOCK_MAX_ATTEMPTS) {
+                    logger.error("Unable to remove the write block of index {}, it needs to be removed manually " +
+                                 "(set {} to false)", index, WRITE_BLOCK_SETTING, e);
+
+                    throw new IllegalStateException("Index " + index + " was left read-only after cloning it", e);
+                }
+
+                logger.warn("Unable to remove the write block of index {} (attempt {} of {}), retrying", index,
+                            attempt, UNBLOCK_MAX_ATTEMPTS, e);
+
+                try {
+                    Thread.sleep(unblockRetryDelayMillis * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while removing the write block of index " + index);
+                }
+            }
+        }
+    }
+
+    protected void restoreFromSnapshot(OpenSearchClient client, String sourceIndex, String targetIndex)
+            throws IOException, DeployerException {
+        String snapshot = String.format(SNAPSHOT_NAME_FORMAT, targetIndex, System.currentTimeMillis());
+
+        client.snapshot().create(c -> c
+            .repository(snapshotRepository)
+            .snapshot(snapshot)
+            .indices(sourceIndex)
+            .includeGlobalState(false)
+            .waitForCompletion(true)
+        );
+        try {
+            client.snapshot().restore(r -> r
+                .repository(snapshotRepository)
+                .snapshot(snapshot)
+                .indices(sourceIndex)
+                .renamePattern(".+")
+                .renameReplacement(targetIndex)
+                .includeAliases(false)
+                .includeGlobalState(false)
+                .waitForCompletion(true)
+            );
+        } finally {
+            try {
+                client.snapshot().delete(d -> d.repository(snapshotRepository).snapshot(snapshot));
+            } catch (IOException | OpenSearchException e) {
+                logger.warn("Unable to delete snapshot {} from repository {}", snapshot, snapshotRepository, e);
+            }
+        }
+    }
+
+    protected void setWriteBlock(OpenSearchClient client, String index, boolean enabled) throws IOException {
+        client.indices().putSettings(p -> p
+            .index(index)
+            .settings(s -> s.blocks(b -> b.write(enabled)))
+        );
+    }
+
+    protected void waitUntilReady(OpenSearchClient client, String index) throws IOException, DeployerException {
+        HealthResponse health = client.cluster().health(h -> h
+            .index(index)
+            .waitForStatus(HealthStatus.Yellow)
+            .timeout(Time.of(t -> t.time(healthTimeoutSeconds + "s")))
+        );
+        if (health.timedOut()) {
+            throw new DeployerException("Timeout while waiting for index " + index + " to be ready");
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.beans.ConstructorProperties;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opensearch.client.opensearch.OpenSearchClient;
+
+/**
+ * Implementation of {@link AbstractOpenSearchFactory} for {@link IndexDuplicator}
+ *
+ * @since 4.2.0
+ */
+public class IndexDuplicatorFactory extends AbstractOpenSearchFactory<IndexDuplicator> {
+
+    /**
+     * The max time in seconds to wait for a copied index to be ready
+     */
+    protected long healthTimeoutSeconds;
+
+    /**
+     * The name of the snapshot repository used to copy indexes through snapshots
+     */
+    protected String snapshotRepository;
+
+    /**
+     * The locks shared by all targets, used to hold the writes to the source while it's cloned
+     */
+    protected IndexWriteLocks writeLocks;
+
+    @ConstructorProperties({"config", "healthTimeoutSeconds", "writeLocks"})
+    public IndexDuplicatorFactory(final OpenSearchConfig config, final long healthTimeoutSeconds,
+                                  final IndexWriteLocks writeLocks) {
+        super(config);
+        this.healthTimeoutSeconds = healthTimeoutSeconds;
+        this.writeLocks = writeLocks;
+    }
+
+    public void setSnapshotRepository(final String snapshotRepository) {
+        this.snapshotRepository = snapshotRepository;
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return IndexDuplicator.class;
+    }
+
+    @Override
+    protected IndexDuplicator doCreateSingleInstance(final OpenSearchClient client) {
+        return createDuplicator(List.of(client));
+    }
+
+    @Override
+    protected IndexDuplicator doCreateMultiInstance(final OpenSearchClient readClient,
+                                                    final OpenSearchClient[] writeClients) {
+        return createDuplicator(Arrays.asList(writeClients));
+    }
+
+    protected IndexDuplicator createDuplicator(final List<OpenSearchClient> clients) {
+        IndexDuplicator duplicator = new IndexDuplicator(clients, healthTimeoutSeconds, writeLocks);
+        duplicator.setSnapshotRepository(snapshotRepository);
+        return duplicator;
+    }
+
+}
@@ -0,0 +1,535 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.craftercms.search.commons.exception.SearchException;
+import org.craftercms.search.opensearch.OpenSearchAdminService;
+import org.opensearch.client.json.JsonData;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.Conflicts;
+import org.opensearch.client.opensearch._types.FieldValue;
+import org.opensearch.client.opensearch._types.HealthStatus;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.Time;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.cluster.HealthResponse;
+import org.opensearch.client.opensearch.indices.IndexSettings;
+import org.opensearch.client.opensearch.indices.IndexState;
+import org.opensearch.client.opensearch.indices.alias.AliasDefinition;
+import org.opensearch.client.opensearch.indices.get_alias.IndexAliases;
+import org.opensearch.client.opensearch.indices.update_aliases.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Manages a physical index shared by many small sites, to avoid the overhead of one index (and its shards) per site.
+ * Each site in the pool gets a filtered alias with the usual name of its index, which restricts searches to the
+ * documents of the site and routes all its documents to the same shard, so the rest of the deployer (and Engine)
+ * keep using the alias as if it were a dedicated index.
+ *
+ * <p>Once a site grows past the configured number of documents it's promoted to a dedicated index: its documents
+ * are copied to a new index, the alias is moved to it in a single atomic operation and the documents are removed
+ * from the pool. Promotion runs in the background after a deployment. Writers of the site must hold the lock of
+ * its alias in the shared {@link IndexWriteLocks}, since the promotion holds it exclusively from the copy of the
+ * documents until the alias is moved, so no write can land in the pool after its documents were copied. Promotions
+ * of the same pool are done one at a time, even across targets.</p>
+ *
+ * <p>All operations are applied to every write cluster.</p>
+ *
+ * @since 4.2.0
+ */
+public class IndexPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexPool.class);
+
+    protected static final String VERSION_SEPARATOR = "_v";
+    protected static final String COPY_SCRIPT =
+        "ctx._source[params.siteField] = params.target; " +
+        "for (field in params.idFields) { " +
+        "  def value = ctx._source[field]; " +
+        "  if (value instanceof String && value.startsWith(params.sourcePrefix)) { " +
+        "    ctx._source[field] = params.targetPrefix + value.substring(params.sourcePrefix.length()); " +
+        "  } " +
+        "} " +
+        "if (ctx._id.startsWith(params.sourcePrefix)) { " +
+        "  ctx._id = params.targetPrefix + ctx._id.substring(params.sourcePrefix.length()); " +
+        "}";
+    protected static final String ID_SEPARATOR = ":";
+
+    protected final List<OpenSearchClient> clients;
+    protected final OpenSearchAdminService adminService;
+    protected final String poolName;
+    protected final IndexWriteLocks writeLocks;
+    protected final Map<String, Boolean> pooledAliases = new ConcurrentHashMap<>();
+    protected final Set<String> promotingAliases = ConcurrentHashMap.newKeySet();
+    protected final ExecutorService promotionExecutor;
+
+    /**
+     * Indicates if new sites should be added to the pool. Sites already in the pool are handled even if disabled
+     */
+    protected boolean enabled;
+
+    /**
+     * The name of the field that holds the site name of each document
+     */
+    protected String siteFieldName;
+
+    /**
+     * The names of the fields that hold IDs prefixed with the site name, updated when a site is copied
+     */
+    protected List<String> idFieldNames;
+
+    /**
+     * The number of documents after which a site is promoted to a dedicated index, 0 to disable promotion
+     */
+    protected long promotionMaxDocs;
+
+    /**
+     * The number of shards of the dedicated index of a promoted site
+     */
+    protected String promotionShards;
+
+    /**
+     * The max time in seconds to wait for an index to be ready
+     */
+    protected long healthTimeoutSeconds;
+
+    /**
+     * @param clients      the clients of the write clusters
+     * @param adminService the service used to create the indexes
+     * @param poolName     the name of the pool, also the alias of its index
+     * @param writeLocks   the locks shared by all targets, so promotions don't run with the writes of the site or
+     *                     with other promotions of the same pool
+     */
+    public IndexPool(List<OpenSearchClient> clients, OpenSearchAdminService adminService, String poolName,
+                     IndexWriteLocks writeLocks) {
+        this.clients = clients;
+        this.adminService = adminService;
+        this.poolName = poolName;
+        this.writeLocks = writeLocks;
+        this.promotionExecutor = Executors.newSingleThreadExecutor(
+            new CustomizableThreadFactory(poolName + "-promotion-"));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setSiteFieldName(String siteFieldName) {
+        this.siteFieldName = siteFieldName;
+    }
+
+    public void setIdFieldNames(List<String> idFieldNames) {
+        this.idFieldNames = idFieldNames;
+    }
+
+    public void setPromotionMaxDocs(long promotionMaxDocs) {
+        this.promotionMaxDocs = promotionMaxDocs;
+    }
+
+    public void setPromotionShards(String promotionShards) {
+        this.promotionShards = promotionShards;
+    }
+
+    public void setHealthTimeoutSeconds(long healthTimeoutSeconds) {
+        this.healthTimeoutSeconds = healthTimeoutSeconds;
+    }
+
+    /**
+     * Indicates if the specified alias is a filtered alias of the pool
+     */
+    public boolean isPooled(String alias) {
+        return pooledAliases.computeIfAbsent(alias, a -> {
+            try {
+                OpenSearchClient client = clients.get(0);
+                if (!client.indices().existsAlias(e -> e.name(alias)).value()) {
+                    return false;
+                }
+
+                for (IndexAliases indexAliases : client.indices().getAlias(g -> g.name(alias)).result().values()) {
+                    AliasDefinition definition = indexAliases.aliases().get(alias);
+                    if (definition != null && definition.filter() != null) {
+                        return true;
+                    }
+                }
+
+                return false;
+            } catch (IOException | OpenSearchException e) {
+                throw new SearchException(alias, "Unable to check if the index is pooled", e);
+            }
+        });
+    }
+
+    /**
+     * Adds a site to the pool, creating the pool if it doesn't exist yet.
+     *
+     * @param alias    the alias used by the site
+     * @param siteName the name of the site
+     * @throws DeployerException if the site can't be added
+     */
+    public void addSite(String alias, String siteName) throws DeployerException {
+        try {
+            createPoolIfMissing();
+
+            logger.info("Adding site '{}' to index pool {} with alias {}", siteName, poolName, alias);
+
+            for (OpenSearchClient client : clients) {
+                String poolIndex = getPoolIndex(client);
+                client.indices().updateAliases(u -> u.actions(a -> a.add(ad -> ad
+                    .index(poolIndex)
+                    .alias(alias)
+                    .filter(getSiteQuery(siteName))
+                    .routing(siteName)
+                )));
+            }
+
+            pooledAliases.put(alias, true);
+        } catch (IOException | OpenSearchException | SearchException e) {
+            throw new DeployerException("Error adding site '" + siteName + "' to index pool " + poolName, e);
+        }
+    }
+
+    /**
+     * Removes a site from the pool, deleting all its documents and its alias.
+     *
+     * @param alias    the alias used by the site
+     * @param siteName the name of the site
+     * @throws DeployerException if the site can't be removed
+     */
+    public void removeSite(String alias, String siteName) throws DeployerException {
+        logger.info("Removing site '{}' from index pool {}", siteName, poolName);
+
+        try {
+            for (OpenSearchClient client : clients) {
+                String poolIndex = getPoolIndex(client);
+                client.deleteByQuery(d -> d
+                    .index(alias)
+                    .query(q -> q.matchAll(m -> m))
+                    .conflicts(Conflicts.Proceed)
+                    .refresh(true)
+                );
+                client.indices().deleteAlias(d -> d.index(poolIndex).name(alias));
+            }
+
+            pooledAliases.remove(alias);
+        } catch (IOException | OpenSearchException e) {
+            throw new DeployerException("Error removing site '" + siteName + "' from index pool " + poolName, e);
+        }
+    }
+
+    /**
+     * Adds a site to the pool with a copy of the documents of another site, which can be pooled or not. The site
+     * name and the IDs of the documents are updated for the new site.
+     *
+     * @param sourceAlias    the alias used by the source site
+     * @param sourceSiteName the name of the source site
+     * @param alias          the alias used by the new site
+     * @param siteName       the name of the new site
+     * @throws DeployerException if the site can't be copied
+     */
+    public void copySite(String sourceAlias, String sourceSiteName, String alias, String siteName)
+            throws DeployerException {
+        addSite(alias, siteName);
+
+        logger.info("Copying documents of site '{}' to site '{}' in index pool {}", sourceSiteName, siteName,
+                    poolName);
+
+        try {
+            for (OpenSearchClient client : clients) {
+                client.reindex(r -> r
+                    .source(s -> s.index(sourceAlias))
+                    .dest(d -> d.index(alias).routing("=" + siteName))
+                    .script(s -> s.inline(i -> i
+                        .lang("painless")
+                        .source(COPY_SCRIPT)
+                        .params(Map.of(
+                            "siteField", JsonData.of(siteFieldName),
+                            "idFields", JsonData.of(idFieldNames),
+                            "target", JsonData.of(siteName),
+                            "sourcePrefix", JsonData.of(sourceSiteName + ID_SEPARATOR),
+                            "targetPrefix", JsonData.of(siteName + ID_SEPARATOR)
+                        ))
+                    ))
+                    .refresh(true)
+                    .waitForCompletion(true)
+                );
+            }
+        } catch (IOException | OpenSearchException e) {
+            removeSite(alias, siteName);
+
+            throw new DeployerException("Error copying site '" + sourceSiteName + "' to site '" + siteName + "'", e);
+        }
+    }
+
+    /**
+     * Submits the promotion of the site to run in the background, unless one is already pending or running for it.
+     * Nothing is submitted if the pool is disabled or the site is not in the pool, so the sites with a dedicated
+     * index don't pay for it after every deployment.
+     *
+     * @param alias    the alias used by the site
+     * @param siteName the name of the site
+     * @return the future of the promotion, or null if it wasn't submitted
+     */
+    public Future<Boolean> promoteInBackground(String alias, String siteName) {
+        if (!enabled || promotionMaxDocs <= 0) {
+            return null;
+        }
+        try {
+            if (!isPooled(alias)) {
+                return null;
+            }
+        } catch (SearchException e) {
+            logger.warn("Unable to check if site '{}' is in index pool {}, it will be checked again after the " +
+                        "next deployment", siteName, poolName, e);
+            return null;
+        }
+        if (!promotingAliases.add(alias)) {
+            return null;
+        }
+
+        try {
+            return promotionExecutor.submit(() -> {
+                try {
+                    return promoteIfNeeded(alias, siteName);
+                } catch (DeployerException e) {
+                    logger.warn("Unable to promote site '{}' to a dedicated index, it will be retried after the " +
+                                "next deployment", siteName, e);
+                    return false;
+                } finally {
+                    promotingAliases.remove(alias);
+                }
+            });
+        } catch (RuntimeException e) {
+            promotingAliases.remove(alias);
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the background promotions. A running promotion is interrupted, but it keeps the locks until it finishes
+     * or fails.
+     */
+    public void shutdown() {
+        promotionExecutor.shutdownNow();
+    }
+
+    /**
+     * Moves the site to a dedicated index if it's pooled and has more documents than the promotion threshold. The
+     * writes of the site are blocked while its documents are copied and the alias is moved.
+     *
+     * @param alias    the alias used by the site
+     * @param siteName the name of the site
+     * @return true if the site was promoted
+     * @throws DeployerException if the promotion failed, in which case the site stays in the pool
+     */
+    public boolean promoteIfNeeded(String alias, String siteName) throws DeployerException {
+        if (promotionMaxDocs <= 0 || !isPooled(alias)) {
+            return false;
+        }
+
+        Lock promotionLock = writeLocks.lockPromotions(poolName);
+        try {
+            Lock writeLock = writeLocks.lockExclusive(alias);
+            try {
+                // Could have been promoted by another pool instance while waiting
+                pooledAliases.remove(alias);
+                if (!isPooled(alias)) {
+                    return false;
+                }
+
+                return doPromoteIfNeeded(alias, siteName);
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            promotionLock.unlock();
+        }
+    }
+
+    protected boolean doPromoteIfNeeded(String alias, String siteName) throws DeployerException {
+        String index = null;
+        List<OpenSearchClient> created = new ArrayList<>();
+        try {
+            OpenSearchClient mainClient = clients.get(0);
+            long docs = mainClient.count(c -> c.index(alias)).count();
+            if (docs <= promotionMaxDocs) {
+                return false;
+            }
+
+            index = getNextIndexName(mainClient, alias);
+
+            logger.info("Site '{}' has {} documents (max {}), promoting it from index pool {} to index {}",
+                        siteName, docs, promotionMaxDocs, poolName, index);
+
+            for (OpenSearchClient client : clients) {
+                String poolIndex = getPoolIndex(client);
+                String newIndex = index;
+
+                created.add(client);
+                createDedicatedIndex(client, poolIndex, newIndex);
+
+                client.reindex(r -> r
+                    .source(s -> s.index(alias))
+                    .dest(d -> d.index(newIndex).routing("discard"))
+                    .refresh(true)
+                    .waitForCompletion(true)
+                );
+                waitUntilReady(client, newIndex);
+
+                client.indices().updateAliases(u -> u.actions(
+                    Action.of(a -> a.remove(r -> r.index(poolIndex).alias(alias))),
+                    Action.of(a -> a.add(ad -> ad.index(newIndex).alias(alias)))
+                ));
+            }
+        } catch (IOException | OpenSearchException | DeployerException e) {
+            String newIndex = index;
+            for (OpenSearchClient client : created) {
+                try {
+                    if (client.indices().exists(ex -> ex.index(newIndex)).value()) {
+                        restoreAlias(client, alias, siteName, newIndex);
+                        client.indices().delete(d -> d.index(newIndex));
+                    }
+                } catch (IOException | OpenSearchException de) {
+                    logger.warn("Unable to delete index {} of failed promotion", newIndex, de);
+                }
+            }
+
+            throw new DeployerException("Error promoting site '" + siteName + "' from index pool " + poolName, e);
+        }
+
+        pooledAliases.put(alias, false);
+
+        for (OpenSearchClient client : clients) {
+            try {
+                String poolIndex = getPoolIndex(client);
+                client.deleteByQuery(d -> d
+                    .index(poolIndex)
+                    .routing(siteName)
+                    .query(getSiteQuery(siteName))
+                    .conflicts(Conflicts.Proceed)
+                );
+            } catch (IOException | OpenSearchException e) {
+                logger.warn("Unable to delete documents of promoted site '{}' from index pool {}", siteName,
+                            poolName, e);
+            }
+        }
+
+        return true;
+    }
+
+    protected void createPoolIfMissing() {
+        if (!adminService.indexExists(poolName)) {
+            logger.info("Creating index pool {}", poolName);
+            try {
+                adminService.createIndex(poolName);
+            } catch (SearchException e) {
+                // Another target could have created it at the same time
+                if (!adminService.indexExists(poolName)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    protected void createDedicatedIndex(OpenSearchClient client, String poolIndex, String index) throws IOException {
+        IndexState poolState = client.indices().get(g -> g.index(poolIndex)).result().get(poolIndex);
+        IndexSettings poolSettings = poolState.settings().index() != null ?
+                                     poolState.settings().index() : poolState.settings();
+
+        client.indices().create(c -> c
+            .index(index)
+            .mappings(poolState.mappings())
+            .settings(s -> s
+                .numberOfShards(promotionShards)
+                .numberOfReplicas(poolSettings.numberOfReplicas())
+                .analysis(poolSettings.analysis())
+                .mapping(poolSettings.mapping())
+            )
+        );
+    }
+
+    /**
+     * Makes sure the alias points to the pool again after a failed promotion
+     */
+    protected void restoreAlias(OpenSearchClient client, String alias, String siteName, String newIndex)
+            throws IOException {
+        String poolIndex = getPoolIndex(client);
+        if (!client.indices().existsAlias(e -> e.index(poolIndex).name(alias)).value()) {
+            client.indices().updateAliases(u -> u.actions(
+                Action.of(a -> a.remove(r -> r.index(newIndex).alias(alias))),
+                Action.of(a -> a.add(ad -> ad.index(poolIndex)
+                                             .alias(alias)
+                                             .filter(getSiteQuery(siteName))
+                                             .routing(siteName)))
+            ));
+        }
+    }
+
+    /**
+     * Returns the physical index of the pool, which is usually behind an alias with the name of the pool
+     */
+    protected String getPoolIndex(OpenSearchClient client) throws IOException {
+        if (client.indices().existsAlias(e -> e.name(poolName)).value()) {
+            return client.indices().getAlias(g -> g.name(poolName)).result().keySet().iterator().next();
+        } else {
+            return poolName;
+        }
+    }
+
+    protected String getNextIndexName(OpenSearchClient client, String alias) throws IOException {
+        int version = 0;
+        while (true) {
+            String name = alias + VERSION_SEPARATOR + (++version);
+            if (!client.indices().exists(e -> e.index(name)).value()) {
+                return name;
+            }
+        }
+    }
+
+    protected Query getSiteQuery(String siteName) {
+        return Query.of(q -> q.term(t -> t.field(siteFieldName).value(FieldValue.of(siteName))));
+    }
+
+    protected void waitUntilReady(OpenSearchClient client, String index) throws IOException, DeployerException {
+        HealthResponse health = client.cluster().health(h -> h
+            .index(index)
+            .waitForStatus(HealthStatus.Yellow)
+            .timeout(Time.of(t -> t.time(healthTimeoutSeconds + "s")))
+        );
+        if (health.timedOut()) {
+            throw new DeployerException("Timeout while waiting for index " + index + " to be ready");
+        }
+    }
+
+}
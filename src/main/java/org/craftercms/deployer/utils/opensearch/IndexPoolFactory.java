@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.beans.ConstructorProperties;
+import java.util.Arrays;
+import java.util.List;
+
+import org.craftercms.search.opensearch.OpenSearchAdminService;
+import org.opensearch.client.opensearch.OpenSearchClient;
+
+/**
+ * Implementation of {@link AbstractOpenSearchFactory} for {@link IndexPool}
+ *
+ * @since 4.2.0
+ */
+public class IndexPoolFactory extends AbstractOpenSearchFactory<IndexPool> {
+
+    protected OpenSearchAdminService adminService;
+    protected String poolName;
+    protected IndexWriteLocks writeLocks;
+    protected boolean enabled;
+    protected String siteFieldName;
+    protected List<String> idFieldNames;
+    protected long promotionMaxDocs;
+    protected String promotionShards;
+    protected long healthTimeoutSeconds;
+
+    @ConstructorProperties({"config", "adminService", "poolName", "writeLocks"})
+    public IndexPoolFactory(final OpenSearchConfig config, final OpenSearchAdminService adminService,
+                            final String poolName, final IndexWriteLocks writeLocks) {
+        super(config);
+        this.adminService = adminService;
+        this.poolName = poolName;
+        this.writeLocks = writeLocks;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setSiteFieldName(final String siteFieldName) {
+        this.siteFieldName = siteFieldName;
+    }
+
+    public void setIdFieldNames(final List<String> idFieldNames) {
+        this.idFieldNames = idFieldNames;
+    }
+
+    public void setPromotionMaxDocs(final long promotionMaxDocs) {
+        this.promotionMaxDocs = promotionMaxDocs;
+    }
+
+    public void setPromotionShards(final String promotionShards) {
+        this.promotionShards = promotionShards;
+    }
+
+    public void setHealthTimeoutSeconds(final long healthTimeoutSeconds) {
+        this.healthTimeoutSeconds = healthTimeoutSeconds;
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return IndexPool.class;
+    }
+
+    @Override
+    protected IndexPool doCreateSingleInstance(final OpenSearchClient client) {
+        return createPool(List.of(client));
+    }
+
+    @Override
+    protected IndexPool doCreateMultiInstance(final OpenSearchClient readClient,
+                                              final OpenSearchClient[] writeClients) {
+        return createPool(Arrays.asList(writeClients));
+    }
+
+    @Override
+    protected void destroyInstance(final IndexPool instance) throws Exception {
+        instance.shutdown();
+        super.destroyInstance(instance);
+    }
+
+    protected IndexPool createPool(final List<OpenSearchClient> clients) {
+        IndexPool pool = new IndexPool(clients, adminService, poolName, writeLocks);
+        pool.setEnabled(enabled);
+        pool.setSiteFieldName(siteFieldName);
+        pool.setIdFieldNames(idFieldNames);
+        pool.setPromotionMaxDocs(promotionMaxDocs);
+        pool.setPromotionShards(promotionShards);
+        pool.setHealthTimeoutSeconds(healthTimeoutSeconds);
+        return pool;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks that coordinate the deployments writing to an index with the operations that need the index to stop
+ * changing for a while, like the promotion of a site of the {@link IndexPool} or the clone of an index by the
+ * {@link IndexDuplicator}. Deployments share the lock of the index, while those operations hold it exclusively, so
+ * the writes wait instead of being lost or rejected by a write block. It also holds the locks that make the
+ * promotions of the same pool run one at a time.
+ *
+ * <p>A single instance is shared by all the targets of the deployer, and the locks are identified by the alias of
+ * the index (or the name of the pool).</p>
+ *
+ * @since 4.2.0
+ */
+public class IndexWriteLocks {
+
+    protected final Map<String, ReadWriteLock> locks = new ConcurrentHashMap<>();
+    protected final Map<String, Lock> promotionLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Locks the index for writing, blocking while another operation holds it exclusively. The caller must unlock
+     * the returned lock, from the same thread, when it's done writing.
+     *
+     * @param alias the alias of the index
+     * @return the lock, already locked
+     */
+    public Lock lockWrites(String alias) {
+        Lock lock = getLock(alias).readLock();
+        lock.lock();
+
+        return lock;
+    }
+
+    /**
+     * Locks the index exclusively, waiting for the writes in progress to finish. The caller must unlock the returned
+     * lock, from the same thread, when it's done.
+     *
+     * @param alias   the alias of the index
+     * @param timeout the max time to wait for the writes in progress
+     * @param unit    the unit of the timeout
+     * @return the lock, already locked, or null if the writes didn't finish in time
+     */
+    public Lock tryLockExclusive(String alias, long timeout, TimeUnit unit) throws InterruptedException {
+        Lock lock = getLock(alias).writeLock();
+        return lock.tryLock(timeout, unit) ? lock : null;
+    }
+
+    /**
+     * Locks the index exclusively, waiting as long as needed for the writes in progress to finish.
+     *
+     * @param alias the alias of the index
+     * @return the lock, already locked
+     */
+    public Lock lockExclusive(String alias) {
+        Lock lock = getLock(alias).writeLock();
+        lock.lock();
+
+        return lock;
+    }
+
+    /**
+     * Locks the promotions of the pool, waiting for the promotion in progress to finish. The caller must unlock the
+     * returned lock, from the same thread, when it's done.
+     *
+     * @param poolName the name of the pool
+     * @return the lock, already locked
+     */
+    public Lock lockPromotions(String poolName) {
+        Lock lock = promotionLocks.computeIfAbsent(poolName, p -> new ReentrantLock());
+        lock.lock();
+
+        return lock;
+    }
+
+    protected ReadWriteLock getLock(String alias) {
+        return locks.computeIfAbsent(alias, a -> new ReentrantReadWriteLock());
+    }
+
+}
@@ -18,6 +18,7 @@
 package org.craftercms.deployer.utils.opensearch;
 
 import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.lang3.ArrayUtils;
 import org.opensearch.client.opensearch.OpenSearchClient;
 
 import static org.craftercms.search.opensearch.spring.OpenSearchClientFactory.createClient;
@@ -105,4 +106,20 @@ public class OpenSearchClusterConfig {
         return createClient(urls, username, password, connectTimeout, socketTimeout ,threadCount, keepAlive);
     }
 
+    /**
+     * Returns a key that identifies the configuration of the cluster, used to share clients between targets. The
+     * credentials are only included as an HMAC (see {@link SharedClientCache#hashCredentials(String, String)}).
+     */
+    public String getKey() {
+        return getUrls() + "|" + SharedClientCache.hashCredentials(username, password) + "|" + connectTimeout + "|" +
+               socketTimeout + "|" + threadCount + "|" + keepAlive;
+    }
+
+    /**
+     * Returns the URLs of the cluster, separated by commas
+     */
+    public String getUrls() {
+        return String.join(",", ArrayUtils.nullToEmpty(urls));
+    }
+
 }
@@ -17,14 +17,21 @@
 
 package org.craftercms.deployer.utils.opensearch;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.craftercms.search.opensearch.DocumentParser;
 import org.craftercms.search.opensearch.OpenSearchService;
 import org.craftercms.search.opensearch.impl.MultiOpenSearchServiceImpl;
 import org.craftercms.search.opensearch.impl.OpenSearchDocumentBuilder;
 import org.craftercms.search.opensearch.impl.OpenSearchServiceImpl;
 import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.transport.OpenSearchTransport;
 
 import java.beans.ConstructorProperties;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * Implementation of {@link org.craftercms.deployer.utils.opensearch.legacy.AbstractOpenSearchFactory}
@@ -45,6 +52,58 @@ public class OpenSearchServiceFactory extends AbstractOpenSearchFactory<OpenSear
      */
     protected DocumentParser documentParser;
 
+    /**
+     * Indicates if writes of documents that haven't changed should be skipped
+     */
+    protected boolean fingerprintEnabled;
+
+    /**
+     * The name of the field where the fingerprint of each document is stored
+     */
+    protected String fingerprintFieldName;
+
+    /**
+     * The limiter used to apply backpressure to the write requests, if any
+     */
+    protected AdaptiveBulkLimiter bulkLimiter;
+
+    /**
+     * The deployer-wide governor of the write requests to each cluster, if any
+     */
+    protected WriteGovernor writeGovernor;
+
+    /**
+     * The ID of the target, used to share the write slots of the governor
+     */
+    protected String targetId;
+
+    /**
+     * The folder where the queues of pending writes of the replica write clusters are stored. If null, writes are
+     * sent to all the write clusters right away
+     */
+    protected String replicaQueueFolder;
+
+    /**
+     * The max number of pending writes applied at once to a replica write cluster
+     */
+    protected int replicaQueueBatchSize;
+
+    /**
+     * The time to wait before retrying the pending writes of a replica write cluster after a failure
+     */
+    protected long replicaQueueRetryIntervalMillis;
+
+    /**
+     * The registry where the lag of the replica write clusters is exposed, which also provides the executor where
+     * their pending writes are applied
+     */
+    protected ReplicaQueueRegistry replicaQueueRegistry;
+
+    /**
+     * The transports of the replica write clusters, stopped when the instance is destroyed
+     */
+    protected final List<ReplicaTransport> replicaTransports = new ArrayList<>();
+
     @ConstructorProperties({"config", "documentBuilder", "documentParser"})
     public OpenSearchServiceFactory(final OpenSearchConfig config,
                                     final OpenSearchDocumentBuilder documentBuilder,
@@ -54,6 +113,42 @@ public class OpenSearchServiceFactory extends AbstractOpenSearchFactory<OpenSear
         this.documentParser = documentParser;
     }
 
+    public void setFingerprintEnabled(final boolean fingerprintEnabled) {
+        this.fingerprintEnabled = fingerprintEnabled;
+    }
+
+    public void setFingerprintFieldName(final String fingerprintFieldName) {
+        this.fingerprintFieldName = fingerprintFieldName;
+    }
+
+    public void setBulkLimiter(final AdaptiveBulkLimiter bulkLimiter) {
+        this.bulkLimiter = bulkLimiter;
+    }
+
+    public void setWriteGovernor(final WriteGovernor writeGovernor) {
+        this.writeGovernor = writeGovernor;
+    }
+
+    public void setTargetId(final String targetId) {
+        this.targetId = targetId;
+    }
+
+    public void setReplicaQueueFolder(final String replicaQueueFolder) {
+        this.replicaQueueFolder = replicaQueueFolder;
+    }
+
+    public void setReplicaQueueBatchSize(final int replicaQueueBatchSize) {
+        this.replicaQueueBatchSize = replicaQueueBatchSize;
+    }
+
+    public void setReplicaQueueRetryIntervalMillis(final long replicaQueueRetryIntervalMillis) {
+        this.replicaQueueRetryIntervalMillis = replicaQueueRetryIntervalMillis;
+    }
+
+    public void setReplicaQueueRegistry(final ReplicaQueueRegistry replicaQueueRegistry) {
+        this.replicaQueueRegistry = replicaQueueRegistry;
+    }
+
     @Override
     public Class<?> getObjectType() {
         return OpenSearchService.class;
@@ -61,13 +156,68 @@ public class OpenSearchServiceFactory extends AbstractOpenSearchFactory<OpenSear
 
     @Override
     protected OpenSearchService doCreateSingleInstance(final OpenSearchClient client) {
-        return new OpenSearchServiceImpl(documentBuilder, documentParser, client);
+        return new OpenSearchServiceImpl(documentBuilder, documentParser,
+                                         getWriteClient(client, config.globalCluster, false));
     }
 
     @Override
     protected OpenSearchService doCreateMultiInstance(final OpenSearchClient readClient,
                                                       final OpenSearchClient[] writeClients) {
-        return new MultiOpenSearchServiceImpl(documentBuilder, documentParser, readClient, writeClients);
+        OpenSearchClient[] clients = IntStream.range(0, writeClients.length)
+                                              .mapToObj(i -> getWriteClient(writeClients[i],
+                                                                            config.writeClusters.get(i), i > 0))
+                                              .toArray(OpenSearchClient[]::new);
+        return new MultiOpenSearchServiceImpl(documentBuilder, documentParser, readClient, clients);
+    }
+
+    @Override
+    protected void destroyInstance(final OpenSearchService instance) throws Exception {
+        replicaTransports.forEach(ReplicaTransport::stop);
+        replicaTransports.clear();
+
+        super.destroyInstance(instance);
+    }
+
+    /**
+     * Returns the client to use for writes, which leases write slots from the governor if there's one, applies
+     * backpressure if there's a bulk limiter and skips unchanged documents if fingerprints are enabled. The writes
+     * to replica clusters (all the write clusters except the first one) are queued if there's a replica queue
+     * folder, and are never skipped, since the document in the replica can be outdated.
+     */
+    protected OpenSearchClient getWriteClient(final OpenSearchClient client,
+                                              final OpenSearchClusterConfig clusterConfig, final boolean replica) {
+        boolean queued = replica && replicaQueueFolder != null;
+        if (writeGovernor == null && bulkLimiter == null && !fingerprintEnabled && !queued) {
+            return client;
+        }
+        OpenSearchTransport transport = client._transport();
+        if (writeGovernor != null) {
+            transport = new GovernedTransport(transport, writeGovernor, String.join(",", clusterConfig.urls),
+                                              targetId);
+        }
+        if (bulkLimiter != null) {
+            transport = new AdaptiveBulkTransport(transport, bulkLimiter);
+        }
+        if (queued) {
+            String clusterKey = String.join(",", clusterConfig.urls);
+            try {
+                ReplicaWriteQueue queue = new ReplicaWriteQueue(new File(replicaQueueFolder,
+                                                                         DigestUtils.sha1Hex(clusterKey)));
+                ReplicaTransport replicaTransport = new ReplicaTransport(transport, queue,
+                                                                         targetId + "/" + clusterKey,
+                                                                         replicaQueueBatchSize,
+                                                                         replicaQueueRetryIntervalMillis,
+                                                                         replicaQueueRegistry.getExecutor(),
+                                                                         replicaQueueRegistry);
+                replicaTransports.add(replicaTransport);
+                transport = replicaTransport;
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open the queue of pending writes for " + clusterKey, e);
+            }
+        } else if (fingerprintEnabled) {
+            transport = new FingerprintingTransport(transport, fingerprintFieldName);
+        }
+        return new OpenSearchClient(transport);
     }
 
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.GroupBy;
+import org.opensearch.client.opensearch.tasks.Info;
+import org.opensearch.client.opensearch.tasks.ListResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cancels the reindex tasks running in the clusters for an index. Interrupting the thread that started a reindex
+ * doesn't stop it, the task keeps running in the cluster until it's cancelled through the tasks API.
+ *
+ * @since 4.2.0
+ */
+public class ReindexTaskCanceller {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReindexTaskCanceller.class);
+
+    protected static final String REINDEX_ACTION = "indices:data/write/reindex";
+
+    protected final List<OpenSearchClient> clients;
+
+    public ReindexTaskCanceller(List<OpenSearchClient> clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * Cancels the reindex tasks that write to any of the versioned indexes of the alias. Only parent tasks are
+     * cancelled, the cluster cancels the tasks of the slices with them.
+     *
+     * @param alias the alias of the index being reindexed
+     * @return the number of tasks cancelled
+     */
+    public int cancel(String alias) throws IOException {
+        Pattern destPattern = getDestinationPattern(alias);
+        int cancelled = 0;
+        for (OpenSearchClient client : clients) {
+            // Grouped by parent, so the tasks of the slices are nested under the task that started them
+            ListResponse response = client.tasks().list(l -> l
+                .actions(REINDEX_ACTION)
+                .detailed(true)
+                .groupBy(GroupBy.Parents));
+            for (Info task : response.tasks().values()) {
+                if (task.parentTaskId() == null && task.description() != null &&
+                    destPattern.matcher(task.description()).find()) {
+                    String taskId = task.node() + ":" + task.id();
+
+                    logger.info("Cancelling reindex task {} ({})", taskId, task.description());
+
+                    client.tasks().cancel(c -> c.taskId(taskId));
+                    cancelled++;
+                }
+            }
+        }
+
+        return cancelled;
+    }
+
+    /**
+     * Returns the pattern that matches the destination in the description of a reindex task, which looks like
+     * {@code reindex from [source] to [dest][_doc]}
+     */
+    protected Pattern getDestinationPattern(String alias) {
+        return Pattern.compile(" to \\[" + Pattern.quote(alias) + "(_v\\d+)?\\]");
+    }
+
+}
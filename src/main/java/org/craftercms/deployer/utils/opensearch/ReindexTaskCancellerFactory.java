@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.beans.ConstructorProperties;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opensearch.client.opensearch.OpenSearchClient;
+
+/**
+ * Implementation of {@link AbstractOpenSearchFactory} for {@link ReindexTaskCanceller}
+ *
+ * @since 4.2.0
+ */
+public class ReindexTaskCancellerFactory extends AbstractOpenSearchFactory<ReindexTaskCanceller> {
+
+    @ConstructorProperties({"config"})
+    public ReindexTaskCancellerFactory(final OpenSearchConfig config) {
+        super(config);
+    }
+
+    @Override
+    public Class<?> getObjectType() {
+        return ReindexTaskCanceller.class;
+    }
+
+    @Override
+    protected ReindexTaskCanceller doCreateSingleInstance(final OpenSearchClient client) {
+        return new ReindexTaskCanceller(List.of(client));
+    }
+
+    @Override
+    protected ReindexTaskCanceller doCreateMultiInstance(final OpenSearchClient readClient,
+                                                         final OpenSearchClient[] writeClients) {
+        return new ReindexTaskCanceller(Arrays.asList(writeClients));
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Registry of the {@link ReplicaTransport}s of all targets, used to expose the lag of each replica cluster. It also
+ * owns the bounded executor where the pending writes of all replicas are applied, so the number of threads doesn't
+ * grow with the number of targets.
+ *
+ * @since 4.2.0
+ */
+public class ReplicaQueueRegistry {
+
+    protected final Set<ReplicaTransport> replicas = ConcurrentHashMap.newKeySet();
+    protected final ScheduledExecutorService executor;
+
+    /**
+     * @param workerThreads the max number of threads used to apply the pending writes of all replicas
+     */
+    public ReplicaQueueRegistry(int workerThreads) {
+        this.executor = Executors.newScheduledThreadPool(Math.max(1, workerThreads),
+                                                         new CustomizableThreadFactory("replica-writer-"));
+    }
+
+    public void register(ReplicaTransport replica) {
+        replicas.add(replica);
+    }
+
+    public void unregister(ReplicaTransport replica) {
+        replicas.remove(replica);
+    }
+
+    /**
+     * Returns the replicas of all targets
+     */
+    public Collection<ReplicaTransport> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Returns the executor where the pending writes of the replicas are applied
+     */
+    public ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Stops the executor. The writes that haven't been applied stay in the queues of the replicas
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,572 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.json.stream.JsonGenerator;
+import org.craftercms.deployer.utils.opensearch.ReplicaWriteQueue.Operation;
+import org.opensearch.client.json.JsonpMapper;
+import org.opensearch.client.json.JsonpSerializable;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.Result;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.ClearScrollRequest;
+import org.opensearch.client.opensearch.core.CountRequest;
+import org.opensearch.client.opensearch.core.DeleteByQueryRequest;
+import org.opensearch.client.opensearch.core.DeleteByQueryResponse;
+import org.opensearch.client.opensearch.core.DeleteRequest;
+import org.opensearch.client.opensearch.core.DeleteResponse;
+import org.opensearch.client.opensearch.core.IndexRequest;
+import org.opensearch.client.opensearch.core.IndexResponse;
+import org.opensearch.client.opensearch.core.MgetRequest;
+import org.opensearch.client.opensearch.core.MsearchRequest;
+import org.opensearch.client.opensearch.core.ScrollRequest;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.OperationType;
+import org.opensearch.client.opensearch.indices.RefreshRequest;
+import org.opensearch.client.opensearch.indices.RefreshResponse;
+import org.opensearch.client.transport.Endpoint;
+import org.opensearch.client.transport.OpenSearchTransport;
+import org.opensearch.client.transport.TransportOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link OpenSearchTransport} for a replica write cluster in a multi-cluster configuration. Instead of being sent
+ * right away, the writes (index, delete, delete by query and bulk requests) are stored in a durable
+ * {@link ReplicaWriteQueue} and a successful response is returned, so a slow or unreachable replica never blocks or
+ * fails a deployment. A task in the executor shared by all replicas applies the queued writes to the cluster in
+ * order, retrying them until they succeed, and refreshes the affected indexes. Writes rejected by the cluster with a
+ * client error (like a missing index or an invalid document) are logged and dropped, since retrying them would block
+ * the queue forever. Refresh requests are done by the task, searches and other reads are sent as is, and the rest of
+ * the requests (like the creation or deletion of indexes and aliases) are sent only after the pending writes have
+ * been applied, so they're never applied out of order.
+ *
+ * @since 4.2.0
+ */
+public class ReplicaTransport implements OpenSearchTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaTransport.class);
+
+    protected static final long STOP_TIMEOUT_MILLIS = 30000;
+    protected static final long DRAIN_TIMEOUT_MILLIS = 60000;
+    protected static final long DRAIN_CHECK_MILLIS = 100;
+    protected static final int MAX_BATCHES_PER_RUN = 10;
+    protected static final int CLIENT_ERROR = 400;
+    protected static final int REQUEST_TIMEOUT = 408;
+    protected static final int TOO_MANY_REQUESTS = 429;
+    protected static final int SERVER_ERROR = 500;
+    protected static final String INDEX_NOT_FOUND = "index_not_found_exception";
+
+    protected final ObjectMapper objectMapper = new ObjectMapper();
+    protected final OpenSearchTransport delegate;
+    protected final OpenSearchClient client;
+    protected final ReplicaWriteQueue queue;
+    protected final String name;
+    protected final int batchSize;
+    protected final long retryIntervalMillis;
+    protected final ReplicaQueueRegistry registry;
+    protected final ScheduledExecutorService executor;
+    protected final ReentrantLock applyLock = new ReentrantLock();
+    protected final AtomicBoolean scheduled = new AtomicBoolean();
+    protected final AtomicLong applied = new AtomicLong();
+    protected final AtomicLong dropped = new AtomicLong();
+
+    protected volatile boolean stopped;
+    protected volatile Future<?> task;
+    protected volatile String lastError;
+
+    /**
+     * @param delegate            the transport of the replica cluster
+     * @param queue               the queue of pending writes
+     * @param name                the name of the replica, used for logging and metrics
+     * @param batchSize           the max number of writes applied at once
+     * @param retryIntervalMillis the time to wait before retrying after a failure
+     * @param executor            the executor where the pending writes are applied, shared by all replicas
+     * @param registry            the registry where the replica's lag is exposed, can be null
+     */
+    public ReplicaTransport(OpenSearchTransport delegate, ReplicaWriteQueue queue, String name, int batchSize,
+                            long retryIntervalMillis, ScheduledExecutorService executor,
+                            ReplicaQueueRegistry registry) {
+        this.delegate = delegate;
+        this.client = new OpenSearchClient(delegate);
+        this.queue = queue;
+        this.name = name;
+        this.batchSize = Math.max(1, batchSize);
+        this.retryIntervalMillis = retryIntervalMillis;
+        this.executor = executor;
+        this.registry = registry;
+
+        if (registry != null) {
+            registry.register(this);
+        }
+
+        // Apply the writes left by a previous execution
+        schedule(0);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+                                                                  Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                  TransportOptions options) throws IOException {
+        if (request instanceof IndexRequest && ((IndexRequest<?>) request).id() != null) {
+            IndexRequest<?> indexRequest = (IndexRequest<?>) request;
+            enqueue(List.of(new Operation(Operation.Type.INDEX, List.of(indexRequest.index()), indexRequest.id(),
+                                          indexRequest.routing(), toJson(indexRequest.document()))));
+
+            return (ResponseT) IndexResponse.of(r -> r
+                .index(indexRequest.index())
+                .id(indexRequest.id())
+                .result(Result.Created)
+                .version(0)
+                .seqNo(0)
+                .primaryTerm(0)
+                .shards(s -> s.total(0).successful(0).failed(0))
+            );
+        }
+        if (request instanceof DeleteRequest) {
+            DeleteRequest deleteRequest = (DeleteRequest) request;
+            enqueue(List.of(new Operation(Operation.Type.DELETE, List.of(deleteRequest.index()), deleteRequest.id(),
+                                          deleteRequest.routing(), null)));
+
+            return (ResponseT) DeleteResponse.of(r -> r
+                .index(deleteRequest.index())
+                .id(deleteRequest.id())
+                .result(Result.Deleted)
+                .version(0)
+                .seqNo(0)
+                .primaryTerm(0)
+                .shards(s -> s.total(0).successful(0).failed(0))
+            );
+        }
+        if (request instanceof DeleteByQueryRequest && ((DeleteByQueryRequest) request).query() != null) {
+            DeleteByQueryRequest deleteRequest = (DeleteByQueryRequest) request;
+            enqueue(List.of(new Operation(Operation.Type.DELETE_BY_QUERY, deleteRequest.index(), null,
+                                          null, toJson(deleteRequest.query()))));
+
+            return (ResponseT) DeleteByQueryResponse.of(r -> r
+                .deleted(0L)
+                .total(0L)
+                .failures(Collections.emptyList())
+            );
+        }
+        if (request instanceof BulkRequest) {
+            List<Operation> operations = toOperations((BulkRequest) request);
+            if (operations != null) {
+                enqueue(operations);
+
+                return (ResponseT) toResponse(operations);
+            }
+        }
+        if (request instanceof RefreshRequest) {
+            return (ResponseT) RefreshResponse.of(r -> r.shards(s -> s.total(0).successful(0).failed(0)));
+        }
+        if (!isRead(request, endpoint)) {
+            awaitPendingWrites();
+        }
+
+        return delegate.performRequest(request, endpoint, options);
+    }
+
+    @Override
+    public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(
+            RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+        return delegate.performRequestAsync(request, endpoint, options);
+    }
+
+    @Override
+    public JsonpMapper jsonpMapper() {
+        return delegate.jsonpMapper();
+    }
+
+    @Override
+    public TransportOptions options() {
+        return delegate.options();
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        delegate.close();
+    }
+
+    /**
+     * Stops applying the pending writes and closes the queue, after waiting for the writes being applied. Pending
+     * writes stay in the queue and are applied when the transport is created again.
+     */
+    public void stop() {
+        stopped = true;
+
+        Future<?> current = task;
+        if (current != null) {
+            current.cancel(false);
+        }
+
+        if (registry != null) {
+            registry.unregister(this);
+        }
+
+        try {
+            if (applyLock.tryLock(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                try {
+                    queue.close();
+                } catch (IOException e) {
+                    logger.warn("Error closing the queue of pending writes of replica {}", name, e);
+                } finally {
+                    applyLock.unlock();
+                }
+            } else {
+                logger.warn("The writes being applied to replica {} didn't finish after {} ms, the queue will " +
+                            "stay locked until they do", name, STOP_TIMEOUT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @JsonProperty("name")
+    public String getName() {
+        return name;
+    }
+
+    @JsonProperty("pending")
+    public long getPending() {
+        return queue.getPending();
+    }
+
+    /**
+     * Returns the time in milliseconds since the oldest pending write was queued
+     */
+    @JsonProperty("lag")
+    public long getLag() {
+        try {
+            Long oldest = queue.getOldestTimestamp();
+            return oldest != null ? System.currentTimeMillis() - oldest : 0;
+        } catch (IOException e) {
+            logger.debug("Unable to read the oldest pending write of replica {}", name, e);
+            return -1;
+        }
+    }
+
+    @JsonProperty("applied")
+    public long getApplied() {
+        return applied.get();
+    }
+
+    /**
+     * Returns the number of writes rejected by the cluster that were dropped without being applied
+     */
+    @JsonProperty("dropped")
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @JsonProperty("lastError")
+    public String getLastError() {
+        return lastError;
+    }
+
+    protected void enqueue(List<Operation> operations) throws IOException {
+        queue.add(operations);
+
+        schedule(0);
+    }
+
+    /**
+     * Schedules a run of {@link #applyPendingWrites()}, unless one is already scheduled
+     */
+    protected void schedule(long delayMillis) {
+        if (!stopped && scheduled.compareAndSet(false, true)) {
+            try {
+                task = executor.schedule(this::applyPendingWrites, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                logger.debug("Unable to schedule the pending writes of replica {}, the executor is shut down", name);
+            }
+        }
+    }
+
+    /**
+     * Applies the pending writes, a few batches at a time so the replicas of other targets get their turn in the
+     * shared executor. The run is scheduled again if there are more pending writes, or after the retry interval if
+     * the writes failed.
+     */
+    protected void applyPendingWrites() {
+        scheduled.set(false);
+
+        applyLock.lock();
+        try {
+            if (stopped) {
+                return;
+            }
+
+            for (int i = 0; i < MAX_BATCHES_PER_RUN; i++) {
+                List<Operation> operations = queue.peek(batchSize);
+                if (operations.isEmpty()) {
+                    return;
+                }
+
+                try {
+                    apply(operations);
+
+                    queue.remove(operations);
+                    applied.addAndGet(operations.size());
+                    lastError = null;
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Error applying {} pending writes to replica {}, they will be retried",
+                                operations.size(), name, e);
+
+                    lastError = e.getMessage();
+                    schedule(retryIntervalMillis);
+                    return;
+                }
+            }
+
+            schedule(0);
+        } catch (IOException e) {
+            logger.warn("Error reading the queue of pending writes of replica {}, it will be retried", name, e);
+
+            lastError = e.getMessage();
+            schedule(retryIntervalMillis);
+        } finally {
+            applyLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all the pending writes have been applied, so a request that isn't a write or a read (like the
+     * creation or deletion of an index) is applied after them
+     */
+    protected void awaitPendingWrites() throws IOException {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (queue.getPending() > 0) {
+            if (stopped || System.currentTimeMillis() > deadline) {
+                throw new IOException("There are still " + queue.getPending() + " pending writes for replica " +
+                                      name + (lastError != null ? " (last error: " + lastError + ")" : ""));
+            }
+
+            schedule(0);
+            try {
+                Thread.sleep(DRAIN_CHECK_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the pending writes of replica " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Indicates if the request only reads from the cluster, so it can be sent while there are pending writes
+     */
+    protected <RequestT> boolean isRead(RequestT request, Endpoint<RequestT, ?, ?> endpoint) {
+        String method = endpoint.method(request);
+        return "GET".equals(method) || "HEAD".equals(method) || request instanceof SearchRequest ||
+               request instanceof MsearchRequest || request instanceof MgetRequest ||
+               request instanceof CountRequest || request instanceof ScrollRequest ||
+               request instanceof ClearScrollRequest;
+    }
+
+    protected void apply(List<Operation> operations) throws IOException {
+        Set<String> indexes = new LinkedHashSet<>();
+        List<BulkOperation> bulkOperations = new ArrayList<>();
+
+        for (Operation operation : operations) {
+            indexes.addAll(operation.getIndexes());
+
+            if (operation.getType() == Operation.Type.DELETE_BY_QUERY) {
+                bulk(bulkOperations);
+                bulkOperations.clear();
+
+                Query query = fromJson(operation.getSource());
+                try {
+                    client.deleteByQuery(r -> r.index(operation.getIndexes()).query(query));
+                } catch (OpenSearchException e) {
+                    drop("Delete by query in " + operation.getIndexes(), 1, e);
+                }
+            } else {
+                bulkOperations.add(toBulkOperation(operation));
+            }
+        }
+        bulk(bulkOperations);
+
+        // Indexes deleted since the writes were queued are skipped
+        try {
+            client.indices().refresh(r -> r
+                .index(new ArrayList<>(indexes))
+                .ignoreUnavailable(true)
+                .allowNoIndices(true)
+            );
+        } catch (OpenSearchException e) {
+            drop("Refresh of " + indexes, 0, e);
+        }
+    }
+
+    protected void bulk(List<BulkOperation> operations) throws IOException {
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        BulkResponse response;
+        try {
+            response = client.bulk(r -> r.operations(operations));
+        } catch (OpenSearchException e) {
+            drop("Bulk of " + operations.size() + " writes", operations.size(), e);
+            return;
+        }
+
+        for (BulkResponseItem item : response.items()) {
+            if (item.error() == null) {
+                continue;
+            }
+            if (!isPermanentError(item.status(), item.error().type())) {
+                throw new IOException("Write of document '" + item.id() + "' failed with status " + item.status());
+            }
+
+            logger.error("Write of document '{}' in index '{}' was rejected by replica {} with status {} and " +
+                         "will not be retried: {}", item.id(), item.index(), name, item.status(),
+                         item.error().reason());
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Logs and drops the writes if the cluster rejected them with a permanent error, or rethrows the exception so
+     * they're retried
+     */
+    protected void drop(String description, int count, OpenSearchException e) {
+        if (!isPermanentError(e.status(), e.error().type())) {
+            throw e;
+        }
+
+        logger.error("{} was rejected by replica {} with status {} and will not be retried", description, name,
+                     e.status(), e);
+        dropped.addAndGet(count);
+    }
+
+    /**
+     * Indicates if the error won't go away by retrying the write: a client error (except timeouts and throttling)
+     * or a missing index
+     */
+    protected boolean isPermanentError(int status, String type) {
+        return INDEX_NOT_FOUND.equals(type) || (status >= CLIENT_ERROR && status < SERVER_ERROR &&
+                                                status != REQUEST_TIMEOUT && status != TOO_MANY_REQUESTS);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected BulkOperation toBulkOperation(Operation operation) throws IOException {
+        String index = operation.getIndexes().get(0);
+        if (operation.getType() == Operation.Type.INDEX) {
+            Map<String, Object> document = objectMapper.readValue(operation.getSource(), Map.class);
+            return BulkOperation.of(b -> b
+                .index(i -> i
+                    .index(index)
+                    .id(operation.getId())
+                    .routing(operation.getRouting())
+                    .document(document)
+                )
+            );
+        }
+        return BulkOperation.of(b -> b
+            .delete(d -> d
+                .index(index)
+                .id(operation.getId())
+                .routing(operation.getRouting())
+            )
+        );
+    }
+
+    /**
+     * Returns the operations of the bulk request, or null if it contains operations that can't be queued
+     */
+    protected List<Operation> toOperations(BulkRequest request) {
+        List<Operation> operations = new ArrayList<>();
+        for (BulkOperation operation : request.operations()) {
+            if (operation.isIndex() && operation.index().id() != null) {
+                String index = operation.index().index() != null ? operation.index().index() : request.index();
+                operations.add(new Operation(Operation.Type.INDEX, List.of(index), operation.index().id(),
+                                             operation.index().routing(), toJson(operation.index().document())));
+            } else if (operation.isDelete()) {
+                String index = operation.delete().index() != null ? operation.delete().index() : request.index();
+                operations.add(new Operation(Operation.Type.DELETE, List.of(index), operation.delete().id(),
+                                             operation.delete().routing(), null));
+            } else {
+                return null;
+            }
+        }
+
+        return operations;
+    }
+
+    protected BulkResponse toResponse(List<Operation> operations) {
+        List<BulkResponseItem> items = new ArrayList<>(operations.size());
+        for (Operation operation : operations) {
+            items.add(BulkResponseItem.of(i -> i
+                .operationType(operation.getType() == Operation.Type.INDEX ? OperationType.Index :
+                               OperationType.Delete)
+                .index(operation.getIndexes().get(0))
+                .id(operation.getId())
+                .status(200)
+            ));
+        }
+
+        return BulkResponse.of(r -> r.items(items).errors(false).took(0));
+    }
+
+    protected String toJson(Object value) {
+        StringWriter writer = new StringWriter();
+        JsonpMapper mapper = jsonpMapper();
+        try (JsonGenerator generator = mapper.jsonProvider().createGenerator(writer)) {
+            if (value instanceof JsonpSerializable) {
+                ((JsonpSerializable) value).serialize(generator, mapper);
+            } else {
+                mapper.serialize(value, generator);
+            }
+        }
+
+        return writer.toString();
+    }
+
+    protected Query fromJson(String json) {
+        JsonpMapper mapper = jsonpMapper();
+        return Query._DESERIALIZER.deserialize(mapper.jsonProvider().createParser(new StringReader(json)), mapper);
+    }
+
+}
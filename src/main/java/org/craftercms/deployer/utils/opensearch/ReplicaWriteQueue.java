@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.json.JsonWriteFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable FIFO queue of the write operations pending for a cluster, stored in a local folder as a log of JSON lines
+ * plus the offset of the first pending operation. The log is truncated every time all operations have been applied.
+ *
+ * <p>The folder is locked while the queue is open, so a new instance for the same folder (e.g. after a target
+ * context reload) waits until the previous one has been closed, and never writes the log while the previous
+ * instance is truncating it.</p>
+ *
+ * @since 4.2.0
+ */
+public class ReplicaWriteQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaWriteQueue.class);
+
+    protected static final String LOG_FILE_NAME = "queue.log";
+    protected static final String OFFSET_FILE_NAME = "queue.offset";
+    protected static final String LOCK_FILE_NAME = "queue.lock";
+
+    protected static final long DEFAULT_LOCK_TIMEOUT_MILLIS = 60000;
+    protected static final long LOCK_RETRY_MILLIS = 100;
+
+    // Non-ASCII chars are escaped so the length of each line in bytes is the same as in chars
+    protected final ObjectMapper objectMapper = JsonMapper.builder()
+                                                          .enable(JsonWriteFeature.ESCAPE_NON_ASCII)
+                                                          .serializationInclusion(JsonInclude.Include.NON_NULL)
+                                                          .build();
+    protected final File folder;
+    protected final File logFile;
+    protected final File offsetFile;
+    protected final FileChannel lockChannel;
+    protected final FileLock lock;
+
+    protected long offset;
+    protected long pending;
+
+    /**
+     * Creates the queue, loading the pending operations left by a previous execution
+     *
+     * @param folder the folder where the queue is stored
+     */
+    public ReplicaWriteQueue(File folder) throws IOException {
+        this(folder, DEFAULT_LOCK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates the queue, loading the pending operations left by a previous execution
+     *
+     * @param folder            the folder where the queue is stored
+     * @param lockTimeoutMillis the max time to wait for another instance to release the folder
+     */
+    public ReplicaWriteQueue(File folder, long lockTimeoutMillis) throws IOException {
+        this.folder = folder;
+        this.logFile = new File(folder, LOG_FILE_NAME);
+        this.offsetFile = new File(folder, OFFSET_FILE_NAME);
+
+        FileUtils.forceMkdir(folder);
+
+        lockChannel = FileChannel.open(new File(folder, LOCK_FILE_NAME).toPath(), StandardOpenOption.CREATE,
+                                       StandardOpenOption.WRITE);
+        try {
+            lock = acquireLock(lockTimeoutMillis);
+
+            if (offsetFile.exists()) {
+                offset = Long.parseLong(FileUtils.readFileToString(offsetFile, StandardCharsets.UTF_8).trim());
+            }
+            pending = countPending();
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    protected FileLock acquireLock(long timeoutMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            try {
+                FileLock fileLock = lockChannel.tryLock();
+                if (fileLock != null) {
+                    return fileLock;
+                }
+            } catch (OverlappingFileLockException e) {
+                // Held by another instance in this JVM
+            }
+
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IOException("Timeout waiting for the lock of queue " + folder);
+            }
+
+            try {
+                Thread.sleep(LOCK_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the lock of queue " + folder);
+            }
+        }
+    }
+
+    /**
+     * Counts the complete lines after the offset, without parsing them
+     */
+    protected long countPending() throws IOException {
+        if (!logFile.exists() || offset >= logFile.length()) {
+            return 0;
+        }
+
+        long count = 0;
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "r")) {
+            file.seek(offset);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(file.getChannel()));
+            int previous = '\n';
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n' && previous != '\n') {
+                    count++;
+                }
+                previous = c;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Releases the lock of the folder. The queue can't be used after this.
+     */
+    public synchronized void close() throws IOException {
+        try {
+            if (lock.isValid()) {
+                lock.release();
+            }
+        } finally {
+            lockChannel.close();
+        }
+    }
+
+    /**
+     * Appends the operations at the end of the queue, syncing them to disk
+     */
+    public synchronized void add(List<Operation> operations) throws IOException {
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            for (Operation operation : operations) {
+                out.write(objectMapper.writeValueAsBytes(operation));
+                out.write('\n');
+            }
+            out.getFD().sync();
+        }
+
+        pending += operations.size();
+    }
+
+    /**
+     * Returns the first pending operations, without removing them
+     *
+     * @param max the max number of operations to return
+     */
+    public synchronized List<Operation> peek(int max) throws IOException {
+        List<Operation> operations = new ArrayList<>();
+        if (!logFile.exists() || offset >= logFile.length()) {
+            return operations;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "r")) {
+            file.seek(offset);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(file.getChannel()),
+                                                                             StandardCharsets.US_ASCII));
+            long position = offset;
+            String line;
+            while (operations.size() < max && (line = reader.readLine()) != null) {
+                position += line.length() + 1;
+                if (!line.isEmpty()) {
+                    try {
+                        Operation operation = objectMapper.readValue(line, Operation.class);
+                        operation.setEndOffset(position);
+                        operations.add(operation);
+                    } catch (JsonProcessingException e) {
+                        // Can only happen if the deployer stopped while writing the line
+                        logger.warn("Skipping incomplete operation in {}", logFile, e);
+                    }
+                }
+            }
+        }
+
+        return operations;
+    }
+
+    /**
+     * Removes the given operations, previously returned by {@link #peek(int)}, from the queue
+     */
+    public synchronized void remove(List<Operation> operations) throws IOException {
+        if (operations.isEmpty()) {
+            return;
+        }
+
+        offset = operations.get(operations.size() - 1).getEndOffset();
+        pending = Math.max(0, pending - operations.size());
+
+        if (offset >= logFile.length()) {
+            Files.deleteIfExists(logFile.toPath());
+            offset = 0;
+        }
+
+        File tmpFile = new File(folder, OFFSET_FILE_NAME + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            out.write(Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+        }
+        Files.move(tmpFile.toPath(), offsetFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the number of pending operations
+     */
+    public synchronized long getPending() {
+        return pending;
+    }
+
+    /**
+     * Returns the timestamp of the oldest pending operation, or null if there are none
+     */
+    public Long getOldestTimestamp() throws IOException {
+        List<Operation> first = peek(1);
+        return first.isEmpty() ? null : first.get(0).getTimestamp();
+    }
+
+    /**
+     * A write operation: the index or deletion of a document, or a delete by query
+     */
+    public static class Operation {
+
+        public enum Type {
+            INDEX,
+            DELETE,
+            DELETE_BY_QUERY
+        }
+
+        private Type type;
+        private List<String> indexes;
+        private String id;
+        private String routing;
+        private String source;
+        private long timestamp;
+        private long endOffset;
+
+        public Operation() {
+        }
+
+        public Operation(Type type, List<String> indexes, String id, String routing, String source) {
+            this.type = type;
+            this.indexes = indexes;
+            this.id = id;
+            this.routing = routing;
+            this.source = source;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public void setType(Type type) {
+            this.type = type;
+        }
+
+        public List<String> getIndexes() {
+            return indexes;
+        }
+
+        public void setIndexes(List<String> indexes) {
+            this.indexes = indexes;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public String getRouting() {
+            return routing;
+        }
+
+        public void setRouting(String routing) {
+            this.routing = routing;
+        }
+
+        /**
+         * The JSON of the document for {@link Type#INDEX}, or of the query for {@link Type#DELETE_BY_QUERY}
+         */
+        public String getSource() {
+            return source;
+        }
+
+        public void setSource(String source) {
+            this.source = source;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public void setTimestamp(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        @JsonIgnore
+        public long getEndOffset() {
+            return endOffset;
+        }
+
+        @JsonIgnore
+        public void setEndOffset(long endOffset) {
+            this.endOffset = endOffset;
+        }
+
+    }
+
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.HealthStatus;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.Time;
+import org.opensearch.client.opensearch.cluster.HealthResponse;
+import org.opensearch.client.opensearch.indices.IndexSettings;
+import org.opensearch.client.opensearch.indices.IndexState;
+import org.opensearch.client.opensearch.indices.update_aliases.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds a complete copy of an index without affecting searches on the current one: a new version of the index
+ * behind an alias (the shadow index) is created with the same mappings and analysis settings, but without replicas
+ * and with refresh disabled, so it can be loaded as fast as possible. Once loaded, replicas and refresh are restored,
+ * the index is warmed and the alias is moved to it in a single atomic operation, after which the previous version
+ * is deleted.
+ *
+ * <p>All operations are applied to every write cluster.</p>
+ *
+ * @since 4.2.0
+ */
+public class ShadowIndexManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShadowIndexManager.class);
+
+    protected static final Pattern VERSIONED_INDEX_NAME_PATTERN = Pattern.compile("^(.+)_v(\\d+)$");
+    protected static final String VERSION_SEPARATOR = "_v";
+    protected static final String DISABLED_REFRESH_INTERVAL = "-1";
+    protected static final String DEFAULT_REFRESH_INTERVAL = "1s";
+    protected static final String DEFAULT_REPLICAS = "1";
+
+    protected final List<OpenSearchClient> clients;
+    protected final long healthTimeoutSeconds;
+
+    public ShadowIndexManager(List<OpenSearchClient> clients, long healthTimeoutSeconds) {
+        this.clients = clients;
+        this.healthTimeoutSeconds = healthTimeoutSeconds;
+    }
+
+    /**
+     * Creates a new version of the index behind the specified alias, ready for bulk loading.
+     *
+     * @param alias the alias used for searching and indexing
+     * @return the shadow index, or null if the alias doesn't exist yet (or it's the name of a concrete index), since
+     *         in that case there's nothing to swap
+     * @throws DeployerException if the shadow index can't be created
+     */
+    public ShadowIndex createShadowIndex(String alias) throws DeployerException {
+        try {
+            OpenSearchClient mainClient = clients.get(0);
+            List<String> currentIndexes = getAliasIndexes(mainClient, alias);
+            if (currentIndexes.isEmpty()) {
+                logger.info("Alias {} doesn't exist, a shadow index can't be used", alias);
+                return null;
+            }
+
+            String currentIndex = currentIndexes.get(0);
+            IndexState currentState = mainClient.indices().get(g -> g.index(currentIndex)).result().get(currentIndex);
+            IndexSettings currentSettings = getIndexSettings(currentState);
+            String shadowIndex = getNextIndexName(alias, currentIndexes);
+
+            String replicas = currentSettings.numberOfReplicas() != null?
+                    currentSettings.numberOfReplicas() : DEFAULT_REPLICAS;
+            String refreshInterval = currentSettings.refreshInterval() != null?
+                    currentSettings.refreshInterval().time() : DEFAULT_REFRESH_INTERVAL;
+
+            logger.info("Creating shadow index {} for alias {} (current indexes {})", shadowIndex, alias,
+                        currentIndexes);
+
+            for (OpenSearchClient client : clients) {
+                client.indices().create(c -> c
+                    .index(shadowIndex)
+                    .mappings(currentState.mappings())
+                    .settings(s -> s
+                        .numberOfShards(currentSettings.numberOfShards())
+                        .numberOfReplicas("0")
+                        .refreshInterval(Time.of(t -> t.time(DISABLED_REFRESH_INTERVAL)))
+                        .analysis(currentSettings.analysis())
+                        .mapping(currentSettings.mapping())
+                    )
+                );
+            }
+
+            return new ShadowIndex(alias, shadowIndex, currentIndexes, replicas, refreshInterval);
+        } catch (IOException | OpenSearchException e) {
+            throw new DeployerException("Error creating shadow index for alias " + alias, e);
+        }
+    }
+
+    /**
+     * Restores the replicas and refresh of the shadow index, waits for it to be ready, warms it and moves the alias
+     * from the previous indexes to it. The previous indexes are deleted afterwards. The previous indexes are resolved
+     * on each cluster, since the alias might point to a different index in each one.
+     *
+     * <p>The alias is moved cluster by cluster, so if it can't be moved in one of them it's moved back to the
+     * previous indexes in the clusters where it was already moved, and the shadow index is only left live in a
+     * cluster if that also fails.</p>
+     *
+     * @param shadowIndex the shadow index, already loaded
+     * @throws DeployerException if the shadow index couldn't be made live
+     */
+    public void swap(ShadowIndex shadowIndex) throws DeployerException {
+        String name = shadowIndex.getName();
+        String alias = shadowIndex.getAlias();
+        Map<OpenSearchClient, List<String>> previousIndexes = new LinkedHashMap<>();
+
+        try {
+            for (OpenSearchClient client : clients) {
+                logger.info("Restoring replicas ({}) and refresh interval ({}) of shadow index {}",
+                            shadowIndex.getReplicas(), shadowIndex.getRefreshInterval(), name);
+
+                client.indices().putSettings(p -> p
+                    .index(name)
+                    .settings(s -> s
+                        .numberOfReplicas(shadowIndex.getReplicas())
+                        .refreshInterval(Time.of(t -> t.time(shadowIndex.getRefreshInterval())))
+                    )
+                );
+                client.indices().refresh(r -> r.index(name));
+
+                HealthResponse health = client.cluster().health(h -> h
+                    .index(name)
+                    .waitForStatus(HealthStatus.Yellow)
+                    .timeout(Time.of(t -> t.time(healthTimeoutSeconds + "s")))
+                );
+                if (health.timedOut()) {
+                    throw new DeployerException("Timeout while waiting for shadow index " + name + " to be ready");
+                }
+
+                // Warm up the index before sending it any real traffic
+                client.search(s -> s.index(name).size(0).query(q -> q.matchAll(m -> m)), Void.class);
+            }
+
+            for (OpenSearchClient client : clients) {
+                List<String> clientIndexes = new ArrayList<>(getAliasIndexes(client, alias));
+                clientIndexes.remove(name);
+
+                logger.info("Moving alias {} from {} to shadow index {}", alias, clientIndexes, name);
+
+                moveAlias(client, alias, clientIndexes, List.of(name));
+
+                previousIndexes.put(client, clientIndexes);
+                shadowIndex.liveClients.add(client);
+            }
+        } catch (IOException | OpenSearchException e) {
+            rollback(shadowIndex, previousIndexes);
+
+            throw new DeployerException("Error making shadow index " + name + " live for alias " + alias, e);
+        }
+
+        previousIndexes.forEach((client, clientIndexes) -> {
+            if (clientIndexes.isEmpty()) {
+                return;
+            }
+            try {
+                client.indices().delete(d -> d.index(clientIndexes));
+            } catch (IOException | OpenSearchException e) {
+                logger.warn("Unable to delete previous indexes {} of alias {}", clientIndexes, alias, e);
+            }
+        });
+    }
+
+    /**
+     * Deletes the shadow index, used when loading it failed so the alias stays on the current index. The shadow index
+     * is kept in the clusters where the alias still points to it.
+     *
+     * @param shadowIndex the shadow index
+     */
+    public void discard(ShadowIndex shadowIndex) {
+        logger.info("Deleting shadow index {}", shadowIndex.getName());
+
+        for (OpenSearchClient client : clients) {
+            if (shadowIndex.liveClients.contains(client)) {
+                logger.error("Alias {} still points to shadow index {} in one of the clusters, the index won't be " +
+                             "deleted there", shadowIndex.getAlias(), shadowIndex.getName());
+                continue;
+            }
+            try {
+                client.indices().delete(d -> d.index(shadowIndex.getName()));
+            } catch (IOException | OpenSearchException e) {
+                logger.warn("Unable to delete shadow index {}", shadowIndex.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Moves the alias back to the previous indexes in the clusters where it was already moved to the shadow index
+     */
+    protected void rollback(ShadowIndex shadowIndex, Map<OpenSearchClient, List<String>> previousIndexes) {
+        String name = shadowIndex.getName();
+        String alias = shadowIndex.getAlias();
+
+        previousIndexes.forEach((client, clientIndexes) -> {
+            if (clientIndexes.isEmpty()) {
+                // Without previous indexes the alias would be left pointing to nothing
+                logger.error("Alias {} had no previous indexes, it will keep pointing to shadow index {}", alias,
+                             name);
+                return;
+            }
+            try {
+                logger.info("Moving alias {} back from shadow index {} to {}", alias, name, clientIndexes);
+
+                moveAlias(client, alias, List.of(name), clientIndexes);
+
+                shadowIndex.liveClients.remove(client);
+            } catch (IOException | OpenSearchException e) {
+                logger.error("Unable to move alias {} back to {}, it will keep pointing to shadow index {}", alias,
+                             clientIndexes, name, e);
+            }
+        });
+    }
+
+    /**
+     * Moves the alias from some indexes to others in a single atomic operation
+     */
+    protected void moveAlias(OpenSearchClient client, String alias, List<String> fromIndexes, List<String> toIndexes)
+            throws IOException {
+        List<Action> actions = new ArrayList<>();
+        for (String index : fromIndexes) {
+            actions.add(Action.of(a -> a.remove(r -> r.index(index).alias(alias))));
+        }
+        for (String index : toIndexes) {
+            actions.add(Action.of(a -> a.add(ad -> ad.index(index).alias(alias))));
+        }
+
+        client.indices().updateAliases(u -> u.actions(actions));
+    }
+
+    protected IndexSettings getIndexSettings(IndexState state) {
+        // Settings returned by the API are usually nested under 'index'
+        IndexSettings settings = state.settings();
+        return settings.index() != null? settings.index() : settings;
+    }
+
+    /**
+     * Returns the indexes the alias points to in the cluster of the given client, empty if the alias doesn't exist
+     */
+    protected List<String> getAliasIndexes(OpenSearchClient client, String alias) throws IOException {
+        if (!client.indices().existsAlias(e -> e.name(alias)).value()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(client.indices().getAlias(g -> g.name(alias)).result().keySet());
+    }
+
+    /**
+     * Returns the name of the next version of the index that doesn't exist yet in any cluster
+     */
+    protected String getNextIndexName(String alias, List<String> currentIndexes) throws IOException {
+        int version = 0;
+        for (String index : currentIndexes) {
+            Matcher matcher = VERSIONED_INDEX_NAME_PATTERN.matcher(index);
+            if (matcher.matches() && matcher.group(1).equals(alias)) {
+                version = Math.max(version, Integer.parseInt(matcher.group(2)));
+            }
+        }
+
+        while (true) {
+            String name = alias + VERSION_SEPARATOR + (++version);
+            if (!existsInAnyCluster(name)) {
+                return name;
+            }
+        }
+    }
+
+    protected boolean existsInAnyCluster(String index) throws IOException {
+        for (OpenSearchClient client : clients) {
+            if (client.indices().exists(e -> e.index(index)).value()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Holds the state needed to make a shadow index live
+     */
+    public static class ShadowIndex {
+
+        protected final String alias;
+        protected final String name;
+        protected final List<String> previousIndexes;
+        protected final String replicas;
+        protected final String refreshInterval;
+        protected final Set<OpenSearchClient> liveClients = new HashSet<>();
+
+        public ShadowIndex(String alias, String name, List<String> previousIndexes, String replicas,
+                           String refreshInterval) {
+            this.alias = alias;
+            this.name = name;
+            this.previousIndexes = previousIndexes;
+            this.replicas = replicas;
+            this.refreshInterval = refreshInterval;
+        }
+
+        public String getAlias() {
+            return alias;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<String> getPreviousIndexes() {
+            return previousIndexes;
+        }
+
+        public String getReplicas() {
+            return replicas;
+        }
+
+        public String getRefreshInterval() {
+            return refreshInterval;
+        }
+
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.commons.codec.digest.HmacAlgorithms;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deployer-wide cache of OpenSearch clients, so targets that connect to the same cluster with the same configuration
+ * share a single client (and its connection pool and I/O threads) instead of creating their own. The clients are
+ * reference counted: they are created by the first target that needs them, and closed when the last target that
+ * uses them releases them (e.g. when it's deleted or reloaded).
+ *
+ * @param <C> the type of client
+ * @since 4.2.0
+ */
+public class SharedClientCache<C> implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedClientCache.class);
+
+    private static final HmacUtils CREDENTIALS_HMAC = new HmacUtils(HmacAlgorithms.HMAC_SHA_256,
+                                                                    SecureRandom.getSeed(32));
+
+    protected final String name;
+    protected final ClientCloser<C> closer;
+    protected final Map<String, SharedClient<C>> clientsByKey = new HashMap<>();
+    protected final Map<C, SharedClient<C>> clients = new IdentityHashMap<>();
+
+    /**
+     * @param name   the name of the cache, used for logging
+     * @param closer the function used to close a client when it's no longer used
+     */
+    public SharedClientCache(String name, ClientCloser<C> closer) {
+        this.name = name;
+        this.closer = closer;
+    }
+
+    /**
+     * Returns a hash that identifies the credentials without exposing them. It's an HMAC with a key generated
+     * randomly when the deployer starts, so it can't be used to guess the password (like a plain hash could), and
+     * it's never logged.
+     */
+    public static String hashCredentials(String username, String password) {
+        if (username == null && password == null) {
+            return null;
+        }
+
+        return CREDENTIALS_HMAC.hmacHex(username + "\u0000" + password);
+    }
+
+    /**
+     * Returns the client for the given key, creating it if there's none, and increments its reference count.
+     *
+     * @param key         the key of the cluster configuration, which shouldn't contain credentials
+     * @param description the description of the cluster used for logging (e.g. its URLs)
+     * @param factory     the factory used to create the client if needed
+     * @return the shared client
+     */
+    public synchronized C acquire(String key, String description, Supplier<C> factory) {
+        SharedClient<C> shared = clientsByKey.get(key);
+        if (shared == null) {
+            logger.info("Creating shared {} client for {}", name, description);
+
+            shared = new SharedClient<>(key, description, factory.get());
+            clientsByKey.put(key, shared);
+            clients.put(shared.client, shared);
+        }
+        shared.references++;
+
+        return shared.client;
+    }
+
+    /**
+     * Decrements the reference count of the client, closing it if it's no longer used
+     */
+    public synchronized void release(C client) {
+        SharedClient<C> shared = clients.get(client);
+        if (shared != null && --shared.references == 0) {
+            logger.info("Closing shared {} client for {}", name, shared.description);
+
+            clientsByKey.remove(shared.key);
+            clients.remove(client);
+            closeClient(client);
+        }
+    }
+
+    /**
+     * Returns the number of references of the clients, by description
+     */
+    public synchronized Map<String, Integer> getReferences() {
+        Map<String, Integer> references = new HashMap<>();
+        clientsByKey.values().forEach(shared -> references.merge(shared.description, shared.references,
+                                                                 Integer::sum));
+
+        return references;
+    }
+
+    @Override
+    public synchronized void close() {
+        clients.keySet().forEach(this::closeClient);
+        clients.clear();
+        clientsByKey.clear();
+    }
+
+    protected void closeClient(C client) {
+        try {
+            closer.close(client);
+        } catch (Exception e) {
+            logger.warn("Error closing shared {} client", name, e);
+        }
+    }
+
+    /**
+     * Closes a client that is no longer used
+     */
+    @FunctionalInterface
+    public interface ClientCloser<C> {
+
+        void close(C client) throws Exception;
+
+    }
+
+    protected static class SharedClient<C> {
+
+        protected final String key;
+        protected final String description;
+        protected final C client;
+        protected int references;
+
+        protected SharedClient(String key, String description, C client) {
+            this.key = key;
+            this.description = description;
+            this.client = client;
+        }
+
+    }
+
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.craftercms.deployer.api.Deployment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deployer-wide governor of the write requests sent to each OpenSearch cluster. Every cluster (identified by its
+ * URLs) has a fixed number of write slots that are leased to the targets. A deployment leases a slot of a cluster
+ * with its first write and keeps it, for all its indexing threads, until it finishes (see
+ * {@link #acquireForRun(String, String, Deployment)}), so a run is never interrupted between requests by the runs
+ * of other targets. Writes sent outside a deployment lease a slot per request. When all the slots are taken, the
+ * next free slot is given to:
+ * <ol>
+ *     <li>{@link Deployment.Mode#PUBLISH} deployments before {@link Deployment.Mode#SEARCH_INDEX} ones, so
+ *     publishing is not delayed by reindexing. A reindex that has waited for more than {@code agingMillis} gets the
+ *     same priority as publishing, so it can't be starved by a steady stream of publishes</li>
+ *     <li>The target with the fewest slots, so no target can take all of them</li>
+ *     <li>The oldest request</li>
+ * </ol>
+ *
+ * <p>A deployment never waits for a slot while it holds the slot of another cluster: if the slot is not free right
+ * away, the slots it holds are released and all of them are acquired again in order, so two deployments writing to
+ * the same clusters can't deadlock.</p>
+ *
+ * @since 4.2.0
+ */
+public class WriteGovernor {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteGovernor.class);
+
+    public static final long DEFAULT_AGING_MILLIS = 60000;
+
+    protected final int slotsPerCluster;
+    protected final long agingMillis;
+    protected final Map<String, Cluster> clusters = new ConcurrentHashMap<>();
+    protected final Map<Deployment, Run> runs = new ConcurrentHashMap<>();
+
+    /**
+     * @param slotsPerCluster the max number of concurrent write requests to each cluster
+     */
+    public WriteGovernor(int slotsPerCluster) {
+        this(slotsPerCluster, DEFAULT_AGING_MILLIS);
+    }
+
+    /**
+     * @param slotsPerCluster the max number of concurrent write requests to each cluster
+     * @param agingMillis     the time after which a waiting reindex gets the same priority as publishing
+     */
+    public WriteGovernor(int slotsPerCluster, long agingMillis) {
+        this.slotsPerCluster = Math.max(1, slotsPerCluster);
+        this.agingMillis = Math.max(1, agingMillis);
+    }
+
+    /**
+     * Waits until a write slot of the cluster is available for the target and leases it.
+     *
+     * @param clusterKey the key of the cluster
+     * @param targetId   the ID of the target
+     * @param mode       the mode of the deployment that sends the request, null if unknown
+     * @return the lease, which should be closed after the request is complete
+     */
+    public Lease acquire(String clusterKey, String targetId, Deployment.Mode mode) throws InterruptedException {
+        return getCluster(clusterKey).acquire(targetId, mode);
+    }
+
+    /**
+     * Makes sure the deployment holds a write slot of the cluster, waiting for one if it's the first write of the
+     * deployment to the cluster. The slot is kept until {@link #releaseRun(Deployment)} is called.
+     *
+     * @param clusterKey the key of the cluster
+     * @param targetId   the ID of the target
+     * @param deployment the deployment that sends the request
+     */
+    public void acquireForRun(String clusterKey, String targetId, Deployment deployment)
+            throws InterruptedException {
+        releaseFinishedRuns();
+
+        Run run = runs.computeIfAbsent(deployment, d -> new Run(d.getMode()));
+        synchronized (run) {
+            if (run.leases.containsKey(clusterKey)) {
+                return;
+            }
+
+            Cluster cluster = getCluster(clusterKey);
+            if (run.leases.isEmpty()) {
+                run.leases.put(clusterKey, cluster.acquire(targetId, run.mode));
+                return;
+            }
+
+            Lease lease = cluster.tryAcquire(targetId);
+            if (lease != null) {
+                run.leases.put(clusterKey, lease);
+                return;
+            }
+
+            // Don't wait while holding other slots, release them and acquire all of them in order instead
+            Set<String> clusterKeys = new TreeSet<>(run.leases.keySet());
+            clusterKeys.add(clusterKey);
+            run.release();
+
+            for (String key : clusterKeys) {
+                run.leases.put(key, getCluster(key).acquire(targetId, run.mode));
+            }
+        }
+    }
+
+    /**
+     * Releases the write slots held by the deployment, if any
+     */
+    public void releaseRun(Deployment deployment) {
+        Run run = runs.remove(deployment);
+        if (run != null) {
+            synchronized (run) {
+                run.release();
+            }
+        }
+    }
+
+    /**
+     * Releases the slots of the deployments that have finished but weren't released (e.g. because they were run
+     * outside a target)
+     */
+    protected void releaseFinishedRuns() {
+        runs.keySet().stream()
+            .filter(deployment -> deployment.getEnd() != null)
+            .collect(Collectors.toList())
+            .forEach(deployment -> {
+                logger.debug("Releasing the write slots of finished deployment {}", deployment);
+                releaseRun(deployment);
+            });
+    }
+
+    protected Cluster getCluster(String clusterKey) {
+        return clusters.computeIfAbsent(clusterKey, key -> new Cluster());
+    }
+
+    /**
+     * Returns the stats of each cluster
+     */
+    @JsonProperty("clusters")
+    public Map<String, Cluster> getClusters() {
+        return clusters;
+    }
+
+    /**
+     * A lease of a write slot
+     */
+    public interface Lease extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+
+    /**
+     * The write slots of a single cluster
+     */
+    public class Cluster {
+
+        protected final List<Waiter> waiters = new ArrayList<>();
+        protected final Map<String, Integer> leasesByTarget = new HashMap<>();
+        protected final AtomicLong sequence = new AtomicLong();
+        protected final AtomicLong waits = new AtomicLong();
+        protected int leases;
+
+        protected final Comparator<Waiter> order = Comparator
+            .comparing(this::isLowPriority)
+            .thenComparing(waiter -> leasesByTarget.getOrDefault(waiter.targetId, 0))
+            .thenComparingLong(waiter -> waiter.sequence);
+
+        protected synchronized Lease acquire(String targetId, Deployment.Mode mode) throws InterruptedException {
+            Waiter waiter = new Waiter(targetId, mode, sequence.incrementAndGet(), System.currentTimeMillis());
+            waiters.add(waiter);
+            if (leases >= slotsPerCluster) {
+                waits.incrementAndGet();
+            }
+
+            try {
+                while (leases >= slotsPerCluster || waiters.stream().min(order).orElse(null) != waiter) {
+                    // Wake up periodically so the priority of the waiters is updated as they age
+                    wait(agingMillis);
+                }
+            } finally {
+                waiters.remove(waiter);
+                notifyAll();
+            }
+
+            return lease(targetId);
+        }
+
+        /**
+         * Leases a slot only if one is free and no one is waiting for it, otherwise returns null
+         */
+        protected synchronized Lease tryAcquire(String targetId) {
+            if (leases >= slotsPerCluster || !waiters.isEmpty()) {
+                return null;
+            }
+
+            return lease(targetId);
+        }
+
+        protected Lease lease(String targetId) {
+            leases++;
+            leasesByTarget.merge(targetId, 1, Integer::sum);
+
+            return new Lease() {
+
+                private boolean closed;
+
+                @Override
+                public void close() {
+                    synchronized (Cluster.this) {
+                        if (!closed) {
+                            closed = true;
+                            leases--;
+                            leasesByTarget.computeIfPresent(targetId, (id, count) -> count > 1 ? count - 1 : null);
+                            Cluster.this.notifyAll();
+                        }
+                    }
+                }
+
+            };
+        }
+
+        protected boolean isLowPriority(Waiter waiter) {
+            return waiter.mode == Deployment.Mode.SEARCH_INDEX &&
+                   System.currentTimeMillis() - waiter.since < agingMillis;
+        }
+
+        @JsonProperty("slots")
+        public int getSlots() {
+            return slotsPerCluster;
+        }
+
+        @JsonProperty("leases")
+        public synchronized Map<String, Integer> getLeasesByTarget() {
+            return new HashMap<>(leasesByTarget);
+        }
+
+        @JsonProperty("waiting")
+        public synchronized int getWaiting() {
+            return waiters.size();
+        }
+
+        @JsonProperty("waits")
+        public long getWaits() {
+            return waits.get();
+        }
+
+    }
+
+    protected static class Waiter {
+
+        protected final String targetId;
+        protected final Deployment.Mode mode;
+        protected final long sequence;
+        protected final long since;
+
+        protected Waiter(String targetId, Deployment.Mode mode, long sequence, long since) {
+            this.targetId = targetId;
+            this.mode = mode;
+            this.sequence = sequence;
+            this.since = since;
+        }
+
+    }
+
+    /**
+     * The write slots held by a deployment, by cluster
+     */
+    protected static class Run {
+
+        protected final Deployment.Mode mode;
+        protected final Map<String, Lease> leases = new HashMap<>();
+
+        protected Run(Deployment.Mode mode) {
+            this.mode = mode;
+        }
+
+        protected void release() {
+            leases.values().forEach(Lease::close);
+            leases.clear();
+        }
+
+    }
+
+}
@@ -17,12 +17,16 @@
 
 package org.craftercms.deployer.utils.opensearch.legacy;
 
+import org.craftercms.deployer.utils.opensearch.SharedClientCache;
 import org.opensearch.client.RestHighLevelClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.config.AbstractFactoryBean;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Base implementation for factories capable of build single or multi-cluster OpenSearch services
  *
@@ -44,6 +48,16 @@ public abstract class AbstractOpenSearchFactory<T extends AutoCloseable> extends
      */
     protected OpenSearchConfig config;
 
+    /**
+     * The deployer-wide cache of clients shared between targets, if any
+     */
+    protected SharedClientCache<RestHighLevelClient> clientCache;
+
+    /**
+     * The clients acquired from the cache, released when the instance is destroyed
+     */
+    protected final List<RestHighLevelClient> sharedClients = new ArrayList<>();
+
     public AbstractOpenSearchFactory(final OpenSearchConfig config) {
         this.config = config;
     }
@@ -53,18 +67,22 @@ public abstract class AbstractOpenSearchFactory<T extends AutoCloseable> extends
         this.name = name;
     }
 
+    public void setClientCache(final SharedClientCache<RestHighLevelClient> clientCache) {
+        this.clientCache = clientCache;
+    }
+
     @Override
     protected T createInstance() {
         logger.debug("Creating instance for '{}'", name);
         if (config.useSingleCluster()) {
             logger.debug("Using a single cluster configuration for '{}'", name);
-            return doCreateSingleInstance(config.globalCluster.buildClient());
+            return doCreateSingleInstance(getClient(config.globalCluster));
         }
 
         logger.debug("Using a multi-cluster configuration for '{}'", name);
-        RestHighLevelClient readClient = config.readCluster.buildClient();
+        RestHighLevelClient readClient = getClient(config.readCluster);
         RestHighLevelClient[] writeClients = config.writeClusters.stream()
-            .map(OpenSearchClusterConfig::buildClient)
+            .map(this::getClient)
             .toArray(RestHighLevelClient[]::new);
         return doCreateMultiInstance(readClient, writeClients);
     }
@@ -84,10 +102,29 @@ public abstract class AbstractOpenSearchFactory<T extends AutoCloseable> extends
      */
     protected abstract T doCreateMultiInstance(RestHighLevelClient readClient, RestHighLevelClient[] writeClients);
 
+    /**
+     * Returns the client for the given cluster, shared with other targets if there's a client cache
+     */
+    protected RestHighLevelClient getClient(final OpenSearchClusterConfig clusterConfig) {
+        if (clientCache == null) {
+            return clusterConfig.buildClient();
+        }
+        RestHighLevelClient client = clientCache.acquire(clusterConfig.getKey(), clusterConfig.getUrls(),
+                                                         clusterConfig::buildClient);
+        sharedClients.add(client);
+        return client;
+    }
+
     @Override
     protected void destroyInstance(final T instance) throws Exception {
-        logger.debug("Closing all clients for '{}'", name);
-        instance.close();
+        if (clientCache == null) {
+            logger.debug("Closing all clients for '{}'", name);
+            instance.close();
+        } else {
+            logger.debug("Releasing all shared clients for '{}'", name);
+            sharedClients.forEach(clientCache::release);
+            sharedClients.clear();
+        }
     }
 
 }
@@ -45,6 +45,12 @@ public class OpenSearchAdminServiceFactory extends AbstractOpenSearchFactory<Ope
 
     protected String authoringNamePattern;
 
+    /**
+     * The clients used by the instance, reused by the instances created for a specific reindex
+     */
+    protected RestHighLevelClient readClient;
+    protected RestHighLevelClient[] writeClients;
+
     @ConstructorProperties({"config", "authoringMapping", "previewMapping", "authoringNamePattern"})
     public OpenSearchAdminServiceFactory(OpenSearchConfig config, Resource authoringMapping,
                                          Resource previewMapping, String authoringNamePattern) {
@@ -59,8 +65,33 @@ public class OpenSearchAdminServiceFactory extends AbstractOpenSearchFactory<Ope
         return OpenSearchAdminService.class;
     }
 
+    /**
+     * Creates a new service that shares the clients of the factory's instance but uses the given number of slices
+     * when reindexing, so a single reindex can be tuned without changing the service used by the target. The
+     * returned service must not be closed, since the clients are still used by the factory's instance.
+     *
+     * @param reindexSlices the number of slices used to parallelize the reindex
+     * @return the service
+     */
+    public OpenSearchAdminService createReindexInstance(final int reindexSlices) throws Exception {
+        // Make sure the clients have been created
+        getObject();
+
+        if (writeClients == null) {
+            OpenSearchAdminServiceImpl adminService = (OpenSearchAdminServiceImpl) doCreateSingleInstance(readClient);
+            adminService.setReindexSlices(reindexSlices);
+            return adminService;
+        }
+
+        MultiOpenSearchAdminServiceImpl adminService =
+                (MultiOpenSearchAdminServiceImpl) doCreateMultiInstance(readClient, writeClients);
+        adminService.setReindexSlices(reindexSlices);
+        return adminService;
+    }
+
     @Override
     protected OpenSearchAdminService doCreateSingleInstance(final RestHighLevelClient client) {
+        this.readClient = client;
         OpenSearchAdminServiceImpl openSearchAdminService = new OpenSearchAdminServiceImpl(
                 authoringMapping, previewMapping, authoringNamePattern, config.getLocaleMapping(),
                 config.indexSettings, config.ignoredSettings, client);
@@ -72,6 +103,8 @@ public class OpenSearchAdminServiceFactory extends AbstractOpenSearchFactory<Ope
     @Override
     protected OpenSearchAdminService doCreateMultiInstance(final RestHighLevelClient readClient,
                                                            final RestHighLevelClient[] writeClients) {
+        this.readClient = readClient;
+        this.writeClients = writeClients;
         MultiOpenSearchAdminServiceImpl openSearchAdminService = new MultiOpenSearchAdminServiceImpl(
                 authoringMapping, previewMapping, authoringNamePattern, config.getLocaleMapping(), readClient,
                 config.indexSettings, config.ignoredSettings, writeClients);
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.tika;
+
+import java.beans.ConstructorProperties;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.tika.Tika;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extension of {@link Tika} that stores the text and metadata extracted from each binary in an
+ * {@link ExtractionCache}, so binaries that haven't changed since the last extraction (e.g. when only their metadata
+ * XML changed, or during a full reindex) are not parsed again.
+ *
+ * <p>When the caller provides the resource name, length and modified date of the binary in the metadata, they are
+ * used as the key and the content is only read on a cache miss. Otherwise the content is hashed with SHA-256 while
+ * it's buffered, in memory up to {@code memoryThreshold} bytes and in a temporary file after that, so it's read from
+ * the source only once. Every key also includes the Tika version, parser, detector and max length, so a Tika upgrade
+ * or a different configuration doesn't return stale extractions.</p>
+ *
+ * @since 4.2.0
+ */
+public class CachingTika extends Tika {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingTika.class);
+
+    public static final int DEFAULT_MEMORY_THRESHOLD = 1024 * 1024;
+
+    protected static final String TMP_FILE_PREFIX = "tika-";
+
+    protected final ExtractionCache extractionCache;
+
+    protected int memoryThreshold = DEFAULT_MEMORY_THRESHOLD;
+
+    /**
+     * Hash of the Tika version and configuration, lazily computed since the parser can be changed after creation
+     */
+    protected volatile String configHash;
+
+    /**
+     * @param extractionCache the cache, or null to always parse the content
+     */
+    @ConstructorProperties({"extractionCache"})
+    public CachingTika(ExtractionCache extractionCache) {
+        this.extractionCache = extractionCache;
+    }
+
+    public void setMemoryThreshold(int memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    @Override
+    public String parseToString(InputStream stream, Metadata metadata, int maxLength)
+            throws IOException, TikaException {
+        if (extractionCache == null) {
+            return super.parseToString(stream, metadata, maxLength);
+        }
+
+        Set<String> inputNames = new HashSet<>(Arrays.asList(metadata.names()));
+
+        String metadataKey = getMetadataKey(metadata);
+        if (metadataKey != null) {
+            String key = getKey(metadataKey, maxLength);
+
+            String cachedText = getCachedText(key, metadata);
+            if (cachedText != null) {
+                stream.close();
+                return cachedText;
+            }
+
+            String text = super.parseToString(stream, metadata, maxLength);
+            extractionCache.put(key, new ExtractionCache.Entry(text, getExtractedMetadata(metadata, inputNames)));
+
+            return text;
+        }
+
+        Path tmpFile = Files.createTempFile(TMP_FILE_PREFIX, null);
+        try {
+            DeferredFileOutputStream buffer = DeferredFileOutputStream.builder()
+                                                                      .setThreshold(memoryThreshold)
+                                                                      .setOutputFile(tmpFile.toFile())
+                                                                      .get();
+            String key = getKey(spool(stream, buffer), maxLength);
+
+            String cachedText = getCachedText(key, metadata);
+            if (cachedText != null) {
+                return cachedText;
+            }
+
+            String text;
+            try (InputStream in = buffer.isInMemory() ? TikaInputStream.get(buffer.getData()) :
+                                                        TikaInputStream.get(tmpFile)) {
+                text = super.parseToString(in, metadata, maxLength);
+            }
+
+            extractionCache.put(key, new ExtractionCache.Entry(text, getExtractedMetadata(metadata, inputNames)));
+
+            return text;
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    protected String getCachedText(String key, Metadata metadata) {
+        ExtractionCache.Entry entry = extractionCache.get(key);
+        if (entry != null) {
+            logger.debug("Extracted content of {} found in cache", metadata.get(TikaCoreProperties.RESOURCE_NAME_KEY));
+
+            restoreMetadata(entry.getMetadata(), metadata);
+
+            return entry.getText();
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns a key built from the resource name, length and modified date of the metadata, or null if any of them
+     * is missing.
+     */
+    protected String getMetadataKey(Metadata metadata) {
+        String name = metadata.get(TikaCoreProperties.RESOURCE_NAME_KEY);
+        String length = metadata.get(Metadata.CONTENT_LENGTH);
+        String modified = metadata.get(TikaCoreProperties.MODIFIED);
+
+        if (StringUtils.isAnyEmpty(name, length, modified)) {
+            return null;
+        }
+
+        return DigestUtils.sha256Hex(name + "\n" + length + "\n" + modified);
+    }
+
+    protected String getKey(String contentKey, int maxLength) {
+        return contentKey + "-" + getConfigHash() + "-" + maxLength;
+    }
+
+    protected String getConfigHash() {
+        if (configHash == null) {
+            configHash = DigestUtils.sha256Hex(toString() + "\n" + getParser().getClass().getName() + "\n" +
+                                               getDetector().getClass().getName() + "\n" +
+                                               getMaxStringLength()).substring(0, 16);
+        }
+
+        return configHash;
+    }
+
+    /**
+     * Copies the stream to the buffer and returns the hex SHA-256 of the content. The stream is closed, like
+     * {@link Tika#parseToString(InputStream, Metadata, int)} does.
+     */
+    protected String spool(InputStream stream, OutputStream buffer) throws IOException {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        try (InputStream in = new DigestInputStream(stream, digest);
+             OutputStream out = buffer) {
+            IOUtils.copy(in, out);
+        }
+
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    /**
+     * Returns the metadata added by the parser. Input metadata (like the resource name) is not cached, since it can
+     * be different for the same content.
+     */
+    protected Map<String, List<String>> getExtractedMetadata(Metadata metadata, Set<String> inputNames) {
+        Map<String, List<String>> extracted = new HashMap<>();
+        for (String name : metadata.names()) {
+            if (!inputNames.contains(name)) {
+                extracted.put(name, Arrays.asList(metadata.getValues(name)));
+            }
+        }
+
+        return extracted;
+    }
+
+    protected void restoreMetadata(Map<String, List<String>> extracted, Metadata metadata) {
+        if (extracted != null) {
+            extracted.forEach((name, values) -> {
+                if (metadata.get(name) == null) {
+                    values.forEach(value -> metadata.add(name, value));
+                }
+            });
+        }
+    }
+
+}
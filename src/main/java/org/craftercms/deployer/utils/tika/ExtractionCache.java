@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.tika;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of the text and metadata extracted from binary files, keyed by a hash of the binary content. It's
+ * shared by all targets, so the same binary deployed to several targets (e.g. preview and live) is only parsed once.
+ * When the total size of the entries exceeds the max size, the least recently used entries are deleted. The access
+ * order survives restarts through the last modified time of the entry files.
+ *
+ * <p>Entry files are read outside the lock of the cache, so each entry has a generation that changes every time the
+ * entry is written: an entry that couldn't be read is only removed if it wasn't replaced in the meantime.</p>
+ *
+ * @since 4.2.0
+ */
+public class ExtractionCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionCache.class);
+
+    protected static final String ENTRY_FILE_EXTENSION = ".json";
+
+    protected final ObjectMapper objectMapper = new ObjectMapper();
+    protected final File cacheFolder;
+    protected final long maxSize;
+    protected final LinkedHashMap<String, EntryInfo> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    protected long totalSize;
+    protected long lastGeneration;
+
+    /**
+     * Creates the cache, loading the index of existing entries from the folder.
+     *
+     * @param cacheFolder the folder where the entries are stored
+     * @param maxSize     the max size in bytes of all the entries
+     */
+    public ExtractionCache(File cacheFolder, long maxSize) {
+        this.cacheFolder = cacheFolder;
+        this.maxSize = maxSize;
+
+        loadEntries();
+    }
+
+    /**
+     * Returns the entry for the specified key, or null if not cached.
+     */
+    public Entry get(String key) {
+        File file = getEntryFile(key);
+        long generation;
+
+        synchronized (this) {
+            // Also updates the access order
+            EntryInfo info = entries.get(key);
+            if (info == null) {
+                return null;
+            }
+            generation = info.generation;
+        }
+
+        try {
+            Entry entry = objectMapper.readValue(file, Entry.class);
+            file.setLastModified(System.currentTimeMillis());
+
+            return entry;
+        } catch (IOException e) {
+            logger.warn("Unable to read extraction cache entry {}, it will be removed", file, e);
+
+            remove(key, generation);
+
+            return null;
+        }
+    }
+
+    /**
+     * Stores an entry, evicting the least recently used entries if the max size is exceeded.
+     */
+    public void put(String key, Entry entry) {
+        File file = getEntryFile(key);
+        File tmpFile = null;
+
+        try {
+            FileUtils.forceMkdir(cacheFolder);
+            // Each writer needs its own temp file, the same binary can be extracted by several targets at once
+            tmpFile = Files.createTempFile(cacheFolder.toPath(), key, ".tmp").toFile();
+            objectMapper.writeValue(tmpFile, entry);
+
+            // The file is replaced under the lock, so it always matches the generation of the entry
+            synchronized (this) {
+                Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+
+                EntryInfo previous = entries.put(key, new EntryInfo(file.length(), ++lastGeneration));
+                totalSize += file.length() - (previous != null ? previous.size : 0);
+
+                evict();
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to write extraction cache entry {}", file, e);
+
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
+    /**
+     * Removes the entry, but only if it's still the given generation (it wasn't written again since it was read)
+     */
+    protected synchronized void remove(String key, long generation) {
+        EntryInfo info = entries.get(key);
+        if (info != null && info.generation == generation) {
+            entries.remove(key);
+            totalSize -= info.size;
+
+            FileUtils.deleteQuietly(getEntryFile(key));
+        }
+    }
+
+    protected void evict() {
+        Iterator<Map.Entry<String, EntryInfo>> iterator = entries.entrySet().iterator();
+        while (totalSize > maxSize && iterator.hasNext()) {
+            Map.Entry<String, EntryInfo> eldest = iterator.next();
+            iterator.remove();
+            totalSize -= eldest.getValue().size;
+
+            FileUtils.deleteQuietly(getEntryFile(eldest.getKey()));
+        }
+    }
+
+    protected synchronized void loadEntries() {
+        File[] files = cacheFolder.listFiles((dir, name) -> name.endsWith(ENTRY_FILE_EXTENSION));
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+            for (File file : files) {
+                String key = file.getName().substring(0, file.getName().length() - ENTRY_FILE_EXTENSION.length());
+                entries.put(key, new EntryInfo(file.length(), ++lastGeneration));
+                totalSize += file.length();
+            }
+
+            evict();
+
+            logger.info("Extraction cache at {} loaded with {} entries ({} bytes)", cacheFolder, entries.size(),
+                        totalSize);
+        }
+    }
+
+    protected File getEntryFile(String key) {
+        return new File(cacheFolder, key + ENTRY_FILE_EXTENSION);
+    }
+
+    /**
+     * The size and generation of an entry file
+     */
+    protected static class EntryInfo {
+
+        protected final long size;
+        protected final long generation;
+
+        protected EntryInfo(long size, long generation) {
+            this.size = size;
+            this.generation = generation;
+        }
+
+    }
+
+    /**
+     * The text and metadata extracted from a binary file
+     */
+    public static class Entry {
+
+        private String text;
+        private Map<String, List<String>> metadata;
+
+        public Entry() {
+        }
+
+        public Entry(String text, Map<String, List<String>> metadata) {
+            this.text = text;
+            this.metadata = metadata;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public void setText(String text) {
+            this.text = text;
+        }
+
+        public Map<String, List<String>> getMetadata() {
+            return metadata;
+        }
+
+        public void setMetadata(Map<String, List<String>> metadata) {
+            this.metadata = metadata;
+        }
+
+    }
+
+}
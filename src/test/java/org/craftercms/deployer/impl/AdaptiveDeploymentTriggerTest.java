@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.impl;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link AdaptiveDeploymentTrigger}.
+ */
+public class AdaptiveDeploymentTriggerTest {
+
+    private static final Duration MIN_INTERVAL = Duration.ofSeconds(60);
+    private static final Duration MAX_INTERVAL = Duration.ofSeconds(600);
+    private static final Duration IDLE_TIME = Duration.ofSeconds(1800);
+
+    private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Test
+    public void testTargetsAreSpreadDeterministically() {
+        Set<Instant> executions = new HashSet<>();
+
+        for (int i = 0; i < 20; i++) {
+            AdaptiveDeploymentTrigger trigger = createTrigger("site" + i + "-preview");
+            Instant next = trigger.getNextExecution(now);
+
+            assertEquals(next, createTrigger("site" + i + "-preview").getNextExecution(now));
+            assertTrue(next.isAfter(now));
+            assertFalse(next.isAfter(now.plus(MIN_INTERVAL)));
+
+            executions.add(next);
+        }
+
+        assertTrue(executions.size() > 10);
+    }
+
+    @Test
+    public void testBackoffAndSnapBack() {
+        AdaptiveDeploymentTrigger trigger = createTrigger("site-preview");
+
+        assertFalse(trigger.onDeploymentFinished(false));
+        assertEquals(MIN_INTERVAL, trigger.getCurrentInterval());
+
+        now = now.plus(IDLE_TIME);
+
+        assertFalse(trigger.onDeploymentFinished(false));
+        assertEquals(MIN_INTERVAL.multipliedBy(2), trigger.getCurrentInterval());
+
+        for (int i = 0; i < 10; i++) {
+            trigger.onDeploymentFinished(false);
+        }
+
+        assertEquals(MAX_INTERVAL, trigger.getCurrentInterval());
+
+        Instant next = trigger.getNextExecution(now);
+
+        assertEquals(trigger.getOffset(MAX_INTERVAL).toMillis(),
+                     Math.floorMod(next.toEpochMilli(), MAX_INTERVAL.toMillis()));
+
+        assertTrue(trigger.onDeploymentFinished(true));
+        assertEquals(MIN_INTERVAL, trigger.getCurrentInterval());
+        assertFalse(trigger.onDeploymentFinished(false));
+        assertEquals(MIN_INTERVAL, trigger.getCurrentInterval());
+    }
+
+    private AdaptiveDeploymentTrigger createTrigger(String targetId) {
+        Clock clock = new Clock() {
+
+            @Override
+            public ZoneOffset getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now;
+            }
+
+        };
+
+        return new AdaptiveDeploymentTrigger(targetId, MIN_INTERVAL, MAX_INTERVAL, IDLE_TIME, 2, Duration.ZERO, clock);
+    }
+
+}
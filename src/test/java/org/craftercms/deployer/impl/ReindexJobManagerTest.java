@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.impl;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.craftercms.deployer.api.Deployment;
+import org.craftercms.deployer.api.ReindexJob;
+import org.craftercms.deployer.api.Target;
+import org.craftercms.deployer.utils.opensearch.IndexPool;
+import org.craftercms.deployer.utils.opensearch.ReindexTaskCanceller;
+import org.craftercms.deployer.utils.opensearch.legacy.OpenSearchAdminServiceFactory;
+import org.craftercms.search.opensearch.OpenSearchAdminService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import static org.craftercms.deployer.impl.DeploymentConstants.DEPLOYMENT_MODE_PARAM_NAME;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for {@link ReindexJobManager}.
+ */
+public class ReindexJobManagerTest {
+
+    private static final String TARGET_ID = "mysite-default";
+    private static final String ALIAS = "mysite-default";
+    private static final String OTHER_ALIAS = "mysite-authoring";
+
+    private ReindexJobManager manager;
+    private Target target;
+    private OpenSearchAdminService adminService;
+    private OpenSearchAdminServiceFactory adminServiceFactory;
+    private ReindexTaskCanceller taskCanceller;
+    private CountDownLatch reindexStarted;
+    private CountDownLatch reindexReleased;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        manager = new ReindexJobManager(1, 10);
+        adminService = mock(OpenSearchAdminService.class);
+        adminServiceFactory = mock(OpenSearchAdminServiceFactory.class);
+        taskCanceller = mock(ReindexTaskCanceller.class);
+        reindexStarted = new CountDownLatch(1);
+        reindexReleased = new CountDownLatch(1);
+
+        ObjectProvider<IndexPool> indexPoolProvider = mock(ObjectProvider.class);
+        ObjectProvider<OpenSearchAdminServiceFactory> factoryProvider = mock(ObjectProvider.class);
+        when(factoryProvider.getIfAvailable()).thenReturn(adminServiceFactory);
+        ObjectProvider<ReindexTaskCanceller> cancellerProvider = mock(ObjectProvider.class);
+        when(cancellerProvider.getIfAvailable()).thenReturn(taskCanceller);
+
+        ConfigurableApplicationContext appContext = mock(ConfigurableApplicationContext.class);
+        when(appContext.getBean(OpenSearchAdminService.class)).thenReturn(adminService);
+        when(appContext.getBeanProvider(IndexPool.class)).thenReturn(indexPoolProvider);
+        when(appContext.getBeanProvider(OpenSearchAdminServiceFactory.class)).thenReturn(factoryProvider);
+        when(appContext.getBeanProvider(ReindexTaskCanceller.class)).thenReturn(cancellerProvider);
+
+        target = mock(Target.class);
+        when(target.getId()).thenReturn(TARGET_ID);
+        when(target.getApplicationContext()).thenReturn(appContext);
+    }
+
+    @After
+    public void tearDown() {
+        reindexReleased.countDown();
+        manager.destroy();
+    }
+
+    @Test
+    public void testJobCompletes() throws Exception {
+        ReindexJob job = manager.submit(target, ALIAS, null);
+        job.await();
+
+        assertEquals(ReindexJob.Status.COMPLETED, job.getStatus());
+        assertEquals(ReindexJob.Phase.REINDEXING, job.getPhase());
+        assertNotNull(job.getStart());
+        assertNotNull(job.getEnd());
+        assertNull(job.getError());
+        verify(adminService).waitUntilReady();
+        verify(adminService).recreateIndex(ALIAS);
+        assertSame(job, manager.getJob(job.getId()));
+    }
+
+    @Test
+    public void testJobFails() throws Exception {
+        doThrow(new IllegalStateException("cluster is red")).when(adminService).recreateIndex(ALIAS);
+
+        ReindexJob job = manager.submit(target, ALIAS, null);
+        job.await();
+
+        assertEquals(ReindexJob.Status.FAILED, job.getStatus());
+        assertTrue(job.getError().contains("cluster is red"));
+    }
+
+    @Test
+    public void testSubmitReturnsUnfinishedJob() throws Exception {
+        blockReindex();
+
+        ReindexJob job = manager.submit(target, ALIAS, null);
+        assertTrue(reindexStarted.await(10, TimeUnit.SECONDS));
+
+        assertEquals(ReindexJob.Status.RUNNING, job.getStatus());
+        assertSame(job, manager.submit(target, ALIAS, null));
+
+        reindexReleased.countDown();
+        job.await();
+
+        assertEquals(ReindexJob.Status.COMPLETED, job.getStatus());
+        verify(adminService, times(1)).recreateIndex(ALIAS);
+    }
+
+    @Test
+    public void testPendingJobIsCancelled() throws Exception {
+        blockReindex();
+
+        ReindexJob running = manager.submit(target, ALIAS, null);
+        assertTrue(reindexStarted.await(10, TimeUnit.SECONDS));
+
+        // Only one job runs at a time, so the second one stays pending
+        ReindexJob pending = manager.submit(target, OTHER_ALIAS, null);
+        assertEquals(ReindexJob.Status.PENDING, pending.getStatus());
+
+        manager.cancel(pending.getId());
+        pending.await();
+
+        assertEquals(ReindexJob.Status.CANCELLED, pending.getStatus());
+        assertNull(pending.getStart());
+
+        reindexReleased.countDown();
+        running.await();
+
+        assertEquals(ReindexJob.Status.COMPLETED, running.getStatus());
+        verify(adminService, never()).recreateIndex(OTHER_ALIAS);
+        verify(taskCanceller, never()).cancel(anyString());
+    }
+
+    @Test
+    public void testRunningJobCancelsReindexTask() throws Exception {
+        blockReindex();
+
+        ReindexJob job = manager.submit(target, ALIAS, null);
+        assertTrue(reindexStarted.await(10, TimeUnit.SECONDS));
+
+        manager.cancel(job.getId());
+        job.await();
+
+        assertEquals(ReindexJob.Status.CANCELLED, job.getStatus());
+        verify(taskCanceller).cancel(ALIAS);
+    }
+
+    @Test
+    public void testSlicesUseDedicatedService() throws Exception {
+        OpenSearchAdminService slicedService = mock(OpenSearchAdminService.class);
+        when(adminServiceFactory.createReindexInstance(4)).thenReturn(slicedService);
+
+        ReindexJob job = manager.submit(target, ALIAS, 4);
+        job.await();
+
+        assertEquals(ReindexJob.Status.COMPLETED, job.getStatus());
+        verify(slicedService).recreateIndex(ALIAS);
+        verify(adminService, never()).recreateIndex(anyString());
+    }
+
+    @Test
+    public void testDeploymentJobCompletes() throws Exception {
+        Map<String, Object> params = Map.of(DEPLOYMENT_MODE_PARAM_NAME, Deployment.Mode.SEARCH_INDEX.name());
+        Deployment deployment = new Deployment(target, params);
+        when(target.deploy(true, params)).thenAnswer(invocation -> {
+            deployment.start();
+            deployment.end(Deployment.Status.SUCCESS);
+            return deployment;
+        });
+
+        ReindexJob job = manager.submitDeployment(target, ALIAS, params);
+        job.await();
+
+        assertEquals(ReindexJob.Status.COMPLETED, job.getStatus());
+        assertEquals(ReindexJob.Phase.DEPLOYING, job.getPhase());
+        verify(adminService, never()).recreateIndex(anyString());
+    }
+
+    @Test
+    public void testDeploymentJobFails() throws Exception {
+        Map<String, Object> params = Map.of(DEPLOYMENT_MODE_PARAM_NAME, Deployment.Mode.SEARCH_INDEX.name());
+        Deployment deployment = new Deployment(target, params);
+        when(target.deploy(true, params)).thenAnswer(invocation -> {
+            deployment.start();
+            deployment.end(Deployment.Status.FAILURE);
+            return deployment;
+        });
+
+        ReindexJob job = manager.submitDeployment(target, ALIAS, params);
+        job.await();
+
+        assertEquals(ReindexJob.Status.FAILED, job.getStatus());
+        assertTrue(job.getError().contains(Deployment.Status.FAILURE.name()));
+    }
+
+    private void blockReindex() {
+        doAnswer(invocation -> {
+            reindexStarted.countDown();
+            if (!reindexReleased.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Reindex was never released");
+            }
+            return null;
+        }).when(adminService).recreateIndex(anyString());
+    }
+
+}
@@ -17,18 +17,29 @@ package org.craftercms.deployer.impl;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.configuration2.HierarchicalConfiguration;
 import org.apache.commons.configuration2.tree.ImmutableNode;
 import org.craftercms.commons.config.ConfigurationException;
+import org.craftercms.deployer.api.ChangeSet;
 import org.craftercms.deployer.api.Deployment;
 import org.craftercms.deployer.api.DeploymentPipeline;
 import org.craftercms.deployer.api.exceptions.DeployerException;
 import org.craftercms.deployer.api.exceptions.TargetNotReadyException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.craftercms.deployer.impl.DeploymentConstants.DEPLOYMENT_MODE_PARAM_NAME;
+import static org.craftercms.deployer.impl.DeploymentConstants.FROM_COMMIT_ID_PARAM_NAME;
+import static org.craftercms.deployer.impl.DeploymentConstants.LATEST_COMMIT_ID_PARAM_NAME;
+import static org.craftercms.deployer.impl.DeploymentConstants.SEARCH_INDEX_LANE_PARAM_NAME;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
@@ -41,6 +52,8 @@ public class TargetImplTest {
 
     private static final String TEST_ENV = "test";
     private static final String TEST_SITE_NAME = "test";
+    private static final ObjectId PINNED_COMMIT_ID = ObjectId.fromString("1111111111111111111111111111111111111111");
+    private static final ObjectId PUBLISHED_COMMIT_ID = ObjectId.fromString("2222222222222222222222222222222222222222");
 
     private volatile int count;
     private TargetImpl target;
@@ -81,6 +94,79 @@ public class TargetImplTest {
         assertEquals(3, count);
     }
 
+    @Test
+    public void testSearchIndexConcurrentWithPublish() throws Exception {
+        CountDownLatch reindexStarted = new CountDownLatch(1);
+        CountDownLatch publishDone = new CountDownLatch(1);
+        CountDownLatch replayDone = new CountDownLatch(1);
+        List<Deployment> searchIndexDeployments = new CopyOnWriteArrayList<>();
+
+        DeploymentPipeline pipeline = mock(DeploymentPipeline.class);
+        doAnswer(invocationOnMock -> {
+            Deployment deployment = (Deployment)invocationOnMock.getArguments()[0];
+            deployment.start();
+
+            if (deployment.getMode() == Deployment.Mode.SEARCH_INDEX) {
+                searchIndexDeployments.add(deployment);
+
+                if (searchIndexDeployments.size() == 1) {
+                    reindexStarted.countDown();
+
+                    // The publish should be able to finish while the reindex is running
+                    assertTrue(publishDone.await(5, TimeUnit.SECONDS));
+
+                    deployment.addParam(LATEST_COMMIT_ID_PARAM_NAME, PINNED_COMMIT_ID);
+                } else {
+                    deployment.addParam(LATEST_COMMIT_ID_PARAM_NAME, PUBLISHED_COMMIT_ID);
+                }
+            } else {
+                deployment.setChangeSet(new ChangeSet(List.of("/site/website/index.xml"), List.of(), List.of()));
+                deployment.addParam(LATEST_COMMIT_ID_PARAM_NAME, PUBLISHED_COMMIT_ID);
+
+                publishDone.countDown();
+            }
+
+            deployment.end(Deployment.Status.SUCCESS);
+
+            if (deployment.getMode() == Deployment.Mode.SEARCH_INDEX && searchIndexDeployments.size() == 2) {
+                replayDone.countDown();
+            }
+
+            return null;
+        }).when(pipeline).execute(any(Deployment.class));
+
+        DeploymentPipelineFactory factory = mock(DeploymentPipelineFactory.class);
+        when(factory.getPipeline(any(), any(), anyString())).thenReturn(pipeline);
+
+        TargetImpl target = new TargetImpl(TEST_ENV, TEST_SITE_NAME, null, null, createConfig(), null,
+                                           Executors.newFixedThreadPool(2), null,
+                                           createTargetLifecycleHooksResolver(), factory);
+        target.init();
+        target.concurrentSearchIndexEnabled = true;
+
+        Map<String, Object> params = new HashMap<>();
+        params.put(DEPLOYMENT_MODE_PARAM_NAME, Deployment.Mode.SEARCH_INDEX.name());
+
+        Deployment searchIndexDeployment = target.deploy(false, params);
+        // Only publishes done after the reindex started need to be replayed
+        assertTrue(reindexStarted.await(5, TimeUnit.SECONDS));
+        Deployment publishDeployment = target.deploy(true, new HashMap<>());
+
+        assertEquals(Deployment.Status.SUCCESS, publishDeployment.getStatus());
+
+        // The reindex is followed by a replay of the publish
+        assertTrue(replayDone.await(5, TimeUnit.SECONDS));
+
+        assertEquals(Deployment.Status.SUCCESS, searchIndexDeployment.getStatus());
+        assertEquals(2, searchIndexDeployments.size());
+        assertEquals(PINNED_COMMIT_ID.name(), searchIndexDeployments.get(1).getParam(FROM_COMMIT_ID_PARAM_NAME));
+
+        // Both lane deployments read their files from the snapshot, the publish reads the live working tree
+        assertEquals(true, searchIndexDeployments.get(0).getParam(SEARCH_INDEX_LANE_PARAM_NAME));
+        assertEquals(true, searchIndexDeployments.get(1).getParam(SEARCH_INDEX_LANE_PARAM_NAME));
+        assertNull(publishDeployment.getParam(SEARCH_INDEX_LANE_PARAM_NAME));
+    }
+
     @SuppressWarnings("unchecked")
     private HierarchicalConfiguration<ImmutableNode> createConfig() {
         return mock(HierarchicalConfiguration.class);
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.impl.lifecycle.aws;
+
+import java.util.concurrent.TimeUnit;
+
+import org.craftercms.deployer.impl.lifecycle.aws.ClearS3BucketLifecycleHook.Checkpoint;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the checkpoints of {@link ClearS3BucketLifecycleHook}.
+ */
+public class ClearS3BucketLifecycleHookTest {
+
+    private static final String BUCKET = "mybucket";
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private ClearS3BucketLifecycleHook hook;
+
+    @Before
+    public void setUp() throws Exception {
+        hook = new ClearS3BucketLifecycleHook();
+        hook.setCheckpointFolder(tmpFolder.newFolder("checkpoints"));
+        hook.setCheckpointMaxAge(3600);
+        hook.bucketName = BUCKET;
+    }
+
+    @Test
+    public void testCheckpointIsLoaded() {
+        long startTime = System.currentTimeMillis();
+        hook.saveCheckpoint(new Checkpoint(BUCKET, startTime, Checkpoint.Phase.VERSIONS, "key", "version"));
+
+        Checkpoint checkpoint = hook.loadCheckpoint();
+
+        assertNotNull(checkpoint);
+        assertEquals(startTime, checkpoint.getStartTime());
+        assertEquals(Checkpoint.Phase.VERSIONS, checkpoint.getPhase());
+        assertEquals("key", checkpoint.getKeyMarker());
+        assertEquals("version", checkpoint.getVersionIdMarker());
+    }
+
+    @Test
+    public void testCheckpointOfAnotherBucketIsIgnored() {
+        hook.saveCheckpoint(new Checkpoint("otherbucket", System.currentTimeMillis(), Checkpoint.Phase.OBJECTS,
+                                           "key", null));
+
+        assertNull(hook.loadCheckpoint());
+        assertFalse(hook.getCheckpointFile().exists());
+    }
+
+    @Test
+    public void testExpiredCheckpointIsIgnored() {
+        long startTime = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        hook.saveCheckpoint(new Checkpoint(BUCKET, startTime, Checkpoint.Phase.OBJECTS, "key", null));
+
+        assertNull(hook.loadCheckpoint());
+        assertFalse(hook.getCheckpointFile().exists());
+    }
+
+}
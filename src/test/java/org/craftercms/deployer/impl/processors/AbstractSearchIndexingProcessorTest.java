@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.impl.processors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import org.craftercms.deployer.api.ChangeSet;
+import org.craftercms.deployer.utils.core.CacheKeyIndex;
+import org.craftercms.search.batch.BatchIndexer;
+import org.craftercms.search.batch.UpdateSet;
+import org.craftercms.search.batch.UpdateStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for {@link AbstractSearchIndexingProcessor}.
+ */
+public class AbstractSearchIndexingProcessorTest {
+
+    private static final String INDEX_ID = "mysite-default";
+    private static final String FAILING_PATH = "/site/website/page-7/index.xml";
+
+    private TestIndexingProcessor processor;
+    private List<Write> writes;
+
+    @Before
+    public void setUp() throws Exception {
+        writes = new CopyOnWriteArrayList<>();
+
+        processor = new TestIndexingProcessor();
+        processor.batchIndexers = List.of(createIndexer("first", false), createIndexer("second", false));
+    }
+
+    @After
+    public void tearDown() {
+        if (processor.indexerExecutor != null) {
+            processor.indexerExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentIndexingKeepsTheOrderOfEachFile() throws Exception {
+        processor.indexerThreads = 3;
+        processor.indexerExecutor = Executors.newFixedThreadPool(3);
+
+        UpdateStatus updateStatus = new SynchronizedUpdateStatus();
+        processor.updateIndexConcurrently(processor.indexerExecutor, INDEX_ID, null, createChangeSet(),
+                                          updateStatus);
+
+        assertWritesInOrder();
+        assertUpdateStatus(updateStatus);
+    }
+
+    @Test
+    public void testIndexerFailureIsPropagated() throws Exception {
+        processor.batchIndexers = List.of(createIndexer("first", false), createIndexer("second", true));
+        processor.indexerThreads = 3;
+        processor.indexerExecutor = Executors.newFixedThreadPool(3);
+
+        try {
+            processor.updateIndexConcurrently(processor.indexerExecutor, INDEX_ID, null, createChangeSet(),
+                                              new SynchronizedUpdateStatus());
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("Unable to index " + FAILING_PATH, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testChangedPathsIncludeParentFolders() {
+        ChangeSet changeSet = new ChangeSet(List.of("site/website/new/index.xml"),
+                                            List.of("/site/components/header.xml"), Collections.emptyList());
+
+        Set<String> paths = processor.getChangedPaths(changeSet, null);
+
+        assertEquals(Set.of("/site/website/new/index.xml", "/site/website/new", "/site/website", "/site",
+                            "/site/components/header.xml", "/site/components"), paths);
+    }
+
+    @Test
+    public void testCacheKeyPathsAreMatchedExactly() {
+        Set<String> paths = processor.getChangedPaths(new ChangeSet(Collections.emptyList(),
+                                                                    List.of("/site/website/index.xml"),
+                                                                    Collections.emptyList()), null);
+
+        assertTrue(matches(paths, "/site/website/index.xml:crafter.content"));
+        assertTrue(matches(paths, "crafter.tree:/site/website/:2"));
+        assertTrue(matches(paths, "[/site/website/index.xml, crafter.item]"));
+        assertFalse(matches(paths, "/site/website/index.xml.bak:crafter.content"));
+        assertFalse(matches(paths, "/site/website/about/index.xml:crafter.content"));
+        assertFalse(matches(paths, "/site/website/crafter-level-descriptor.level.xml:crafter.item"));
+    }
+
+    private boolean matches(Set<String> paths, String key) {
+        return CacheKeyIndex.getKeyPaths(key).stream().anyMatch(paths::contains);
+    }
+
+    private ChangeSet createChangeSet() {
+        List<String> updated = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            updated.add("/site/website/page-" + i + "/index.xml");
+        }
+
+        return new ChangeSet(Collections.emptyList(), updated, List.of("/site/website/old/index.xml"));
+    }
+
+    private BatchIndexer createIndexer(String name, boolean failing) throws Exception {
+        BatchIndexer indexer = mock(BatchIndexer.class);
+        doAnswer(invocation -> {
+            UpdateSet updateSet = invocation.getArgument(4);
+            UpdateStatus updateStatus = invocation.getArgument(5);
+
+            for (String path : updateSet.getUpdatePaths()) {
+                write(name, path, failing, updateStatus);
+                updateStatus.addSuccessfulUpdate(path);
+            }
+            for (String path : updateSet.getDeletePaths()) {
+                write(name, path, failing, updateStatus);
+                updateStatus.addSuccessfulDelete(path);
+            }
+
+            return null;
+        }).when(indexer).updateIndex(anyString(), any(), any(), any(), any(UpdateSet.class), any(UpdateStatus.class));
+
+        return indexer;
+    }
+
+    private void write(String indexer, String path, boolean failing, UpdateStatus updateStatus) {
+        if (failing && path.equals(FAILING_PATH)) {
+            throw new IllegalStateException("Unable to index " + path);
+        }
+
+        writes.add(new Write(indexer, path, Thread.currentThread()));
+        updateStatus.incrementAttemptedUpdatesAndDeletes();
+    }
+
+    /**
+     * Checks that the writes of all the threads were counted in the shared status
+     */
+    private void assertUpdateStatus(UpdateStatus updateStatus) {
+        ChangeSet changeSet = createChangeSet();
+
+        assertEquals((changeSet.getUpdatedFiles().size() + changeSet.getDeletedFiles().size()) * 2,
+                     updateStatus.getAttemptedUpdatesAndDeletes());
+        assertEquals(changeSet.getUpdatedFiles().size() * 2, updateStatus.getSuccessfulUpdates().size());
+        assertEquals(changeSet.getDeletedFiles().size() * 2, updateStatus.getSuccessfulDeletes().size());
+        assertEquals(0, updateStatus.getFailedUpdatesAndDeletes());
+    }
+
+    /**
+     * Checks that every file was written once by each indexer, first by the first indexer, and both times in the
+     * same thread
+     */
+    private void assertWritesInOrder() {
+        List<String> paths = new ArrayList<>(createChangeSet().getUpdatedFiles());
+        paths.addAll(createChangeSet().getDeletedFiles());
+
+        assertEquals(paths.size() * 2, writes.size());
+
+        for (String path : paths) {
+            List<Write> fileWrites = new ArrayList<>();
+            writes.stream().filter(write -> write.path.equals(path)).forEach(fileWrites::add);
+
+            assertEquals(2, fileWrites.size());
+            assertEquals("first", fileWrites.get(0).indexer);
+            assertEquals("second", fileWrites.get(1).indexer);
+            assertSame(fileWrites.get(0).thread, fileWrites.get(1).thread);
+        }
+    }
+
+    private static class Write {
+
+        private final String indexer;
+        private final String path;
+        private final Thread thread;
+
+        Write(String indexer, String path, Thread thread) {
+            this.indexer = indexer;
+            this.path = path;
+            this.thread = thread;
+        }
+
+    }
+
+    private static class TestIndexingProcessor extends AbstractSearchIndexingProcessor {
+
+        @Override
+        protected void doCreateIndexIfMissing() {
+        }
+
+        @Override
+        protected void doCommit(String indexId) {
+        }
+
+        @Override
+        protected List<String> getItemsThatInheritDescriptor(String indexId, String descriptorPath) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        protected List<String> getItemsThatIncludeComponent(String indexId, String componentPath) {
+            return Collections.emptyList();
+        }
+
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.impl.processors.aws;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link S3SyncProcessor}.
+ */
+public class S3SyncProcessorTest {
+
+    private static final String BUCKET = "mybucket";
+
+    private S3AsyncClient client;
+    private S3SyncProcessor processor;
+
+    @Before
+    public void setUp() {
+        client = mock(S3AsyncClient.class);
+        when(client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(CompletableFuture.completedFuture(
+            DeleteObjectsResponse.builder()
+                .errors(S3Error.builder().key("site/b.xml").code("AccessDenied").build())
+                .build()));
+
+        processor = new S3SyncProcessor(null, "repo", ".blob") {
+
+            @Override
+            protected String getBucket() {
+                return BUCKET;
+            }
+
+            @Override
+            protected String getS3Key(String file) {
+                return file.substring(1);
+            }
+
+        };
+        processor.setMaxDeleteRetries(0);
+    }
+
+    @Test
+    public void testDeleteErrorsAreIgnoredByDefault() throws Exception {
+        processor.deleteFiles(client, List.of("/site/a.xml", "/site/b.xml"));
+    }
+
+    @Test
+    public void testDeleteErrorsFailTheDeploymentIfEnabled() {
+        processor.setFailOnDeleteErrors(true);
+
+        try {
+            processor.deleteFiles(client, List.of("/site/a.xml", "/site/b.xml"));
+            fail("DeployerException expected");
+        } catch (DeployerException e) {
+            assertEquals("Unable to delete 1 files: site/b.xml (AccessDenied)", e.getMessage());
+        }
+    }
+
+}
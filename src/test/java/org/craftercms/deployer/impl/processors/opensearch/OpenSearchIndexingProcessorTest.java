@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.impl.processors.opensearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.craftercms.deployer.api.ChangeSet;
+import org.craftercms.deployer.api.Deployment;
+import org.craftercms.search.opensearch.OpenSearchAdminService;
+import org.craftercms.search.opensearch.OpenSearchService;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.search.Hit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link OpenSearchIndexingProcessor}.
+ */
+@SuppressWarnings("rawtypes")
+public class OpenSearchIndexingProcessorTest {
+
+    private static final String INDEX_ID = "mysite-default";
+    private static final String PIT_ID = "pit-1";
+    private static final String COMPONENT_PATH = "/site/components/header.xml";
+
+    private OpenSearchService searchService;
+    private TestIndexingProcessor processor;
+
+    @Before
+    public void setUp() {
+        searchService = mock(OpenSearchService.class);
+
+        processor = new TestIndexingProcessor(searchService);
+        processor.setSearchClient(mock(OpenSearchClient.class));
+        processor.setItemsThatIncludeComponentQueryRows(2);
+    }
+
+    @Test
+    public void testPagesAreSortedByShardDoc() {
+        SearchRequest request = processor.buildPageRequest(PIT_ID, Query.of(q -> q.matchAll(m -> m)), 2,
+                                                           Collections.singletonList("12"));
+
+        assertEquals(1, request.sort().size());
+        assertEquals("_shard_doc", request.sort().get(0).field().field());
+        assertEquals(Collections.singletonList("12"), request.searchAfter());
+        assertEquals(PIT_ID, request.pit().id());
+    }
+
+    @Test
+    public void testAllPagesAreRead() {
+        // The same item has a document per locale, split between the first and second pages
+        processor.pages.add(Arrays.asList(createHit("/site/a.xml", "1"), createHit("/site/b.xml", "2")));
+        processor.pages.add(Arrays.asList(createHit("/site/b.xml", "3"), createHit("/site/c.xml", "4")));
+        processor.pages.add(Collections.singletonList(createHit("/site/d.xml", "5")));
+
+        List<String> ids = processor.getItemsThatIncludeComponent(INDEX_ID, COMPONENT_PATH);
+
+        assertEquals(Arrays.asList("/site/a.xml", "/site/b.xml", "/site/c.xml", "/site/d.xml"), ids);
+        assertEquals(3, processor.requests.size());
+        assertTrue(processor.requests.get(0).searchAfter().isEmpty());
+        assertEquals(Collections.singletonList("2"), processor.requests.get(1).searchAfter());
+        assertEquals(Collections.singletonList("4"), processor.requests.get(2).searchAfter());
+        assertTrue(processor.pitDeleted);
+    }
+
+    @Test
+    public void testPagesAreOnlyReadUntilTheMaxItems() {
+        processor.setMaxAffectedItems(2);
+        processor.pages.add(Arrays.asList(createHit("/site/a.xml", "1"), createHit("/site/b.xml", "2")));
+        processor.pages.add(Arrays.asList(createHit("/site/c.xml", "3"), createHit("/site/d.xml", "4")));
+        processor.pages.add(Collections.singletonList(createHit("/site/e.xml", "5")));
+
+        List<String> ids = processor.getItemsThatIncludeComponent(INDEX_ID, COMPONENT_PATH);
+
+        assertEquals(Arrays.asList("/site/a.xml", "/site/b.xml"), ids);
+        assertEquals(2, processor.requests.size());
+        assertTrue(processor.pitDeleted);
+    }
+
+    @Test
+    public void testFallbackToSingleSearch() {
+        processor.pitFailure = true;
+        when(searchService.searchField(eq(INDEX_ID), eq("localId"), any(Query.class)))
+            .thenReturn(Collections.singletonList("/site/a.xml"));
+
+        List<String> ids = processor.getItemsThatIncludeComponent(INDEX_ID, COMPONENT_PATH);
+
+        assertEquals(Collections.singletonList("/site/a.xml"), ids);
+        assertTrue(processor.requests.isEmpty());
+    }
+
+    @Test
+    public void testDocumentsOfDeletedSelectedFilesAreDeleted() throws Exception {
+        Deployment deployment = createDeployment(Deployment.Mode.SEARCH_INDEX, "/site/website/blog");
+        processor.pages.add(Arrays.asList(createHit("/site/website/blog/a.xml", "1"),
+                                          createHit("/site/website/blog/b.xml", "2"),
+                                          createHit("/site/website/blogs/c.xml", "3"),
+                                          createHit("/site/website/blog/d.xml", "4")));
+        ChangeSet originalChangeSet = new ChangeSet(new ArrayList<>(),
+                                                    List.of("/site/website/blog/a.xml", "/site/website/blog/d.xml"),
+                                                    new ArrayList<>());
+        ChangeSet filteredChangeSet = new ChangeSet(new ArrayList<>(), List.of("/site/website/blog/a.xml"),
+                                                    new ArrayList<>());
+
+        ChangeSet changeSet = processor.addDeletedSelectedFiles(deployment, filteredChangeSet, originalChangeSet);
+
+        assertEquals(List.of("/site/website/blog/a.xml"), changeSet.getUpdatedFiles());
+        assertEquals(List.of("/site/website/blog/b.xml"), changeSet.getDeletedFiles());
+        assertEquals("/site/website/blog",
+                     processor.requests.get(0).query().bool().should().get(0).prefix().value());
+    }
+
+    @Test
+    public void testChangesSinceACommitAreNotExtended() throws Exception {
+        Deployment deployment = createDeployment(Deployment.Mode.SEARCH_INDEX, "/site/website/blog");
+        when(deployment.getParam("from_commit_id")).thenReturn("0123456789abcdef0123456789abcdef01234567");
+        ChangeSet changeSet = new ChangeSet(new ArrayList<>(), List.of("/site/website/blog/a.xml"),
+                                            new ArrayList<>());
+
+        assertSame(changeSet, processor.addDeletedSelectedFiles(deployment, changeSet, changeSet));
+        assertSame(changeSet, processor.addDeletedSelectedFiles(createDeployment(Deployment.Mode.PUBLISH, null),
+                                                                changeSet, changeSet));
+        assertTrue(processor.requests.isEmpty());
+    }
+
+    private Deployment createDeployment(Deployment.Mode mode, String reindexPaths) {
+        Deployment deployment = mock(Deployment.class);
+        when(deployment.getMode()).thenReturn(mode);
+        when(deployment.getParam("reindex_paths")).thenReturn(reindexPaths);
+        return deployment;
+    }
+
+    private Hit<Map> createHit(String localId, String shardDoc) {
+        return new Hit.Builder<Map>()
+            .index(INDEX_ID)
+            .id(shardDoc)
+            .source(Collections.singletonMap("localId", localId))
+            .sort(Collections.singletonList(shardDoc))
+            .build();
+    }
+
+    private static class TestIndexingProcessor extends OpenSearchIndexingProcessor {
+
+        private final List<List<Hit<Map>>> pages = new ArrayList<>();
+        private final List<SearchRequest> requests = new ArrayList<>();
+        private boolean pitFailure;
+        private boolean pitDeleted;
+
+        public TestIndexingProcessor(OpenSearchService searchService) {
+            super(searchService, mock(OpenSearchAdminService.class));
+        }
+
+        @Override
+        protected String createPit(String indexId) throws IOException {
+            if (pitFailure) {
+                throw new IOException("Point in time not supported");
+            }
+            return PIT_ID;
+        }
+
+        @Override
+        protected List<Hit<Map>> searchPage(SearchRequest request) {
+            requests.add(request);
+            return requests.size() <= pages.size() ? pages.get(requests.size() - 1) : Collections.emptyList();
+        }
+
+        @Override
+        protected void deletePit(String pitId) {
+            pitDeleted = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.aws;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link InvalidationCoalescer}.
+ */
+public class InvalidationCoalescerTest {
+
+    private static final String DISTRIBUTION = "E2QWRUHAPOMQZL";
+
+    private final InvalidationCoalescer coalescer = new InvalidationCoalescer(2, 50);
+
+    @After
+    public void tearDown() {
+        coalescer.close();
+    }
+
+    @Test
+    public void testInvalidationsAreMergedByDistributionAndAccount() throws Exception {
+        Map<String, Set<String>> invalidations = new ConcurrentHashMap<>();
+        CountDownLatch sent = new CountDownLatch(2);
+        Duration window = Duration.ofMillis(200);
+
+        coalescer.add(DISTRIBUTION, "account1", List.of("/index.html"), window, paths -> {
+            invalidations.put("account1", paths);
+            sent.countDown();
+        });
+        coalescer.add(DISTRIBUTION, "account1", List.of("/about.html"), window, paths -> {
+            invalidations.put("account1", paths);
+            sent.countDown();
+        });
+        coalescer.add(DISTRIBUTION, "account2", List.of("/contact.html"), window, paths -> {
+            invalidations.put("account2", paths);
+            sent.countDown();
+        });
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals(Set.of("/index.html", "/about.html"), invalidations.get("account1"));
+        assertEquals(Set.of("/contact.html"), invalidations.get("account2"));
+    }
+
+    @Test
+    public void testSlowInvalidationsDontBlockOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch sent = new CountDownLatch(1);
+        Duration window = Duration.ofMillis(50);
+
+        coalescer.add("E1", null, List.of("/index.html"), window, paths -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        coalescer.add("E2", null, List.of("/index.html"), window, paths -> sent.countDown());
+
+        try {
+            assertTrue(sent.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testPendingInvalidationsAreSentOnClose() {
+        Map<String, Set<String>> invalidations = new ConcurrentHashMap<>();
+
+        coalescer.add(DISTRIBUTION, null, List.of("/index.html"), Duration.ofHours(1),
+                      paths -> invalidations.put(DISTRIBUTION, paths));
+        coalescer.close();
+
+        assertEquals(Set.of("/index.html"), invalidations.get(DISTRIBUTION));
+    }
+
+    @Test
+    public void testFailedInvalidationsAreRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Map<String, Set<String>> invalidations = new ConcurrentHashMap<>();
+        CountDownLatch sent = new CountDownLatch(1);
+
+        coalescer.add(DISTRIBUTION, null, List.of("/index.html"), Duration.ofMillis(50), paths -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("Throttled");
+            }
+            invalidations.put(DISTRIBUTION, paths);
+            sent.countDown();
+        });
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertEquals(Set.of("/index.html"), invalidations.get(DISTRIBUTION));
+    }
+
+    @Test
+    public void testFailuresAreReturnedAndRetriedWithTheNextInvalidation() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+
+        coalescer.add(DISTRIBUTION, null, List.of("/index.html"), Duration.ofMillis(50), paths -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("Access denied");
+        });
+
+        InvalidationCoalescer.Failure failure = awaitFailure();
+        assertEquals(3, attempts.get());
+
+        Map<String, Set<String>> invalidations = new ConcurrentHashMap<>();
+        CountDownLatch sent = new CountDownLatch(1);
+
+        InvalidationCoalescer.Failure returned =
+            coalescer.add(DISTRIBUTION, null, List.of("/about.html"), Duration.ofMillis(50), paths -> {
+                invalidations.put(DISTRIBUTION, paths);
+                sent.countDown();
+            });
+
+        assertSame(failure, returned);
+        assertEquals(Set.of("/index.html"), returned.getPaths());
+        assertEquals("Access denied", returned.getError().getMessage());
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals(Set.of("/index.html", "/about.html"), invalidations.get(DISTRIBUTION));
+        assertNull(coalescer.add(DISTRIBUTION, null, List.of("/contact.html"), Duration.ofHours(1), paths -> {}));
+    }
+
+    private InvalidationCoalescer.Failure awaitFailure() throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < timeout) {
+            synchronized (coalescer) {
+                if (!coalescer.failures.isEmpty()) {
+                    return coalescer.failures.values().iterator().next();
+                }
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("The invalidation didn't fail");
+    }
+
+}
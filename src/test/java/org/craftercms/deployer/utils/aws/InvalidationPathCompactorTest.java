@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.aws;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link InvalidationPathCompactor}.
+ */
+public class InvalidationPathCompactorTest {
+
+    @Test
+    public void testFoldersAboveThresholdAreCompacted() {
+        List<String> paths = new ArrayList<>(List.of("/index.html", "/articles/index.html", "/articles/2024/*"));
+        for (int i = 0; i < 3; i++) {
+            paths.add("/static-assets/images/image" + i + ".png");
+            paths.add("/static-assets/images/thumbs/image" + i + ".png");
+        }
+
+        List<String> compacted = new InvalidationPathCompactor(3, 0, 0).compact(paths);
+
+        assertEquals(List.of("/articles/2024/*", "/articles/index.html", "/index.html", "/static-assets/images/*"),
+                     compacted);
+    }
+
+    @Test
+    public void testLimitsAreMet() {
+        List<String> paths = List.of("/a/1.html", "/a/2.html", "/a/3.html", "/b/1.html", "/b/c/*", "/d/*");
+
+        assertEquals(List.of("/a/*", "/b/*", "/d/*"), new InvalidationPathCompactor(0, 3, 0).compact(paths));
+        assertEquals(List.of("/*"), new InvalidationPathCompactor(0, 0, 1).compact(paths));
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.aws;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link PageCheckpointTracker}.
+ */
+public class PageCheckpointTrackerTest {
+
+    @Test
+    public void testCheckpointOnlyAdvancesOverContiguousPages() {
+        List<String> checkpoints = new ArrayList<>();
+        PageCheckpointTracker<String> tracker = new PageCheckpointTracker<>(checkpoints::add);
+
+        tracker.pageDone(1, "b", false);
+        tracker.pageDone(2, "c", false);
+
+        assertTrue(checkpoints.isEmpty());
+
+        tracker.pageDone(0, "a", false);
+
+        assertEquals(List.of("c"), checkpoints);
+
+        tracker.pageDone(3, null, false);
+        tracker.pageDone(4, "e", false);
+
+        assertEquals(List.of("c", "e"), checkpoints);
+    }
+
+    @Test
+    public void testCheckpointStopsAtFailedPage() {
+        List<String> checkpoints = new ArrayList<>();
+        PageCheckpointTracker<String> tracker = new PageCheckpointTracker<>(checkpoints::add);
+
+        tracker.pageDone(0, "a", false);
+        tracker.pageDone(2, "c", false);
+        tracker.pageDone(1, "b", true);
+        tracker.pageDone(3, "d", false);
+
+        assertEquals(List.of("a"), checkpoints);
+    }
+
+    @Test
+    public void testNullListener() {
+        PageCheckpointTracker<String> tracker = new PageCheckpointTracker<>(null);
+
+        tracker.pageDone(0, "a", false);
+        tracker.pageDone(1, "b", true);
+    }
+
+}
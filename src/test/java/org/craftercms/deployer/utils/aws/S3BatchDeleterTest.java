@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.aws;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link S3BatchDeleter}.
+ */
+public class S3BatchDeleterTest {
+
+    private static final String BUCKET = "mybucket";
+
+    private S3AsyncClient client;
+    private List<DeleteObjectsRequest> requests;
+
+    @Before
+    public void setUp() {
+        client = mock(S3AsyncClient.class);
+        requests = new CopyOnWriteArrayList<>();
+    }
+
+    @Test
+    public void testPagesAreDeletedInBatches() throws Exception {
+        when(client.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+            requests.add(invocation.getArgument(0));
+            return CompletableFuture.completedFuture(DeleteObjectsResponse.builder().build());
+        });
+
+        List<String> checkpoints = new CopyOnWriteArrayList<>();
+        List<S3BatchDeleter.Page<String>> pages = List.of(new S3BatchDeleter.Page<>(createObjects(0, 1500), "page1"),
+                                                          new S3BatchDeleter.Page<>(List.of(), null),
+                                                          new S3BatchDeleter.Page<>(createObjects(1500, 2500),
+                                                                                    "page3"));
+
+        S3BatchDeleter.Result result = new S3BatchDeleter(client, BUCKET, 2, 0, 1).delete(pages, checkpoints::add);
+
+        assertEquals(2500, result.getDeleted());
+        assertFalse(result.hasErrors());
+        assertEquals(3, requests.size());
+        assertTrue(requests.stream().allMatch(request -> request.delete().objects().size() <= 1000));
+        assertEquals("page3", checkpoints.get(checkpoints.size() - 1));
+    }
+
+    @Test
+    public void testTransientErrorsAreRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        when(client.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+            DeleteObjectsRequest request = invocation.getArgument(0);
+            List<S3Error> errors = new ArrayList<>();
+
+            if (attempts.getAndIncrement() == 0) {
+                errors.add(S3Error.builder().key(request.delete().objects().get(0).key()).code("SlowDown").build());
+            }
+
+            return CompletableFuture.completedFuture(DeleteObjectsResponse.builder().errors(errors).build());
+        });
+
+        S3BatchDeleter.Result result = new S3BatchDeleter(client, BUCKET, 2, 3, 1).delete(List.of("a", "b", "c"));
+
+        assertEquals(3, result.getDeleted());
+        assertFalse(result.hasErrors());
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testPermanentErrorsBlockTheCheckpoint() throws Exception {
+        when(client.deleteObjects(any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+            DeleteObjectsRequest request = invocation.getArgument(0);
+            List<S3Error> errors = request.delete().objects().stream()
+                                          .filter(object -> object.key().equals("key1200"))
+                                          .map(object -> S3Error.builder()
+                                                                .key(object.key())
+                                                                .code("AccessDenied")
+                                                                .build())
+                                          .collect(Collectors.toList());
+
+            return CompletableFuture.completedFuture(DeleteObjectsResponse.builder().errors(errors).build());
+        });
+
+        List<String> checkpoints = new CopyOnWriteArrayList<>();
+        List<S3BatchDeleter.Page<String>> pages = List.of(new S3BatchDeleter.Page<>(createObjects(0, 1000), "page1"),
+                                                          new S3BatchDeleter.Page<>(createObjects(1000, 2000),
+                                                                                    "page2"),
+                                                          new S3BatchDeleter.Page<>(createObjects(2000, 3000),
+                                                                                    "page3"));
+
+        S3BatchDeleter.Result result = new S3BatchDeleter(client, BUCKET, 1, 3, 1).delete(pages, checkpoints::add);
+
+        assertEquals(2999, result.getDeleted());
+        assertEquals(1, result.getFailed());
+        assertEquals("key1200", result.getErrors().get(0).key());
+        assertEquals(List.of("page1"), checkpoints);
+    }
+
+    @Test
+    public void testSynchronousExceptionsDontBlockTheDelete() throws Exception {
+        when(client.deleteObjects(any(DeleteObjectsRequest.class)))
+            .thenThrow(SdkClientException.create("Unable to send the request"));
+
+        S3BatchDeleter.Result result = new S3BatchDeleter(client, BUCKET, 1, 0, 1).delete(List.of("a", "b"));
+
+        assertEquals(0, result.getDeleted());
+        assertEquals(2, result.getFailed());
+        assertEquals(S3BatchDeleter.REQUEST_FAILED_ERROR_CODE, result.getErrors().get(0).code());
+    }
+
+    private List<ObjectIdentifier> createObjects(int start, int end) {
+        return IntStream.range(start, end)
+                        .mapToObj(i -> ObjectIdentifier.builder().key("key" + i).build())
+                        .collect(Collectors.toList());
+    }
+
+}
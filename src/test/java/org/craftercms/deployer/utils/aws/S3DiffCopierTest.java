@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.aws;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Iterable;
+import software.amazon.awssdk.transfer.s3.S3TransferManager;
+import software.amazon.awssdk.transfer.s3.model.CompletedCopy;
+import software.amazon.awssdk.transfer.s3.model.Copy;
+import software.amazon.awssdk.transfer.s3.model.CopyRequest;
+
+import static org.craftercms.deployer.utils.core.StringComparators.CODE_POINT_ORDER;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link S3DiffCopier}. The listings are served from memory, in pages of {@link #PAGE_SIZE} objects.
+ */
+public class S3DiffCopierTest {
+
+    private static final String SRC_BUCKET = "source";
+    private static final String SRC_PREFIX = "site1/";
+    private static final String DST_BUCKET = "target";
+    private static final String DST_PREFIX = "site2/";
+    private static final int PAGE_SIZE = 2;
+    private static final Instant NOW = Instant.now();
+
+    private Map<String, TreeMap<String, S3Object>> buckets;
+    private Map<String, String> checksums;
+    private List<String> copiedKeys;
+    private S3Client client;
+    private S3TransferManager transferManager;
+
+    @Before
+    public void setUp() {
+        buckets = new HashMap<>();
+        buckets.put(SRC_BUCKET, new TreeMap<>(CODE_POINT_ORDER));
+        buckets.put(DST_BUCKET, new TreeMap<>(CODE_POINT_ORDER));
+        copiedKeys = new CopyOnWriteArrayList<>();
+        checksums = new HashMap<>();
+
+        client = mock(S3Client.class);
+        when(client.listObjectsV2Paginator(any(ListObjectsV2Request.class)))
+            .thenAnswer(invocation -> new ListObjectsV2Iterable(client, invocation.getArgument(0)));
+        when(client.listObjectsV2(any(ListObjectsV2Request.class)))
+            .thenAnswer(invocation -> listPage(invocation.getArgument(0)));
+        when(client.headObject(any(HeadObjectRequest.class))).thenAnswer(invocation -> {
+            HeadObjectRequest request = invocation.getArgument(0);
+            return HeadObjectResponse.builder()
+                                     .checksumCRC32(checksums.get(request.bucket() + "/" + request.key()))
+                                     .build();
+        });
+
+        transferManager = mock(S3TransferManager.class);
+        when(transferManager.copy(any(CopyRequest.class))).thenAnswer(invocation -> {
+            CopyRequest request = invocation.getArgument(0);
+            copiedKeys.add(request.copyObjectRequest().destinationKey());
+
+            Copy copy = mock(Copy.class);
+            when(copy.completionFuture()).thenReturn(CompletableFuture.<CompletedCopy>completedFuture(null));
+
+            return copy;
+        });
+    }
+
+    @Test
+    public void testOnlyMissingOrChangedObjectsAreCopied() throws Exception {
+        putSource("a.xml", 10, "etaga");
+        putSource("b.xml", 10, "etagb");
+        putSource("c.xml", 10, "etagc");
+        putSource("d.xml", 10, "etagd");
+        putSource("e.xml", 10, "etage");
+
+        putTarget("a.xml", 10, "etaga", NOW);
+        putTarget("b.xml", 10, "etagchanged", NOW);
+        putTarget("bb.xml", 10, "etagbb", NOW);
+        putTarget("d.xml", 10, "etagd", NOW);
+
+        List<String> checkpoints = new ArrayList<>();
+        S3DiffCopier.Result result = new S3DiffCopier(client, transferManager, 2)
+            .copy(SRC_BUCKET, SRC_PREFIX, DST_BUCKET, DST_PREFIX, null, null, checkpoints::add);
+
+        assertFalse(result.hasErrors());
+        assertEquals(3, result.getCopied());
+        assertEquals(2, result.getSkipped());
+        assertEquals(List.of("site2/b.xml", "site2/c.xml", "site2/e.xml"), copiedKeys.stream().sorted().toList());
+        assertEquals("e.xml", checkpoints.get(checkpoints.size() - 1));
+    }
+
+    @Test
+    public void testCopyIsResumedAndFiltered() throws Exception {
+        putSource("a.xml", 10, "etaga");
+        putSource("b.xml", 10, "etagb");
+        putSource("c.blob", 10, "etagc");
+        putSource("d.xml", 10, "etagd");
+
+        S3DiffCopier.Result result = new S3DiffCopier(client, transferManager, 1)
+            .copy(SRC_BUCKET, SRC_PREFIX, DST_BUCKET, DST_PREFIX, key -> !key.endsWith(".blob"), "a.xml", null);
+
+        assertEquals(2, result.getCopied());
+        assertEquals(List.of("site2/b.xml", "site2/d.xml"), copiedKeys);
+    }
+
+    @Test
+    public void testSynchronousCopyErrorsDontBlockTheCopy() throws Exception {
+        putSource("a.xml", 10, "etaga");
+        putSource("b.xml", 10, "etagb");
+        putSource("c.xml", 10, "etagc");
+
+        when(transferManager.copy(any(CopyRequest.class))).thenThrow(new IllegalStateException("Closed"));
+
+        List<String> checkpoints = new ArrayList<>();
+        S3DiffCopier.Result result = new S3DiffCopier(client, transferManager, 1)
+            .copy(SRC_BUCKET, SRC_PREFIX, DST_BUCKET, DST_PREFIX, null, null, checkpoints::add);
+
+        assertEquals(0, result.getCopied());
+        assertEquals(3, result.getFailed());
+        assertTrue(checkpoints.isEmpty());
+    }
+
+    @Test
+    public void testKeysWithCharactersOutsideTheBmpAreMerged() throws Exception {
+        // U+FFFF is listed before U+1F600 by S3, but it would be after its surrogates in UTF-16 order
+        putSource("\uFFFF.xml", 10, "etag1");
+        putSource("\uD83D\uDE00.xml", 10, "etag2");
+        putTarget("\uFFFF.xml", 10, "etag1", NOW);
+        putTarget("\uD83D\uDE00.xml", 10, "etag2", NOW);
+
+        S3DiffCopier.Result result = new S3DiffCopier(client, transferManager, 1)
+            .copy(SRC_BUCKET, SRC_PREFIX, DST_BUCKET, DST_PREFIX, null, null, null);
+
+        assertEquals(0, result.getCopied());
+        assertEquals(2, result.getSkipped());
+    }
+
+    @Test
+    public void testIsUpToDate() {
+        S3DiffCopier copier = new S3DiffCopier(client, transferManager, 1);
+        S3Object src = createObject("a.xml", 10, "etag", NOW);
+
+        assertTrue(isUpToDate(copier, src, createObject("a.xml", 10, "etag", NOW.minusSeconds(60))));
+        assertFalse(isUpToDate(copier, src, createObject("a.xml", 11, "etag", NOW)));
+        assertFalse(isUpToDate(copier, src, createObject("a.xml", 10, "other", NOW.plusSeconds(60))));
+    }
+
+    @Test
+    public void testMultipartCopiesAreComparedByChecksum() {
+        S3DiffCopier copier = new S3DiffCopier(client, transferManager, 1);
+        S3Object src = createObject("a.xml", 10, "etag", NOW);
+        S3Object dst = createObject("b.xml", 10, "other-2", NOW.plusSeconds(60));
+
+        // Without checksums there's no way to know, even if the copy is newer
+        assertFalse(isUpToDate(copier, src, dst));
+
+        checksums.put(SRC_BUCKET + "/a.xml", "crc1");
+        checksums.put(DST_BUCKET + "/b.xml", "crc2");
+        assertFalse(isUpToDate(copier, src, dst));
+
+        checksums.put(DST_BUCKET + "/b.xml", "crc1");
+        assertTrue(isUpToDate(copier, src, dst));
+        assertFalse(isUpToDate(copier, src, createObject("b.xml", 11, "other-2", NOW)));
+    }
+
+    private boolean isUpToDate(S3DiffCopier copier, S3Object src, S3Object dst) {
+        return copier.isUpToDate(SRC_BUCKET, src, DST_BUCKET, dst);
+    }
+
+    private void putSource(String key, long size, String eTag) {
+        buckets.get(SRC_BUCKET).put(SRC_PREFIX + key, createObject(SRC_PREFIX + key, size, eTag, NOW));
+    }
+
+    private void putTarget(String key, long size, String eTag, Instant lastModified) {
+        buckets.get(DST_BUCKET).put(DST_PREFIX + key, createObject(DST_PREFIX + key, size, eTag, lastModified));
+    }
+
+    private S3Object createObject(String key, long size, String eTag, Instant lastModified) {
+        return S3Object.builder().key(key).size(size).eTag(eTag).lastModified(lastModified).build();
+    }
+
+    private ListObjectsV2Response listPage(ListObjectsV2Request request) {
+        List<S3Object> objects = buckets.get(request.bucket()).values().stream()
+                                        .filter(o -> o.key().startsWith(StringUtils.defaultString(request.prefix())))
+                                        .filter(o -> request.startAfter() == null ||
+                                                     CODE_POINT_ORDER.compare(o.key(), request.startAfter()) > 0)
+                                        .collect(Collectors.toList());
+
+        int start = request.continuationToken() != null ? Integer.parseInt(request.continuationToken()) : 0;
+        int end = Math.min(start + PAGE_SIZE, objects.size());
+        boolean truncated = end < objects.size();
+
+        return ListObjectsV2Response.builder()
+                                    .contents(objects.subList(start, end))
+                                    .isTruncated(truncated)
+                                    .nextContinuationToken(truncated ? String.valueOf(end) : null)
+                                    .build();
+    }
+
+}
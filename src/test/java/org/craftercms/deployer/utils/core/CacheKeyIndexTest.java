@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.core;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link CacheKeyIndex}.
+ */
+public class CacheKeyIndexTest {
+
+    private static final String INDEX_PATH = "/site/website/index.xml";
+    private static final String CONTENT_KEY = INDEX_PATH + ":crafter.content";
+    private static final String ITEM_KEY = "[/site/website/index.xml, crafter.item]";
+    private static final String TREE_KEY = "crafter.tree:/site/website/:2";
+    private static final String OTHER_KEY = "/site/website/about/index.xml:crafter.content";
+
+    @Test
+    public void testKeyPaths() {
+        assertEquals(List.of(INDEX_PATH), CacheKeyIndex.getKeyPaths(CONTENT_KEY));
+        assertEquals(List.of("/site/website"), CacheKeyIndex.getKeyPaths(TREE_KEY));
+        assertEquals(List.of("/site/website/index.xml.bak"),
+                     CacheKeyIndex.getKeyPaths("/site/website/index.xml.bak:crafter.content"));
+        assertEquals(List.of(INDEX_PATH, "/site"), CacheKeyIndex.getKeyPaths(List.of("/site/website/./index.xml",
+                                                                                     "crafter.item", "/site/")));
+        assertEquals(List.of(INDEX_PATH), CacheKeyIndex.getKeyPaths(new Object[] { INDEX_PATH, 2 }));
+    }
+
+    @Test
+    public void testKeysOfPaths() {
+        CacheKeyIndex index = new CacheKeyIndex();
+        index.update(List.of(CONTENT_KEY, ITEM_KEY, TREE_KEY, OTHER_KEY));
+
+        assertEquals(Set.of(CONTENT_KEY, ITEM_KEY), index.getKeys(Set.of(INDEX_PATH)));
+        assertEquals(Set.of(TREE_KEY), index.getKeys(Set.of("/site/website")));
+        assertEquals(Set.of(), index.getKeys(Set.of("/site/components/header.xml")));
+    }
+
+    @Test
+    public void testUpdateTracksTheKeysOfTheCache() {
+        CacheKeyIndex index = new CacheKeyIndex();
+        index.update(List.of(CONTENT_KEY, ITEM_KEY, OTHER_KEY));
+
+        // The item entry was evicted and the tree was loaded since the last update
+        index.update(List.of(CONTENT_KEY, TREE_KEY, OTHER_KEY));
+
+        assertEquals(3, index.size());
+        assertEquals(Set.of(CONTENT_KEY), index.getKeys(Set.of(INDEX_PATH)));
+        assertEquals(Set.of(TREE_KEY), index.getKeys(Set.of("/site/website")));
+
+        index.remove(CONTENT_KEY);
+
+        assertEquals(Set.of(), index.getKeys(Set.of(INDEX_PATH)));
+
+        index.clear();
+
+        assertEquals(0, index.size());
+        assertEquals(Set.of(), index.getKeys(Set.of("/site/website/about/index.xml")));
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.core;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.dom4j.DocumentHelper;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link DependencyGraphManager}.
+ */
+public class DependencyGraphManagerTest {
+
+    private static final String LEVEL_DESCRIPTOR_PATH = "/site/website/crafter-level-descriptor.level.xml";
+    private static final String PAGE_PATH = "/site/website/articles/index.xml";
+    private static final String HEADER_PATH = "/site/components/header.xml";
+    private static final String LOGO_PATH = "/site/components/logo.xml";
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File repoFolder;
+    private File storeFile;
+
+    @Before
+    public void setUp() throws Exception {
+        repoFolder = tmpFolder.newFolder("repo");
+        storeFile = new File(tmpFolder.getRoot(), "graphs/site.json");
+
+        writeFile(LEVEL_DESCRIPTOR_PATH, "<component><merge-strategy>single-file</merge-strategy></component>");
+        writeFile(PAGE_PATH, "<page><merge-strategy>inherit-levels</merge-strategy><header><item>" +
+                             "<key>" + HEADER_PATH + "</key><include>" + HEADER_PATH + "</include>" +
+                             "</item></header></page>");
+        writeFile(HEADER_PATH, "<component><logo><item><include>" + LOGO_PATH + "</include></item></logo>" +
+                               "</component>");
+        writeFile(LOGO_PATH, "<component><url>/static-assets/logo.png</url></component>");
+    }
+
+    @Test
+    public void testGraphIsBuiltFromRepo() throws Exception {
+        DependencyGraph graph = new DependencyGraphManager(repoFolder, storeFile).getGraph();
+
+        assertEquals(Set.of(HEADER_PATH, PAGE_PATH), graph.getDependents(LOGO_PATH, true));
+        assertEquals(Set.of(PAGE_PATH), graph.getDependents(LEVEL_DESCRIPTOR_PATH, false));
+        assertEquals(Set.of(PAGE_PATH), graph.getDependents("/site/crafter-level-descriptor.level.xml", false));
+        assertTrue(graph.getDependents(LOGO_PATH, false).isEmpty());
+        assertTrue(storeFile.exists());
+    }
+
+    @Test
+    public void testGraphIsUpdatedAndStored() throws Exception {
+        DependencyGraphManager manager = new DependencyGraphManager(repoFolder, storeFile);
+        manager.getGraph();
+
+        writeFile(PAGE_PATH, "<page><merge-strategy>inherit-levels</merge-strategy></page>");
+        FileUtils.deleteQuietly(new File(repoFolder, HEADER_PATH));
+
+        manager.update(List.of(PAGE_PATH), List.of(HEADER_PATH));
+
+        DependencyGraph graph = new DependencyGraphManager(repoFolder, storeFile).getGraph();
+
+        assertEquals(Collections.emptySet(), graph.getDependents(LOGO_PATH, true));
+        assertEquals(Set.of(PAGE_PATH), graph.getDependents(LEVEL_DESCRIPTOR_PATH, true));
+    }
+
+    @Test
+    public void testGraphIsUpdatedWithRecordedDependencies() throws Exception {
+        DependencyGraphManager manager = new DependencyGraphManager(repoFolder, storeFile);
+        manager.getGraph();
+
+        // The file in the repo still includes the header, the indexed document is used instead
+        manager.recordDependencies("ctx", PAGE_PATH, DocumentHelper.parseText(
+            "<page><merge-strategy>single-file</merge-strategy><logo><item><include>" + LOGO_PATH +
+            "</include></item></logo></page>"));
+        manager.update("ctx", List.of(PAGE_PATH), Collections.emptyList());
+
+        DependencyGraph graph = manager.getGraph();
+
+        assertEquals(Set.of(HEADER_PATH, PAGE_PATH), graph.getDependents(LOGO_PATH, true));
+        assertEquals(Collections.emptySet(), graph.getDependents(HEADER_PATH, true));
+        assertEquals(Collections.emptySet(), graph.getDependents(LEVEL_DESCRIPTOR_PATH, false));
+    }
+
+    @Test
+    public void testDependentsAreCapped() {
+        DependencyGraph graph = new DependencyGraph();
+        for (int i = 0; i < 10; i++) {
+            graph.setDependencies("/site/website/page-" + i + "/index.xml", Set.of(HEADER_PATH),
+                                  Collections.emptySet());
+        }
+
+        assertEquals(10, graph.getDependents(HEADER_PATH, true).size());
+        assertEquals(3, graph.getDependents(HEADER_PATH, true, 3).size());
+    }
+
+    private void writeFile(String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(repoFolder, path), content, StandardCharsets.UTF_8);
+    }
+
+}
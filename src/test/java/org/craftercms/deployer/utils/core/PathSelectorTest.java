@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.core;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link PathSelector}.
+ */
+public class PathSelectorTest {
+
+    private static final String BLOG_PAGE_PATH = "/site/website/blog/index.xml";
+    private static final String BLOG_POST_PATH = "/site/website/blog/2024/post/index.xml";
+    private static final String ABOUT_PAGE_PATH = "/site/website/about/index.xml";
+    private static final String IMAGE_PATH = "/static-assets/images/blog/logo.png";
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File repoFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        repoFolder = tmpFolder.newFolder("repo");
+
+        writeFile(BLOG_PAGE_PATH);
+        writeFile(BLOG_POST_PATH);
+        writeFile(ABOUT_PAGE_PATH);
+        writeFile(IMAGE_PATH + ".blob");
+        writeFile("/.git/config");
+    }
+
+    @Test
+    public void testSelectByPrefixAndGlob() throws Exception {
+        PathSelector selector = new PathSelector(List.of("/site/website/blog/", "static-assets/**/*.png"));
+
+        assertEquals(Set.of(BLOG_PAGE_PATH, BLOG_POST_PATH, IMAGE_PATH), selector.select(repoFolder, ".blob"));
+        assertTrue(selector.matches(BLOG_POST_PATH));
+        assertFalse(selector.matches("/site/website/blogger/index.xml"));
+        assertFalse(selector.matches(ABOUT_PAGE_PATH));
+    }
+
+    @Test(expected = DeployerException.class)
+    public void testPathsOutsideRepoAreRejected() throws Exception {
+        new PathSelector(List.of("/site/../../etc"));
+    }
+
+    @Test
+    public void testSelectorFromParam() throws Exception {
+        PathSelector selector = PathSelector.fromParam("/site/website/blog,static-assets/**/*.png");
+
+        assertEquals(List.of("/site/website/blog", "/static-assets"), selector.getRoots());
+        assertTrue(selector.matches(IMAGE_PATH));
+        assertEquals(List.of("/site/website/about"),
+                     PathSelector.fromParam(List.of("/site/website/about/")).getRoots());
+        assertNull(PathSelector.fromParam(""));
+        assertNull(PathSelector.fromParam(null));
+    }
+
+    private void writeFile(String path) throws Exception {
+        FileUtils.writeStringToFile(new File(repoFolder, path), "<page/>", StandardCharsets.UTF_8);
+    }
+
+}
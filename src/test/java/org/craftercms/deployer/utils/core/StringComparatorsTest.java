@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.craftercms.deployer.utils.core.StringComparators.CODE_POINT_ORDER;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link StringComparators}.
+ */
+public class StringComparatorsTest {
+
+    @Test
+    public void testCodePointOrder() {
+        // U+1F600 is a surrogate pair in UTF-16, so String.compareTo places it before U+FF21
+        String emoji = "/a/\uD83D\uDE00.xml";
+        String fullWidth = "/a/\uFF21.xml";
+        List<String> strings = new ArrayList<>(List.of(emoji, fullWidth, "/a/b.xml", "/a", "/a-b", "/a/"));
+
+        strings.sort(CODE_POINT_ORDER);
+
+        assertEquals(List.of("/a", "/a-b", "/a/", "/a/b.xml", fullWidth, emoji), strings);
+        assertTrue(emoji.compareTo(fullWidth) < 0);
+        assertEquals(0, CODE_POINT_ORDER.compare(emoji, "/a/\uD83D\uDE00.xml"));
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.git;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import org.apache.commons.io.FileUtils;
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link GitRepoMaintainer}.
+ */
+public class GitRepoMaintainerTest {
+
+    private static final int COMMIT_COUNT = 20;
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File repoFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        repoFolder = tmpFolder.newFolder("repo");
+
+        try (Git git = Git.init().setDirectory(repoFolder).call()) {
+            for (int i = 0; i < COMMIT_COUNT; i++) {
+                FileUtils.writeStringToFile(new File(repoFolder, "page" + i + ".xml"), "<page>" + i + "</page>",
+                                            StandardCharsets.UTF_8);
+
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("Commit " + i).call();
+                git.branchCreate().setName("branch" + i).call();
+            }
+        }
+    }
+
+    @Test
+    public void testMaintenanceOverThresholds() throws Exception {
+        GitMaintenanceStats stats = new GitRepoMaintainer(10, 10, 10).maintain(repoFolder);
+
+        assertTrue(stats.getActions().contains(GitMaintenanceStats.Action.PACK_REFS));
+        assertTrue(stats.getActions().contains(GitMaintenanceStats.Action.REPACK));
+        assertTrue(stats.getLooseObjectsBefore() > 0);
+        assertEquals(0, stats.getLooseObjectsAfter());
+        assertEquals(1, stats.getPackFilesAfter());
+        assertTrue(stats.getLooseRefsAfter() < stats.getLooseRefsBefore());
+        assertNull(stats.getError());
+        assertNotNull(stats.getDuration());
+    }
+
+    @Test
+    public void testRepackPreservesOldPacks() throws Exception {
+        GitRepoMaintainer maintainer = new GitRepoMaintainer(10, 10, 1000);
+        maintainer.maintain(repoFolder);
+
+        try (Git git = Git.open(repoFolder)) {
+            // Replaced packs are only removed once they expire
+            StoredConfig config = git.getRepository().getConfig();
+            config.setString(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_PRUNEPACKEXPIRE,
+                             "now");
+            config.save();
+
+            for (int i = 0; i < COMMIT_COUNT; i++) {
+                FileUtils.writeStringToFile(new File(repoFolder, "new" + i + ".xml"), "<page>" + i + "</page>",
+                                            StandardCharsets.UTF_8);
+
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("New commit " + i).call();
+            }
+        }
+
+        GitMaintenanceStats stats = maintainer.maintain(repoFolder);
+
+        assertTrue(stats.getActions().contains(GitMaintenanceStats.Action.REPACK));
+        assertEquals(0, stats.getLooseObjectsAfter());
+        assertEquals(1, stats.getPackFilesAfter());
+
+        File[] preservedFiles = new File(repoFolder, ".git/objects/pack/preserved").listFiles();
+        assertNotNull(preservedFiles);
+        assertTrue(preservedFiles.length > 0);
+
+        try (Git git = Git.open(repoFolder)) {
+            assertTrue(git.status().call().isClean());
+        }
+    }
+
+    @Test
+    public void testAttachedRepoIsNotRepacked() throws Exception {
+        File sharedFolder = tmpFolder.newFolder("shared");
+        Git.init().setBare(true).setDirectory(sharedFolder).call().close();
+
+        FileUtils.writeStringToFile(new File(repoFolder, ".git/" + SharedGitObjectsStore.ALTERNATES_FILE_PATH),
+                                    new File(sharedFolder, Constants.OBJECTS).getAbsolutePath() + "\n",
+                                    StandardCharsets.UTF_8);
+
+        GitMaintenanceStats stats = new GitRepoMaintainer(10, 10, 1000).maintain(repoFolder);
+
+        assertFalse(stats.getActions().contains(GitMaintenanceStats.Action.REPACK));
+        assertEquals(stats.getLooseObjectsBefore(), stats.getLooseObjectsAfter());
+        assertEquals(0, stats.getPackFilesAfter());
+    }
+
+    @Test
+    public void testRepackIsCancelledAtDeadline() throws Exception {
+        GitRepoMaintainer maintainer = new GitRepoMaintainer(10, 10, 1000);
+
+        try {
+            maintainer.maintain(repoFolder, Instant.now().minusSeconds(1));
+            fail("Exception expected");
+        } catch (DeployerException e) {
+            assertTrue(e.getMessage().contains("deadline"));
+        }
+
+        try (Git git = Git.open(repoFolder)) {
+            assertTrue(git.status().call().isClean());
+            assertNotNull(git.getRepository().resolve("branch" + (COMMIT_COUNT - 1)));
+        }
+    }
+
+    @Test
+    public void testMaintenanceUnderThresholds() throws Exception {
+        GitMaintenanceStats stats = new GitRepoMaintainer(1000, 10, 100).maintain(repoFolder);
+
+        assertTrue(stats.getActions().isEmpty());
+        assertEquals(stats.getLooseObjectsBefore(), stats.getLooseObjectsAfter());
+        assertEquals(0, stats.getPackFilesAfter());
+    }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.git;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Unit tests for {@link ParallelCheckout}. Also includes a benchmark against the regular JGit checkout using a
+ * synthetic repository, which is only executed when the {@code parallelCheckout.benchmark} system property is true.
+ * The number of files can be changed with the {@code parallelCheckout.benchmark.files} system property:
+ *
+ * <pre>
+ * mvn test -Dtest=ParallelCheckoutTest -DparallelCheckout.benchmark=true -DparallelCheckout.benchmark.files=200000
+ * </pre>
+ */
+public class ParallelCheckoutTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelCheckoutTest.class);
+
+    private static final String BENCHMARK_PROPERTY = "parallelCheckout.benchmark";
+    private static final String BENCHMARK_FILES_PROPERTY = "parallelCheckout.benchmark.files";
+    private static final int FILES_PER_FOLDER = 100;
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File sourceRepoFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        sourceRepoFolder = tmpFolder.newFolder("source");
+
+        Git.init().setBare(true).setDirectory(sourceRepoFolder).call().close();
+    }
+
+    @Test
+    public void testCheckout() throws Exception {
+        ObjectId commitId = createSyntheticCommit(1000);
+
+        try (Git git = createRepoWithAlternates("local", commitId)) {
+            ParallelCheckout checkout = new ParallelCheckout(4, 50);
+
+            assertTrue(checkout.isSupported(git.getRepository(), commitId));
+            assertEquals(1000, checkout.checkout(git.getRepository(), commitId));
+
+            File workTree = git.getRepository().getWorkTree();
+
+            assertEquals("<page>0</page>", FileUtils.readFileToString(new File(workTree, "folder0000/page000000.xml"),
+                                                                      StandardCharsets.UTF_8));
+            assertEquals("<page>999</page>", FileUtils.readFileToString(new File(workTree,
+                                                                                 "folder0009/page000999.xml"),
+                                                                        StandardCharsets.UTF_8));
+            assertTrue(git.status().call().isClean());
+        }
+    }
+
+    @Test
+    public void testCheckoutReplacesStalePaths() throws Exception {
+        // a.xml is deleted, the b file is replaced by a folder and the folder is replaced by a file
+        ObjectId firstCommitId = createCommit(tree -> {
+            tree.append("a.xml", FileMode.REGULAR_FILE, blob("<a/>"));
+            tree.append("b", FileMode.REGULAR_FILE, blob("<b/>"));
+            tree.append("folder", FileMode.TREE, subtree("x.xml", blob("<x/>")));
+        });
+        ObjectId secondCommitId = createCommit(tree -> {
+            tree.append("b", FileMode.TREE, subtree("c.xml", blob("<c/>")));
+            tree.append("folder", FileMode.REGULAR_FILE, blob("<folder/>"));
+        });
+
+        try (Git git = createRepoWithAlternates("local", firstCommitId)) {
+            ParallelCheckout checkout = new ParallelCheckout(2, 1);
+            File workTree = git.getRepository().getWorkTree();
+
+            assertEquals(3, checkout.checkout(git.getRepository(), firstCommitId));
+
+            RefUpdate update = git.getRepository().updateRef(Constants.HEAD);
+            update.setNewObjectId(secondCommitId);
+            update.forceUpdate();
+
+            assertEquals(2, checkout.checkout(git.getRepository(), secondCommitId));
+
+            assertFalse(new File(workTree, "a.xml").exists());
+            assertEquals("<c/>", FileUtils.readFileToString(new File(workTree, "b/c.xml"), StandardCharsets.UTF_8));
+            assertEquals("<folder/>", FileUtils.readFileToString(new File(workTree, "folder"),
+                                                                 StandardCharsets.UTF_8));
+            assertEquals(Set.of(".git", "b", "folder"), Set.of(workTree.list()));
+            assertTrue(git.status().call().isClean());
+        }
+    }
+
+    @Test
+    public void testNotSupportedWithAttributes() throws Exception {
+        ObjectId rootAttributesCommitId = createCommitWithAttributes(null);
+        ObjectId nestedAttributesCommitId = createCommitWithAttributes("static-assets");
+
+        try (Git git = createRepoWithAlternates("local", rootAttributesCommitId)) {
+            ParallelCheckout checkout = new ParallelCheckout(4, 50);
+
+            assertFalse(checkout.isSupported(git.getRepository(), rootAttributesCommitId));
+            assertFalse(checkout.isSupported(git.getRepository(), nestedAttributesCommitId));
+        }
+    }
+
+    @Test
+    public void testBenchmark() throws Exception {
+        assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+
+        int fileCount = Integer.getInteger(BENCHMARK_FILES_PROPERTY, 200000);
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        ObjectId commitId = createSyntheticCommit(fileCount);
+
+        try (Git git = createRepoWithAlternates("jgit", commitId);
+             RevWalk revWalk = new RevWalk(git.getRepository())) {
+            Repository repo = git.getRepository();
+            long start = System.currentTimeMillis();
+
+            DirCacheCheckout dirCacheCheckout = new DirCacheCheckout(repo, repo.lockDirCache(),
+                                                                     revWalk.parseCommit(commitId).getTree());
+            dirCacheCheckout.checkout();
+
+            logger.info("JGit checkout of {} files: {} ms", fileCount, System.currentTimeMillis() - start);
+        }
+
+        try (Git git = createRepoWithAlternates("parallel", commitId)) {
+            long start = System.currentTimeMillis();
+
+            new ParallelCheckout(threadCount, 500).checkout(git.getRepository(), commitId);
+
+            logger.info("Parallel checkout of {} files with {} threads: {} ms", fileCount, threadCount,
+                        System.currentTimeMillis() - start);
+        }
+    }
+
+    private ObjectId createSyntheticCommit(int fileCount) throws Exception {
+        try (Git git = Git.open(sourceRepoFolder);
+             ObjectInserter inserter = git.getRepository().newObjectInserter()) {
+            TreeFormatter rootTree = new TreeFormatter();
+
+            for (int folder = 0; folder * FILES_PER_FOLDER < fileCount; folder++) {
+                TreeFormatter folderTree = new TreeFormatter();
+
+                int end = Math.min((folder + 1) * FILES_PER_FOLDER, fileCount);
+
+                for (int i = folder * FILES_PER_FOLDER; i < end; i++) {
+                    byte[] content = ("<page>" + i + "</page>").getBytes(StandardCharsets.UTF_8);
+
+                    folderTree.append(String.format("page%06d.xml", i), FileMode.REGULAR_FILE,
+                                      inserter.insert(Constants.OBJ_BLOB, content));
+                }
+
+                rootTree.append(String.format("folder%04d", folder), FileMode.TREE, inserter.insert(folderTree));
+            }
+
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(inserter.insert(rootTree));
+            commit.setAuthor(new PersonIdent("test", "test@example.com"));
+            commit.setCommitter(commit.getAuthor());
+            commit.setMessage("Synthetic commit");
+
+            ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+
+            return commitId;
+        }
+    }
+
+    private ObjectId createCommit(TreeBuilder builder) throws Exception {
+        try (Git git = Git.open(sourceRepoFolder);
+             ObjectInserter inserter = git.getRepository().newObjectInserter()) {
+            TreeFormatter tree = new TreeFormatter();
+            builder.build(tree);
+
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(inserter.insert(tree));
+            commit.setAuthor(new PersonIdent("test", "test@example.com"));
+            commit.setCommitter(commit.getAuthor());
+            commit.setMessage("Test commit");
+
+            ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+
+            return commitId;
+        }
+    }
+
+    private ObjectId blob(String content) throws Exception {
+        try (Git git = Git.open(sourceRepoFolder);
+             ObjectInserter inserter = git.getRepository().newObjectInserter()) {
+            ObjectId blobId = inserter.insert(Constants.OBJ_BLOB, content.getBytes(StandardCharsets.UTF_8));
+            inserter.flush();
+
+            return blobId;
+        }
+    }
+
+    private ObjectId subtree(String name, ObjectId blobId) throws Exception {
+        try (Git git = Git.open(sourceRepoFolder);
+             ObjectInserter inserter = git.getRepository().newObjectInserter()) {
+            TreeFormatter tree = new TreeFormatter();
+            tree.append(name, FileMode.REGULAR_FILE, blobId);
+
+            ObjectId treeId = inserter.insert(tree);
+            inserter.flush();
+
+            return treeId;
+        }
+    }
+
+    private ObjectId createCommitWithAttributes(String folder) throws Exception {
+        try (Git git = Git.open(sourceRepoFolder);
+             ObjectInserter inserter = git.getRepository().newObjectInserter()) {
+            TreeFormatter attributesTree = new TreeFormatter();
+            attributesTree.append(Constants.DOT_GIT_ATTRIBUTES, FileMode.REGULAR_FILE,
+                                  inserter.insert(Constants.OBJ_BLOB,
+                                                  "*.txt eol=crlf\n".getBytes(StandardCharsets.UTF_8)));
+
+            ObjectId treeId = inserter.insert(attributesTree);
+            if (folder != null) {
+                TreeFormatter rootTree = new TreeFormatter();
+                rootTree.append(folder, FileMode.TREE, treeId);
+
+                treeId = inserter.insert(rootTree);
+            }
+
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(treeId);
+            commit.setAuthor(new PersonIdent("test", "test@example.com"));
+            commit.setCommitter(commit.getAuthor());
+            commit.setMessage("Commit with attributes");
+
+            ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+
+            return commitId;
+        }
+    }
+
+    private Git createRepoWithAlternates(String name, ObjectId commitId) throws Exception {
+        File repoFolder = tmpFolder.newFolder(name);
+
+        Git.init().setDirectory(repoFolder).call().close();
+
+        FileUtils.writeStringToFile(new File(repoFolder, ".git/" + SharedGitObjectsStore.ALTERNATES_FILE_PATH),
+                                    new File(sourceRepoFolder, Constants.OBJECTS).getAbsolutePath() + "\n",
+                                    StandardCharsets.UTF_8);
+
+        Git git = Git.open(repoFolder);
+
+        RefUpdate update = git.getRepository().updateRef(Constants.HEAD);
+        update.setNewObjectId(commitId);
+        update.forceUpdate();
+
+        return git;
+    }
+
+    private interface TreeBuilder {
+
+        void build(TreeFormatter tree) throws Exception;
+
+    }
+
+}
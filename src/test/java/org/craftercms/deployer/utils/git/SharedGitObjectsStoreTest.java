@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.git;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link SharedGitObjectsStore}.
+ */
+public class SharedGitObjectsStoreTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File remoteRepoFolder;
+    private String remoteRepoUrl;
+    private RevCommit remoteCommit;
+    private SharedGitObjectsStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        remoteRepoFolder = tmpFolder.newFolder("remote");
+        remoteRepoUrl = remoteRepoFolder.toURI().toString();
+
+        try (Git git = Git.init().setDirectory(remoteRepoFolder).setInitialBranch("live").call()) {
+            FileUtils.writeStringToFile(new File(remoteRepoFolder, "index.xml"), "<page/>", StandardCharsets.UTF_8);
+
+            git.add().addFilepattern(".").call();
+            remoteCommit = git.commit().setMessage("Initial commit").call();
+        }
+
+        store = new SharedGitObjectsStore(tmpFolder.newFolder("store"));
+    }
+
+    @Test
+    public void testFetch() throws Exception {
+        store.fetch(remoteRepoUrl, null);
+
+        try (Git git = Git.open(store.getRepoFolder(remoteRepoUrl))) {
+            assertEquals(remoteCommit.getId(), git.getRepository().resolve("refs/heads/live"));
+        }
+    }
+
+    @Test
+    public void testAttach() throws Exception {
+        File localRepoFolder = tmpFolder.newFolder("local");
+
+        store.fetch(remoteRepoUrl, null);
+
+        Git.init().setDirectory(localRepoFolder).call().close();
+
+        store.attach(new File(localRepoFolder, Constants.DOT_GIT), remoteRepoUrl);
+
+        try (Git git = Git.open(localRepoFolder)) {
+            // The commit is only available through the alternates
+            assertTrue(git.getRepository().getObjectDatabase().has(remoteCommit.getId()));
+        }
+
+        List<String> attachedRepos = FileUtils.readLines(getAttachedReposFile(), StandardCharsets.UTF_8);
+
+        assertEquals(List.of(new File(localRepoFolder, Constants.DOT_GIT).getAbsolutePath()), attachedRepos);
+        assertTrue(store.isAttached(new File(localRepoFolder, Constants.DOT_GIT), remoteRepoUrl));
+    }
+
+    @Test
+    public void testPruneKeepsObjectsOfAttachedRepos() throws Exception {
+        RevCommit featureCommit = commitToBranch("feature", "feature.xml");
+        RevCommit tempCommit = commitToBranch("temp", "temp.xml");
+
+        store.fetch(remoteRepoUrl, null);
+
+        File localRepoFolder = tmpFolder.newFolder("local");
+        Git.init().setDirectory(localRepoFolder).call().close();
+        store.attach(new File(localRepoFolder, Constants.DOT_GIT), remoteRepoUrl);
+
+        try (Git git = Git.open(localRepoFolder)) {
+            git.branchCreate().setName("feature").setStartPoint(featureCommit).call();
+        }
+
+        try (Git git = Git.open(remoteRepoFolder)) {
+            git.branchDelete().setBranchNames("feature", "temp").setForce(true).call();
+        }
+
+        store.fetch(remoteRepoUrl, null);
+
+        try (Git git = Git.open(store.getRepoFolder(remoteRepoUrl))) {
+            StoredConfig config = git.getRepository().getConfig();
+            config.setString(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_PRUNEEXPIRE, "now");
+            config.setString(ConfigConstants.CONFIG_GC_SECTION, null, "prunePackExpire", "now");
+            config.save();
+        }
+
+        // The packs replaced by a prune are preserved until the next one
+        store.prune();
+        store.prune();
+
+        try (Git git = Git.open(store.getRepoFolder(remoteRepoUrl))) {
+            assertTrue(git.getRepository().getObjectDatabase().has(remoteCommit.getId()));
+            assertTrue(git.getRepository().getObjectDatabase().has(featureCommit.getId()));
+            assertFalse(git.getRepository().getObjectDatabase().has(tempCommit.getId()));
+            assertTrue(git.getRepository().getRefDatabase().getRefsByPrefix("refs/attached/").isEmpty());
+        }
+    }
+
+    @Test
+    public void testPruneDeletesUnattachedRepos() throws Exception {
+        File localRepoFolder = tmpFolder.newFolder("local");
+
+        store.fetch(remoteRepoUrl, null);
+
+        Git.init().setDirectory(localRepoFolder).call().close();
+        store.attach(new File(localRepoFolder, Constants.DOT_GIT), remoteRepoUrl);
+
+        FileUtils.deleteDirectory(localRepoFolder);
+
+        // Still in the grace period
+        store.prune();
+
+        assertTrue(store.getRepoFolder(remoteRepoUrl).exists());
+
+        assertTrue(getAttachedReposFile().setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)));
+
+        store.prune();
+
+        assertFalse(store.getRepoFolder(remoteRepoUrl).exists());
+    }
+
+    private RevCommit commitToBranch(String branch, String fileName) throws Exception {
+        try (Git git = Git.open(remoteRepoFolder)) {
+            git.checkout().setCreateBranch(true).setName(branch).setStartPoint("live").call();
+
+            FileUtils.writeStringToFile(new File(remoteRepoFolder, fileName), "<page/>", StandardCharsets.UTF_8);
+            git.add().addFilepattern(".").call();
+            RevCommit commit = git.commit().setMessage("Add " + fileName).call();
+
+            git.checkout().setName("live").call();
+
+            return commit;
+        }
+    }
+
+    private File getAttachedReposFile() {
+        return new File(store.getRepoFolder(remoteRepoUrl), SharedGitObjectsStore.ATTACHED_REPOS_FILE_NAME);
+    }
+
+}
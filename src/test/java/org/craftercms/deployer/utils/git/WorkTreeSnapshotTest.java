@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.git;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link WorkTreeSnapshot}.
+ */
+public class WorkTreeSnapshotTest {
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File localRepoFolder;
+    private File snapshotFolder;
+    private RevCommit firstCommit;
+    private RevCommit secondCommit;
+
+    @Before
+    public void setUp() throws Exception {
+        localRepoFolder = tmpFolder.newFolder("local");
+        snapshotFolder = new File(tmpFolder.getRoot(), "snapshot");
+
+        try (Git git = Git.init().setDirectory(localRepoFolder).setInitialBranch("live").call()) {
+            writeFile("index.xml", "<page>1</page>");
+            writeFile("old.xml", "<page/>");
+            git.add().addFilepattern(".").call();
+            firstCommit = git.commit().setMessage("First commit").call();
+
+            writeFile("index.xml", "<page>2</page>");
+            writeFile("new.xml", "<page/>");
+            git.rm().addFilepattern("old.xml").call();
+            git.add().addFilepattern(".").call();
+            secondCommit = git.commit().setMessage("Second commit").call();
+        }
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        WorkTreeSnapshot snapshot = new WorkTreeSnapshot(localRepoFolder, snapshotFolder);
+
+        snapshot.update(firstCommit);
+
+        assertEquals("<page>1</page>", readFile("index.xml"));
+        assertTrue(new File(snapshotFolder, "old.xml").exists());
+        assertFalse(new File(snapshotFolder, "new.xml").exists());
+        // The local repo is not touched
+        assertEquals("<page>2</page>", FileUtils.readFileToString(new File(localRepoFolder, "index.xml"),
+                                                                  StandardCharsets.UTF_8));
+
+        snapshot.update(secondCommit);
+
+        assertEquals("<page>2</page>", readFile("index.xml"));
+        assertFalse(new File(snapshotFolder, "old.xml").exists());
+        assertTrue(new File(snapshotFolder, "new.xml").exists());
+
+        try (Git git = Git.open(snapshotFolder)) {
+            assertEquals(secondCommit.getId(), git.getRepository().resolve("HEAD"));
+            assertTrue(git.status().call().isClean());
+        }
+    }
+
+    @Test
+    public void testUpdateRecreatesBrokenSnapshot() throws Exception {
+        WorkTreeSnapshot snapshot = new WorkTreeSnapshot(localRepoFolder, snapshotFolder);
+
+        snapshot.update(firstCommit);
+
+        FileUtils.writeStringToFile(new File(snapshotFolder, ".git/HEAD"), "garbage", StandardCharsets.UTF_8);
+
+        snapshot.update(secondCommit);
+
+        assertEquals("<page>2</page>", readFile("index.xml"));
+        assertFalse(new File(snapshotFolder, "old.xml").exists());
+    }
+
+    private void writeFile(String path, String content) throws Exception {
+        FileUtils.writeStringToFile(new File(localRepoFolder, path), content, StandardCharsets.UTF_8);
+    }
+
+    private String readFile(String path) throws Exception {
+        return FileUtils.readFileToString(new File(snapshotFolder, path), StandardCharsets.UTF_8);
+    }
+
+}
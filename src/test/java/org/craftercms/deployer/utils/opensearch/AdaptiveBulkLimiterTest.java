@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link AdaptiveBulkLimiter}.
+ */
+public class AdaptiveBulkLimiterTest {
+
+    @Test
+    public void testLimitsDecreaseOnRejectionAndRecoverOnSuccess() {
+        BulkLimiterRegistry registry = new BulkLimiterRegistry();
+        AdaptiveBulkLimiter limiter = new AdaptiveBulkLimiter("site-preview", 8, 1600, 1000, 3, 10, registry);
+
+        limiter.onRejected();
+        limiter.onRejected();
+
+        assertEquals(2, limiter.getLimit());
+        assertEquals(400, limiter.getBulkSize());
+
+        limiter.onSuccess(5000);
+
+        assertEquals(1, limiter.getLimit());
+        assertEquals(200, limiter.getBulkSize());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess(10);
+        }
+
+        assertEquals(8, limiter.getLimit());
+        assertEquals(1600, limiter.getBulkSize());
+        assertEquals(2, limiter.getRejections());
+        assertEquals(101, limiter.getRequests());
+        assertSame(limiter, registry.getLimiters().get("site-preview"));
+
+        limiter.close();
+
+        assertTrue(registry.getLimiters().isEmpty());
+    }
+
+    @Test
+    public void testInFlightIsTracked() throws Exception {
+        BulkLimiterRegistry registry = new BulkLimiterRegistry();
+        AdaptiveBulkLimiter limiter = new AdaptiveBulkLimiter("site-preview", 2, 1600, 1000, 3, 10, registry);
+
+        limiter.acquire();
+        limiter.acquire();
+
+        assertEquals(2, registry.getInFlight());
+
+        limiter.release();
+
+        assertEquals(1, limiter.getInFlight());
+
+        long backoff = limiter.getBackoffMillis(2);
+        assertTrue(backoff >= 20 && backoff <= 40);
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.json.JsonpMapper;
+import org.opensearch.client.json.jackson.JacksonJsonpMapper;
+import org.opensearch.client.opensearch._types.Result;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.OperationType;
+import org.opensearch.client.transport.Endpoint;
+import org.opensearch.client.transport.OpenSearchTransport;
+import org.opensearch.client.transport.TransportOptions;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link AdaptiveBulkTransport}.
+ */
+public class AdaptiveBulkTransportTest {
+
+    private static final String INDEX = "site-preview";
+
+    private FakeTransport delegate;
+    private AdaptiveBulkTransport transport;
+
+    @Before
+    public void setUp() {
+        delegate = new FakeTransport();
+        transport = new AdaptiveBulkTransport(delegate, new AdaptiveBulkLimiter(INDEX, 2, 1000, 1000, 3, 10, null));
+    }
+
+    @Test
+    public void testBulkIsSplitBySize() throws Exception {
+        BulkResponse response = transport.performRequest(bulk(10, 300), BulkRequest._ENDPOINT, null);
+
+        assertEquals(5, delegate.bulks.size());
+        assertEquals(2, delegate.bulks.get(0).operations().size());
+        assertEquals(10, response.items().size());
+        assertFalse(response.errors());
+    }
+
+    @Test
+    public void testMissingItemsAreReportedAsErrors() throws Exception {
+        delegate.missingItems = 1;
+
+        BulkResponse response = transport.performRequest(bulk(3, 10), BulkRequest._ENDPOINT, null);
+
+        assertEquals(3, response.items().size());
+        assertTrue(response.errors());
+        assertNull(response.items().get(0).error());
+        assertNull(response.items().get(1).error());
+        assertEquals("2", response.items().get(2).id());
+        assertEquals(OperationType.Index, response.items().get(2).operationType());
+        assertEquals("missing_bulk_item", response.items().get(2).error().type());
+    }
+
+    private BulkRequest bulk(int count, int contentSize) {
+        List<BulkOperation> operations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String id = String.valueOf(i);
+            Map<String, Object> document = Map.of("content_t", StringUtils.repeat("x", contentSize));
+            operations.add(BulkOperation.of(b -> b.index(o -> o.index(INDEX).id(id).document(document))));
+        }
+
+        return BulkRequest.of(r -> r.operations(operations));
+    }
+
+    /**
+     * Transport that records the bulk requests and can leave out the last items of the responses
+     */
+    private static class FakeTransport implements OpenSearchTransport {
+
+        private final JsonpMapper mapper = new JacksonJsonpMapper();
+        private final List<BulkRequest> bulks = new ArrayList<>();
+        private int missingItems;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+                                                                      Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                      TransportOptions options) {
+            BulkRequest bulk = (BulkRequest) request;
+            bulks.add(bulk);
+
+            List<BulkResponseItem> items = new ArrayList<>();
+            for (BulkOperation operation : bulk.operations().subList(0, bulk.operations().size() - missingItems)) {
+                items.add(BulkResponseItem.of(i -> i
+                    .operationType(OperationType.Index)
+                    .index(INDEX)
+                    .id(operation.index().id())
+                    .status(201)
+                    .result(Result.Created.jsonValue())));
+            }
+
+            return (ResponseT) BulkResponse.of(r -> r.items(items).errors(false).took(1));
+        }
+
+        @Override
+        public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(
+                RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public JsonpMapper jsonpMapper() {
+            return mapper;
+        }
+
+        @Override
+        public TransportOptions options() {
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+    }
+
+}
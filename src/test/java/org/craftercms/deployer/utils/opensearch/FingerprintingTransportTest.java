@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.json.JsonpMapper;
+import org.opensearch.client.json.jackson.JacksonJsonpMapper;
+import org.opensearch.client.opensearch._types.Result;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.MgetRequest;
+import org.opensearch.client.opensearch.core.MgetResponse;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.OperationType;
+import org.opensearch.client.opensearch.core.mget.MultiGetResponseItem;
+import org.opensearch.client.transport.Endpoint;
+import org.opensearch.client.transport.OpenSearchTransport;
+import org.opensearch.client.transport.TransportOptions;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link FingerprintingTransport}.
+ */
+public class FingerprintingTransportTest {
+
+    private static final String INDEX = "site-preview";
+    private static final String FIELD = "contentFingerprint_s";
+
+    private FakeTransport delegate;
+    private FingerprintingTransport transport;
+
+    @Before
+    public void setUp() {
+        delegate = new FakeTransport();
+        transport = new FingerprintingTransport(delegate, FIELD);
+    }
+
+    @Test
+    public void testUnchangedDocumentsAreSkipped() throws Exception {
+        Map<String, Object> document = document("Home");
+        delegate.storedFingerprints.put("1", transport.getFingerprint(document));
+
+        BulkResponse response = transport.performRequest(bulk(Map.of("1", document)), BulkRequest._ENDPOINT, null);
+
+        assertTrue(delegate.bulks.isEmpty());
+        assertEquals(1, response.items().size());
+        assertEquals("1", response.items().get(0).id());
+        assertEquals(Result.NoOp.jsonValue(), response.items().get(0).result());
+    }
+
+    @Test
+    public void testChangedDocumentsAreWrittenWithFingerprint() throws Exception {
+        Map<String, Object> unchanged = document("Home");
+        Map<String, Object> changed = document("About");
+        delegate.storedFingerprints.put("1", transport.getFingerprint(unchanged));
+        delegate.storedFingerprints.put("2", "outdated");
+
+        Map<String, Map<String, Object>> documents = new LinkedHashMap<>();
+        documents.put("1", unchanged);
+        documents.put("2", changed);
+        documents.put("3", document("New"));
+
+        BulkResponse response = transport.performRequest(bulk(documents), BulkRequest._ENDPOINT, null);
+
+        assertEquals(1, delegate.bulks.size());
+        List<BulkOperation> sent = delegate.bulks.get(0).operations();
+        assertEquals(2, sent.size());
+        assertEquals("2", sent.get(0).index().id());
+        assertEquals(transport.getFingerprint(changed), ((Map<?, ?>) sent.get(0).index().document()).get(FIELD));
+        assertEquals("3", sent.get(1).index().id());
+
+        assertEquals(3, response.items().size());
+        assertEquals(Result.NoOp.jsonValue(), response.items().get(0).result());
+        assertEquals("2", response.items().get(1).id());
+        assertEquals(Result.Updated.jsonValue(), response.items().get(1).result());
+        assertEquals("3", response.items().get(2).id());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFingerprintDoesNotDependOnKeyOrder() {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("title_t", "Home");
+        first.put("header_o", new LinkedHashMap<>(Map.of("a_s", "1")));
+        ((Map<String, Object>) first.get("header_o")).put("b_s", "2");
+
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put("b_s", "2");
+        header.put("a_s", "1");
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("header_o", header);
+        second.put("title_t", "Home");
+        second.put(FIELD, "ignored");
+
+        assertEquals(transport.getFingerprint(first), transport.getFingerprint(second));
+    }
+
+    private Map<String, Object> document(String title) {
+        Map<String, Object> document = new HashMap<>();
+        document.put("title_t", title);
+        return document;
+    }
+
+    private BulkRequest bulk(Map<String, Map<String, Object>> documents) {
+        List<BulkOperation> operations = new ArrayList<>();
+        documents.forEach((id, document) -> operations.add(
+            BulkOperation.of(b -> b.index(i -> i.index(INDEX).id(id).document(document)))));
+
+        return BulkRequest.of(r -> r.operations(operations));
+    }
+
+    /**
+     * Transport that returns the stored fingerprints for multi gets and records the bulk requests
+     */
+    private static class FakeTransport implements OpenSearchTransport {
+
+        private final JsonpMapper mapper = new JacksonJsonpMapper();
+        private final Map<String, String> storedFingerprints = new HashMap<>();
+        private final List<BulkRequest> bulks = new ArrayList<>();
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+                                                                      Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                      TransportOptions options) {
+            if (request instanceof MgetRequest) {
+                List<MultiGetResponseItem<Map>> docs = new ArrayList<>();
+                for (var doc : ((MgetRequest) request).docs()) {
+                    String fingerprint = storedFingerprints.get(doc.id());
+                    docs.add(MultiGetResponseItem.of(i -> i.result(g -> g
+                        .index(INDEX)
+                        .id(doc.id())
+                        .found(fingerprint != null)
+                        .source(fingerprint != null ? Map.of(FIELD, fingerprint) : null))));
+                }
+
+                return (ResponseT) MgetResponse.<Map>of(r -> r.docs(docs));
+            }
+            if (request instanceof BulkRequest) {
+                BulkRequest bulk = (BulkRequest) request;
+                bulks.add(bulk);
+
+                List<BulkResponseItem> items = new ArrayList<>();
+                for (BulkOperation operation : bulk.operations()) {
+                    String id = operation.index().id();
+                    items.add(BulkResponseItem.of(i -> i
+                        .operationType(OperationType.Index)
+                        .index(INDEX)
+                        .id(id)
+                        .status(200)
+                        .result(storedFingerprints.containsKey(id) ? Result.Updated.jsonValue() :
+                                Result.Created.jsonValue())));
+                }
+
+                return (ResponseT) BulkResponse.of(r -> r.items(items).errors(false).took(1));
+            }
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(
+                RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public JsonpMapper jsonpMapper() {
+            return mapper;
+        }
+
+        @Override
+        public TransportOptions options() {
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.craftercms.deployer.utils.opensearch.IndexDriftDetector.DriftReport;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.SearchRequest;
+import org.opensearch.client.opensearch.core.search.Hit;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link IndexDriftDetector}.
+ */
+@SuppressWarnings("rawtypes")
+public class IndexDriftDetectorTest {
+
+    private static final String INDEX_ID = "test-site";
+    private static final String LOCAL_ID_FIELD = "localId";
+    private static final String TIMESTAMP_FIELD = "lastModifiedDate_dt";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File repoFolder;
+    private TestIndexDriftDetector detector;
+
+    @Before
+    public void setUp() throws Exception {
+        repoFolder = temporaryFolder.newFolder("repo");
+
+        detector = new TestIndexDriftDetector(repoFolder);
+        detector.setIncludePatterns(singletonList("^/?site/.+\\.xml$"));
+        detector.setBlobFileExtension(".blob");
+        detector.setLocalIdFieldName(LOCAL_ID_FIELD);
+        detector.setPointInTimeKeepAlive("1m");
+        detector.setTimestampFieldName(TIMESTAMP_FIELD);
+        detector.setPageSize(10);
+    }
+
+    @Test
+    public void testRepoIsReadInIndexOrder() throws Exception {
+        writeFile("site/a/b.xml", null);
+        writeFile("site/a.xml", null);
+        writeFile("site/a-b.xml", null);
+        writeFile("site/c.xml.blob", null);
+        writeFile("static-assets/d.xml", null);
+        writeFile(".git/config", null);
+
+        // Code point order: '-' < '.' < '/'
+        detector.addHit("/site/a-b.xml", null);
+        detector.addHit("/site/a.xml", null);
+        detector.addHit("/site/a/b.xml", null);
+        detector.addHit("/site/c.xml", null);
+
+        DriftReport report = detector.detect();
+
+        assertTrue(report.toString(), report.isInSync());
+        assertEquals(4, report.getFiles());
+    }
+
+    @Test
+    public void testMissingStaleAndOrphanPaths() throws Exception {
+        writeFile("site/a.xml", "2024-01-01T00:00:00Z");
+        writeFile("site/b.xml", "2024-01-01T00:00:00Z");
+        writeFile("site/d.xml", "2024-01-01T00:00:00Z");
+
+        detector.addHit("/site/a.xml", "2024-02-01T00:00:00Z");
+        detector.addHit("/site/c.xml", null);
+        detector.addHit("/site/d.xml", "2024-01-01T00:00:00.000Z");
+
+        DriftReport report = detector.detect();
+
+        assertEquals(singletonList("/site/b.xml"), report.getMissing());
+        assertEquals(singletonList("/site/a.xml"), report.getStale());
+        assertEquals(singletonList("/site/c.xml"), report.getOrphan());
+        assertEquals(3, report.getFiles());
+    }
+
+    @Test
+    public void testDocumentsOfTheSameFileAreMatchedOnce() throws Exception {
+        writeFile("site/a.xml", null);
+        writeFile("site/b.xml", null);
+
+        detector.addHit("/site/a.xml", null);
+        detector.addHit("/site/a.xml", null);
+        detector.addHit("/site/b.xml", null);
+
+        DriftReport report = detector.detect();
+
+        assertTrue(report.toString(), report.isInSync());
+    }
+
+    @Test
+    public void testReadsAreLimitedToTheMaxRate() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            writeFile("site/" + i + ".xml", null);
+            detector.addHit("/site/" + i + ".xml", null);
+        }
+        detector.setMaxReadsPerSecond(20);
+
+        long start = System.nanoTime();
+        DriftReport report = detector.detect();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(report.toString(), report.isInSync());
+        // 10 reads spaced by 50 ms, the first one isn't delayed
+        assertTrue("Detection took " + elapsedMillis + " ms", elapsedMillis >= 450);
+    }
+
+    @Test
+    public void testPagesAreReadFromThePointInTimeWithTheAliasFilter() {
+        Query aliasFilter = Query.of(q -> q.term(t -> t.field("crafterSite").value(v -> v.stringValue("test"))));
+
+        SearchRequest request = detector.buildPageRequest("pit-1", aliasFilter, List.of("/site/a.xml", "7"));
+
+        assertEquals("pit-1", request.pit().id());
+        assertEquals("1m", request.pit().keepAlive());
+        assertTrue(request.index().isEmpty());
+        assertEquals(List.of("/site/a.xml", "7"), request.searchAfter());
+        assertEquals(LOCAL_ID_FIELD, request.query().bool().filter().get(0).exists().field());
+        assertSame(aliasFilter, request.query().bool().filter().get(1));
+        assertEquals(LOCAL_ID_FIELD, request.sort().get(0).field().field());
+        assertEquals("_shard_doc", request.sort().get(1).field().field());
+    }
+
+    private void writeFile(String path, String timestamp) throws IOException {
+        String content = timestamp != null ?
+                "<page><" + TIMESTAMP_FIELD + ">" + timestamp + "</" + TIMESTAMP_FIELD + "></page>" : "<page/>";
+        FileUtils.writeStringToFile(new File(repoFolder, path), content, StandardCharsets.UTF_8);
+    }
+
+    private static class TestIndexDriftDetector extends IndexDriftDetector {
+
+        private final List<Hit<Map>> hits = new ArrayList<>();
+
+        public TestIndexDriftDetector(File repoFolder) {
+            super(null, INDEX_ID, repoFolder);
+        }
+
+        public void addHit(String localId, String timestamp) {
+            Map<String, Object> source = new HashMap<>();
+            source.put(LOCAL_ID_FIELD, localId);
+            if (timestamp != null) {
+                source.put(TIMESTAMP_FIELD, timestamp);
+            }
+            hits.add(new Hit.Builder<Map>().index(INDEX_ID).id(INDEX_ID + ":" + hits.size()).source(source).build());
+        }
+
+        @Override
+        protected Iterator<Hit<Map>> getIndexHits() {
+            return hits.iterator();
+        }
+
+    }
+
+}
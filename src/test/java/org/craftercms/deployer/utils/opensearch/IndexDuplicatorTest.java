@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.locks.Lock;
+
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link IndexDuplicator}.
+ */
+public class IndexDuplicatorTest {
+
+    private static final String SOURCE_ALIAS = "source-site-default";
+    private static final String SOURCE_INDEX = "source-site-default_v1";
+
+    private IndexWriteLocks writeLocks;
+    private TestIndexDuplicator duplicator;
+
+    @Before
+    public void setUp() {
+        writeLocks = new IndexWriteLocks();
+        duplicator = new TestIndexDuplicator(writeLocks);
+        duplicator.unblockRetryDelayMillis = 1;
+    }
+
+    @Test
+    public void testSameMappingsIgnoresFieldOrder() throws Exception {
+        String mappings1 = "{\"properties\":{\"title\":{\"type\":\"text\"},\"date\":{\"type\":\"date\"}}}";
+        String mappings2 = "{\"properties\":{\"date\":{\"type\":\"date\"},\"title\":{\"type\":\"text\"}}}";
+
+        assertTrue(duplicator.sameMappings(mappings1, mappings2));
+    }
+
+    @Test
+    public void testDifferentMappings() throws Exception {
+        String mappings1 = "{\"properties\":{\"title\":{\"type\":\"text\"}}}";
+        String mappings2 = "{\"properties\":{\"title\":{\"type\":\"keyword\"}}}";
+        String mappings3 = "{\"properties\":{\"title\":{\"type\":\"text\"},\"date\":{\"type\":\"date\"}}}";
+
+        assertFalse(duplicator.sameMappings(mappings1, mappings2));
+        assertFalse(duplicator.sameMappings(mappings1, mappings3));
+    }
+
+    @Test
+    public void testWriteBlockRemovalIsRetried() throws Exception {
+        duplicator.unblockFailures = 2;
+
+        duplicator.removeWriteBlock(null, SOURCE_INDEX);
+
+        assertEquals(3, duplicator.unblockAttempts);
+        assertFalse(duplicator.blocked);
+    }
+
+    @Test
+    public void testWriteBlockRemovalFailureIsSurfaced() throws Exception {
+        duplicator.unblockFailures = Integer.MAX_VALUE;
+
+        try {
+            duplicator.removeWriteBlock(null, SOURCE_INDEX);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            assertEquals(IndexDuplicator.UNBLOCK_MAX_ATTEMPTS, duplicator.unblockAttempts);
+        }
+    }
+
+    @Test
+    public void testSourceIsNotLockedWhileBeingWritten() throws Exception {
+        Lock writeLock = writeLocks.lockWrites(SOURCE_ALIAS);
+        try {
+            duplicator.lockSource(SOURCE_ALIAS);
+            fail("DeployerException expected");
+        } catch (DeployerException e) {
+            // All good, the writes didn't finish in time
+        } finally {
+            writeLock.unlock();
+        }
+
+        Lock sourceLock = duplicator.lockSource(SOURCE_ALIAS);
+        assertNotNull(sourceLock);
+        sourceLock.unlock();
+    }
+
+    private static class TestIndexDuplicator extends IndexDuplicator {
+
+        private int unblockFailures;
+        private int unblockAttempts;
+        private boolean blocked = true;
+
+        TestIndexDuplicator(IndexWriteLocks writeLocks) {
+            super(Collections.emptyList(), 0, writeLocks);
+        }
+
+        @Override
+        protected void setWriteBlock(OpenSearchClient client, String index, boolean enabled) throws IOException {
+            if (!enabled) {
+                unblockAttempts++;
+                if (unblockAttempts <= unblockFailures) {
+                    throw new IOException("Connection reset");
+                }
+            }
+            blocked = enabled;
+        }
+
+    }
+
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import org.craftercms.deployer.api.exceptions.DeployerException;
+import org.craftercms.search.opensearch.OpenSearchAdminService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.client.json.JsonpMapper;
+import org.opensearch.client.json.jackson.JacksonJsonpMapper;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.query_dsl.Query;
+import org.opensearch.client.opensearch.core.CountRequest;
+import org.opensearch.client.opensearch.core.CountResponse;
+import org.opensearch.client.opensearch.core.DeleteByQueryRequest;
+import org.opensearch.client.opensearch.core.DeleteByQueryResponse;
+import org.opensearch.client.opensearch.core.ReindexRequest;
+import org.opensearch.client.opensearch.core.ReindexResponse;
+import org.opensearch.client.opensearch.indices.CreateIndexRequest;
+import org.opensearch.client.opensearch.indices.CreateIndexResponse;
+import org.opensearch.client.opensearch.indices.DeleteAliasRequest;
+import org.opensearch.client.opensearch.indices.DeleteAliasResponse;
+import org.opensearch.client.opensearch.indices.DeleteIndexRequest;
+import org.opensearch.client.opensearch.indices.DeleteIndexResponse;
+import org.opensearch.client.opensearch.indices.ExistsAliasRequest;
+import org.opensearch.client.opensearch.indices.ExistsRequest;
+import org.opensearch.client.opensearch.indices.GetAliasRequest;
+import org.opensearch.client.opensearch.indices.GetAliasResponse;
+import org.opensearch.client.opensearch.indices.GetIndexRequest;
+import org.opensearch.client.opensearch.indices.GetIndexResponse;
+import org.opensearch.client.opensearch.indices.IndexState;
+import org.opensearch.client.opensearch.indices.UpdateAliasesRequest;
+import org.opensearch.client.opensearch.indices.UpdateAliasesResponse;
+import org.opensearch.client.opensearch.indices.get_alias.IndexAliases;
+import org.opensearch.client.opensearch.indices.update_aliases.Action;
+import org.opensearch.client.transport.Endpoint;
+import org.opensearch.client.transport.OpenSearchTransport;
+import org.opensearch.client.transport.TransportOptions;
+import org.opensearch.client.transport.endpoints.BooleanResponse;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for {@link IndexPool}.
+ */
+public class IndexPoolTest {
+
+    private static final String POOL_NAME = "pool-test";
+    private static final String ALIAS = "mysite-default";
+    private static final String SITE_NAME = "mysite";
+    private static final String SOURCE_ALIAS = "source-default";
+    private static final String SOURCE_SITE_NAME = "source";
+    private static final String DEDICATED_INDEX = ALIAS + "_v1";
+    private static final String SITE_FIELD_NAME = "crafterSite";
+
+    private IndexWriteLocks writeLocks;
+    private TestIndexPool pool;
+    private FakeCluster cluster;
+    private OpenSearchAdminService adminService;
+    private IndexPool clusterPool;
+
+    @Before
+    public void setUp() {
+        writeLocks = new IndexWriteLocks();
+        pool = new TestIndexPool(writeLocks);
+        pool.setEnabled(true);
+        pool.setPromotionMaxDocs(100);
+
+        cluster = new FakeCluster();
+        adminService = mock(OpenSearchAdminService.class);
+        doAnswer(invocation -> cluster.indexes.contains(invocation.getArgument(0, String.class)))
+            .when(adminService).indexExists(anyString());
+        doAnswer(invocation -> cluster.indexes.add(invocation.getArgument(0, String.class)))
+            .when(adminService).createIndex(anyString());
+
+        clusterPool = new IndexPool(List.of(new OpenSearchClient(cluster)), adminService, POOL_NAME, writeLocks) {
+
+            @Override
+            protected void waitUntilReady(OpenSearchClient client, String index) {
+                // The fake cluster is always ready
+            }
+
+        };
+        clusterPool.setEnabled(true);
+        clusterPool.setSiteFieldName(SITE_FIELD_NAME);
+        clusterPool.setIdFieldNames(List.of("localId"));
+        clusterPool.setPromotionMaxDocs(100);
+        clusterPool.setPromotionShards("1");
+    }
+
+    @After
+    public void tearDown() {
+        pool.promotionReleased.countDown();
+        pool.shutdown();
+        clusterPool.shutdown();
+    }
+
+    @Test
+    public void testWritesAreBlockedWhilePromoting() throws Exception {
+        Future<Boolean> promotion = pool.promoteInBackground(ALIAS, SITE_NAME);
+        assertNotNull(promotion);
+        assertTrue(pool.promotionStarted.await(10, TimeUnit.SECONDS));
+
+        CountDownLatch writing = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            Lock lock = writeLocks.lockWrites(ALIAS);
+            try {
+                writing.countDown();
+            } finally {
+                lock.unlock();
+            }
+        });
+        writer.start();
+
+        assertFalse(writing.await(200, TimeUnit.MILLISECONDS));
+
+        pool.promotionReleased.countDown();
+
+        assertTrue(promotion.get(10, TimeUnit.SECONDS));
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        writer.join();
+    }
+
+    @Test
+    public void testPromotionWaitsForWrites() throws Exception {
+        pool.promotionReleased.countDown();
+
+        Future<Boolean> promotion;
+        Lock lock = writeLocks.lockWrites(ALIAS);
+        try {
+            promotion = pool.promoteInBackground(ALIAS, SITE_NAME);
+
+            assertFalse(pool.promotionStarted.await(200, TimeUnit.MILLISECONDS));
+        } finally {
+            lock.unlock();
+        }
+
+        assertTrue(promotion.get(10, TimeUnit.SECONDS));
+        assertEquals(1, pool.promotions.get());
+    }
+
+    @Test
+    public void testPromotionIsSubmittedOnce() throws Exception {
+        Future<Boolean> promotion = pool.promoteInBackground(ALIAS, SITE_NAME);
+        assertNotNull(promotion);
+        assertTrue(pool.promotionStarted.await(10, TimeUnit.SECONDS));
+
+        assertNull(pool.promoteInBackground(ALIAS, SITE_NAME));
+
+        pool.promotionReleased.countDown();
+        assertTrue(promotion.get(10, TimeUnit.SECONDS));
+
+        Future<Boolean> nextPromotion = pool.promoteInBackground(ALIAS, SITE_NAME);
+        assertNotNull(nextPromotion);
+        nextPromotion.get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, pool.promotions.get());
+    }
+
+    @Test
+    public void testPromotionDisabled() throws Exception {
+        pool.setPromotionMaxDocs(0);
+
+        assertNull(pool.promoteInBackground(ALIAS, SITE_NAME));
+        assertFalse(pool.promoteIfNeeded(ALIAS, SITE_NAME));
+        assertEquals(0, pool.promotions.get());
+    }
+
+    @Test
+    public void testAddSiteCreatesThePoolAndAFilteredAlias() throws Exception {
+        clusterPool.addSite(ALIAS, SITE_NAME);
+
+        verify(adminService).createIndex(POOL_NAME);
+
+        AliasInfo alias = cluster.aliases.get(ALIAS).get(POOL_NAME);
+        assertNotNull(alias);
+        assertEquals(SITE_NAME, alias.routing);
+        assertEquals(SITE_FIELD_NAME, alias.filter.term().field());
+        assertEquals(SITE_NAME, alias.filter.term().value().stringValue());
+        assertTrue(clusterPool.isPooled(ALIAS));
+    }
+
+    @Test
+    public void testExistingPoolIsReused() throws Exception {
+        cluster.indexes.add(POOL_NAME);
+
+        clusterPool.addSite(ALIAS, SITE_NAME);
+
+        verify(adminService, never()).createIndex(anyString());
+        assertTrue(cluster.aliases.get(ALIAS).containsKey(POOL_NAME));
+    }
+
+    @Test
+    public void testOnlyFilteredAliasesArePooled() {
+        cluster.indexes.add(POOL_NAME);
+        cluster.indexes.add(DEDICATED_INDEX);
+        cluster.addAlias(ALIAS, DEDICATED_INDEX, null, null);
+        cluster.addAlias(SOURCE_ALIAS, POOL_NAME, clusterPool.getSiteQuery(SOURCE_SITE_NAME), SOURCE_SITE_NAME);
+
+        assertFalse(clusterPool.isPooled(ALIAS));
+        assertTrue(clusterPool.isPooled(SOURCE_ALIAS));
+        assertFalse(clusterPool.isPooled("missing-default"));
+    }
+
+    @Test
+    public void testCopySiteReindexesTheDocumentsForTheNewSite() throws Exception {
+        clusterPool.copySite(SOURCE_ALIAS, SOURCE_SITE_NAME, ALIAS, SITE_NAME);
+
+        assertTrue(clusterPool.isPooled(ALIAS));
+        assertEquals(1, cluster.reindexes.size());
+
+        ReindexRequest reindex = cluster.reindexes.get(0);
+        assertEquals(List.of(SOURCE_ALIAS), reindex.source().index());
+        assertEquals(ALIAS, reindex.dest().index());
+        assertEquals("=" + SITE_NAME, reindex.dest().routing());
+        assertEquals(SITE_NAME, reindex.script().inline().params().get("target").to(String.class));
+        assertEquals(SOURCE_SITE_NAME + ":",
+                     reindex.script().inline().params().get("sourcePrefix").to(String.class));
+        assertEquals(SITE_NAME + ":", reindex.script().inline().params().get("targetPrefix").to(String.class));
+    }
+
+    @Test
+    public void testFailedCopyRemovesTheSite() {
+        cluster.failReindex = true;
+
+        try {
+            clusterPool.copySite(SOURCE_ALIAS, SOURCE_SITE_NAME, ALIAS, SITE_NAME);
+            fail("DeployerException expected");
+        } catch (DeployerException e) {
+            assertFalse(cluster.aliases.containsKey(ALIAS));
+            assertEquals(List.of(ALIAS), cluster.deleteByQueries.get(0).index());
+            assertFalse(clusterPool.isPooled(ALIAS));
+        }
+    }
+
+    @Test
+    public void testSiteIsPromotedToADedicatedIndex() throws Exception {
+        clusterPool.addSite(ALIAS, SITE_NAME);
+        cluster.counts.put(ALIAS, 101L);
+
+        assertTrue(clusterPool.promoteIfNeeded(ALIAS, SITE_NAME));
+
+        assertTrue(cluster.indexes.contains(DEDICATED_INDEX));
+        assertEquals(Set.of(DEDICATED_INDEX), cluster.aliases.get(ALIAS).keySet());
+        assertNull(cluster.aliases.get(ALIAS).get(DEDICATED_INDEX).filter);
+        assertFalse(clusterPool.isPooled(ALIAS));
+
+        assertEquals(DEDICATED_INDEX, cluster.reindexes.get(0).dest().index());
+        DeleteByQueryRequest cleanup = cluster.deleteByQueries.get(0);
+        assertEquals(List.of(POOL_NAME), cleanup.index());
+        assertEquals(SITE_NAME, cleanup.routing());
+    }
+
+    @Test
+    public void testSmallSiteIsNotPromoted() throws Exception {
+        clusterPool.addSite(ALIAS, SITE_NAME);
+        cluster.counts.put(ALIAS, 100L);
+
+        assertFalse(clusterPool.promoteIfNeeded(ALIAS, SITE_NAME));
+
+        assertFalse(cluster.indexes.contains(DEDICATED_INDEX));
+        assertTrue(clusterPool.isPooled(ALIAS));
+        assertTrue(cluster.reindexes.isEmpty());
+    }
+
+    @Test
+    public void testFailedPromotionRestoresTheAlias() throws Exception {
+        clusterPool.addSite(ALIAS, SITE_NAME);
+        cluster.counts.put(ALIAS, 101L);
+        cluster.failReindex = true;
+
+        try {
+            clusterPool.promoteIfNeeded(ALIAS, SITE_NAME);
+            fail("DeployerException expected");
+        } catch (DeployerException e) {
+            assertFalse(cluster.indexes.contains(DEDICATED_INDEX));
+            assertEquals(Set.of(POOL_NAME), cluster.aliases.get(ALIAS).keySet());
+            assertNotNull(cluster.aliases.get(ALIAS).get(POOL_NAME).filter);
+            assertTrue(clusterPool.isPooled(ALIAS));
+        }
+    }
+
+    @Test
+    public void testPromotionIsOnlySubmittedForPooledSites() throws Exception {
+        cluster.indexes.add(DEDICATED_INDEX);
+        cluster.addAlias(SOURCE_ALIAS, DEDICATED_INDEX, null, null);
+        clusterPool.addSite(ALIAS, SITE_NAME);
+        cluster.counts.put(ALIAS, 101L);
+
+        assertNull(clusterPool.promoteInBackground(SOURCE_ALIAS, SOURCE_SITE_NAME));
+
+        clusterPool.setEnabled(false);
+        assertNull(clusterPool.promoteInBackground(ALIAS, SITE_NAME));
+
+        clusterPool.setEnabled(true);
+        Future<Boolean> promotion = clusterPool.promoteInBackground(ALIAS, SITE_NAME);
+        assertNotNull(promotion);
+        assertTrue(promotion.get(10, TimeUnit.SECONDS));
+    }
+
+    private static class TestIndexPool extends IndexPool {
+
+        private final CountDownLatch promotionStarted = new CountDownLatch(1);
+        private final CountDownLatch promotionReleased = new CountDownLatch(1);
+        private final AtomicInteger promotions = new AtomicInteger();
+
+        TestIndexPool(IndexWriteLocks writeLocks) {
+            super(Collections.emptyList(), null, POOL_NAME, writeLocks);
+        }
+
+        @Override
+        public boolean isPooled(String alias) {
+            return true;
+        }
+
+        @Override
+        protected boolean doPromoteIfNeeded(String alias, String siteName) {
+            promotions.incrementAndGet();
+            promotionStarted.countDown();
+            try {
+                return promotionReleased.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+    }
+
+    private static class AliasInfo {
+
+        private final Query filter;
+        private final String routing;
+
+        AliasInfo(Query filter, String routing) {
+            this.filter = filter;
+            this.routing = routing;
+        }
+
+    }
+
+    /**
+     * Transport that keeps the indexes and aliases of a cluster in memory, and records the reindexes and the deletes
+     * by query
+     */
+    private static class FakeCluster implements OpenSearchTransport {
+
+        private final JsonpMapper mapper = new JacksonJsonpMapper();
+        private final Set<String> indexes = Collections.synchronizedSet(new LinkedHashSet<>());
+        private final Map<String, Map<String, AliasInfo>> aliases = Collections.synchronizedMap(new HashMap<>());
+        private final Map<String, Long> counts = Collections.synchronizedMap(new HashMap<>());
+        private final List<ReindexRequest> reindexes = Collections.synchronizedList(new ArrayList<>());
+        private final List<DeleteByQueryRequest> deleteByQueries = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean failReindex;
+
+        void addAlias(String alias, String index, Query filter, String routing) {
+            aliases.computeIfAbsent(alias, a -> new LinkedHashMap<>()).put(index, new AliasInfo(filter, routing));
+        }
+
+        void removeAlias(String alias, String index) {
+            Map<String, AliasInfo> indexAliases = aliases.get(alias);
+            if (indexAliases != null) {
+                indexAliases.remove(index);
+                if (indexAliases.isEmpty()) {
+                    aliases.remove(alias);
+                }
+            }
+        }
+
+        boolean aliasExists(List<String> names, List<String> indexNames) {
+            return names.stream().anyMatch(name -> aliases.containsKey(name) &&
+                                                   (indexNames.isEmpty() ||
+                                                    indexNames.stream().anyMatch(aliases.get(name)::containsKey)));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized <RequestT, ResponseT, ErrorT> ResponseT performRequest(
+                RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options)
+                throws IOException {
+            if (request instanceof ExistsAliasRequest) {
+                ExistsAliasRequest exists = (ExistsAliasRequest) request;
+                return (ResponseT) new BooleanResponse(aliasExists(exists.name(), exists.index()));
+            }
+            if (request instanceof GetAliasRequest) {
+                GetAliasResponse.Builder response = new GetAliasResponse.Builder();
+                for (String name : ((GetAliasRequest) request).name()) {
+                    aliases.getOrDefault(name, Collections.emptyMap()).forEach((index, info) ->
+                        response.putResult(index, IndexAliases.of(i -> i.aliases(name, d -> {
+                            if (info.filter != null) {
+                                d.filter(info.filter);
+                            }
+                            return d.routing(info.routing);
+                        }))));
+                }
+                return (ResponseT) response.build();
+            }
+            if (request instanceof UpdateAliasesRequest) {
+                for (Action action : ((UpdateAliasesRequest) request).actions()) {
+                    if (action.isAdd()) {
+                        addAlias(action.add().alias(), action.add().index(), action.add().filter(),
+                                 action.add().routing());
+                    } else if (action.isRemove()) {
+                        removeAlias(action.remove().alias(), action.remove().index());
+                    }
+                }
+                return (ResponseT) UpdateAliasesResponse.of(r -> r.acknowledged(true));
+            }
+            if (request instanceof DeleteAliasRequest) {
+                DeleteAliasRequest delete = (DeleteAliasRequest) request;
+                delete.name().forEach(name -> delete.index().forEach(index -> removeAlias(name, index)));
+                return (ResponseT) DeleteAliasResponse.of(r -> r.acknowledged(true));
+            }
+            if (request instanceof ExistsRequest) {
+                return (ResponseT) new BooleanResponse(indexes.containsAll(((ExistsRequest) request).index()));
+            }
+            if (request instanceof GetIndexRequest) {
+                String index = ((GetIndexRequest) request).index().get(0);
+                return (ResponseT) new GetIndexResponse.Builder()
+                    .putResult(index, IndexState.of(s -> s
+                        .mappings(m -> m)
+                        .settings(st -> st.index(i -> i.numberOfReplicas("1")))))
+                    .build();
+            }
+            if (request instanceof CreateIndexRequest) {
+                String index = ((CreateIndexRequest) request).index();
+                indexes.add(index);
+                return (ResponseT) CreateIndexResponse.of(r -> r.index(index).acknowledged(true)
+                                                                .shardsAcknowledged(true));
+            }
+            if (request instanceof DeleteIndexRequest) {
+                ((DeleteIndexRequest) request).index().forEach(indexes::remove);
+                return (ResponseT) DeleteIndexResponse.of(r -> r.acknowledged(true));
+            }
+            if (request instanceof CountRequest) {
+                long count = counts.getOrDefault(((CountRequest) request).index().get(0), 0L);
+                return (ResponseT) CountResponse.of(r -> r.count(count)
+                                                          .shards(s -> s.total(1).successful(1).failed(0)));
+            }
+            if (request instanceof ReindexRequest) {
+                reindexes.add((ReindexRequest) request);
+                if (failReindex) {
+                    throw new IOException("Connection reset");
+                }
+                return (ResponseT) ReindexResponse.of(r -> r.total(0L));
+            }
+            if (request instanceof DeleteByQueryRequest) {
+                deleteByQueries.add((DeleteByQueryRequest) request);
+                return (ResponseT) DeleteByQueryResponse.of(r -> r.deleted(0L).total(0L)
+                                                                  .failures(Collections.emptyList()));
+            }
+
+            throw new UnsupportedOperationException(request.getClass().getName());
+        }
+
+        @Override
+        public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(
+                RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public JsonpMapper jsonpMapper() {
+            return mapper;
+        }
+
+        @Override
+        public TransportOptions options() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opensearch.client.json.JsonpMapper;
+import org.opensearch.client.json.jackson.JacksonJsonpMapper;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.ErrorResponse;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.Result;
+import org.opensearch.client.opensearch.core.BulkRequest;
+import org.opensearch.client.opensearch.core.BulkResponse;
+import org.opensearch.client.opensearch.core.DeleteByQueryRequest;
+import org.opensearch.client.opensearch.core.bulk.BulkOperation;
+import org.opensearch.client.opensearch.core.bulk.BulkResponseItem;
+import org.opensearch.client.opensearch.core.bulk.OperationType;
+import org.opensearch.client.opensearch.indices.CreateIndexRequest;
+import org.opensearch.client.opensearch.indices.CreateIndexResponse;
+import org.opensearch.client.opensearch.indices.RefreshRequest;
+import org.opensearch.client.opensearch.indices.RefreshResponse;
+import org.opensearch.client.transport.Endpoint;
+import org.opensearch.client.transport.OpenSearchTransport;
+import org.opensearch.client.transport.TransportOptions;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link ReplicaTransport}.
+ */
+public class ReplicaTransportTest {
+
+    private static final String INDEX = "site-preview";
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private FakeTransport delegate;
+    private ScheduledExecutorService executor;
+    private ReplicaTransport transport;
+    private OpenSearchClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = new FakeTransport();
+        executor = Executors.newScheduledThreadPool(1);
+        transport = new ReplicaTransport(delegate, new ReplicaWriteQueue(tmpFolder.newFolder("queue")), "replica",
+                                         10, 10, executor, null);
+        client = new OpenSearchClient(transport);
+    }
+
+    @After
+    public void tearDown() {
+        transport.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRejectedWritesAreDropped() throws Exception {
+        delegate.statuses.put("1", 400);
+
+        index("1");
+        index("2");
+        awaitApplied(2);
+
+        assertEquals(2, transport.getApplied());
+        assertEquals(1, transport.getDropped());
+        assertNull(transport.getLastError());
+    }
+
+    @Test
+    public void testThrottledWritesAreRetried() throws Exception {
+        delegate.statuses.put("1", 429);
+        delegate.failuresLeft = 2;
+
+        index("1");
+        awaitApplied(1);
+
+        assertEquals(3, delegate.requests.stream().filter(BulkRequest.class::isInstance).count());
+        assertEquals(1, transport.getApplied());
+        assertEquals(0, transport.getDropped());
+    }
+
+    @Test
+    public void testDeleteByQueryOnMissingIndexIsDropped() throws Exception {
+        client.deleteByQuery(r -> r.index(INDEX).query(q -> q.matchAll(m -> m)));
+        index("1");
+        awaitApplied(2);
+
+        assertEquals(2, transport.getApplied());
+        assertEquals(1, transport.getDropped());
+        assertTrue(delegate.requests.stream().anyMatch(BulkRequest.class::isInstance));
+    }
+
+    @Test
+    public void testOtherRequestsWaitForPendingWrites() throws Exception {
+        delegate.statuses.put("1", 429);
+        delegate.failuresLeft = 3;
+
+        index("1");
+        client.indices().create(r -> r.index("site-preview-v2"));
+
+        List<Object> requests = new ArrayList<>(delegate.requests);
+        Object last = requests.get(requests.size() - 1);
+        assertTrue(last instanceof CreateIndexRequest);
+        assertEquals(0, transport.getPending());
+        awaitApplied(1);
+    }
+
+    private void index(String id) throws IOException {
+        client.index(r -> r.index(INDEX).id(id).document(Map.of("title_t", "Page " + id)));
+    }
+
+    private void awaitApplied(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (transport.getApplied() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(count, transport.getApplied());
+        assertEquals(0, transport.getPending());
+    }
+
+    /**
+     * Transport that records the requests, fails the delete by queries because the index doesn't exist and returns
+     * the configured status for the bulk items (only the first times for throttling)
+     */
+    private static class FakeTransport implements OpenSearchTransport {
+
+        private final JsonpMapper mapper = new JacksonJsonpMapper();
+        private final List<Object> requests = new CopyOnWriteArrayList<>();
+        private final Map<String, Integer> statuses = new ConcurrentHashMap<>();
+        private volatile int failuresLeft;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <RequestT, ResponseT, ErrorT> ResponseT performRequest(RequestT request,
+                                                                      Endpoint<RequestT, ResponseT, ErrorT> endpoint,
+                                                                      TransportOptions options) {
+            requests.add(request);
+
+            if (request instanceof DeleteByQueryRequest) {
+                throw new OpenSearchException(ErrorResponse.of(r -> r
+                    .status(404)
+                    .error(e -> e.type("index_not_found_exception").reason("no such index"))));
+            }
+            if (request instanceof RefreshRequest) {
+                return (ResponseT) RefreshResponse.of(r -> r.shards(s -> s.total(1).successful(1).failed(0)));
+            }
+            if (request instanceof CreateIndexRequest) {
+                return (ResponseT) CreateIndexResponse.of(r -> r
+                    .index(((CreateIndexRequest) request).index())
+                    .acknowledged(true)
+                    .shardsAcknowledged(true));
+            }
+
+            BulkRequest bulk = (BulkRequest) request;
+            List<BulkResponseItem> items = new ArrayList<>();
+            for (BulkOperation operation : bulk.operations()) {
+                String id = operation.index().id();
+                int status = statuses.getOrDefault(id, 201);
+                if (status == 429 && failuresLeft-- <= 0) {
+                    status = 201;
+                }
+
+                int itemStatus = status;
+                items.add(BulkResponseItem.of(i -> {
+                    i.operationType(OperationType.Index).index(INDEX).id(id).status(itemStatus);
+                    if (itemStatus >= 400) {
+                        i.error(e -> e.type("error").reason("Status " + itemStatus));
+                    } else {
+                        i.result(Result.Created.jsonValue());
+                    }
+                    return i;
+                }));
+            }
+
+            return (ResponseT) BulkResponse.of(r -> r.items(items).errors(false).took(1));
+        }
+
+        @Override
+        public <RequestT, ResponseT, ErrorT> CompletableFuture<ResponseT> performRequestAsync(
+                RequestT request, Endpoint<RequestT, ResponseT, ErrorT> endpoint, TransportOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public JsonpMapper jsonpMapper() {
+            return mapper;
+        }
+
+        @Override
+        public TransportOptions options() {
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+
+    }
+
+}
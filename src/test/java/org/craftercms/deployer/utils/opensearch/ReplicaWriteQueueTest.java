@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.craftercms.deployer.utils.opensearch.ReplicaWriteQueue.Operation.Type.DELETE;
+import static org.craftercms.deployer.utils.opensearch.ReplicaWriteQueue.Operation.Type.INDEX;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link ReplicaWriteQueue}.
+ */
+public class ReplicaWriteQueueTest {
+
+    private static final List<String> INDEXES = List.of("site-preview");
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    @Test
+    public void testOperationsSurviveRestarts() throws Exception {
+        File folder = tmpFolder.newFolder("queue");
+        ReplicaWriteQueue queue = new ReplicaWriteQueue(folder);
+
+        queue.add(List.of(new ReplicaWriteQueue.Operation(INDEX, INDEXES, "1", null, "{\"title\":\"caf\u00e9\"}"),
+                          new ReplicaWriteQueue.Operation(DELETE, INDEXES, "2", null, null)));
+        queue.add(List.of(new ReplicaWriteQueue.Operation(DELETE, INDEXES, "3", null, null)));
+
+        List<ReplicaWriteQueue.Operation> first = queue.peek(2);
+        assertEquals(2, first.size());
+        assertEquals("{\"title\":\"caf\u00e9\"}", first.get(0).getSource());
+
+        queue.remove(first);
+
+        queue.close();
+        queue = new ReplicaWriteQueue(folder);
+        assertEquals(1, queue.getPending());
+
+        List<ReplicaWriteQueue.Operation> rest = queue.peek(10);
+        assertEquals(1, rest.size());
+        assertEquals("3", rest.get(0).getId());
+        assertNotNull(queue.getOldestTimestamp());
+
+        queue.remove(rest);
+
+        assertEquals(0, queue.getPending());
+        assertNull(queue.getOldestTimestamp());
+        assertFalse(new File(folder, "queue.log").exists());
+        queue.close();
+        assertEquals(0, new ReplicaWriteQueue(folder).getPending());
+    }
+
+    @Test
+    public void testFolderIsLockedUntilClosed() throws Exception {
+        File folder = tmpFolder.newFolder("queue");
+        ReplicaWriteQueue queue = new ReplicaWriteQueue(folder);
+        queue.add(List.of(new ReplicaWriteQueue.Operation(DELETE, INDEXES, "1", null, null)));
+
+        try {
+            new ReplicaWriteQueue(folder, 200);
+            fail("The folder should be locked");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        queue.close();
+
+        assertEquals(1, new ReplicaWriteQueue(folder, 200).getPending());
+    }
+
+}
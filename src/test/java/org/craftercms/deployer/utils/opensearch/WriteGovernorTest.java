@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.opensearch;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.craftercms.deployer.api.Deployment;
+import org.junit.Test;
+
+import static org.craftercms.deployer.impl.DeploymentConstants.DEPLOYMENT_MODE_PARAM_NAME;
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link WriteGovernor}.
+ */
+public class WriteGovernorTest {
+
+    private static final String CLUSTER = "http://localhost:9201";
+
+    @Test
+    public void testPublishingHasPriorityOverReindexing() throws Exception {
+        WriteGovernor governor = new WriteGovernor(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        WriteGovernor.Lease lease = governor.acquire(CLUSTER, "site1-preview", Deployment.Mode.PUBLISH);
+
+        Thread reindex = startWriter(governor, "site2-preview", Deployment.Mode.SEARCH_INDEX, order);
+        waitForWaiters(governor, 1);
+        Thread publish = startWriter(governor, "site3-preview", Deployment.Mode.PUBLISH, order);
+        waitForWaiters(governor, 2);
+
+        lease.close();
+        reindex.join(5000);
+        publish.join(5000);
+
+        assertEquals(List.of("site3-preview", "site2-preview"), order);
+        assertTrue(governor.getClusters().get(CLUSTER).getLeasesByTarget().isEmpty());
+    }
+
+    @Test
+    public void testTargetWithFewestLeasesGoesFirst() throws Exception {
+        WriteGovernor governor = new WriteGovernor(2);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        WriteGovernor.Lease lease1 = governor.acquire(CLUSTER, "site1-preview", Deployment.Mode.PUBLISH);
+        WriteGovernor.Lease lease2 = governor.acquire(CLUSTER, "site1-preview", Deployment.Mode.PUBLISH);
+
+        Thread busy = startWriter(governor, "site1-preview", Deployment.Mode.PUBLISH, order);
+        waitForWaiters(governor, 1);
+        Thread idle = startWriter(governor, "site2-preview", Deployment.Mode.PUBLISH, order);
+        waitForWaiters(governor, 2);
+
+        lease1.close();
+        idle.join(5000);
+        lease2.close();
+        busy.join(5000);
+
+        assertEquals(List.of("site2-preview", "site1-preview"), order);
+    }
+
+    @Test
+    public void testDeploymentKeepsItsSlotUntilReleased() throws Exception {
+        WriteGovernor governor = new WriteGovernor(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        Deployment deployment = createDeployment(Deployment.Mode.SEARCH_INDEX);
+
+        governor.acquireForRun(CLUSTER, "site1-preview", deployment);
+        // Further writes of the same deployment don't wait
+        governor.acquireForRun(CLUSTER, "site1-preview", deployment);
+
+        Thread publish = startWriter(governor, "site2-preview", Deployment.Mode.PUBLISH, order);
+        waitForWaiters(governor, 1);
+
+        assertTrue(order.isEmpty());
+
+        governor.releaseRun(deployment);
+        publish.join(5000);
+
+        assertEquals(List.of("site2-preview"), order);
+    }
+
+    @Test
+    public void testWaitingReindexIsNotStarved() throws Exception {
+        WriteGovernor governor = new WriteGovernor(1, 100);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        WriteGovernor.Lease lease = governor.acquire(CLUSTER, "site1-preview", Deployment.Mode.PUBLISH);
+
+        Thread reindex = startWriter(governor, "site2-preview", Deployment.Mode.SEARCH_INDEX, order);
+        waitForWaiters(governor, 1);
+        Thread.sleep(200);
+        Thread publish = startWriter(governor, "site3-preview", Deployment.Mode.PUBLISH, order);
+        waitForWaiters(governor, 2);
+
+        lease.close();
+        reindex.join(5000);
+        publish.join(5000);
+
+        assertEquals(List.of("site2-preview", "site3-preview"), order);
+    }
+
+    @Test
+    public void testSlotsAreReacquiredInOrderInsteadOfWaiting() throws Exception {
+        String otherCluster = "http://localhost:9202";
+        WriteGovernor governor = new WriteGovernor(1);
+        Deployment first = createDeployment(Deployment.Mode.PUBLISH);
+        Deployment second = createDeployment(Deployment.Mode.PUBLISH);
+
+        governor.acquireForRun(otherCluster, "site1-preview", first);
+        governor.acquireForRun(CLUSTER, "site2-preview", second);
+
+        // Each deployment needs the slot held by the other one
+        Thread firstWriter = new Thread(() -> acquireForRun(governor, CLUSTER, "site1-preview", first));
+        Thread secondWriter = new Thread(() -> acquireForRun(governor, otherCluster, "site2-preview", second));
+        firstWriter.start();
+        secondWriter.start();
+
+        // One of them gets both slots, the other one gets them once it's released
+        for (int i = 0; i < 500 && firstWriter.isAlive() && secondWriter.isAlive(); i++) {
+            Thread.sleep(10);
+        }
+
+        assertFalse(firstWriter.isAlive() && secondWriter.isAlive());
+
+        governor.releaseRun(firstWriter.isAlive() ? second : first);
+        firstWriter.join(5000);
+        secondWriter.join(5000);
+
+        assertFalse(firstWriter.isAlive());
+        assertFalse(secondWriter.isAlive());
+
+        governor.releaseRun(first);
+        governor.releaseRun(second);
+
+        assertTrue(governor.getClusters().get(CLUSTER).getLeasesByTarget().isEmpty());
+        assertTrue(governor.getClusters().get(otherCluster).getLeasesByTarget().isEmpty());
+    }
+
+    private void acquireForRun(WriteGovernor governor, String cluster, String targetId, Deployment deployment) {
+        try {
+            governor.acquireForRun(cluster, targetId, deployment);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Deployment createDeployment(Deployment.Mode mode) {
+        Deployment deployment = new Deployment(null, Map.of(DEPLOYMENT_MODE_PARAM_NAME, mode.name()));
+        deployment.start();
+
+        return deployment;
+    }
+
+    private Thread startWriter(WriteGovernor governor, String targetId, Deployment.Mode mode, List<String> order) {
+        Thread thread = new Thread(() -> {
+            try (WriteGovernor.Lease lease = governor.acquire(CLUSTER, targetId, mode)) {
+                order.add(targetId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+
+        return thread;
+    }
+
+    private void waitForWaiters(WriteGovernor governor, int waiters) throws InterruptedException {
+        while (governor.getClusters().get(CLUSTER).getWaiting() < waiters) {
+            Thread.sleep(10);
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2007-2024 Crafter Software Corporation. All Rights Reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 3 as published by
+ * the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.craftercms.deployer.utils.tika;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link ExtractionCache}.
+ */
+public class ExtractionCacheTest {
+
+    private static final String TEXT = StringUtils.repeat("x", 1000);
+
+    @Rule
+    public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private File cacheFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheFolder = tmpFolder.newFolder("cache");
+    }
+
+    @Test
+    public void testGetAndPut() {
+        ExtractionCache cache = new ExtractionCache(cacheFolder, 10000);
+
+        assertNull(cache.get("a"));
+
+        cache.put("a", new ExtractionCache.Entry(TEXT, Map.of("Content-Type", List.of("application/pdf"))));
+
+        ExtractionCache.Entry entry = new ExtractionCache(cacheFolder, 10000).get("a");
+
+        assertNotNull(entry);
+        assertEquals(TEXT, entry.getText());
+        assertEquals(List.of("application/pdf"), entry.getMetadata().get("Content-Type"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() {
+        ExtractionCache cache = new ExtractionCache(cacheFolder, 2500);
+
+        cache.put("a", new ExtractionCache.Entry(TEXT, Map.of()));
+        cache.put("b", new ExtractionCache.Entry(TEXT, Map.of()));
+        assertNotNull(cache.get("a"));
+
+        cache.put("c", new ExtractionCache.Entry(TEXT, Map.of()));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertFalse(new File(cacheFolder, "b.json").exists());
+    }
+
+    @Test
+    public void testUnreadableEntryIsRemoved() throws Exception {
+        ExtractionCache cache = new ExtractionCache(cacheFolder, 10000);
+
+        cache.put("a", new ExtractionCache.Entry(TEXT, Map.of()));
+        FileUtils.writeStringToFile(new File(cacheFolder, "a.json"), "{", StandardCharsets.UTF_8);
+
+        assertNull(cache.get("a"));
+        assertFalse(new File(cacheFolder, "a.json").exists());
+        assertEquals(0, cache.totalSize);
+    }
+
+    @Test
+    public void testStaleRemoveKeepsNewerEntry() {
+        ExtractionCache cache = new ExtractionCache(cacheFolder, 10000);
+
+        cache.put("a", new ExtractionCache.Entry(TEXT, Map.of()));
+        long staleGeneration = cache.entries.get("a").generation;
+
+        // Written again by another thread while the first version was being read
+        cache.put("a", new ExtractionCache.Entry("new text", Map.of()));
+        cache.remove("a", staleGeneration);
+
+        ExtractionCache.Entry entry = cache.get("a");
+
+        assertNotNull(entry);
+        assertEquals("new text", entry.getText());
+    }
+
+}